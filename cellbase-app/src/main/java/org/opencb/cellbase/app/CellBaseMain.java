@@ -95,6 +95,10 @@ public class CellBaseMain {
                     commandExecutor.execute();
                 } catch (IOException | URISyntaxException e) {
                     commandExecutor.getLogger().error("Error reading CellBase configuration: " + e.getMessage());
+                } catch (IllegalStateException e) {
+                    // commands fail with an IllegalStateException when they cannot complete, exit status must show it
+                    commandExecutor.getLogger().error(e.getMessage(), e);
+                    System.exit(1);
                 }
             }
         }
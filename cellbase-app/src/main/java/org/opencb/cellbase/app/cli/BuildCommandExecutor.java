@@ -30,9 +30,7 @@ import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.util.*;
 
 /**
  * Created by imedina on 03/02/15.
@@ -44,6 +42,17 @@ public class BuildCommandExecutor extends CommandExecutor {
     public static final String DISGENET_INPUT_FILE_NAME = "disgenet.tar.gz";
     public static final String DBSNP_INPUT_FILE_NAME = "dbSnp142-00-All.vcf.gz";
 
+    /**
+     * Datasets that cannot start until others have been built. 'gene' reads exon sequences from the same reference
+     * FASTA as 'genome', decompressing and indexing it next to the original, so both never run at the same time.
+     * The rest read different input files and are built concurrently.
+     */
+    private static final Map<String, List<String>> DEPENDENCIES = new HashMap<>();
+
+    static {
+        DEPENDENCIES.put("gene", Collections.singletonList("genome"));
+    }
+
     private CliOptionsParser.BuildCommandOptions buildCommandOptions;
 
     private Path input = null;
@@ -110,72 +119,36 @@ public class BuildCommandExecutor extends CommandExecutor {
                 String[] buildOptions;
                 if(buildCommandOptions.data.equals("all")) {
                     buildOptions = new String[]{"genome_info", "genome", "gene", "variation", "regulatory_region",
-                            "protein", "ppi", "conservation", "drug", "clinvar", "cosmic", "gwas"};
+                            "protein", "ppi", "conservation", "clinvar", "cosmic", "gwas"};
                 }else {
                     buildOptions = buildCommandOptions.data.split(",");
                 }
 
-                for (int i = 0; i < buildOptions.length; i++) {
-                    String buildOption = buildOptions[i];
-
-                    logger.info("Building '{}' data", buildOption);
-                    CellBaseParser parser = null;
-                    switch (buildOption) {
-                        case "genome_info":
-                            buildGenomeInfo();
-                            break;
-                        case "genome":
-                            parser = buildGenomeSequence();
-                            break;
-                        case "gene":
-                            parser = buildGene();
-                            break;
-                        case "variation":
-                            parser = buildVariation();
-                            break;
-//                        case "variation-phen-annot":
-//                            parser = buildVariationPhenotypeAnnotation();
-//                            break;
-                        case "regulatory_region":
-                            parser = buildRegulatoryRegion();
-                            break;
-                        case "protein":
-                            parser = buildProtein();
-                            break;
-                        case "ppi":
-                            parser = getInteractionParser();
-                            break;
-                        case "conservation":
-                            parser = buildConservation();
-                            break;
-                        case "drug":
-                            parser = buildDrugParser();
-                            break;
-                        case "clinvar":
-                            parser = buildClinvar();
-                            break;
-                        case "cosmic":
-                            parser = buildCosmic();
-                            break;
-                        case "gwas":
-                            parser = buildGwas();
-                            break;
-                        case "disgenet":
-                            parser = buildDisgenet();
-                            break;
-                        default:
-                            logger.error("Build option '" + buildCommandOptions.data + "' is not valid");
-                    }
-
-                    if (parser != null) {
-                        try {
-                            parser.parse();
-                        } catch (Exception e) {
-                            logger.error("Error executing 'build' command " + buildCommandOptions.data + ": " + e.getMessage(), e);
-                        }
-                        parser.disconnect();
+                BuildScheduler.ErrorPolicy errorPolicy = "fail-fast".equalsIgnoreCase(buildCommandOptions.onError)
+                        ? BuildScheduler.ErrorPolicy.FAIL_FAST
+                        : BuildScheduler.ErrorPolicy.CONTINUE;
+                BuildScheduler buildScheduler = new BuildScheduler(Math.max(buildCommandOptions.numThreads, 1), errorPolicy);
+                for (String buildOption : buildOptions) {
+                    BuildScheduler.Step step = getBuildStep(buildOption);
+                    if (step != null) {
+                        buildScheduler.add(buildOption, step,
+                                DEPENDENCIES.getOrDefault(buildOption, Collections.emptyList()));
+                    } else {
+                        logger.error("Build option '" + buildOption + "' is not valid");
                     }
                 }
+                boolean built;
+                try {
+                    built = buildScheduler.run();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Build interrupted", e);
+                }
+                // the command must fail, scripts could not tell a failed or cancelled build from a complete one
+                if (!built) {
+                    throw new IllegalStateException("Error executing 'build' command " + buildCommandOptions.data
+                            + ", some data could not be built: " + buildScheduler.getStatus());
+                }
             }
         } catch (ParameterException e) {
             logger.error("Error parsing build command line parameters: " + e.getMessage(), e);
@@ -184,6 +157,49 @@ public class BuildCommandExecutor extends CommandExecutor {
         }
     }
 
+    private BuildScheduler.Step getBuildStep(String buildOption) {
+        switch (buildOption) {
+            case "genome_info":
+                return this::buildGenomeInfo;
+            case "genome":
+                return () -> parse(buildGenomeSequence());
+            case "gene":
+                return () -> parse(buildGene());
+            case "variation":
+                return () -> parse(buildVariation());
+//            case "variation-phen-annot":
+//                return () -> parse(buildVariationPhenotypeAnnotation());
+            case "regulatory_region":
+                return () -> parse(buildRegulatoryRegion());
+            case "protein":
+                return () -> parse(buildProtein());
+            case "ppi":
+                return () -> parse(getInteractionParser());
+            case "conservation":
+                return () -> parse(buildConservation());
+            case "drug":
+                return () -> parse(buildDrugParser());
+            case "clinvar":
+                return () -> parse(buildClinvar());
+            case "cosmic":
+                return () -> parse(buildCosmic());
+            case "gwas":
+                return () -> parse(buildGwas());
+            case "disgenet":
+                return () -> parse(buildDisgenet());
+            default:
+                return null;
+        }
+    }
+
+    private void parse(CellBaseParser parser) throws Exception {
+        try {
+            parser.parse();
+        } finally {
+            parser.disconnect();
+        }
+    }
+
     private void checkParameters() throws IOException {
         if (!Files.exists(input) || !Files.isDirectory(input)) {
             throw new IOException("Input parameter '" + input.toString() + "' does not exist or is not a directory");
@@ -235,7 +251,7 @@ public class BuildCommandExecutor extends CommandExecutor {
     private CellBaseParser buildGenomeSequence() {
         Path fastaFile = getFastaReferenceGenome();
         CellBaseSerializer serializer = new CellBaseJsonFileSerializer(output, "genome_sequence");
-        return new GenomeSequenceFastaParser(fastaFile, serializer);
+        return new GenomeSequenceFastaParser(fastaFile, output.resolve("genome_sequence.2bit"), serializer);
     }
 
 
@@ -296,7 +312,8 @@ public class BuildCommandExecutor extends CommandExecutor {
 //        String species = buildCommandOptions.species;
 //        checkMandatoryOption("species", species);
         CellBaseSerializer serializer = new CellBaseJsonFileSerializer(output, "protein");
-        return new ProteinParser(proteinFolder.resolve("uniprot_chunks"), common.resolve("protein").resolve("protein2ipr.dat.gz"), species.getScientificName(), serializer);
+        return new ProteinParser(proteinFolder.resolve("uniprot_chunks"), common.resolve("protein").resolve("protein2ipr.dat.gz"),
+                species.getScientificName(), getNumThreadsPerBuilder(), serializer);
 
     }
 
@@ -340,12 +357,21 @@ public class BuildCommandExecutor extends CommandExecutor {
         // TODO: chunk size is not really used in ConvervedRegionParser, remove?
         int conservationChunkSize = 0;
         CellBaseFileSerializer serializer = new CellBaseJsonFileSerializer(output);
-        return new ConservedRegionParser(conservationFilesDir, conservationChunkSize, serializer);
+        Path binaryOutputPath = null;
+        if ("binary".equalsIgnoreCase(buildCommandOptions.conservationFormat)) {
+            binaryOutputPath = output.resolve("conservation");
+        }
+        return new ConservedRegionParser(conservationFilesDir, conservationChunkSize, binaryOutputPath,
+                getNumThreadsPerBuilder(), serializer);
     }
 
 
     private CellBaseParser buildClinvar() {
         Path clinvarFile = input.resolve("ClinVar.xml");
+        if (!Files.exists(clinvarFile) && Files.exists(input.resolve("ClinVar.xml.gz"))) {
+            // the release is streamed, it does not need to be decompressed
+            clinvarFile = input.resolve("ClinVar.xml.gz");
+        }
 
         String assembly = buildCommandOptions.assembly;
         checkMandatoryOption("assembly", assembly);
@@ -354,7 +380,7 @@ public class BuildCommandExecutor extends CommandExecutor {
         }
 
         CellBaseSerializer serializer = new CellBaseJsonFileSerializer(output, "clinvar");
-        return new ClinVarParser(clinvarFile, assembly, serializer);
+        return new ClinVarParser(clinvarFile, assembly, getNumThreadsPerBuilder(), serializer);
     }
 
     private CellBaseParser buildCosmic()  {
@@ -428,6 +454,15 @@ public class BuildCommandExecutor extends CommandExecutor {
         }
         return fastaFile;
     }
+
+    /**
+     * '--num-threads' builders run at the same time, the cores are shared among them so multi-threaded parsers
+     * do not use more threads than cores in total.
+     */
+    private int getNumThreadsPerBuilder() {
+        return Math.max(Runtime.getRuntime().availableProcessors() / Math.max(buildCommandOptions.numThreads, 1), 1);
+    }
+
     private void checkMandatoryOption(String option, String value){
         if (value == null) {
             throw new ParameterException("'" + option + "' option is mandatory for '" + buildCommandOptions.data + "' builder");
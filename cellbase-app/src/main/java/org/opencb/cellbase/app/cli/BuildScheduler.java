@@ -0,0 +1,259 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opencb.cellbase.app.cli;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs the build steps of several datasets on a pool of threads. A step starts as soon as all the steps it depends
+ * on have finished successfully, steps depending on a failed one are skipped. With FAIL_FAST the first failure
+ * interrupts the running steps and skips the pending ones, with CONTINUE the independent steps go on. Wall-clock
+ * time, CPU time of the step thread and peak heap used by the process while the step was running are reported
+ * for every step.
+ */
+public class BuildScheduler {
+
+    public enum ErrorPolicy {FAIL_FAST, CONTINUE}
+
+    public enum Status {PENDING, RUNNING, DONE, FAILED, SKIPPED, CANCELLED}
+
+    @FunctionalInterface
+    public interface Step {
+        void run() throws Exception;
+    }
+
+    private static final long HEAP_SAMPLING_PERIOD_MS = 500;
+
+    private final int numThreads;
+    private final ErrorPolicy errorPolicy;
+    private final Map<String, Task> tasks = new LinkedHashMap<>();
+
+    private Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    public BuildScheduler(int numThreads, ErrorPolicy errorPolicy) {
+        this.numThreads = numThreads;
+        this.errorPolicy = errorPolicy;
+    }
+
+    /**
+     * Adds a step, dependencies on steps not added are ignored.
+     */
+    public void add(String name, Step step, Collection<String> dependencies) {
+        tasks.put(name, new Task(name, step, dependencies));
+    }
+
+    /**
+     * Runs all the steps and logs a report when they finish.
+     * @return true if all the steps finished successfully
+     */
+    public boolean run() throws InterruptedException {
+        for (Task task : tasks.values()) {
+            task.dependencies.retainAll(tasks.keySet());
+            task.dependencies.remove(task.name);
+        }
+        checkCycles();
+
+        int poolSize = Math.min(numThreads, Math.max(tasks.size(), 1));
+        ExecutorService executorService = Executors.newFixedThreadPool(poolSize);
+        CompletionService<Task> completionService = new ExecutorCompletionService<>(executorService);
+        ScheduledExecutorService heapSampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "build-heap-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heapSampler.scheduleAtFixedRate(this::sampleHeap, 0, HEAP_SAMPLING_PERIOD_MS, TimeUnit.MILLISECONDS);
+
+        Map<Task, Future<Task>> running = new HashMap<>();
+        boolean failed = false;
+        try {
+            submitReadyTasks(completionService, running, poolSize);
+            while (!running.isEmpty()) {
+                Task task = completionService.take().get();
+                running.remove(task);
+                if (task.status == Status.FAILED) {
+                    failed = true;
+                    skipDependents(task);
+                    if (errorPolicy == ErrorPolicy.FAIL_FAST) {
+                        logger.error("Build of '{}' failed, cancelling the rest of the build", task.name);
+                        for (Map.Entry<Task, Future<Task>> entry : running.entrySet()) {
+                            entry.getKey().cancelled = true;
+                            entry.getValue().cancel(true);
+                        }
+                        break;
+                    }
+                }
+                submitReadyTasks(completionService, running, poolSize);
+            }
+        } catch (ExecutionException e) {
+            // Task.call() catches the step exceptions, only other errors get here
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executorService.shutdownNow();
+            executorService.awaitTermination(1, TimeUnit.MINUTES);
+            heapSampler.shutdownNow();
+            for (Task task : tasks.values()) {
+                if (task.status == Status.PENDING) {
+                    task.status = Status.SKIPPED;
+                } else if (task.status == Status.RUNNING) {
+                    task.status = Status.CANCELLED;
+                }
+            }
+            logReport();
+        }
+        return !failed;
+    }
+
+    public Map<String, Status> getStatus() {
+        Map<String, Status> status = new LinkedHashMap<>();
+        for (Task task : tasks.values()) {
+            status.put(task.name, task.status);
+        }
+        return status;
+    }
+
+    /**
+     * Steps are only submitted when there is a free thread, so a step waiting for one is still pending and is
+     * skipped, not started, if the build is cancelled.
+     */
+    private void submitReadyTasks(CompletionService<Task> completionService, Map<Task, Future<Task>> running,
+                                  int poolSize) {
+        for (Task task : tasks.values()) {
+            if (running.size() >= poolSize) {
+                return;
+            }
+            if (task.status == Status.PENDING && isReady(task)) {
+                task.status = Status.RUNNING;
+                running.put(task, completionService.submit(task));
+            }
+        }
+    }
+
+    private boolean isReady(Task task) {
+        for (String dependency : task.dependencies) {
+            if (tasks.get(dependency).status != Status.DONE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void skipDependents(Task failedTask) {
+        for (Task task : tasks.values()) {
+            if (task.status == Status.PENDING && task.dependencies.contains(failedTask.name)) {
+                logger.warn("Skipping '{}' as it depends on '{}' which failed", task.name, failedTask.name);
+                task.status = Status.SKIPPED;
+                skipDependents(task);
+            }
+        }
+    }
+
+    private void checkCycles() {
+        Set<String> sorted = new HashSet<>();
+        boolean progress = true;
+        while (progress) {
+            progress = false;
+            for (Task task : tasks.values()) {
+                if (!sorted.contains(task.name) && sorted.containsAll(task.dependencies)) {
+                    sorted.add(task.name);
+                    progress = true;
+                }
+            }
+        }
+        if (sorted.size() < tasks.size()) {
+            Set<String> cycle = new TreeSet<>(tasks.keySet());
+            cycle.removeAll(sorted);
+            throw new IllegalArgumentException("Circular dependencies between build steps " + cycle);
+        }
+    }
+
+    private void sampleHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        for (Task task : tasks.values()) {
+            if (task.status == Status.RUNNING && used > task.peakHeap) {
+                task.peakHeap = used;
+            }
+        }
+    }
+
+    private void logReport() {
+        StringBuilder report = new StringBuilder("Build summary:\n");
+        report.append(String.format("%-20s %-8s %10s %10s %14s%n", "data", "status", "wall (s)", "cpu (s)",
+                "peak heap (MB)"));
+        for (Task task : tasks.values()) {
+            report.append(String.format("%-20s %-8s %10.1f %10.1f %14d%n", task.name, task.status,
+                    task.wallNanos / 1e9, task.cpuNanos / 1e9, task.peakHeap / (1024 * 1024)));
+        }
+        logger.info(report.toString());
+    }
+
+    private class Task implements Callable<Task> {
+
+        private final String name;
+        private final Step step;
+        private final Set<String> dependencies;
+
+        private volatile Status status = Status.PENDING;
+        private volatile boolean cancelled;
+        private volatile long wallNanos;
+        private volatile long cpuNanos;
+        private volatile long peakHeap;
+
+        Task(String name, Step step, Collection<String> dependencies) {
+            this.name = name;
+            this.step = step;
+            this.dependencies = new LinkedHashSet<>(dependencies);
+        }
+
+        @Override
+        public Task call() {
+            ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+            boolean cpuTime = threadMXBean.isCurrentThreadCpuTimeSupported();
+            long cpuStart = cpuTime ? threadMXBean.getCurrentThreadCpuTime() : 0;
+            long start = System.nanoTime();
+            String threadName = Thread.currentThread().getName();
+            Thread.currentThread().setName("build-" + name);
+            logger.info("Building '{}' data", name);
+            try {
+                step.run();
+                status = Status.DONE;
+            } catch (Exception | OutOfMemoryError e) {
+                // one dataset running out of memory must not prevent the others from being reported
+                if (cancelled) {
+                    logger.info("Build of '{}' data cancelled", name);
+                    status = Status.CANCELLED;
+                } else {
+                    logger.error("Error building '" + name + "' data: " + e.getMessage(), e);
+                    status = Status.FAILED;
+                }
+            } finally {
+                wallNanos = System.nanoTime() - start;
+                cpuNanos = cpuTime ? threadMXBean.getCurrentThreadCpuTime() - cpuStart : 0;
+                Thread.currentThread().setName(threadName);
+            }
+            logger.info("'{}' data built in {} s", name, String.format("%.1f", wallNanos / 1e9));
+            return this;
+        }
+    }
+}
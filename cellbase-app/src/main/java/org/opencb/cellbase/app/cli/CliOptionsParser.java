@@ -147,7 +147,7 @@ public class CliOptionsParser {
         @Parameter(names = {"-a", "--assembly"}, description = "", required = false)
         public String assembly;
 
-        @Parameter(names = {"-i", "--input"}, description = "", required = true, arity = 1)
+        @Parameter(names = {"-i", "--input"}, description = "Input directory with the downloaded data. The genome FASTA is read at random positions: uncompressed or bgzip files are read in place, a plain gzip file (as downloaded from Ensembl) is decompressed once next to it, which needs as much free disk as the uncompressed genome", required = true, arity = 1)
         public String input;
 
         @Parameter(names = {"-o", "--output"}, description = "", required = false, arity = 1)
@@ -156,6 +156,15 @@ public class CliOptionsParser {
         @Parameter(names = {"--common"}, description = "", required = false, arity = 1)
         public String common;
 
+        @Parameter(names = {"--conservation-format"}, description = "Output format for conservation data: 'json' chunks to be loaded in MongoDB or 'binary' files to be memory-mapped by CellBase", required = false, arity = 1)
+        public String conservationFormat = "json";
+
+        @Parameter(names = {"--num-threads"}, description = "Number of datasets built at the same time, datasets depending on others wait for them. Multi-threaded builders share the cores among them [2]", required = false, arity = 1)
+        public int numThreads = 2;
+
+        @Parameter(names = {"--on-error"}, description = "What to do when a dataset fails: 'continue' building the datasets not depending on it or 'fail-fast' cancelling the build", required = false, arity = 1)
+        public String onError = "continue";
+
     }
 
 
@@ -181,6 +190,9 @@ public class CliOptionsParser {
         @Parameter(names = {"--num-threads"}, description = "Number of threads used for loading data into the database [2]", required = false, arity = 1)
         public int numThreads = 2;
 
+        @Parameter(names = {"--resume"}, description = "Resume an interrupted load from the checkpoint files left next to the input files", required = false, arity = 0)
+        public boolean resume = false;
+
         @DynamicParameter(names = "-D", description = "Dynamic parameters go here", hidden = true)
         public Map<String, String> loaderParams = new HashMap<>();
 
@@ -259,6 +271,12 @@ public class CliOptionsParser {
         @Parameter(names = {"--batch-size"}, description = "Number of variants per thread [200]", required = false, arity = 1)
         public int batchSize = 200;
 
+        @Parameter(names = {"--num-in-flight"}, description = "Number of concurrent requests per thread, each batch is split into this number of requests [1]", required = false, arity = 1)
+        public int numInFlight = 1;
+
+        @Parameter(names = {"--local"}, description = "Annotate querying the database configured in configuration.json directly instead of the REST web services", required = false, arity = 0)
+        public boolean local = false;
+
         @Parameter(names = {"--custom-file"}, description = "String with a comma separated list (no spaces in between) of files with custom annotation to be included during the annotation process. File format must be VCF. For example: file1.vcf,file2.vcf,file3.vcf", required = false)
         public String customFiles;
 
@@ -281,6 +299,15 @@ public class CliOptionsParser {
         @Parameter(names = {"--clinical-annotation-file"}, description = "Specify a file containing variant annotations for CellBase clinical data. Accepted file formats: VEP's file format", required = false)
         public String clinicalAnnotationFilename = null;
 
+        @Parameter(names = {"--num-threads"}, description = "Number of threads used for updating the database [4]", required = false, arity = 1)
+        public int numThreads = 4;
+
+        @Parameter(names = {"-s", "--species"}, description = "Name of the species whose database is post-processed", required = false, arity = 1)
+        public String species = "hsapiens";
+
+        @Parameter(names = {"--interval-frequency-tiles"}, description = "Comma separated list of collections to pre-aggregate histogram tiles for, i.e. gene,variation", required = false, arity = 1)
+        public String intervalFrequencyTiles = null;
+
     }
 
 
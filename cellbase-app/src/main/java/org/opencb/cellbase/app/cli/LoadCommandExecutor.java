@@ -25,6 +25,9 @@ import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 
 /**
@@ -76,9 +79,13 @@ public class LoadCommandExecutor extends CommandExecutor {
                 if (loadCommandOptions.loaderParams.containsKey("authenticationDatabase")) {
                     configuration.getDatabase().getOptions().put("authenticationDatabase", loadCommandOptions.loaderParams.get("authenticationDatabase"));
                 }
+                // Write concern for the bulk inserts, ie. -DwriteConcern=unacknowledged, acknowledged by default
+                if (loadCommandOptions.loaderParams.containsKey("writeConcern")) {
+                    configuration.getDatabase().getOptions().put("writeConcern", loadCommandOptions.loaderParams.get("writeConcern"));
+                }
 
 //                loadRunner = new LoadRunner(loader, database, loadCommandOptions.loaderParams, numThreads, configuration);
-                loadRunner = new LoadRunner(loader, database, numThreads, configuration);
+                loadRunner = new LoadRunner(loader, database, numThreads, loadCommandOptions.resume, configuration);
 
                 String[] buildOptions;
                 if (loadCommandOptions.data.equals("all")) {
@@ -150,6 +157,14 @@ public class LoadCommandExecutor extends CommandExecutor {
             logger.warn("Incorrect number of numThreads, it must be a positive value. This has been set to '{}'", numThreads);
         }
 
+        // Unacknowledged writes never move the checkpoint forward, so there is nothing to resume from
+        String writeConcern = loadCommandOptions.loaderParams.get("writeConcern");
+        if (loadCommandOptions.resume && writeConcern != null
+                && Arrays.asList("unacknowledged", "normal", "none").contains(writeConcern.toLowerCase())) {
+            logger.error("--resume cannot be used with write concern '{}', acknowledged writes are needed", writeConcern);
+            System.exit(-1);
+        }
+
         try {
             Class.forName(loader);
         } catch (ClassNotFoundException e) {
@@ -170,9 +185,14 @@ public class LoadCommandExecutor extends CommandExecutor {
                 return entry.getFileName().toString().startsWith("variation_chr");
             }
         });
+        // all files are loaded together so they are read in parallel
+        List<Path> files = new ArrayList<>();
         for (Path entry: stream) {
             logger.info("Loading file '{}'", entry.toString());
-            loadRunner.load(input.resolve(entry.getFileName()), "variation");
+            files.add(input.resolve(entry.getFileName()));
+        }
+        if (!files.isEmpty()) {
+            loadRunner.load(files, "variation");
         }
         loadRunner.index("variation");
     }
@@ -187,9 +207,14 @@ public class LoadCommandExecutor extends CommandExecutor {
                 return entry.getFileName().toString().startsWith("conservation_");
             }
         });
+        // all files are loaded together so they are read in parallel
+        List<Path> files = new ArrayList<>();
         for (Path entry: stream) {
             logger.info("Loading file '{}'", entry.toString());
-            loadRunner.load(input.resolve(entry.getFileName()), "conservation");
+            files.add(input.resolve(entry.getFileName()));
+        }
+        if (!files.isEmpty()) {
+            loadRunner.load(files, "conservation");
         }
         loadRunner.index("conservation");
     }
@@ -204,9 +229,14 @@ public class LoadCommandExecutor extends CommandExecutor {
                 return entry.getFileName().toString().startsWith("prot_func_pred_");
             }
         });
+        // all files are loaded together so they are read in parallel
+        List<Path> files = new ArrayList<>();
         for (Path entry: stream) {
             logger.info("Loading file '{}'", entry.toString());
-            loadRunner.load(input.resolve(entry.getFileName()), "protein_functional_prediction");
+            files.add(input.resolve(entry.getFileName()));
+        }
+        if (!files.isEmpty()) {
+            loadRunner.load(files, "protein_functional_prediction");
         }
         loadRunner.index("protein_functional_prediction");
     }
@@ -22,13 +22,18 @@ import org.opencb.biodata.models.variant.annotation.VariantAnnotation;
 import org.opencb.cellbase.core.CellBaseConfiguration;
 import org.opencb.cellbase.core.db.DBAdaptorFactory;
 import org.opencb.cellbase.core.db.api.variation.ClinicalDBAdaptor;
+import org.opencb.cellbase.mongodb.db.IntervalFrequencyTiles;
 import org.opencb.cellbase.mongodb.db.MongoDBAdaptorFactory;
 import org.opencb.datastore.core.QueryOptions;
+import org.opencb.datastore.core.QueryResult;
 
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by fjlopez on 14/04/15.
@@ -39,7 +44,11 @@ public class PostLoadCommandExecutor extends CommandExecutor{
 
     private Path clinicalAnnotationFilename = null;
     private String assembly = null;
+    private int numThreads = 4;
     private static final int CLINICAL_ANNOTATION_BATCH_SIZE=1000;
+    private static final int QUEUE_CAPACITY = 10;
+    private static final int PROGRESS_BATCHES = 50;
+    private static final List<VariantAnnotation> POISON_PILL = new ArrayList<>();
 //    private static final int CLINICAL_ANNOTATION_BATCH_SIZE=1000;
 
     // TODO: remove constructor, just for debugging purposes
@@ -57,8 +66,9 @@ public class PostLoadCommandExecutor extends CommandExecutor{
         checkParameters();
         if(clinicalAnnotationFilename!=null) {
             loadClinicalAnnotation();
-        } else {
-            throw new ParameterException("Only post-load of clinical annotations is available right now.");
+        }
+        if (postLoadCommandOptions.intervalFrequencyTiles != null) {
+            buildIntervalFrequencyTiles();
         }
     }
 
@@ -81,8 +91,17 @@ public class PostLoadCommandExecutor extends CommandExecutor{
                 throw  new ParameterException("Providing human assembly is mandatory if loading clinical annotations. Available assemblies: GRCh37, GRCh38");
             }
 
+        } else if (postLoadCommandOptions.intervalFrequencyTiles != null) {
+            assembly = postLoadCommandOptions.assembly;
+        } else {
+            throw  new ParameterException("Please check command line syntax. Provide a valid input file name or "
+                    + "the collections to build interval frequency tiles for.");
+        }
+
+        if (postLoadCommandOptions.numThreads > 0) {
+            numThreads = postLoadCommandOptions.numThreads;
         } else {
-            throw  new ParameterException("Please check command line syntax. Provide a valid input file name.");
+            logger.warn("Incorrect number of threads, it must be a positive value. This has been reset to '{}'", numThreads);
         }
     }
 
@@ -117,9 +136,6 @@ public class PostLoadCommandExecutor extends CommandExecutor{
 //            e.printStackTrace();
 //        }
 
-        System.out.println("cellBaseConfiguration = " + configuration.getDatabase().getUser());
-        System.out.println("cellBaseConfiguration = " + configuration.getDatabase().getHost());
-        System.out.println("cellBaseConfiguration = " + configuration.getDatabase().getPassword());
         DBAdaptorFactory dbAdaptorFactory = new MongoDBAdaptorFactory(configuration);
 //        DBAdaptorFactory dbAdaptorFactory = new MongoDBAdaptorFactory(adaptorCellbaseConfiguration);
         ClinicalDBAdaptor clinicalDBAdaptor = dbAdaptorFactory.getClinicalDBAdaptor("hsapiens", assembly);
@@ -127,21 +143,99 @@ public class PostLoadCommandExecutor extends CommandExecutor{
         /**
          * Load annotations
          */
-        logger.info("Reading/Loading variant annotations...");
+        logger.info("Reading/Loading variant annotations with {} threads...", numThreads);
+        /*
+         * The VEP file is read in this thread while 'numThreads' workers update the database, batches are handed
+         * over through a bounded queue so reading and updating overlap.
+         */
+        BlockingQueue<List<VariantAnnotation>> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        AtomicLong updatedVariants = new AtomicLong();
+        AtomicLong matchedDocuments = new AtomicLong();
+        ExecutorService executorService = Executors.newFixedThreadPool(numThreads);
+        List<Future<Integer>> futures = new ArrayList<>(numThreads);
+        for (int i = 0; i < numThreads; i++) {
+            futures.add(executorService.submit(() -> {
+                int updated = 0;
+                List<VariantAnnotation> batch;
+                while ((batch = queue.take()) != POISON_PILL) {
+                    QueryResult queryResult = clinicalDBAdaptor.updateAnnotations(batch, new QueryOptions());
+                    matchedDocuments.addAndGet(queryResult.getNumResults());
+                    updatedVariants.addAndGet(batch.size());
+                    updated += batch.size();
+                }
+                return updated;
+            }));
+        }
+
+        long startTime = System.currentTimeMillis();
         int nVepAnnotatedVariants = 0;
-        List<VariantAnnotation> variantAnnotationList = vepFormatReader.read(CLINICAL_ANNOTATION_BATCH_SIZE);
-        while(!variantAnnotationList.isEmpty()) {
-            nVepAnnotatedVariants += variantAnnotationList.size();
-            clinicalDBAdaptor.updateAnnotations(variantAnnotationList, new QueryOptions());
-            logger.info(Integer.valueOf(nVepAnnotatedVariants)+" read variants with vep annotations");
-            variantAnnotationList = vepFormatReader.read(CLINICAL_ANNOTATION_BATCH_SIZE);
+        int nBatches = 0;
+        try {
+            List<VariantAnnotation> variantAnnotationList = vepFormatReader.read(CLINICAL_ANNOTATION_BATCH_SIZE);
+            while (!variantAnnotationList.isEmpty()) {
+                nVepAnnotatedVariants += variantAnnotationList.size();
+                putBatch(queue, variantAnnotationList, futures);
+                if (++nBatches % PROGRESS_BATCHES == 0) {
+                    double seconds = Math.max(System.currentTimeMillis() - startTime, 1) / 1000.0;
+                    logger.info("{} variants read, {} variants updated ({} documents), {} variants/s",
+                            nVepAnnotatedVariants, updatedVariants.get(), matchedDocuments.get(),
+                            Math.round(updatedVariants.get() / seconds));
+                }
+                variantAnnotationList = vepFormatReader.read(CLINICAL_ANNOTATION_BATCH_SIZE);
+            }
+            for (int i = 0; i < numThreads; i++) {
+                putBatch(queue, POISON_PILL, futures);
+            }
+            for (Future<Integer> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Clinical annotation update interrupted", e);
+        } catch (ExecutionException e) {
+            // the command must fail, otherwise a partial update would look like a successful one
+            Throwable cause = (e.getCause() != null) ? e.getCause() : e;
+            throw new IllegalStateException("Error updating clinical annotations: " + cause.getMessage(), cause);
+        } finally {
+            executorService.shutdownNow();
+            vepFormatReader.post();
+            vepFormatReader.close();
         }
 
-        vepFormatReader.post();
-        vepFormatReader.close();
+        double seconds = Math.max(System.currentTimeMillis() - startTime, 1) / 1000.0;
+        logger.info("{} variants updated ({} documents) in {} s, {} variants/s", updatedVariants.get(),
+                matchedDocuments.get(), Math.round(seconds), Math.round(updatedVariants.get() / seconds));
+
         logger.info(nVepAnnotatedVariants+" VEP annotated variants were read from "+clinicalAnnotationFilename.toString());
         logger.info("Finished");
     }
 
+    private void buildIntervalFrequencyTiles() {
+        MongoDBAdaptorFactory dbAdaptorFactory = new MongoDBAdaptorFactory(configuration);
+        IntervalFrequencyTiles intervalFrequencyTiles =
+                dbAdaptorFactory.getIntervalFrequencyTiles(postLoadCommandOptions.species, assembly);
+        for (String collection : postLoadCommandOptions.intervalFrequencyTiles.split(",")) {
+            long start = System.currentTimeMillis();
+            intervalFrequencyTiles.build(collection.trim());
+            logger.info("Interval frequency tiles for '{}' built in {} s", collection.trim(),
+                    (System.currentTimeMillis() - start) / 1000);
+        }
+    }
+
+    /**
+     * Waits for room in the queue checking that no worker has died meanwhile, otherwise the reader would block forever.
+     */
+    private void putBatch(BlockingQueue<List<VariantAnnotation>> queue, List<VariantAnnotation> batch,
+                          List<Future<Integer>> futures) throws InterruptedException, ExecutionException {
+        while (!queue.offer(batch, 1, TimeUnit.SECONDS)) {
+            for (Future<Integer> future : futures) {
+                if (future.isDone()) {
+                    future.get();
+                    throw new ExecutionException("Worker finished before the end of the input", null);
+                }
+            }
+        }
+    }
+
 
 }
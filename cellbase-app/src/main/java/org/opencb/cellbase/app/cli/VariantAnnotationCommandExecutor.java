@@ -28,10 +28,13 @@ import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.VariantSource;
 import org.opencb.biodata.models.variant.annotation.VariantAnnotation;
 import org.opencb.cellbase.core.client.CellBaseClient;
+import org.opencb.cellbase.core.db.DBAdaptorFactory;
+import org.opencb.cellbase.core.variant.annotation.CellbaseLocalVariantAnnotator;
 import org.opencb.cellbase.core.variant.annotation.CellbaseWSVariantAnnotator;
 import org.opencb.cellbase.core.variant.annotation.VariantAnnotator;
 import org.opencb.cellbase.core.variant.annotation.VariantAnnotatorRunner;
 import org.opencb.cellbase.core.variant.annotation.VcfVariantAnnotator;
+import org.opencb.cellbase.mongodb.db.MongoDBAdaptorFactory;
 import org.opencb.commons.io.DataReader;
 import org.opencb.commons.io.DataWriter;
 import org.opencb.commons.run.ParallelTaskRunner;
@@ -61,8 +64,11 @@ public class VariantAnnotationCommandExecutor extends CommandExecutor {
     private String url;
     private int port;
     private String species;
+    private String assembly;
+    private boolean local;
     private int numThreads;
     private int batchSize;
+    private int numInFlight;
     private List<Path> customFiles;
     private List<RocksDB> dbIndexes;
     private List<Options> dbOptions;
@@ -96,12 +102,24 @@ public class VariantAnnotationCommandExecutor extends CommandExecutor {
                 createIndexes();
             }
 
-            String path = "/cellbase/webservices/rest/";
-            CellBaseClient cellBaseClient = new CellBaseClient(url, port, path,
-                    configuration.getVersion(), species);
+            CellBaseClient cellBaseClient = null;
+            DBAdaptorFactory dbAdaptorFactory = null;
+            if (local) {
+                // the database is queried in-process, the same way the REST web services do
+                logger.info("Annotating against database at '{}'", configuration.getDatabase().getHost());
+                dbAdaptorFactory = new MongoDBAdaptorFactory(configuration);
+            } else {
+                String path = "/cellbase/webservices/rest/";
+                // one pooled connection for each request that can be in flight
+                cellBaseClient = new CellBaseClient(url, port, path,
+                        configuration.getVersion(), species, numThreads * numInFlight);
+            }
             List<ParallelTaskRunner.Task<Variant, VariantAnnotation>> variantAnnotatorRunnerList = new ArrayList<>(numThreads);
             for (int i = 0; i < numThreads; i++) {
-                List<VariantAnnotator> variantAnnotatorList = createAnnotators(cellBaseClient);
+                VariantAnnotator cellbaseVariantAnnotator = local
+                        ? new CellbaseLocalVariantAnnotator(dbAdaptorFactory.getVariantAnnotationDBAdaptor(species, assembly))
+                        : new CellbaseWSVariantAnnotator(cellBaseClient, numInFlight);
+                List<VariantAnnotator> variantAnnotatorList = createAnnotators(cellbaseVariantAnnotator);
                 variantAnnotatorRunnerList.add(new VariantAnnotatorRunner(variantAnnotatorList));
             }
 
@@ -124,6 +142,9 @@ public class VariantAnnotationCommandExecutor extends CommandExecutor {
                 System.exit(1);
             }
             runner.run();
+            if (cellBaseClient != null) {
+                cellBaseClient.close();
+            }
 
             if (customFiles != null) {
                 closeIndexes();
@@ -148,12 +169,12 @@ public class VariantAnnotationCommandExecutor extends CommandExecutor {
         }
     }
 
-    private List<VariantAnnotator> createAnnotators(CellBaseClient cellBaseClient) {
+    private List<VariantAnnotator> createAnnotators(VariantAnnotator cellbaseVariantAnnotator) {
         List<VariantAnnotator> variantAnnotatorList;
         variantAnnotatorList = new ArrayList<>();
 
         // CellBase annotator is always called
-        variantAnnotatorList.add(new CellbaseWSVariantAnnotator(cellBaseClient));
+        variantAnnotatorList.add(cellbaseVariantAnnotator);
 
         // Include custom annotators if required
         if(customFiles!=null) {
@@ -322,6 +343,13 @@ public class VariantAnnotationCommandExecutor extends CommandExecutor {
             batchSize = 1;
             logger.warn("Incorrect size of batch size, it must be a positive value between 1-1000. This has been set to '{}'", batchSize);
         }
+        // Concurrent requests per thread
+        if (variantAnnotationCommandOptions.numInFlight >= 1 && variantAnnotationCommandOptions.numInFlight <= batchSize) {
+            numInFlight = variantAnnotationCommandOptions.numInFlight;
+        } else {
+            numInFlight = 1;
+            logger.warn("Incorrect number of requests in flight, it must be a positive value not greater than the batch size. This has been set to '{}'", numInFlight);
+        }
         // Url
         if (variantAnnotationCommandOptions.url!=null) {
             url = variantAnnotationCommandOptions.url;
@@ -335,6 +363,8 @@ public class VariantAnnotationCommandExecutor extends CommandExecutor {
             throw new ParameterException("Please check command line sintax. Provide a valid port to access CellBase web services.");
         }
         // Species
+        assembly = variantAnnotationCommandOptions.assembly;
+        local = variantAnnotationCommandOptions.local;
         if (variantAnnotationCommandOptions.species!=null) {
             species = variantAnnotationCommandOptions.species;
         } else {
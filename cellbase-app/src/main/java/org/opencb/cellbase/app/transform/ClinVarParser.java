@@ -20,17 +20,30 @@ import org.opencb.biodata.formats.variant.clinvar.ClinvarParser;
 import org.opencb.cellbase.core.common.clinical.ClinvarPublicSet;
 import org.opencb.biodata.formats.variant.clinvar.v19jaxb.MeasureSetType;
 import org.opencb.biodata.formats.variant.clinvar.v19jaxb.PublicSetType;
-import org.opencb.biodata.formats.variant.clinvar.v19jaxb.ReleaseType;
 import org.opencb.biodata.formats.variant.clinvar.v19jaxb.SequenceLocationType;
+import org.opencb.cellbase.app.transform.utils.JaxbUtils;
 import org.opencb.cellbase.core.serializer.CellBaseSerializer;
 
-import javax.xml.bind.JAXBElement;
-import javax.xml.bind.JAXBException;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.*;
+import javax.xml.stream.events.XMLEvent;
+import javax.xml.transform.stream.StreamSource;
+import java.io.*;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.NumberFormat;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.*;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Created by imedina on 26/09/14.
+ *
+ * The release XML is streamed, each ClinVarSet element is cut from the document with StAX and unmarshalled by a
+ * pool of worker threads, so memory does not depend on the size of the release. Records are serialized by the
+ * reading thread in the order of the release, so the output does not depend on the number of threads.
  */
 public class ClinVarParser extends CellBaseParser{
 
@@ -38,39 +51,139 @@ public class ClinVarParser extends CellBaseParser{
     public static final String GRCH37_ASSEMBLY = "37";
     public static final String GRCH38_ASSEMBLY = "38";
 
+    private static final String CLINVAR_SET_ELEMENT = "ClinVarSet";
+    // ClinVarSets read but not serialized yet, per worker thread
+    private static final int QUEUE_SIZE_PER_THREAD = 16;
+
     private final String selectedAssembly;
 
     private Path clinvarXmlFile;
+    private int numThreads;
 
     public ClinVarParser(Path clinvarXmlFile, String assembly, CellBaseSerializer serializer) {
+        this(clinvarXmlFile, assembly, Runtime.getRuntime().availableProcessors(), serializer);
+    }
+
+    /**
+     * @param numThreads    Number of threads unmarshalling the ClinVarSets
+     */
+    public ClinVarParser(Path clinvarXmlFile, String assembly, int numThreads, CellBaseSerializer serializer) {
         super(serializer);
         this.clinvarXmlFile = clinvarXmlFile;
         this.selectedAssembly = ASSEMBLY_PREFIX + assembly;
+        this.numThreads = Math.max(numThreads, 1);
     }
 
-    public void parse() {
-        try {
-            logger.info("Unmarshalling clinvar file " + clinvarXmlFile + " ...");
-            JAXBElement<ReleaseType> clinvarRelease = unmarshalXML(clinvarXmlFile);
-            logger.info("Done");
-
-            long serializedClinvarObjects = 0,
-                    clinvarRecordsParsed = 0;
-            logger.info("Serializing clinvar records that have Sequence Location for Assembly " + selectedAssembly + " ...");
-            for (PublicSetType publicSet : clinvarRelease.getValue().getClinVarSet()) {
-                ClinvarPublicSet clinvarPublicSet = buildClinvarPublicSet(publicSet);
-                if (clinvarPublicSet != null) {
-                    serializer.serialize(clinvarPublicSet);
-                    serializedClinvarObjects++;
+    public void parse() throws Exception {
+        logger.info("Parsing clinvar file " + clinvarXmlFile + " with " + numThreads + " threads ...");
+        logger.info("Serializing clinvar records that have Sequence Location for Assembly " + selectedAssembly + " ...");
+        JAXBContext jaxbContext = JAXBContext.newInstance(ClinvarParser.CLINVAR_CONTEXT_v19);
+        ThreadLocal<Unmarshaller> unmarshallers = JaxbUtils.getThreadLocalUnmarshallers(jaxbContext);
+
+        // ClinVarSets are serialized in the order they were read, reading waits for the oldest one to be parsed
+        // when too many are pending so memory is kept bounded
+        ExecutorService executorService = Executors.newFixedThreadPool(numThreads);
+        Deque<Future<ClinvarPublicSet>> pendingClinvarSets = new ArrayDeque<>();
+        long serializedClinvarObjects = 0;
+        long clinvarRecordsParsed = 0;
+        try (InputStream inputStream = openInputStream()) {
+            XMLEventReader eventReader = createXMLInputFactory().createXMLEventReader(inputStream);
+            XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+            outputFactory.setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES, true);
+            while (nextClinVarSet(eventReader)) {
+                String clinVarSet = readElement(eventReader, outputFactory);
+                pendingClinvarSets.add(executorService.submit(() -> {
+                    PublicSetType publicSet = unmarshallers.get()
+                            .unmarshal(new StreamSource(new StringReader(clinVarSet)), PublicSetType.class).getValue();
+                    return buildClinvarPublicSet(publicSet);
+                }));
+                if (pendingClinvarSets.size() > numThreads * QUEUE_SIZE_PER_THREAD) {
+                    serializedClinvarObjects += serialize(pendingClinvarSets.poll());
                 }
                 clinvarRecordsParsed++;
+                if (clinvarRecordsParsed % 10000 == 0) {
+                    logger.info("{} clinvar records read", clinvarRecordsParsed);
+                }
+            }
+            eventReader.close();
+            while (!pendingClinvarSets.isEmpty()) {
+                serializedClinvarObjects += serialize(pendingClinvarSets.poll());
             }
-            logger.info("Done");
-            this.printSummary(clinvarRecordsParsed, serializedClinvarObjects);
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        logger.info("Done");
+        this.printSummary(clinvarRecordsParsed, serializedClinvarObjects);
+    }
+
+    /**
+     * Waits for a ClinVarSet to be parsed and serializes it.
+     * @return number of objects serialized, 0 if the ClinVarSet has no location for the selected assembly
+     */
+    private int serialize(Future<ClinvarPublicSet> pendingClinvarSet) throws IOException, InterruptedException {
+        ClinvarPublicSet clinvarPublicSet;
+        try {
+            clinvarPublicSet = pendingClinvarSet.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Error parsing clinvar file " + clinvarXmlFile + ": " + e.getCause().getMessage(), e.getCause());
+        }
+        if (clinvarPublicSet == null) {
+            return 0;
+        }
+        serializer.serialize(clinvarPublicSet);
+        return 1;
+    }
 
-        } catch (JAXBException e) {
-            logger.error("Error unmarshalling clinvar Xml file "+ clinvarXmlFile + ": " + e.getMessage());
+    private InputStream openInputStream() throws IOException {
+        InputStream inputStream = new BufferedInputStream(Files.newInputStream(clinvarXmlFile), 1 << 16);
+        if (clinvarXmlFile.toString().endsWith(".gz")) {
+            inputStream = new GZIPInputStream(inputStream, 1 << 16);
         }
+        return inputStream;
+    }
+
+    private XMLInputFactory createXMLInputFactory() {
+        XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return inputFactory;
+    }
+
+    /**
+     * Skips events until the start of the next ClinVarSet element, which is not consumed.
+     * @return false if there are no more ClinVarSet elements
+     */
+    private boolean nextClinVarSet(XMLEventReader eventReader) throws XMLStreamException {
+        while (eventReader.hasNext()) {
+            XMLEvent event = eventReader.peek();
+            if (event.isStartElement()
+                    && event.asStartElement().getName().getLocalPart().equals(CLINVAR_SET_ELEMENT)) {
+                return true;
+            }
+            eventReader.nextEvent();
+        }
+        return false;
+    }
+
+    /**
+     * Copies the element starting at the current event, with all its content, into a standalone XML document.
+     */
+    private String readElement(XMLEventReader eventReader, XMLOutputFactory outputFactory) throws XMLStreamException {
+        StringWriter stringWriter = new StringWriter(8192);
+        XMLEventWriter eventWriter = outputFactory.createXMLEventWriter(stringWriter);
+        int depth = 0;
+        do {
+            XMLEvent event = eventReader.nextEvent();
+            if (event.isStartElement()) {
+                depth++;
+            } else if (event.isEndElement()) {
+                depth--;
+            }
+            eventWriter.add(event);
+        } while (depth > 0);
+        eventWriter.close();
+        return stringWriter.toString();
     }
 
     private void printSummary(long clinvarRecordsParsed, long serializedClinvarObjects) {
@@ -119,8 +232,4 @@ public class ClinVarParser extends CellBaseParser{
                 location.getStart() != null &&
                 location.getStop() != null;
     }
-
-    private JAXBElement<ReleaseType> unmarshalXML(Path clinvarXmlFile) throws JAXBException {
-        return (JAXBElement<ReleaseType>) ClinvarParser.loadXMLInfo(clinvarXmlFile.toString(), ClinvarParser.CLINVAR_CONTEXT_v19);
-    }
 }
@@ -16,39 +16,69 @@
 
 package org.opencb.cellbase.app.transform;
 
+import org.opencb.cellbase.core.common.ConservationScoreFileWriter;
 import org.opencb.cellbase.core.serializer.CellBaseFileSerializer;
 import org.opencb.cellbase.core.common.ConservedRegionChunk;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.zip.GZIPInputStream;
 
+/**
+ * Each wigFix file, one per chromosome and score type, is parsed by a different thread. Lines are read as bytes
+ * and scores parsed without creating any object, values of a chunk are kept in a reused float array.
+ */
 public class ConservedRegionParser extends CellBaseParser {
 
 	private static int CHUNKSIZE = 2000;
+    private static final String[] CONSERVATION_TYPES = {"phastCons", "phylop"};
 
     private Logger logger;
     private Path conservedRegionPath;
     private int chunksize;
+    private Path binaryOutputPath;
+    private int numThreads;
 
     private CellBaseFileSerializer fileSerializer;
-    private Map<String, String> outputFileNames;
     // Download data:
     // for i in `seq 1 22`; do wget ftp://hgdownload.cse.ucsc.edu/goldenPath/hg19/phastCons46way/primates/chr$i.phastCons46way.primates.wigFix.gz; done
     // ftp://hgdownload.cse.ucsc.edu/goldenPath/hg19/phyloP46way/primates/
 
     public ConservedRegionParser(Path conservedRegionPath, int chunksize, CellBaseFileSerializer serializer) {
+        this(conservedRegionPath, chunksize, null, serializer);
+    }
+
+    /**
+     * @param conservedRegionPath   Folder with 'phastCons' and 'phylop' wigFix folders
+     * @param chunksize Not used
+     * @param binaryOutputPath  If not null scores are written as memory-mappable binary files into this folder
+     *                          instead of JSON chunks, see ConservationScoreFileWriter
+     * @param serializer    Serializer for JSON chunks, JSON chunks of every chromosome and score type are written
+     *                      to their own 'conservation_chromosome_type' file
+     */
+    public ConservedRegionParser(Path conservedRegionPath, int chunksize, Path binaryOutputPath, CellBaseFileSerializer serializer) {
+        this(conservedRegionPath, chunksize, binaryOutputPath, Runtime.getRuntime().availableProcessors(), serializer);
+    }
+
+    /**
+     * @param numThreads    Number of chromosome files parsed at the same time
+     */
+    public ConservedRegionParser(Path conservedRegionPath, int chunksize, Path binaryOutputPath, int numThreads,
+                                 CellBaseFileSerializer serializer) {
         super(serializer);
+        this.numThreads = Math.max(numThreads, 1);
         fileSerializer = serializer;
         this.conservedRegionPath = conservedRegionPath;
         this.chunksize = chunksize;
+        this.binaryOutputPath = binaryOutputPath;
         logger = LoggerFactory.getLogger(ConservedRegionParser.class);
-        outputFileNames = new HashMap<>();
     }
 
     @Override
@@ -58,105 +88,336 @@ public class ConservedRegionParser extends CellBaseParser {
         }
 
         Map<String, Path> files = new HashMap<>();
-        String chromosome;
-        Set<String> chromosomes = new HashSet<>();
-
-        // Reading all files in phastCons folder
-        DirectoryStream<Path> directoryStream = Files.newDirectoryStream(conservedRegionPath.resolve("phastCons"));
-        for(Path path: directoryStream) {
-            chromosome = path.getFileName().toString().split("\\.")[0].replace("chr", "");
-            chromosomes.add(chromosome);
-            files.put(chromosome+"phastCons", path);
-        }
-
-        // Reading all files in phylop folder
-        directoryStream = Files.newDirectoryStream(conservedRegionPath.resolve("phylop"));
-        for(Path path: directoryStream) {
-            chromosome = path.getFileName().toString().split("\\.")[0].replace("chr", "");
-            chromosomes.add(chromosome);
-            files.put(chromosome+"phylop", path);
+        Set<String> chromosomes = new TreeSet<>();
+        for (String conservedType : CONSERVATION_TYPES) {
+            // Reading all files in phastCons and phylop folders
+            try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(conservedRegionPath.resolve(conservedType))) {
+                for (Path path : directoryStream) {
+                    String chromosome = path.getFileName().toString().split("\\.")[0].replace("chr", "");
+                    chromosomes.add(chromosome);
+                    files.put(chromosome + conservedType, path);
+                }
+            }
         }
 
         /**
          * Now we can iterate over all the chromosomes found and process the files
          */
         logger.debug("Chromosomes found {}", chromosomes.toString());
-        for(String chr : chromosomes){
-            logger.debug("Processing chromosome {}, file {}", chr, files.get(chr+"phastCons"));
-            processFile(files.get(chr+"phastCons"), "phastCons");
+        if (binaryOutputPath != null) {
+            Files.createDirectories(binaryOutputPath);
+        }
+        ExecutorService executorService = Executors.newFixedThreadPool(numThreads);
+        List<Future<Void>> futures = new ArrayList<>();
+        for (String chr : chromosomes) {
+            for (String conservedType : CONSERVATION_TYPES) {
+                Path file = files.get(chr + conservedType);
+                if (file == null) {
+                    logger.warn("No {} file found for chromosome {}", conservedType, chr);
+                    continue;
+                }
+                futures.add(executorService.submit(() -> {
+                    logger.debug("Processing chromosome {}, file {}", chr, file);
+                    if (binaryOutputPath != null) {
+                        // score files are written by type and chromosome, one writer per file is not shared
+                        try (ConservationScoreFileWriter conservationScoreFileWriter = new ConservationScoreFileWriter(binaryOutputPath)) {
+                            processFile(file, conservedType, conservationScoreFileWriter);
+                        }
+                    } else {
+                        processFile(file, conservedType);
+                    }
+                    return null;
+                }));
+            }
+        }
 
-            logger.debug("Processing chromosome {}, file {}", chr, files.get(chr+"phylop"));
-            processFile(files.get(chr+"phylop"), "phylop");
+        try {
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Conservation parsing interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Error parsing conservation files: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            executorService.shutdownNow();
         }
     }
 
 
     private void processFile(Path inGzPath, String conservedType) throws IOException {
-
-        BufferedReader br = new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(inGzPath))));
-
-        String line = null;
         String chromosome = "";
+        String outputFileName = null;
         int start = 0, end=0;
-        float value;
-        Map<String, String> attributes = new HashMap<>();
-//        ConservedRegion conservedRegion =  null;
-        List<Float> values = new ArrayList<>();
+        // values of the current chunk, the array is reused by all the chunks of the file
+        FloatArrayList values = new FloatArrayList(CHUNKSIZE);
 
         ConservedRegionChunk conservedRegion =  null;
 
-        while ((line = br.readLine()) != null) {
-            if (line.startsWith("fixedStep")) {
-                //new group, save last
-                if(conservedRegion != null){
-                    conservedRegion.setEnd(end);
-                    conservedRegion = new ConservedRegionChunk(chromosome, start, end, conservedType, start/CHUNKSIZE, values);
-                    fileSerializer.serialize(conservedRegion, getOutputFileName(chromosome));
-                }
+        try (WigFixReader wigFixReader = new WigFixReader(inGzPath)) {
+            while (wigFixReader.nextLine()) {
+                if (wigFixReader.isHeader()) {
+                    //new group, save last
+                    if (conservedRegion != null || values.size() > 0) {
+                        conservedRegion = new ConservedRegionChunk(chromosome, start, end, conservedType, start/CHUNKSIZE, values);
+                        fileSerializer.serialize(conservedRegion, outputFileName);
+                        values.clear();
+                    }
 
-//                offset = 0;
-                attributes.clear();
-                String[] attrFields = line.split(" ");
-                String[] attrKeyValue;
-                for (String attrField : attrFields) {
-                    if (!attrField.equalsIgnoreCase("fixedStep")) {
-                        attrKeyValue = attrField.split("=");
-                        attributes.put(attrKeyValue[0].toLowerCase(), attrKeyValue[1]);
+                    Map<String, String> attributes = wigFixReader.getHeaderAttributes();
+                    String headerChromosome = attributes.get("chrom").replace("chr", "");
+                    if (!headerChromosome.equals(chromosome)) {
+                        chromosome = headerChromosome;
+                        outputFileName = "conservation_" + chromosome + "_" + conservedType;
                     }
+                    start = Integer.parseInt(attributes.get("start"));
+                    end = start;
+                } else {
+                    int startChunk = start/CHUNKSIZE;
+                    end++;
+                    int endChunk = end/CHUNKSIZE;
+
+                    if(startChunk != endChunk) {
+                        conservedRegion = new ConservedRegionChunk(chromosome, start, end-1, conservedType, startChunk, values);
+                        fileSerializer.serialize(conservedRegion, outputFileName);
+                        values.clear();
+                        start = end;
+                    }
+
+                    values.add(wigFixReader.getValue());
                 }
-                chromosome = attributes.get("chrom").replace("chr", "");
-                start = Integer.parseInt(attributes.get("start"));
-                end = Integer.parseInt(attributes.get("start"));
+            }
+        }
+        //write last
+        if (outputFileName != null) {
+            conservedRegion = new ConservedRegionChunk(chromosome, start, end, conservedType, start/CHUNKSIZE, values);
+            fileSerializer.serialize(conservedRegion, outputFileName);
+        }
+    }
+
+    private void processFile(Path inGzPath, String conservedType, ConservationScoreFileWriter conservationScoreFileWriter)
+            throws IOException {
+        String chromosome = "";
+        int position = 0;
+        int step = 1;
+        try (WigFixReader wigFixReader = new WigFixReader(inGzPath)) {
+            while (wigFixReader.nextLine()) {
+                if (wigFixReader.isHeader()) {
+                    Map<String, String> attributes = wigFixReader.getHeaderAttributes();
+                    chromosome = attributes.get("chrom").replace("chr", "");
+                    position = Integer.parseInt(attributes.get("start"));
+                    step = attributes.containsKey("step") ? Integer.parseInt(attributes.get("step")) : 1;
+                } else {
+                    conservationScoreFileWriter.add(conservedType, chromosome, position, wigFixReader.getValue());
+                    position += step;
+                }
+            }
+        }
+    }
 
-                values = new ArrayList<>(2000);
+    /**
+     * Parses a decimal number, ie. '-1.234', from ASCII bytes with no allocation. Numbers with an exponent or too
+     * many digits, never found in wigFix files, are parsed by Float.parseFloat().
+     */
+    static float parseFloat(byte[] bytes, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int significantDigits = 0;
+        int scale = 0;
+        boolean digits = false;
+        boolean point = false;
+        for (; i < end; i++) {
+            int b = bytes[i];
+            if (b >= '0' && b <= '9') {
+                digits = true;
+                if (significantDigits < 18) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (mantissa > 0) {
+                        significantDigits++;
+                    }
+                    if (point) {
+                        scale++;
+                    }
+                } else if (!point) {
+                    // integer digits beyond the precision of a long
+                    scale--;
+                }
+            } else if (b == '.' && !point) {
+                point = true;
             } else {
-                int startChunk = start/CHUNKSIZE;
-                end++;
-                int endChunk = end/CHUNKSIZE;
-
-                if(startChunk != endChunk) {
-                    conservedRegion = new ConservedRegionChunk(chromosome, start, end-1, conservedType, startChunk, values);
-                    fileSerializer.serialize(conservedRegion, getOutputFileName(chromosome));
-                    values.clear();
-                    start = end;
+                return Float.parseFloat(new String(bytes, start, end - start, StandardCharsets.US_ASCII));
+            }
+        }
+        if (!digits || scale >= POWERS_OF_TEN.length || -scale >= POWERS_OF_TEN.length) {
+            return Float.parseFloat(new String(bytes, start, end - start, StandardCharsets.US_ASCII));
+        }
+        // powers of ten up to 10^22 are exact doubles, so the division is correctly rounded
+        double value = (scale >= 0) ? mantissa / POWERS_OF_TEN[scale] : mantissa * POWERS_OF_TEN[-scale];
+        return (float) (negative ? -value : value);
+    }
+
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    /**
+     * Reads the lines of a gzipped wigFix file into a byte buffer, only header lines are converted to String.
+     */
+    static class WigFixReader implements Closeable {
+
+        private static final byte[] HEADER = "fixedStep".getBytes(StandardCharsets.US_ASCII);
+
+        private final InputStream inputStream;
+        private byte[] buffer = new byte[1 << 16];
+        private int position;
+        private int limit;
+        private int lineStart;
+        private int lineEnd;
+
+        WigFixReader(Path path) throws IOException {
+            this(new GZIPInputStream(Files.newInputStream(path), 1 << 16));
+        }
+
+        WigFixReader(InputStream inputStream) {
+            this.inputStream = inputStream;
+        }
+
+        /**
+         * Moves to the next non blank line, surrounding spaces and '\r' are skipped.
+         * @return false at the end of the file
+         */
+        boolean nextLine() throws IOException {
+            while (true) {
+                int newLine = -1;
+                for (int i = position; i < limit; i++) {
+                    if (buffer[i] == '\n') {
+                        newLine = i;
+                        break;
+                    }
+                }
+                if (newLine < 0 && fill()) {
+                    continue;
+                }
+                if (position >= limit) {
+                    return false;
+                }
+                // last line of the file may not end with a new line
+                int end = (newLine >= 0) ? newLine : limit;
+                lineStart = position;
+                lineEnd = end;
+                position = (newLine >= 0) ? newLine + 1 : limit;
+                while (lineStart < lineEnd && buffer[lineStart] <= ' ') {
+                    lineStart++;
+                }
+                while (lineEnd > lineStart && buffer[lineEnd - 1] <= ' ') {
+                    lineEnd--;
                 }
+                if (lineStart < lineEnd) {
+                    return true;
+                }
+            }
+        }
 
-                value = Float.parseFloat(line.trim());
-                values.add(value);
+        /**
+         * Moves the pending bytes to the beginning of the buffer, growing it if needed, and reads more bytes.
+         * @return false if the end of the file has been reached
+         */
+        private boolean fill() throws IOException {
+            int pending = limit - position;
+            if (pending == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            } else if (position > 0) {
+                System.arraycopy(buffer, position, buffer, 0, pending);
+            }
+            position = 0;
+            limit = pending;
+            int read = inputStream.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                return false;
             }
+            limit += read;
+            return true;
+        }
+
+        boolean isHeader() {
+            if (lineEnd - lineStart < HEADER.length) {
+                return false;
+            }
+            for (int i = 0; i < HEADER.length; i++) {
+                if (buffer[lineStart + i] != HEADER[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Attributes of a header line, ie. 'fixedStep chrom=chr1 start=10918 step=1', with lower case keys.
+         */
+        Map<String, String> getHeaderAttributes() {
+            Map<String, String> attributes = new HashMap<>();
+            for (String attrField : new String(buffer, lineStart, lineEnd - lineStart, StandardCharsets.US_ASCII).split(" ")) {
+                String[] attrKeyValue = attrField.split("=");
+                if (attrKeyValue.length == 2) {
+                    attributes.put(attrKeyValue[0].toLowerCase(), attrKeyValue[1]);
+                }
+            }
+            return attributes;
+        }
+
+        float getValue() {
+            return parseFloat(buffer, lineStart, lineEnd);
+        }
+
+        @Override
+        public void close() throws IOException {
+            inputStream.close();
         }
-        //write last
-        conservedRegion = new ConservedRegionChunk(chromosome, start, end, conservedType, start/CHUNKSIZE, values);
-        fileSerializer.serialize(conservedRegion, getOutputFileName(chromosome));
-        br.close();
     }
 
-    private String getOutputFileName(String chromosome) {
-        String outputFileName = outputFileNames.get(chromosome);
-        if (outputFileName == null) {
-            outputFileName = "conservation_" + chromosome;
-            outputFileNames.put(chromosome, outputFileName);
+    /**
+     * List view of a growable float array, values are only boxed when the list is serialized.
+     */
+    static class FloatArrayList extends AbstractList<Float> {
+
+        private float[] values;
+        private int size;
+
+        FloatArrayList(int capacity) {
+            values = new float[capacity];
+        }
+
+        void add(float value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[size++] = value;
+        }
+
+        @Override
+        public Float get(int index) {
+            if (index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+            }
+            return values[index];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void clear() {
+            size = 0;
         }
-        return outputFileName;
     }
 }
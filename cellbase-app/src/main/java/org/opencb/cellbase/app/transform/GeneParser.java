@@ -26,6 +26,7 @@ import org.opencb.biodata.formats.sequence.fasta.io.FastaReader;
 import org.opencb.biodata.models.core.*;
 import org.opencb.biodata.models.variant.annotation.ExpressionValue;
 import org.opencb.cellbase.core.CellBaseConfiguration;
+import org.opencb.cellbase.core.common.IndexedFastaReader;
 import org.opencb.cellbase.core.common.Species;
 import org.opencb.cellbase.core.serializer.CellBaseSerializer;
 import org.opencb.commons.utils.FileUtils;
@@ -34,8 +35,6 @@ import java.io.*;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.sql.*;
 import java.util.*;
 import java.util.zip.GZIPInputStream;
 
@@ -58,12 +57,7 @@ public class GeneParser extends CellBaseParser {
 
     private CellBaseConfiguration.SpeciesProperties.Species species;
 
-    private Connection sqlConn;
-    private PreparedStatement sqlQuery;
-
-    private int CHUNK_SIZE = 2000;
-    private String chunkIdSuffix = CHUNK_SIZE/1000 + "k";
-    private Set<String> indexedSequences;
+    private IndexedFastaReader genomeSequenceReader;
 
 
     public GeneParser(Path geneDirectoryPath, Path genomeSequenceFastaFile,
@@ -113,13 +107,9 @@ public class GeneParser extends CellBaseParser {
         Map<String, List<ExpressionValue>> geneExpressionMap = getGeneExpressionMap();
 
 
-        // Preparing the fasta file for fast accessing
-        try {
-            connect(genomeSequenceFilePath);
-        } catch (ClassNotFoundException | SQLException e) {
-            e.printStackTrace();
-            return;
-        }
+        // Preparing the fasta file for fast accessing, exon sequences are read from its faidx index
+        logger.info("Opening reference genome sequence '{}' ...", genomeSequenceFilePath);
+        genomeSequenceReader = new IndexedFastaReader(genomeSequenceFilePath);
 
         // TODO remove
         // Empty transcript and exon dictionaries
@@ -314,11 +304,7 @@ public class GeneParser extends CellBaseParser {
         gtfReader.close();
         serializer.close();
 
-        try {
-            disconnectSqlite();
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+        genomeSequenceReader.close();
     }
 
     private Map<String, List<ExpressionValue>> getGeneExpressionMap() throws IOException {
@@ -599,177 +585,13 @@ public class GeneParser extends CellBaseParser {
         return previousGene == null || !newGeneId.equals(previousGene.getId());
     }
 
-    private void connect(Path genomeSequenceFilePath) throws ClassNotFoundException, SQLException, IOException {
-        logger.info("Connecting to reference genome sequence database ...");
-        Class.forName("org.sqlite.JDBC");
-        sqlConn = DriverManager.getConnection("jdbc:sqlite:" + genomeSequenceFilePath.getParent().toString() + "/reference_genome.db");
-        if(!Files.exists(Paths.get(genomeSequenceFilePath.getParent().toString(), "reference_genome.db")) ||
-                Files.size(genomeSequenceFilePath.getParent().resolve("reference_genome.db")) == 0) {
-            logger.info("Genome sequence database doesn't exists and will be created");
-            Statement createTable = sqlConn.createStatement();
-            createTable.executeUpdate("CREATE TABLE if not exists  genome_sequence (sequenceName VARCHAR(50), chunkId VARCHAR(30), start INT, end INT, sequence VARCHAR(2000))");
-            indexReferenceGenomeFasta(genomeSequenceFilePath);
-        }
-        indexedSequences = getIndexedSequences();
-        sqlQuery = sqlConn.prepareStatement("SELECT sequence from genome_sequence WHERE chunkId = ? "); //AND start <= ? AND end >= ?
-        logger.info("Genome sequence database connected");
-    }
-
-    private Set<String> getIndexedSequences() throws SQLException {
-        Set<String> indexedSeq = new HashSet<>();
-
-        PreparedStatement seqNameQuery = sqlConn.prepareStatement("SELECT DISTINCT sequenceName from genome_sequence");
-        ResultSet rs = seqNameQuery.executeQuery();
-        while (rs.next()) {
-            indexedSeq.add(rs.getString(1));
-        }
-        rs.close();
-
-        return indexedSeq;
-    }
-
-    private void disconnectSqlite() throws SQLException {
-        sqlConn.close();
-    }
-
-    private void indexReferenceGenomeFasta(Path genomeSequenceFilePath) throws IOException, ClassNotFoundException, SQLException {
-       BufferedReader bufferedReader = FileUtils.newBufferedReader(genomeSequenceFilePath);
-
-        // Some parameters initialization
-        String sequenceName = "";
-        boolean haplotypeSequenceType = false;
-
-        PreparedStatement sqlInsert = sqlConn.prepareStatement("INSERT INTO genome_sequence (chunkID, start, end, sequence, sequenceName) values (?, ?, ?, ?, ?)");
-        StringBuilder sequenceStringBuilder = new StringBuilder();
-        String line;
-        while ((line = bufferedReader.readLine()) != null) {
-            // We accumulate the complete sequence in a StringBuilder
-            if (!line.startsWith(">")) {
-                sequenceStringBuilder.append(line);
-            } else {
-                // New sequence has been found and we must insert it into SQLite.
-                // Note that the first time there is no sequence. Only not HAP sequences are stored.
-                if (sequenceStringBuilder.length() > 0) {
-                    insertGenomeSequence(sequenceName, haplotypeSequenceType, sqlInsert, sequenceStringBuilder);
-                }
-
-                // initialize data structures
-                sequenceName = line.replace(">", "").split(" ")[0];
-                haplotypeSequenceType = line.endsWith("HAP");
-                sequenceStringBuilder.delete(0, sequenceStringBuilder.length());
-            }
-        }
-        insertGenomeSequence(sequenceName, haplotypeSequenceType, sqlInsert, sequenceStringBuilder);
-
-        bufferedReader.close();
-
-        Statement stm = sqlConn.createStatement();
-        stm.executeUpdate("CREATE INDEX chunkId_idx on genome_sequence(chunkId)");
-    }
-
-    private void insertGenomeSequence(String sequenceName, boolean haplotypeSequenceType, PreparedStatement sqlInsert, StringBuilder sequenceStringBuilder) throws SQLException {
-        int chunk = 0;
-        int start = 1;
-        int end = CHUNK_SIZE - 1;
-        // if the sequence read is not HAP then we stored in sqlite
-        if(!haplotypeSequenceType && !sequenceName.contains("PATCH")) {
-            logger.info("Indexing genome sequence {} ...", sequenceName);
-            sqlInsert.setString(5, sequenceName);
-            //chromosome sequence length could shorter than CHUNK_SIZE
-            if (sequenceStringBuilder.length() < CHUNK_SIZE) {
-                sqlInsert.setString(1, sequenceName+"_"+chunk+"_"+chunkIdSuffix);
-                sqlInsert.setInt(2, start);
-                sqlInsert.setInt(3, sequenceStringBuilder.length() - 1);
-                sqlInsert.setString(4, sequenceStringBuilder.toString());
-
-                // Sequence to store is larger than CHUNK_SIZE
-            } else {
-                int sequenceLength = sequenceStringBuilder.length();
-
-                sqlConn.setAutoCommit(false);
-                while (start < sequenceLength) {
-                    if (chunk % 10000 == 0 && chunk != 0) {
-                        sqlInsert.executeBatch();
-                        sqlConn.commit();
-                    }
-
-                    // chunkId is common for all the options
-                    sqlInsert.setString(1, sequenceName+"_"+chunk+"_"+chunkIdSuffix);
-                    if (start == 1) {   // First chunk of the chromosome
-                        // First chunk contains CHUNK_SIZE-1 nucleotides as index start at position 1 but must end at 1999
-//                                        chunkSequence = sequenceStringBuilder.substring(start - 1, CHUNK_SIZE - 1);
-//                                        genomeSequenceChunk = new GenomeSequenceChunk(chromosome, chromosome+"_"+chunk+"_"+chunkIdSuffix, start, end, sequenceType, sequenceAssembly, chunkSequence);
-                        sqlInsert.setInt(2, start);
-                        sqlInsert.setInt(3, end);
-                        sqlInsert.setString(4, sequenceStringBuilder.substring(start - 1, CHUNK_SIZE - 1));
-
-                        start += CHUNK_SIZE - 1;
-                    } else {    // Regular chunk
-                        if ((start + CHUNK_SIZE) < sequenceLength) {
-                            sqlInsert.setInt(2, start);
-                            sqlInsert.setInt(3, end);
-                            sqlInsert.setString(4, sequenceStringBuilder.substring(start - 1, start + CHUNK_SIZE - 1));
-                            start += CHUNK_SIZE;
-                        } else {    // Last chunk of the chromosome
-                            sqlInsert.setInt(2, start);
-                            sqlInsert.setInt(3, sequenceLength);
-                            sqlInsert.setString(4, sequenceStringBuilder.substring(start - 1, sequenceLength));
-                            start = sequenceLength;
-                        }
-                    }
-                    // we add the inserts in a batch
-                    sqlInsert.addBatch();
-
-                    end = start + CHUNK_SIZE - 1;
-                    chunk++;
-                }
-
-                sqlInsert.executeBatch();
-                sqlConn.commit();
-
-                sqlConn.setAutoCommit(true);
-            }
-        }
-    }
-
-    private String getExonSequence(String sequenceName, int start, int end){
-        String subStr = "";
-        if (indexedSequences.contains(sequenceName)) {
-            try{
-                StringBuilder stringBuilder = new StringBuilder();
-                ResultSet rs;
-                int regionChunkStart = getChunk(start);
-                int regionChunkEnd = getChunk(end);
-                for (int chunkId = regionChunkStart; chunkId <= regionChunkEnd; chunkId++) {
-                    sqlQuery.setString(1, sequenceName + "_" + chunkId + "_" + chunkIdSuffix);
-                    rs = sqlQuery.executeQuery();
-                    stringBuilder.append(rs.getString(1));
-                }
-
-                int startStr = getOffset(start);
-                int endStr = getOffset(start) + (end - start) + 1;
-                if (regionChunkStart > 0) {
-                    if (stringBuilder.toString().length() > 0 && stringBuilder.toString().length() >= endStr) {
-                        subStr = stringBuilder.toString().substring(startStr, endStr);
-                    }
-                } else {
-                    if (stringBuilder.toString().length() > 0 && stringBuilder.toString().length() + 1 >= endStr) {
-                        subStr = stringBuilder.toString().substring(startStr - 1, endStr - 1);
-                    }
-                }
-            } catch (SQLException e) {
-                logger.error("Error obtaining exon sequence ({}:{}-{})", sequenceName, start, end);
-            }
-        }
-        return subStr;
-    }
-
-    private int getChunk(int position) {
-        return (position / CHUNK_SIZE);
-    }
-
-    private int getOffset(int position) {
-        return (position % CHUNK_SIZE);
+    /**
+     * Haplotype and patch sequences (ie. 'HSCHR6_MHC_COX' or 'HG1_PATCH') are read like any other sequence, the
+     * SQLite index used before skipped them and their exons had an empty sequence.
+     */
+    private String getExonSequence(String sequenceName, int start, int end) {
+        String sequence = genomeSequenceReader.getSequence(sequenceName, start, end);
+        return sequence != null ? sequence : "";
     }
 
     private void updateTranscriptAndGeneCoords(Transcript transcript, Gene gene, Gtf gtf) {
@@ -17,36 +17,49 @@
 package org.opencb.cellbase.app.transform;
 
 import org.opencb.biodata.models.core.GenomeSequenceChunk;
+import org.opencb.cellbase.core.common.TwoBitFileWriter;
 import org.opencb.cellbase.core.serializer.CellBaseSerializer;
 import org.opencb.cellbase.app.transform.utils.FileUtils;
 
 import java.io.*;
+import java.nio.file.Files;
 import java.nio.file.Path;
 
 public class GenomeSequenceFastaParser extends CellBaseParser {
 
     private Path genomeReferenceFastaFile;
+    private Path twoBitFile;
 
     private static final int CHUNK_SIZE = 2000;
 
     public GenomeSequenceFastaParser(Path genomeReferenceFastaFile, CellBaseSerializer serializer) {
+        this(genomeReferenceFastaFile, null, serializer);
+    }
+
+    /**
+     * @param genomeReferenceFastaFile  Reference genome FASTA file
+     * @param twoBitFile    If not null the sequences are also packed into this .2bit file, which can be used by
+     *                      the local genome sequence adaptor instead of querying 'genome_sequence' collection
+     * @param serializer    Serializer for the genome sequence chunks
+     */
+    public GenomeSequenceFastaParser(Path genomeReferenceFastaFile, Path twoBitFile, CellBaseSerializer serializer) {
         super(serializer);
         this.genomeReferenceFastaFile = genomeReferenceFastaFile;
+        this.twoBitFile = twoBitFile;
     }
 
     @Override
     public void parse() {
 
-        try {
-            String sequenceName = "";
-            String sequenceType = "";
-            String sequenceAssembly = "";
-            String line;
-            StringBuilder sequenceStringBuilder = new StringBuilder();
+        String sequenceName = "";
+        String sequenceType = "";
+        String sequenceAssembly = "";
+        String line;
+        StringBuilder sequenceStringBuilder = new StringBuilder();
 
-            // Preparing input and output files
-            BufferedReader br;
-            br = FileUtils.newBufferedReader(genomeReferenceFastaFile);
+        // Preparing input and output files
+        try (BufferedReader br = FileUtils.newBufferedReader(genomeReferenceFastaFile);
+             TwoBitFileWriter twoBitFileWriter = (twoBitFile != null) ? new TwoBitFileWriter(twoBitFile) : null) {
 
             while ((line = br.readLine()) != null) {
 
@@ -58,6 +71,9 @@ public class GenomeSequenceFastaParser extends CellBaseParser {
                         if (!sequenceName.contains("PATCH") && !sequenceName.contains("HSCHR") && !sequenceName.contains("contig")) {
                             System.out.println(sequenceName);
                             serializeGenomeSequence(sequenceName, sequenceType, sequenceAssembly, sequenceStringBuilder.toString());
+                            if (twoBitFileWriter != null) {
+                                twoBitFileWriter.add(sequenceName, sequenceStringBuilder);
+                            }
                         }
                     }
 
@@ -71,11 +87,30 @@ public class GenomeSequenceFastaParser extends CellBaseParser {
             // Last chromosome must be processed
             if (!sequenceName.contains("PATCH") && !sequenceName.contains("HSCHR") && !sequenceName.contains("contig")) {
                 serializeGenomeSequence(sequenceName, sequenceType, sequenceAssembly, sequenceStringBuilder.toString());
+                if (twoBitFileWriter != null) {
+                    twoBitFileWriter.add(sequenceName, sequenceStringBuilder);
+                }
             }
-
-            br.close();
         } catch (IOException e) {
+            deleteTwoBitFile();
             e.printStackTrace();
+        } catch (RuntimeException e) {
+            deleteTwoBitFile();
+            throw e;
+        }
+    }
+
+    /**
+     * Closing the writer always packs the sequences added so far, a .2bit file missing the sequences after a
+     * parse error must not be left behind to be used by the local genome sequence adaptor.
+     */
+    private void deleteTwoBitFile() {
+        if (twoBitFile != null) {
+            try {
+                Files.deleteIfExists(twoBitFile);
+            } catch (IOException e) {
+                logger.error("Deleting incomplete .2bit file '{}': {}", twoBitFile, e.getMessage());
+            }
         }
     }
 
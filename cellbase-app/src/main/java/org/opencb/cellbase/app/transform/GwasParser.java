@@ -17,7 +17,6 @@
 package org.opencb.cellbase.app.transform;
 
 import org.apache.commons.lang.math.NumberUtils;
-import org.broad.tribble.readers.TabixReader;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.cellbase.core.common.clinical.gwas.GwasStudy;
 import org.opencb.cellbase.core.common.clinical.gwas.GwasTest;
@@ -28,11 +27,14 @@ import org.opencb.cellbase.core.common.clinical.gwas.Gwas;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.NumberFormat;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
 
 /**
  * @author Luis Miguel Cruz
@@ -69,23 +71,51 @@ public class GwasParser extends CellBaseParser {
                 logger.info("Ignoring gwas file header line ...");
 				inputReader.readLine();
 
-                Map<Variant, Gwas> variantMap = new HashMap<>();
-                logger.info("Opening dbSNP tabix file " + dbSnpTabixFilePath + " ...");
-                TabixReader dbsnpTabixReader = new TabixReader(dbSnpTabixFilePath.toString());
-
+                // dbSNP is read once for all the gwas lines instead of querying the tabix index for each of them
+                List<String[]> gwasLines = new ArrayList<>();
+                Map<String, Set<Integer>> gwasPositions = new HashMap<>();
+                Set<String> dbsnpKeys = new HashSet<>();
                 long processedGwasLines = 0;
 
-                logger.info("Parsing gwas file ...");
+                logger.info("Reading gwas file ...");
                 for (String line; (line = inputReader.readLine())!= null;) {
                     if (!line.isEmpty()) {
                         processedGwasLines++;
-                        Gwas gwasRecord = buildGwasObject(line.split("\t"), dbsnpTabixReader);
-                        if (gwasRecord != null) {
-                            addGwasRecordToVariantMap(variantMap, gwasRecord);
+                        String[] values = line.split("\t");
+                        Integer start = parseStart(values);
+                        if (start == null) {
+                            invalidStartRecords++;
+                            continue;
+                        }
+                        String chromosome = parseChromosome(values[11]);
+                        if (chromosome == null) {
+                            invalidChromosome++;
+                            continue;
                         }
+                        gwasLines.add(values);
+                        gwasPositions.computeIfAbsent(chromosome, key -> new HashSet<>()).add(start);
+                        dbsnpKeys.add(getDbsnpKey(chromosome, start, values[21].trim()));
+                    }
+                }
+                inputReader.close();
+
+                logger.info("Reading dbSNP file " + dbSnpTabixFilePath + " ...");
+                Map<String, String[]> dbsnpAlleles = readDbsnpAlleles(gwasPositions, dbsnpKeys);
+
+                logger.info("Parsing gwas file ...");
+                List<Gwas> gwasRecords = gwasLines.parallelStream()
+                        .map(values -> buildGwasObject(values, dbsnpAlleles))
+                        .collect(Collectors.toList());
+
+                // records are merged in file order so that studies are added as in the gwas file
+                Map<Variant, Gwas> variantMap = new HashMap<>();
+                for (Gwas gwasRecord : gwasRecords) {
+                    if (gwasRecord != null) {
+                        addGwasRecordToVariantMap(variantMap, gwasRecord);
+                    } else {
+                        gwasLinesNotFoundInDbsnp++;
                     }
                 }
-                dbsnpTabixReader.close();
 
                 logger.info("Serializing parsed variants ...");
                 for (Gwas gwasOutputRecord : variantMap.values()) {
@@ -102,32 +132,18 @@ public class GwasParser extends CellBaseParser {
 		}
 	}
 
-    private Gwas buildGwasObject(String[] values, TabixReader dbsnpTabixReader) {
+    private Gwas buildGwasObject(String[] values, Map<String, String[]> dbsnpAlleles) {
         Gwas gwas = null;
         Integer start = parseStart(values);
-        if (start != null) {
-            Integer end = start;
-
-            String chromosome = parseChromosome(values[11]);
-            if (chromosome != null) {
-
-                String snpId = values[21].trim();
-                String[] refAndAlt = getRefAndAltFromDbsnp(chromosome, start, snpId, dbsnpTabixReader);
-                if (refAndAlt != null) {
-
-                    gwas = new Gwas(chromosome, start, end, refAndAlt[REF], refAndAlt[ALT], values[10], values[13], values[14],
-                            values[15], values[16], values[17], values[18], values[19], values[20], snpId, values[22], values[23],
-                            values[24], values[25], parseFloat(values[26]), values[33]);
-                    addGwasStudy(values, gwas);
-
-                } else {
-                    gwasLinesNotFoundInDbsnp++;
-                }
-            } else {
-                invalidChromosome++;
-            }
-        } else {
-            invalidStartRecords++;
+        Integer end = start;
+        String chromosome = parseChromosome(values[11]);
+        String snpId = values[21].trim();
+        String[] refAndAlt = dbsnpAlleles.get(getDbsnpKey(chromosome, start, snpId));
+        if (refAndAlt != null) {
+            gwas = new Gwas(chromosome, start, end, refAndAlt[REF], refAndAlt[ALT], values[10], values[13], values[14],
+                    values[15], values[16], values[17], values[18], values[19], values[20], snpId, values[22], values[23],
+                    values[24], values[25], parseFloat(values[26]), values[33]);
+            addGwasStudy(values, gwas);
         }
 
         return gwas;
@@ -169,30 +185,73 @@ public class GwasParser extends CellBaseParser {
         return riskAlleleFrequency;
     }
 
-    private String[] getRefAndAltFromDbsnp(String chromosome, Integer start, String snpId, TabixReader dbsnpTabixReader) {
-        String[] refAndAlt = null;
-
-        TabixReader.Iterator dbsnpIterator = dbsnpTabixReader.query(chromosome + ":" + start + "-" + start);
-        try {
-            String dbSnpRecord = dbsnpIterator.next();
-            boolean found = false;
-            while (dbSnpRecord != null && !found) {
-                String[] dbsnpFields = dbSnpRecord.split("\t");
-
-                if (snpId.equalsIgnoreCase(dbsnpFields[2])) {
-                    refAndAlt = new String[2];
-                    refAndAlt[REF] = dbsnpFields[3];
-                    refAndAlt[ALT] = dbsnpFields[4];
-                    found = true;
+    private String getDbsnpKey(String chromosome, int start, String snpId) {
+        return chromosome + ":" + start + ":" + snpId.toLowerCase();
+    }
+
+    /**
+     * Reads the reference and alternate alleles of the gwas variants in a single pass over the dbSNP VCF. As the
+     * tabix queries did, a dbSNP record is taken when it overlaps the gwas position and has the same id, the first
+     * one found wins. Only the records overlapping a gwas position are split.
+     */
+    private Map<String, String[]> readDbsnpAlleles(Map<String, Set<Integer>> gwasPositions, Set<String> dbsnpKeys)
+            throws IOException {
+        Map<String, int[]> sortedPositions = new HashMap<>();
+        for (Map.Entry<String, Set<Integer>> entry : gwasPositions.entrySet()) {
+            int[] positions = entry.getValue().stream().mapToInt(Integer::intValue).toArray();
+            Arrays.sort(positions);
+            sortedPositions.put(entry.getKey(), positions);
+        }
+
+        Map<String, String[]> dbsnpAlleles = new HashMap<>(dbsnpKeys.size() * 2);
+        InputStream inputStream = Files.newInputStream(dbSnpTabixFilePath);
+        if (dbSnpTabixFilePath.toString().endsWith(".gz")) {
+            // bgzip files are concatenated gzip members, GZIPInputStream reads all of them
+            inputStream = new GZIPInputStream(inputStream, 1 << 16);
+        }
+        try (BufferedReader dbsnpReader = new BufferedReader(new InputStreamReader(inputStream), 1 << 16)) {
+            String chromosome = "";
+            int[] positions = null;
+            for (String line; (line = dbsnpReader.readLine()) != null;) {
+                if (line.isEmpty() || line.charAt(0) == '#') {
+                    continue;
+                }
+                int chromosomeEnd = line.indexOf('\t');
+                if (chromosomeEnd != chromosome.length() || !line.startsWith(chromosome)) {
+                    chromosome = line.substring(0, chromosomeEnd);
+                    positions = sortedPositions.get(chromosome);
+                }
+                if (positions == null) {
+                    continue;
+                }
+
+                // POS and the length of REF are read without splitting the line
+                int positionEnd = line.indexOf('\t', chromosomeEnd + 1);
+                int idEnd = line.indexOf('\t', positionEnd + 1);
+                int referenceEnd = line.indexOf('\t', idEnd + 1);
+                int position = 0;
+                for (int i = chromosomeEnd + 1; i < positionEnd; i++) {
+                    position = position * 10 + (line.charAt(i) - '0');
                 }
+                int lastPosition = position + Math.max(referenceEnd - idEnd - 1, 1) - 1;
 
-                dbSnpRecord = dbsnpIterator.next();
+                int index = Arrays.binarySearch(positions, position);
+                if (index < 0) {
+                    index = -index - 1;
+                }
+                if (index < positions.length && positions[index] <= lastPosition) {
+                    String[] dbsnpFields = line.split("\t");
+                    String snpId = dbsnpFields[2].toLowerCase();
+                    for (; index < positions.length && positions[index] <= lastPosition; index++) {
+                        String key = chromosome + ":" + positions[index] + ":" + snpId;
+                        if (dbsnpKeys.contains(key) && !dbsnpAlleles.containsKey(key)) {
+                            dbsnpAlleles.put(key, new String[]{dbsnpFields[3], dbsnpFields[4]});
+                        }
+                    }
+                }
             }
-        } catch (IOException e) {
-            logger.warn("Error reading position '" + chromosome + ":" + start + "' in dbSNP: " + e.getMessage());
         }
-
-        return refAndAlt;
+        return dbsnpAlleles;
     }
 
     private void addGwasStudy(String[] values, Gwas gwas) {
@@ -18,25 +18,37 @@ package org.opencb.cellbase.app.transform;
 
 import org.opencb.biodata.formats.protein.uniprot.UniprotParser;
 import org.opencb.biodata.formats.protein.uniprot.v201311jaxb.*;
+import org.opencb.cellbase.app.transform.utils.JaxbUtils;
 import org.opencb.cellbase.core.serializer.CellBaseSerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.*;
+import javax.xml.stream.events.XMLEvent;
+import javax.xml.transform.stream.StreamSource;
 import java.io.*;
 import java.math.BigInteger;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.zip.GZIPInputStream;
 
+/**
+ * UniProt chunk files are processed in parallel, entries of other organisms are skipped with StAX before being
+ * unmarshalled. A first pass collects the accessions of the species, which are used to index their InterPro
+ * matches in a single scan of protein2ipr.dat.gz. A second pass unmarshals the entries, adds their InterPro
+ * matches from the index and serializes them, entries are never kept in memory. The serializer must be thread-safe.
+ */
 public class ProteinParser extends CellBaseParser {
 
     private Path uniprotFilesDir;
     private Path interproFilePath;
     private String species;
-
-    private Map<String, Entry> proteinMap;
+    private int numThreads;
 
     protected Logger logger = LoggerFactory.getLogger(this.getClass());
 
@@ -45,11 +57,20 @@ public class ProteinParser extends CellBaseParser {
     }
 
     public ProteinParser(Path uniprotFilesDir, Path interproFilePath, String species, CellBaseSerializer serializer) {
+        this(uniprotFilesDir, interproFilePath, species, Runtime.getRuntime().availableProcessors(), serializer);
+    }
+
+    /**
+     * @param numThreads    Number of threads parsing the UniProt chunk files
+     */
+    public ProteinParser(Path uniprotFilesDir, Path interproFilePath, String species, int numThreads,
+                         CellBaseSerializer serializer) {
         super(serializer);
 
         this.uniprotFilesDir = uniprotFilesDir;
         this.interproFilePath = interproFilePath;
         this.species = species;
+        this.numThreads = Math.max(numThreads, 1);
     }
 
     @Override
@@ -59,108 +80,323 @@ public class ProteinParser extends CellBaseParser {
             throw new IOException("File '" + uniprotFilesDir + "' not valid");
         }
 
-        proteinMap = new HashMap<>(30000);
-        UniprotParser up = new UniprotParser();
+        File[] files = uniprotFilesDir.toFile().listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".xml") || name.endsWith(".xml.gz");
+            }
+        });
+
+        JAXBContext jaxbContext;
+        try {
+            jaxbContext = JAXBContext.newInstance(UniprotParser.UNIPROT_CONTEXT_v201311);
+        } catch (JAXBException e) {
+            throw new IOException("UniProt JAXB context could not be created: " + e.getMessage(), e);
+        }
+        ThreadLocal<Unmarshaller> unmarshallers = JaxbUtils.getThreadLocalUnmarshallers(jaxbContext);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(numThreads);
         try {
-            File[] files = uniprotFilesDir.toFile().listFiles(new FilenameFilter() {
-                @Override
-                public boolean accept(File dir, String name) {
-                    return name.endsWith(".xml") || name.endsWith(".xml.gz");
+            Map<String, List<InterproMatch>> interproIndex = Collections.emptyMap();
+            if(interproFilePath != null && Files.exists(interproFilePath)) {
+                Set<String> accessions = ConcurrentHashMap.newKeySet(30000);
+                runAll(executorService, files, file -> {
+                    try (UniprotEntryReader entryReader = new UniprotEntryReader(file.toPath())) {
+                        while (entryReader.nextEntry()) {
+                            if (entryReader.readEntry(false) != null && entryReader.getAccession() != null) {
+                                accessions.add(entryReader.getAccession());
+                            }
+                        }
+                    }
+                });
+                logger.debug("Number of '{}' proteins found: '{}'", species, accessions.size());
+                interproIndex = indexInterpro(accessions);
+            }
+
+            Map<String, List<InterproMatch>> interproMatches = interproIndex;
+            runAll(executorService, files, file -> {
+                try (UniprotEntryReader entryReader = new UniprotEntryReader(file.toPath())) {
+                    while (entryReader.nextEntry()) {
+                        String xml = entryReader.readEntry(true);
+                        if (xml != null) {
+                            Entry entry = unmarshallers.get().unmarshal(new StreamSource(new StringReader(xml)), Entry.class).getValue();
+                            List<InterproMatch> matches = interproMatches.get(entry.getAccession().get(0));
+                            if (matches != null) {
+                                addInterproMatches(entry, matches);
+                            }
+                            serializer.serialize(entry);
+                        }
+                    }
                 }
             });
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
 
-            for (File file : files) {
-                Uniprot uniprot = (Uniprot) up.loadXMLInfo(file.toString(), UniprotParser.UNIPROT_CONTEXT_v201311);
-
-                for (Entry entry : uniprot.getEntry()) {
-                    String entryOrganism = null;
-                    Iterator<OrganismNameType> iter = entry.getOrganism().getName().iterator();
-                    while (iter.hasNext()) {
-                        entryOrganism = iter.next().getValue();
-                        if (entryOrganism.equals(species)) {
-                            proteinMap.put(entry.getAccession().get(0), entry);
-//                            serializer.serialize(entry);
-                        }
+    @FunctionalInterface
+    private interface FileTask {
+        void run(File file) throws Exception;
+    }
+
+    /**
+     * Runs the task for every file in parallel and waits for all of them, the first error is thrown.
+     */
+    private void runAll(ExecutorService executorService, File[] files, FileTask fileTask) throws IOException {
+        List<Future<Void>> futures = new ArrayList<>(files.length);
+        for (File file : files) {
+            futures.add(executorService.submit(() -> {
+                fileTask.run(file);
+                return null;
+            }));
+        }
+        try {
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("UniProt parsing interrupted", e);
+        } catch (ExecutionException e) {
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+            throw new IOException("Error parsing UniProt files: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Reads the InterPro matches of the given accessions. protein2ipr.dat is sorted by accession, lines of
+     * accessions not requested are skipped without splitting them.
+     */
+    private Map<String, List<InterproMatch>> indexInterpro(Set<String> accessions) throws IOException {
+        Map<String, List<InterproMatch>> interproIndex = new HashMap<>(accessions.size() * 2);
+        InputStream inputStream = Files.newInputStream(interproFilePath);
+        if(interproFilePath.toString().endsWith(".gz")) {
+            inputStream = new GZIPInputStream(inputStream, 1 << 16);
+        }
+        try (BufferedReader interproBuffereReader = new BufferedReader(new InputStreamReader(inputStream), 1 << 16)) {
+            int numInterProLinesProcessed = 0;
+            String accession = "";
+            List<InterproMatch> matches = null;
+            String line;
+            while((line = interproBuffereReader.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (tab != accession.length() || !line.startsWith(accession)) {
+                    accession = (tab > 0) ? line.substring(0, tab) : "";
+                    matches = null;
+                    if (accessions.contains(accession)) {
+                        matches = interproIndex.computeIfAbsent(accession, key -> new ArrayList<>());
                     }
                 }
+                if (matches != null) {
+                    String[] fields = line.split("\t");
+                    matches.add(new InterproMatch(fields[1], fields[2], fields[3], Integer.parseInt(fields[4]),
+                            Integer.parseInt(fields[5])));
+                }
+
+                if(++numInterProLinesProcessed % 10000000 == 0) {
+                    logger.debug("{} InterPro lines processed. {} unique proteins processed",
+                            numInterProLinesProcessed, interproIndex.size());
+                }
             }
-            logger.debug("Number of proteins stored in map: '{}'", proteinMap.size());
+        }
+        return interproIndex;
+    }
 
-            if(interproFilePath != null && Files.exists(interproFilePath)) {
-                BufferedReader interproBuffereReader;
-                if(interproFilePath.toString().endsWith(".gz")) {
-                    interproBuffereReader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(interproFilePath.toFile()))));
-                }else {
-                    interproBuffereReader = new BufferedReader(new InputStreamReader(new FileInputStream(interproFilePath.toFile())));
+    /**
+     * InterPro matches update the feature with the same location or are added as new features, in file order.
+     */
+    private void addInterproMatches(Entry entry, List<InterproMatch> matches) {
+        for (InterproMatch match : matches) {
+            boolean iprAdded = false;
+            BigInteger start = BigInteger.valueOf(match.start);
+            BigInteger end = BigInteger.valueOf(match.end);
+            for(FeatureType featureType: entry.getFeature()) {
+                if(featureType.getLocation() != null && featureType.getLocation().getBegin() != null
+                        && featureType.getLocation().getBegin().getPosition() != null
+                        && featureType.getLocation().getEnd().getPosition() != null
+                        && featureType.getLocation().getBegin().getPosition().equals(start)
+                        && featureType.getLocation().getEnd().getPosition().equals(end)) {
+                    featureType.setId(match.id);
+                    featureType.setRef(match.ref);
+                    iprAdded = true;
+                    break;
                 }
+            }
 
-                Set<String> hashSet = new HashSet<>(proteinMap.keySet());
-                Set<String> visited = new HashSet<>(30000);
-
-                int numInterProLinesProcessed = 0;
-                int numUniqueProteinsProcessed = 0;
-                String[] fields;
-                String line;
-                boolean iprAdded;
-                while((line = interproBuffereReader.readLine()) != null) {
-                    fields = line.split("\t");
-
-                    if(hashSet.contains(fields[0])) {
-                        iprAdded = false;
-                        BigInteger start = BigInteger.valueOf(Integer.parseInt(fields[4]));
-                        BigInteger end = BigInteger.valueOf(Integer.parseInt(fields[5]));
-                        for(FeatureType featureType: proteinMap.get(fields[0]).getFeature()) {
-                            if(featureType.getLocation() != null && featureType.getLocation().getBegin() != null
-                                    && featureType.getLocation().getBegin().getPosition() != null
-                                    && featureType.getLocation().getEnd().getPosition() != null
-                                    && featureType.getLocation().getBegin().getPosition().equals(start)
-                                    && featureType.getLocation().getEnd().getPosition().equals(end)) {
-                                featureType.setId(fields[1]);
-                                featureType.setRef(fields[3]);
-                                iprAdded = true;
-                                break;
-                            }
-                        }
+            if(!iprAdded) {
+                FeatureType featureType = new FeatureType();
+                featureType.setId(match.id);
+                featureType.setDescription(match.description);
+                featureType.setRef(match.ref);
 
-                        if(!iprAdded) {
-                            FeatureType featureType = new FeatureType();
-                            featureType.setId(fields[1]);
-                            featureType.setDescription(fields[2]);
-                            featureType.setRef(fields[3]);
-
-                            LocationType locationType = new LocationType();
-                            PositionType positionType = new PositionType();
-                            positionType.setPosition(start);
-                            locationType.setBegin(positionType);
-                            PositionType positionType2 = new PositionType();
-                            positionType2.setPosition(end);
-                            locationType.setEnd(positionType2);
-                            featureType.setLocation(locationType);
-
-                            proteinMap.get(fields[0]).getFeature().add(featureType);
-                        }
+                LocationType locationType = new LocationType();
+                PositionType positionType = new PositionType();
+                positionType.setPosition(start);
+                locationType.setBegin(positionType);
+                PositionType positionType2 = new PositionType();
+                positionType2.setPosition(end);
+                locationType.setEnd(positionType2);
+                featureType.setLocation(locationType);
+
+                entry.getFeature().add(featureType);
+            }
+        }
+    }
+
+    private static class InterproMatch {
+
+        private final String id;
+        private final String description;
+        private final String ref;
+        private final int start;
+        private final int end;
+
+        InterproMatch(String id, String description, String ref, int start, int end) {
+            this.id = id;
+            this.description = description;
+            this.ref = ref;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Streams the entries of a UniProt XML file. The organism of an entry is checked while it is read, events are
+     * only buffered until the organism is known and entries of other organisms are never copied nor unmarshalled.
+     */
+    private class UniprotEntryReader implements Closeable {
+
+        private final InputStream inputStream;
+        private final XMLEventReader eventReader;
+        private final XMLOutputFactory outputFactory;
+        private String accession;
+
+        UniprotEntryReader(Path path) throws IOException, XMLStreamException {
+            InputStream inputStream = new BufferedInputStream(Files.newInputStream(path), 1 << 16);
+            if (path.toString().endsWith(".gz")) {
+                inputStream = new GZIPInputStream(inputStream, 1 << 16);
+            }
+            this.inputStream = inputStream;
+            XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+            inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            eventReader = inputFactory.createXMLEventReader(inputStream);
+            outputFactory = XMLOutputFactory.newInstance();
+            outputFactory.setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES, true);
+        }
+
+        /**
+         * Moves to the start of the next 'entry' element.
+         * @return false if there are no more entries
+         */
+        boolean nextEntry() throws XMLStreamException {
+            while (eventReader.hasNext()) {
+                XMLEvent event = eventReader.peek();
+                if (event.isStartElement() && event.asStartElement().getName().getLocalPart().equals("entry")) {
+                    return true;
+                }
+                eventReader.nextEvent();
+            }
+            return false;
+        }
 
-                        if(!visited.contains(fields[0])) {
-                            visited.add(fields[0]);
-                            numUniqueProteinsProcessed++;
+        /**
+         * Reads the current entry.
+         * @param copy  Whether the XML of the entry is returned
+         * @return  null if any organism name of the entry does not match the species, otherwise the XML of the
+         *          entry if 'copy' is true or an empty string
+         */
+        String readEntry(boolean copy) throws XMLStreamException {
+            accession = null;
+            Boolean matches = null;
+            List<XMLEvent> pendingEvents = new ArrayList<>();
+            StringWriter stringWriter = null;
+            XMLEventWriter eventWriter = null;
+            StringBuilder text = new StringBuilder();
+            boolean inAccession = false;
+            boolean inOrganism = false;
+            boolean inOrganismName = false;
+            int depth = 0;
+            do {
+                XMLEvent event = eventReader.nextEvent();
+                if (event.isStartElement()) {
+                    depth++;
+                    String name = event.asStartElement().getName().getLocalPart();
+                    if (depth == 2 && accession == null && name.equals("accession")) {
+                        inAccession = true;
+                        text.setLength(0);
+                    } else if (depth == 2 && matches == null && name.equals("organism")) {
+                        inOrganism = true;
+                    } else if (depth == 3 && inOrganism && name.equals("name")) {
+                        inOrganismName = true;
+                        text.setLength(0);
+                    }
+                } else if (event.isCharacters()) {
+                    if (inAccession || inOrganismName) {
+                        text.append(event.asCharacters().getData());
+                    }
+                } else if (event.isEndElement()) {
+                    if (inAccession) {
+                        accession = text.toString().trim();
+                        inAccession = false;
+                    } else if (inOrganismName && depth == 3) {
+                        if (text.toString().trim().equals(species)) {
+                            matches = true;
+                        }
+                        inOrganismName = false;
+                    } else if (inOrganism && depth == 2) {
+                        inOrganism = false;
+                        if (matches == null) {
+                            matches = false;
                         }
                     }
+                    depth--;
+                }
 
-                    if(++numInterProLinesProcessed % 10000000 == 0) {
-                        logger.debug("{} InterPro lines processed. {} unique proteins processed",
-                                numInterProLinesProcessed, numUniqueProteinsProcessed);
+                if (copy && matches != Boolean.FALSE) {
+                    if (eventWriter != null) {
+                        eventWriter.add(event);
+                    } else {
+                        pendingEvents.add(event);
+                        if (matches == Boolean.TRUE) {
+                            stringWriter = new StringWriter(16384);
+                            eventWriter = outputFactory.createXMLEventWriter(stringWriter);
+                            for (XMLEvent pendingEvent : pendingEvents) {
+                                eventWriter.add(pendingEvent);
+                            }
+                            pendingEvents = null;
+                        }
                     }
+                } else if (pendingEvents != null && !pendingEvents.isEmpty()) {
+                    pendingEvents.clear();
                 }
-                interproBuffereReader.close();
-            }
+            } while (depth > 0);
 
-            // Serialize and save results
-            for(Entry entry: proteinMap.values()) {
-                serializer.serialize(entry);
+            if (matches != Boolean.TRUE) {
+                return null;
             }
+            if (!copy) {
+                return "";
+            }
+            eventWriter.close();
+            return stringWriter.toString();
+        }
 
-        } catch (JAXBException e) {
-            e.printStackTrace();
+        String getAccession() {
+            return accession;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                eventReader.close();
+            } catch (XMLStreamException e) {
+                throw new IOException(e);
+            } finally {
+                inputStream.close();
+            }
         }
     }
 }
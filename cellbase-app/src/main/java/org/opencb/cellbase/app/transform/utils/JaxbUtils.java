@@ -0,0 +1,45 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opencb.cellbase.app.transform.utils;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+
+/**
+ * Helpers for the parsers unmarshalling XML elements from several threads.
+ */
+public class JaxbUtils {
+
+    /**
+     * JAXBContext is thread-safe but unmarshallers are not, each thread gets its own unmarshaller of the context.
+     *
+     * @param jaxbContext Context the unmarshallers are created from
+     * @return Unmarshallers of the context, one per thread
+     */
+    public static ThreadLocal<Unmarshaller> getThreadLocalUnmarshallers(JAXBContext jaxbContext) {
+        return ThreadLocal.withInitial(() -> {
+            try {
+                return jaxbContext.createUnmarshaller();
+            } catch (JAXBException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+}
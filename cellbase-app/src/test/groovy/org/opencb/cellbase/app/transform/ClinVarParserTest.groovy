@@ -22,7 +22,9 @@ import spock.lang.Shared
 import spock.lang.Specification
 import spock.lang.Unroll
 
+import java.nio.file.Files
 import java.nio.file.Paths
+import java.util.zip.GZIPOutputStream
 
 /**
  * Created by lcruz on 23/10/14.
@@ -51,6 +53,25 @@ class ClinVarParserTest extends Specification {
         serializedVariants.size() == 3
     }
 
+    def "Parse gzipped release"() {
+        setup:
+        def clinvarXmlFile = Paths.get(VariantEffectParserTest.class.getResource("/clinvar_v19_test.xml").toURI())
+        def clinvarXmlGzFile = Files.createTempFile("ClinVar", ".xml.gz")
+        new GZIPOutputStream(Files.newOutputStream(clinvarXmlGzFile)).withStream { it << Files.readAllBytes(clinvarXmlFile) }
+        def serializer = Mock(CellBaseSerializer)
+        def gzSerializedVariants = new ArrayList<ClinvarPublicSet>()
+        serializer.serialize(_) >> { ClinvarPublicSet arg -> gzSerializedVariants.add(arg) }
+
+        when:
+        new ClinVarParser(clinvarXmlGzFile, ClinVarParser.GRCH37_ASSEMBLY, serializer).parse()
+
+        then: "same variants, in the same order, as the uncompressed release"
+        gzSerializedVariants.collect { it.chromosome + ":" + it.start } == ["12:2795019", "14:24709794", "4:187120195"]
+
+        cleanup:
+        Files.deleteIfExists(clinvarXmlGzFile)
+    }
+
     @Unroll
     def "parsed variant #chr:#start-#end #ref #alt cosmic values"() {
         expect:
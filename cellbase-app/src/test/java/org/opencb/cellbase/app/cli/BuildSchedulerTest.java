@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.cellbase.app.cli;
+
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BuildSchedulerTest {
+
+    @Test
+    public void testDependencyOrder() throws Exception {
+        List<String> finished = Collections.synchronizedList(new ArrayList<>());
+        BuildScheduler buildScheduler = new BuildScheduler(4, BuildScheduler.ErrorPolicy.CONTINUE);
+        // added before their dependencies, they must not start until these are done
+        buildScheduler.add("variation", () -> finished.add("variation"), Arrays.asList("gene", "genome"));
+        buildScheduler.add("gene", () -> {
+            Thread.sleep(50);
+            finished.add("gene");
+        }, Collections.singletonList("genome"));
+        buildScheduler.add("genome", () -> {
+            Thread.sleep(50);
+            finished.add("genome");
+        }, Collections.emptyList());
+        // dependencies on itself or on steps not added are ignored
+        buildScheduler.add("clinvar", () -> finished.add("clinvar"), Arrays.asList("clinvar", "cosmic"));
+
+        assertTrue(buildScheduler.run());
+
+        assertEquals(4, finished.size());
+        assertTrue(finished.indexOf("genome") < finished.indexOf("gene"));
+        assertTrue(finished.indexOf("gene") < finished.indexOf("variation"));
+        for (BuildScheduler.Status status : buildScheduler.getStatus().values()) {
+            assertEquals(BuildScheduler.Status.DONE, status);
+        }
+    }
+
+    @Test
+    public void testContinueSkipsDependents() throws Exception {
+        BuildScheduler buildScheduler = new BuildScheduler(2, BuildScheduler.ErrorPolicy.CONTINUE);
+        buildScheduler.add("genome", () -> {
+            throw new Exception("genome failed");
+        }, Collections.emptyList());
+        buildScheduler.add("gene", () -> { }, Collections.singletonList("genome"));
+        buildScheduler.add("variation", () -> { }, Collections.singletonList("gene"));
+        buildScheduler.add("clinvar", () -> { }, Collections.emptyList());
+
+        assertFalse(buildScheduler.run());
+
+        Map<String, BuildScheduler.Status> status = buildScheduler.getStatus();
+        assertEquals(BuildScheduler.Status.FAILED, status.get("genome"));
+        assertEquals(BuildScheduler.Status.SKIPPED, status.get("gene"));
+        assertEquals(BuildScheduler.Status.SKIPPED, status.get("variation"));
+        assertEquals(BuildScheduler.Status.DONE, status.get("clinvar"));
+    }
+
+    @Test
+    public void testFailFastCancels() throws Exception {
+        CountDownLatch proteinStarted = new CountDownLatch(1);
+        BuildScheduler buildScheduler = new BuildScheduler(2, BuildScheduler.ErrorPolicy.FAIL_FAST);
+        buildScheduler.add("genome", () -> {
+            proteinStarted.await();
+            throw new Exception("genome failed");
+        }, Collections.emptyList());
+        buildScheduler.add("protein", () -> {
+            proteinStarted.countDown();
+            // interrupted when the build is cancelled
+            Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+        }, Collections.emptyList());
+        // waits for a free thread
+        buildScheduler.add("clinvar", () -> { }, Collections.emptyList());
+
+        long start = System.currentTimeMillis();
+        assertFalse(buildScheduler.run());
+        assertTrue(System.currentTimeMillis() - start < TimeUnit.SECONDS.toMillis(30));
+
+        Map<String, BuildScheduler.Status> status = buildScheduler.getStatus();
+        assertEquals(BuildScheduler.Status.FAILED, status.get("genome"));
+        assertEquals(BuildScheduler.Status.CANCELLED, status.get("protein"));
+        assertEquals(BuildScheduler.Status.SKIPPED, status.get("clinvar"));
+    }
+
+    @Test
+    public void testCycle() throws Exception {
+        List<String> started = Collections.synchronizedList(new ArrayList<>());
+        BuildScheduler buildScheduler = new BuildScheduler(2, BuildScheduler.ErrorPolicy.CONTINUE);
+        buildScheduler.add("gene", () -> started.add("gene"), Collections.singletonList("variation"));
+        buildScheduler.add("variation", () -> started.add("variation"), Collections.singletonList("gene"));
+        buildScheduler.add("genome", () -> started.add("genome"), Collections.emptyList());
+
+        try {
+            buildScheduler.run();
+            fail("Circular dependencies must be rejected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("[gene, variation]"));
+        }
+        // nothing is run
+        assertTrue(started.isEmpty());
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opencb.cellbase.app.transform;
+
+import org.junit.Test;
+import org.opencb.cellbase.core.common.ConservedRegionChunk;
+import org.opencb.cellbase.core.serializer.CellBaseFileSerializer;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class ConservedRegionParserTest {
+
+    @Test
+    public void testParseFloat() throws Exception {
+        for (String number : new String[]{"0", "-0", "0.5", "-1.234", "123", "0.001", "+3.25", "12.", "1e-5",
+                "0.1234567890123456789", "99999999999999999999.5"}) {
+            byte[] bytes = number.getBytes(StandardCharsets.US_ASCII);
+            assertEquals(number, Float.parseFloat(number), ConservedRegionParser.parseFloat(bytes, 0, bytes.length), 0);
+        }
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testParseFloatNotANumber() throws Exception {
+        byte[] bytes = "-".getBytes(StandardCharsets.US_ASCII);
+        ConservedRegionParser.parseFloat(bytes, 0, bytes.length);
+    }
+
+    @Test
+    public void testWigFixReader() throws Exception {
+        String wigFix = "fixedStep chrom=chr1 start=10918 step=1\n0.064\r\n\n  -1.5\nfixedStep chrom=chr1 start=20000 step=2\n2";
+        ConservedRegionParser.WigFixReader wigFixReader = new ConservedRegionParser.WigFixReader(
+                new ByteArrayInputStream(wigFix.getBytes(StandardCharsets.US_ASCII)));
+
+        assertTrue(wigFixReader.nextLine());
+        assertTrue(wigFixReader.isHeader());
+        assertEquals("chr1", wigFixReader.getHeaderAttributes().get("chrom"));
+        assertEquals("10918", wigFixReader.getHeaderAttributes().get("start"));
+        assertTrue(wigFixReader.nextLine());
+        assertFalse(wigFixReader.isHeader());
+        assertEquals(0.064f, wigFixReader.getValue(), 0);
+        assertTrue(wigFixReader.nextLine());
+        assertEquals(-1.5f, wigFixReader.getValue(), 0);
+        assertTrue(wigFixReader.nextLine());
+        assertEquals("2", wigFixReader.getHeaderAttributes().get("step"));
+        assertTrue(wigFixReader.nextLine());
+        assertEquals(2f, wigFixReader.getValue(), 0);
+        assertFalse(wigFixReader.nextLine());
+    }
+
+    /**
+     * The first group of a chromosome is written even when it does not reach the end of its chunk, it used to be
+     * dropped as only the groups after the first chunk boundary were saved.
+     */
+    @Test
+    public void testParseFirstShortGroup() throws Exception {
+        Path conservationDir = Files.createTempDirectory("conservation");
+        try {
+            Files.createDirectories(conservationDir.resolve("phastCons"));
+            Files.createDirectories(conservationDir.resolve("phylop"));
+            String wigFix = "fixedStep chrom=chr1 start=10918 step=1\n0.5\n0.25\n0.125\n"
+                    + "fixedStep chrom=chr1 start=20000 step=1\n1\n2\n";
+            try (OutputStream outputStream = new GZIPOutputStream(
+                    Files.newOutputStream(conservationDir.resolve("phastCons").resolve("chr1.phastCons.wigFix.gz")))) {
+                outputStream.write(wigFix.getBytes(StandardCharsets.US_ASCII));
+            }
+
+            List<String> chunks = new ArrayList<>();
+            CellBaseFileSerializer serializer = new CellBaseFileSerializer() {
+                @Override
+                public synchronized void serialize(Object object, String fileName) {
+                    // values are reused by the parser once the chunk is serialized
+                    ConservedRegionChunk chunk = (ConservedRegionChunk) object;
+                    chunks.add(fileName + " " + chunk.getStart() + "-" + chunk.getEnd() + " " + chunk.getChunkId()
+                            + " " + chunk.getValues());
+                }
+
+                @Override
+                public void serialize(Object object) {
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+            new ConservedRegionParser(conservationDir, 0, serializer).parse();
+
+            assertEquals(Arrays.asList("conservation_1_phastCons 10918-10921 5 [0.5, 0.25, 0.125]",
+                    "conservation_1_phastCons 20000-20002 10 [1.0, 2.0]"), chunks);
+        } finally {
+            for (Path path : Files.walk(conservationDir).sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
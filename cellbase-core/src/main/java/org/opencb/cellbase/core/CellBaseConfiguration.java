@@ -34,6 +34,7 @@ public class CellBaseConfiguration {
     private String wiki;
     private String defaultOutdir;
     private DatabaseProperties database;
+    private ServerProperties server;
     private DownloadProperties download;
     private SpeciesProperties species;
 
@@ -75,6 +76,14 @@ public class CellBaseConfiguration {
         this.database = database;
     }
 
+    public ServerProperties getServer() {
+        return server;
+    }
+
+    public void setServer(ServerProperties server) {
+        this.server = server;
+    }
+
     public String getDefaultOutdir() {
         return defaultOutdir;
     }
@@ -159,6 +168,61 @@ public class CellBaseConfiguration {
         }
     }
 
+    public static class ServerProperties {
+        private ResponseCacheProperties responseCache;
+
+        public ResponseCacheProperties getResponseCache() {
+            return responseCache;
+        }
+
+        public void setResponseCache(ResponseCacheProperties responseCache) {
+            this.responseCache = responseCache;
+        }
+    }
+
+    /**
+     * Server side cache of the serialized responses, sizes are in MB and KB, maxAge is the 'Cache-Control' max-age
+     * in seconds.
+     */
+    public static class ResponseCacheProperties {
+        private boolean active;
+        private int maxSizeMB = 256;
+        private int maxEntrySizeKB = 1024;
+        private long maxAge = 31536000;
+
+        public boolean isActive() {
+            return active;
+        }
+
+        public void setActive(boolean active) {
+            this.active = active;
+        }
+
+        public int getMaxSizeMB() {
+            return maxSizeMB;
+        }
+
+        public void setMaxSizeMB(int maxSizeMB) {
+            this.maxSizeMB = maxSizeMB;
+        }
+
+        public int getMaxEntrySizeKB() {
+            return maxEntrySizeKB;
+        }
+
+        public void setMaxEntrySizeKB(int maxEntrySizeKB) {
+            this.maxEntrySizeKB = maxEntrySizeKB;
+        }
+
+        public long getMaxAge() {
+            return maxAge;
+        }
+
+        public void setMaxAge(long maxAge) {
+            this.maxAge = maxAge;
+        }
+    }
+
     public static class DownloadProperties {
         private EnsemblProperties ensembl;
         private EnsemblProperties ensemblGenomes;
@@ -21,7 +21,12 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectReader;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
 import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.filter.EncodingFilter;
+import org.glassfish.jersey.message.GZipEncoder;
 
 
 import org.opencb.biodata.formats.protein.uniprot.v140jaxb.Protein;
@@ -50,12 +55,14 @@ import javax.ws.rs.client.Invocation;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriBuilder;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.*;
 
 /**
  * Created by jacobo on 17/11/14.
@@ -66,9 +73,13 @@ public class CellBaseClient {
     private final String version;
     private final UriBuilder uriBuilder;
     private final Client client;
-    private Map<String, ObjectReader> readers = new HashMap<>();
+    private final int maxConnections;
+    private ExecutorService executorService;
+    private Map<String, ObjectReader> readers = new ConcurrentHashMap<>();
     private ObjectMapper mapper;
-    private URI lastQuery = null;
+    private volatile URI lastQuery = null;
+
+    private static final int DEFAULT_ASYNC_THREADS = 4;
 
     protected static Logger logger = LoggerFactory.getLogger(CellBaseClient.class);
 
@@ -200,16 +211,41 @@ public class CellBaseClient {
         this(new URI("http", null, host, port, path.endsWith("/") ? path : path + "/", null, null), version, species);
     }
 
+    public CellBaseClient(String host, int port, String path, String version, String species, int maxConnections)
+            throws URISyntaxException {
+        this(UriBuilder.fromUri(new URI("http", null, host, port, path.endsWith("/") ? path : path + "/", null, null)),
+                version, species, maxConnections);
+    }
+
     public CellBaseClient(URI uri, String version, String species) throws URISyntaxException {
         this(UriBuilder.fromUri(uri), version, species);
     }
 
     public CellBaseClient(UriBuilder uriBuilder, String version, String species) {
+        this(uriBuilder, version, species, 0);
+    }
+
+    /**
+     * @param maxConnections When greater than 0 requests are sent through a pool of keep-alive connections of this
+     *                       size, which also bounds the number of asynchronous requests running at the same time.
+     *                       Otherwise the default Jersey connector is used.
+     */
+    public CellBaseClient(UriBuilder uriBuilder, String version, String species, int maxConnections) {
         this.species = species;
+        this.maxConnections = maxConnections;
         ClientConfig clientConfig = new ClientConfig();
-//        clientConfig.register()
+        if (maxConnections > 0) {
+            // all the requests go to the same host, so the whole pool can be used by a single route
+            PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+            connectionManager.setMaxTotal(maxConnections);
+            connectionManager.setDefaultMaxPerRoute(maxConnections);
+            clientConfig.property(ApacheClientProperties.CONNECTION_MANAGER, connectionManager);
+            clientConfig.connectorProvider(new ApacheConnectorProvider());
+        }
+        // Responses are requested compressed, CellBase JSON shrinks several times
+        clientConfig.register(GZipEncoder.class);
+        clientConfig.register(EncodingFilter.class);
         client = ClientBuilder.newClient(clientConfig);
-//        client.register()
 
         if(version == null) {
             this.version = "latest";
@@ -262,6 +298,15 @@ public class CellBaseClient {
         return get(category, subCategory, ids, resource, queryOptions, (Class<T>)resourceBeanMap.get(resource));
     }
 
+    /**
+     * Asynchronous version of get(), the request runs in the client executor, whose size is the number of pooled
+     * connections, so many batches can be in flight without the caller blocking on each of them.
+     */
+    public <T> CompletableFuture<QueryResponse<QueryResult<T>>> getAsync(
+            Category category, SubCategory subCategory, List<?> ids, Resource resource, QueryOptions queryOptions) {
+        return getAsync(category, subCategory, ids, resource, queryOptions, (Class<T>) resourceBeanMap.get(resource));
+    }
+
     public QueryResponse<QueryResult<ObjectMap>> getObjectMap(
             Category category, SubCategory subCategory, List<?> ids, Resource resource, QueryOptions queryOptions)
             throws IOException {
@@ -379,6 +424,11 @@ public class CellBaseClient {
         return get(category, subCategory, ids, Resource.fullAnnotation, queryOptions, (VariantAnnotation.class));
     }
 
+    public CompletableFuture<QueryResponse<QueryResult<VariantAnnotation>>> getFullAnnotationAsync(
+            Category category, SubCategory subCategory, List<GenomicVariant> ids, QueryOptions queryOptions) {
+        return getAsync(category, subCategory, ids, Resource.fullAnnotation, queryOptions, VariantAnnotation.class);
+    }
+
     public QueryResponse<QueryResult<Phenotype>> getPhenotype(Category category, SubCategory subCategory, String phenotype,
                                                               QueryOptions queryOptions) throws IOException {
         return get(category, subCategory, phenotype, Resource.phenotype, queryOptions, (Phenotype.class));
@@ -395,6 +445,34 @@ public class CellBaseClient {
     //
     /////////////////////////
 
+    private <T> CompletableFuture<QueryResponse<QueryResult<T>>> getAsync(
+            Category category, SubCategory subCategory, List<?> ids, Resource resource, QueryOptions queryOptions, Class<T> c) {
+        // get() modifies the options, each request gets its own copy
+        QueryOptions options = new QueryOptions();
+        if (queryOptions != null) {
+            options.putAll(queryOptions);
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return get(category, subCategory, ids, resource, options, c);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, getExecutorService());
+    }
+
+    private synchronized ExecutorService getExecutorService() {
+        if (executorService == null) {
+            executorService = Executors.newFixedThreadPool(maxConnections > 0 ? maxConnections : DEFAULT_ASYNC_THREADS,
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "cellbase-client-" + species);
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        }
+        return executorService;
+    }
+
     private <T> QueryResponse<QueryResult<T>> get(
             Category category, SubCategory subCategory, List<?> ids, Resource resource, QueryOptions queryOptions, Class<T> c)
             throws IOException {
@@ -454,7 +532,8 @@ public class CellBaseClient {
             clone.queryParam(entry.getKey(), entry.getValue());
         }
 
-        lastQuery = clone.build();
+        URI query = clone.build();
+        lastQuery = query;
 //        System.out.println(clone.build().toString());
         Invocation.Builder request = client.target(clone).request();
         Response response;
@@ -463,30 +542,40 @@ public class CellBaseClient {
         } else {
             response = request.get();
         }
-        String responseStr = response.readEntity(String.class);
 
-        try {
-            return responseReader.readValue(responseStr);
+        // The response is decoded as it arrives, it is never held as a String. Closing the stream releases the
+        // connection back to the pool.
+        try (InputStream inputStream = response.readEntity(InputStream.class)) {
+            return responseReader.readValue(inputStream);
         } catch (JsonProcessingException e) {
-            logger.error("Error parsing response to : {}", lastQuery);
+            logger.error("Error parsing response to : {}", query);
             throw e;
+        } finally {
+            response.close();
         }
     }
 
     private ObjectReader getJsonReader(Class<?> c) {
-        if(c == null) {
-            c = ObjectMap.class;
-        }
-        if (!readers.containsKey(c.getName())) {
-            readers.put(c.getName(), mapper.reader(mapper.getTypeFactory().constructParametricType(
-                    QueryResponse.class, mapper.getTypeFactory().constructParametricType(QueryResult.class, c))));
-        }
-        return readers.get(c.getName());
+        Class<?> clazz = (c != null) ? c : ObjectMap.class;
+        return readers.computeIfAbsent(clazz.getName(), name -> mapper.reader(mapper.getTypeFactory().constructParametricType(
+                QueryResponse.class, mapper.getTypeFactory().constructParametricType(QueryResult.class, clazz))));
     }
 
     public URI getLastQuery() {
         return lastQuery;
     }
 
+    /**
+     * Releases the pooled connections and the threads of the asynchronous requests.
+     */
+    public void close() {
+        synchronized (this) {
+            if (executorService != null) {
+                executorService.shutdown();
+            }
+        }
+        client.close();
+    }
+
 
 }
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opencb.cellbase.core.common;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reads the conservation score files written by {@link ConservationScoreFileWriter}. Each file is memory-mapped
+ * the first time it is needed, so scores are read from the page cache and no score is kept in the Java heap.
+ * Instances are thread-safe and are meant to be shared.
+ */
+public class ConservationScoreFileReader implements Closeable {
+
+    private static final float[] HALF_TO_FLOAT = new float[1 << 16];
+
+    static {
+        for (int i = 0; i < HALF_TO_FLOAT.length; i++) {
+            HALF_TO_FLOAT[i] = ConservationScoreFileWriter.halfToFloat((short) i);
+        }
+    }
+
+    private Path directory;
+    private List<String> types;
+    private Set<String> chromosomes;
+    private Map<String, ByteBuffer> scoreBuffers;
+
+    public ConservationScoreFileReader(Path directory) throws IOException {
+        this.directory = directory;
+        this.scoreBuffers = new ConcurrentHashMap<>();
+
+        Set<String> typeSet = new TreeSet<>();
+        chromosomes = new HashSet<>();
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory, "*_*.bin")) {
+            for (Path path : directoryStream) {
+                String fileName = path.getFileName().toString();
+                typeSet.add(fileName.substring(0, fileName.indexOf('_')));
+                chromosomes.add(fileName.substring(fileName.indexOf('_') + 1, fileName.length() - ".bin".length()));
+            }
+        }
+        types = new ArrayList<>(typeSet);
+    }
+
+    /**
+     * @return Sorted list of the score types found, ie. 'phastCons' and 'phylop'
+     */
+    public List<String> getTypes() {
+        return types;
+    }
+
+    public boolean contains(String chromosome) {
+        return chromosomes.contains(chromosome);
+    }
+
+    /**
+     * @param type  Score type, ie. 'phastCons' or 'phylop'
+     * @param chromosome    Chromosome name
+     * @param position  1-based position
+     * @return The score or NaN if there is no score for this position
+     */
+    public float getScore(String type, String chromosome, int position) {
+        ByteBuffer scoreBuffer = getScoreBuffer(type, chromosome);
+        long offset = ConservationScoreFileWriter.HEADER_SIZE + 2L * position;
+        if (scoreBuffer == null || position < 1 || offset + 2 > scoreBuffer.limit()) {
+            return Float.NaN;
+        }
+        return HALF_TO_FLOAT[scoreBuffer.getShort((int) offset) & 0xFFFF];
+    }
+
+    private ByteBuffer getScoreBuffer(String type, String chromosome) {
+        String fileName = ConservationScoreFileWriter.getFileName(type, chromosome);
+        ByteBuffer scoreBuffer = scoreBuffers.get(fileName);
+        if (scoreBuffer == null && contains(chromosome)) {
+            Path path = directory.resolve(fileName);
+            if (!Files.exists(path)) {
+                return null;
+            }
+            scoreBuffer = scoreBuffers.computeIfAbsent(fileName, name -> {
+                try {
+                    return map(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Error reading conservation file '" + path + "'", e);
+                }
+            });
+        }
+        return scoreBuffer;
+    }
+
+    private ByteBuffer map(Path path) throws IOException {
+        try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (fileChannel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Conservation file '" + path + "' is larger than 2GB");
+            }
+            // mapping remains valid after the channel is closed
+            MappedByteBuffer mappedByteBuffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+            mappedByteBuffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (fileChannel.size() < ConservationScoreFileWriter.HEADER_SIZE
+                    || mappedByteBuffer.getInt(0) != ConservationScoreFileWriter.SIGNATURE) {
+                throw new IOException("File '" + path + "' is not a conservation score file");
+            }
+            return mappedByteBuffer;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        // mapped buffers are released by the garbage collector
+        scoreBuffers.clear();
+    }
+
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opencb.cellbase.core.common;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes conservation scores (phastCons, phyloP, ...) into one binary file per score type and chromosome, named
+ * 'type_chromosome.bin'. Each file contains a small header followed by one half precision float per base, the
+ * score of position p is stored at offset HEADER_SIZE + 2 * p so files can be memory-mapped and accessed directly
+ * by {@link ConservationScoreFileReader}. Positions with no score are stored as NaN.
+ */
+public class ConservationScoreFileWriter implements Closeable {
+
+    static final int SIGNATURE = 0x43425343;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final short NO_SCORE = 0x7E00;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private Path directory;
+    private Map<String, ScoreFile> scoreFiles;
+
+    public ConservationScoreFileWriter(Path directory) throws IOException {
+        this.directory = directory;
+        this.scoreFiles = new HashMap<>();
+
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Scores are expected to be added in increasing position order, as found in wigFix files, a jump backwards
+     * is supported but flushes the pending buffer.
+     * @param type  Score type, ie. 'phastCons' or 'phylop'
+     * @param chromosome    Chromosome name
+     * @param position  1-based position
+     * @param score Conservation score
+     * @throws IOException  If the file cannot be written
+     */
+    public void add(String type, String chromosome, int position, float score) throws IOException {
+        String fileName = getFileName(type, chromosome);
+        ScoreFile scoreFile = scoreFiles.get(fileName);
+        if (scoreFile == null) {
+            scoreFile = new ScoreFile(directory.resolve(fileName));
+            scoreFiles.put(fileName, scoreFile);
+        }
+        scoreFile.add(position, floatToHalf(score));
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (ScoreFile scoreFile : scoreFiles.values()) {
+            scoreFile.close();
+        }
+        scoreFiles.clear();
+    }
+
+    static String getFileName(String type, String chromosome) {
+        return type + "_" + chromosome + ".bin";
+    }
+
+    /**
+     * IEEE 754 half precision conversion, rounding to nearest. Java 8 does not provide it.
+     */
+    static short floatToHalf(float value) {
+        int bits = Float.floatToIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int rounded = (bits & 0x7FFFFFFF) + 0x1000;
+        if (rounded >= 0x47800000) {
+            if ((bits & 0x7FFFFFFF) >= 0x47800000) {
+                // Infinity or NaN, NaN payload is kept
+                if (rounded < 0x7F800000) {
+                    return (short) (sign | 0x7C00);
+                }
+                return (short) (sign | 0x7C00 | ((bits & 0x007FFFFF) >>> 13));
+            }
+            // largest half value
+            return (short) (sign | 0x7BFF);
+        }
+        if (rounded >= 0x38800000) {
+            return (short) (sign | ((rounded - 0x38000000) >>> 13));
+        }
+        if (rounded < 0x33000000) {
+            return (short) sign;
+        }
+        // subnormal half
+        int exponent = (bits & 0x7FFFFFFF) >>> 23;
+        return (short) (sign | ((((bits & 0x7FFFFF) | 0x800000) + (0x800000 >>> (exponent - 102))) >>> (126 - exponent)));
+    }
+
+    static float halfToFloat(short half) {
+        int sign = (half & 0x8000) << 16;
+        int mantissa = half & 0x03FF;
+        int exponent = half & 0x7C00;
+        if (exponent == 0x7C00) {
+            exponent = 0x3FC00;
+        } else if (exponent != 0) {
+            exponent += 0x1C000;
+        } else if (mantissa != 0) {
+            // subnormal half, normalized in float
+            exponent = 0x1C400;
+            do {
+                mantissa <<= 1;
+                exponent -= 0x400;
+            } while ((mantissa & 0x400) == 0);
+            mantissa &= 0x3FF;
+        }
+        return Float.intBitsToFloat(sign | ((exponent | mantissa) << 13));
+    }
+
+    private static class ScoreFile {
+
+        private FileChannel fileChannel;
+        private ByteBuffer buffer;
+        // position of the first score in the buffer and position after the last score written to the file
+        private int bufferPosition;
+        private int endPosition;
+
+        ScoreFile(Path path) throws IOException {
+            fileChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(SIGNATURE).putInt(VERSION).putInt(0).putInt(0);
+            header.flip();
+            fileChannel.write(header, 0);
+
+            bufferPosition = 0;
+            endPosition = 0;
+        }
+
+        void add(int position, short score) throws IOException {
+            if (buffer.position() > 0 && (position != bufferPosition + buffer.position() / 2 || !buffer.hasRemaining())) {
+                flush();
+            }
+            if (buffer.position() == 0) {
+                if (position > endPosition) {
+                    fillGap(position);
+                }
+                bufferPosition = position;
+            }
+            buffer.putShort(score);
+        }
+
+        void flush() throws IOException {
+            if (buffer.position() == 0) {
+                return;
+            }
+            int count = buffer.position() / 2;
+            buffer.flip();
+            write(buffer, bufferPosition);
+            endPosition = Math.max(endPosition, bufferPosition + count);
+            bufferPosition += count;
+            buffer.clear();
+        }
+
+        private void fillGap(int position) throws IOException {
+            // gaps are filled with NaN so they are not read as a 0 score
+            ByteBuffer gapBuffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (endPosition < position) {
+                int count = Math.min(position - endPosition, BUFFER_SIZE / 2);
+                gapBuffer.clear();
+                for (int i = 0; i < count; i++) {
+                    gapBuffer.putShort(NO_SCORE);
+                }
+                gapBuffer.flip();
+                write(gapBuffer, endPosition);
+                endPosition += count;
+            }
+        }
+
+        private void write(ByteBuffer byteBuffer, int position) throws IOException {
+            long offset = HEADER_SIZE + 2L * position;
+            while (byteBuffer.hasRemaining()) {
+                offset += fileChannel.write(byteBuffer, offset);
+            }
+        }
+
+        void close() throws IOException {
+            flush();
+            fileChannel.close();
+        }
+    }
+
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opencb.cellbase.core.common;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * FASTA index compatible with 'samtools faidx' (.fai). Each line of the index contains the name, length, offset of
+ * the first base, bases per line and bytes per line of a sequence. Offsets refer to the uncompressed FASTA.
+ */
+public class FastaIndex {
+
+    private Map<String, Entry> entries;
+
+    public static final String FAI_EXTENSION = ".fai";
+
+    private FastaIndex(Map<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Reads an existing .fai file.
+     */
+    public static FastaIndex read(Path faiFile) throws IOException {
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        try (BufferedReader bufferedReader = Files.newBufferedReader(faiFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = bufferedReader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] fields = line.split("\t");
+                if (fields.length < 5) {
+                    throw new IOException("Malformed line in FASTA index '" + faiFile + "': " + line);
+                }
+                entries.put(fields[0], new Entry(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                        Integer.parseInt(fields[3]), Integer.parseInt(fields[4])));
+            }
+        }
+        return new FastaIndex(entries);
+    }
+
+    /**
+     * Scans an uncompressed FASTA stream to build its index, sequence names are taken from the header up to the
+     * first whitespace. All the lines of a sequence but the last one must have the same length.
+     */
+    public static FastaIndex create(InputStream fastaInputStream) throws IOException {
+        Map<String, Entry> entries = new LinkedHashMap<>();
+
+        byte[] buffer = new byte[1 << 16];
+        long position = 0;
+        long lineStart = 0;
+        boolean header = false;
+        boolean lineStarted = false;
+        StringBuilder name = new StringBuilder();
+        int bases = 0;
+
+        // current sequence
+        String sequenceName = null;
+        long length = 0;
+        long offset = 0;
+        int lineBases = 0;
+        int lineWidth = 0;
+        boolean lastLine = false;
+
+        int read;
+        while ((read = fastaInputStream.read(buffer)) > 0) {
+            for (int i = 0; i < read; i++, position++) {
+                byte b = buffer[i];
+                if (!lineStarted) {
+                    lineStarted = true;
+                    lineStart = position;
+                    header = b == '>';
+                    bases = 0;
+                    if (header) {
+                        if (sequenceName != null) {
+                            entries.put(sequenceName, new Entry(sequenceName, length, offset, lineBases, lineWidth));
+                        }
+                        sequenceName = null;
+                        name.setLength(0);
+                        continue;
+                    }
+                }
+                if (b == '\n') {
+                    lineStarted = false;
+                    if (header) {
+                        sequenceName = name.toString().trim().split("\\s")[0];
+                        length = 0;
+                        offset = position + 1;
+                        lineBases = 0;
+                        lineWidth = 0;
+                        lastLine = false;
+                    } else if (sequenceName != null && bases > 0) {
+                        if (lastLine) {
+                            throw new IOException("Sequence '" + sequenceName + "' has lines of different length");
+                        }
+                        int width = (int) (position - lineStart + 1);
+                        if (lineBases == 0) {
+                            lineBases = bases;
+                            lineWidth = width;
+                        } else if (bases != lineBases || width != lineWidth) {
+                            if (bases > lineBases) {
+                                throw new IOException("Sequence '" + sequenceName + "' has lines of different length");
+                            }
+                            lastLine = true;
+                        }
+                        length += bases;
+                    }
+                } else if (header) {
+                    name.append((char) b);
+                } else if (b != '\r') {
+                    bases++;
+                }
+            }
+        }
+        // last line with no line break
+        if (lineStarted && !header && sequenceName != null && bases > 0) {
+            if (lineBases == 0) {
+                lineBases = bases;
+                lineWidth = bases + 1;
+            }
+            length += bases;
+        }
+        if (sequenceName != null) {
+            entries.put(sequenceName, new Entry(sequenceName, length, offset, lineBases, lineWidth));
+        }
+        return new FastaIndex(entries);
+    }
+
+    public void write(Path faiFile) throws IOException {
+        try (BufferedWriter bufferedWriter = Files.newBufferedWriter(faiFile, StandardCharsets.UTF_8)) {
+            for (Entry entry : entries.values()) {
+                bufferedWriter.write(entry.getName() + "\t" + entry.getLength() + "\t" + entry.getOffset() + "\t"
+                        + entry.getLineBases() + "\t" + entry.getLineWidth());
+                bufferedWriter.newLine();
+            }
+        }
+    }
+
+    public Entry get(String sequenceName) {
+        return entries.get(sequenceName);
+    }
+
+    public boolean contains(String sequenceName) {
+        return entries.containsKey(sequenceName);
+    }
+
+    public Map<String, Entry> getEntries() {
+        return Collections.unmodifiableMap(entries);
+    }
+
+    public static class Entry {
+
+        private final String name;
+        private final long length;
+        private final long offset;
+        private final int lineBases;
+        private final int lineWidth;
+
+        public Entry(String name, long length, long offset, int lineBases, int lineWidth) {
+            this.name = name;
+            this.length = length;
+            this.offset = offset;
+            this.lineBases = lineBases;
+            this.lineWidth = lineWidth;
+        }
+
+        /**
+         * @param position 0-based position in the sequence
+         * @return Offset of the base in the uncompressed FASTA
+         */
+        public long getOffset(long position) {
+            return offset + (position / lineBases) * lineWidth + position % lineBases;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public int getLineBases() {
+            return lineBases;
+        }
+
+        public int getLineWidth() {
+            return lineWidth;
+        }
+    }
+
+}
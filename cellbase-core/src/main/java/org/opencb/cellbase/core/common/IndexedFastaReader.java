@@ -0,0 +1,337 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opencb.cellbase.core.common;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Random access reader for FASTA files using a faidx (.fai) index, which is created next to the FASTA file when it
+ * does not exist. Plain FASTA files are memory-mapped per sequence, bgzip-compressed files are read block by block
+ * using their .gzi index or scanning the block headers. Plain gzip files cannot be accessed randomly, they are
+ * decompressed once next to the original file, so this needs as much free disk as the uncompressed FASTA, use
+ * 'bgzip' to avoid it.
+ * Instances are thread-safe and are meant to be shared, ie. by the gene, regulatory and variation builders.
+ */
+public class IndexedFastaReader implements Closeable {
+
+    private Path fastaFile;
+    private FileChannel fileChannel;
+    private FastaIndex fastaIndex;
+
+    // plain FASTA
+    private Map<String, MappedByteBuffer> sequences;
+
+    // bgzip FASTA, compressed and uncompressed offsets of each block
+    private long[] blockOffsets;
+    private long[] blockUncompressedOffsets;
+    private Map<Long, byte[]> blockCache;
+
+    private final Logger logger;
+
+    private static final int BLOCK_CACHE_SIZE = 16;
+
+    public IndexedFastaReader(Path fastaFile) throws IOException {
+        logger = LoggerFactory.getLogger(this.getClass());
+
+        if (fastaFile.toString().endsWith(".gz") && !isBgzip(fastaFile)) {
+            fastaFile = decompress(fastaFile);
+        }
+        this.fastaFile = fastaFile;
+        this.fileChannel = FileChannel.open(fastaFile, StandardOpenOption.READ);
+
+        if (isBgzip(fastaFile)) {
+            readBlockIndex();
+            blockCache = new LinkedHashMap<Long, byte[]>(BLOCK_CACHE_SIZE, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                    return size() > BLOCK_CACHE_SIZE;
+                }
+            };
+        } else {
+            sequences = new ConcurrentHashMap<>();
+        }
+
+        Path faiFile = fastaFile.resolveSibling(fastaFile.getFileName() + FastaIndex.FAI_EXTENSION);
+        if (Files.exists(faiFile) && Files.getLastModifiedTime(faiFile).compareTo(Files.getLastModifiedTime(fastaFile)) >= 0) {
+            fastaIndex = FastaIndex.read(faiFile);
+        } else {
+            logger.info("Indexing FASTA file '{}' ...", fastaFile);
+            InputStream inputStream = new BufferedInputStream(Files.newInputStream(fastaFile), 1 << 16);
+            if (blockOffsets != null) {
+                inputStream = new GZIPInputStream(inputStream, 1 << 16);
+            }
+            try (InputStream fastaInputStream = inputStream) {
+                fastaIndex = FastaIndex.create(fastaInputStream);
+            }
+            try {
+                fastaIndex.write(faiFile);
+            } catch (IOException e) {
+                logger.warn("FASTA index '{}' could not be written: {}", faiFile, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Returns the bases between the 1-based start and end positions, both included. Coordinates out of the
+     * sequence are trimmed to its bounds.
+     * @return The sub-sequence, empty if the region is out of the sequence, or null if the sequence is not found
+     */
+    public String getSequence(String sequenceName, long start, long end) {
+        FastaIndex.Entry entry = fastaIndex.get(sequenceName);
+        if (entry == null) {
+            return null;
+        }
+        start = Math.max(start, 1);
+        end = Math.min(end, entry.getLength());
+        if (start > end) {
+            return "";
+        }
+
+        try {
+            long from = entry.getOffset(start - 1);
+            long to = entry.getOffset(end - 1) + 1;
+            byte[] bytes;
+            if (blockOffsets != null) {
+                bytes = readBgzip(from, to);
+            } else {
+                ByteBuffer buffer = getSequenceBuffer(entry).duplicate();
+                buffer.position((int) (from - entry.getOffset()));
+                bytes = new byte[(int) (to - from)];
+                buffer.get(bytes);
+            }
+
+            // line breaks are removed
+            char[] bases = new char[(int) (end - start + 1)];
+            int length = 0;
+            for (byte b : bytes) {
+                if (b != '\n' && b != '\r') {
+                    bases[length++] = (char) b;
+                }
+            }
+            return new String(bases, 0, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private MappedByteBuffer getSequenceBuffer(FastaIndex.Entry entry) throws IOException {
+        MappedByteBuffer buffer = sequences.get(entry.getName());
+        if (buffer == null) {
+            synchronized (this) {
+                buffer = sequences.get(entry.getName());
+                if (buffer == null) {
+                    long size = Math.min(entry.getOffset(entry.getLength() - 1) + 1, fileChannel.size()) - entry.getOffset();
+                    buffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, entry.getOffset(), size);
+                    sequences.put(entry.getName(), buffer);
+                }
+            }
+        }
+        return buffer;
+    }
+
+    public boolean contains(String sequenceName) {
+        return fastaIndex.contains(sequenceName);
+    }
+
+    /**
+     * @return Length of the sequence or -1 if it is not found
+     */
+    public long getLength(String sequenceName) {
+        FastaIndex.Entry entry = fastaIndex.get(sequenceName);
+        return entry != null ? entry.getLength() : -1;
+    }
+
+    public Set<String> getSequenceNames() {
+        return fastaIndex.getEntries().keySet();
+    }
+
+    public FastaIndex getFastaIndex() {
+        return fastaIndex;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (sequences != null) {
+            sequences.clear();
+        }
+        fileChannel.close();
+    }
+
+    /*
+     * bgzip support
+     */
+
+    /**
+     * bgzip files are gzip files made of blocks of at most 64KB whose compressed size is stored in a 'BC' extra field.
+     */
+    static boolean isBgzip(Path file) throws IOException {
+        if (Files.size(file) < 18) {
+            return false;
+        }
+        byte[] header = new byte[16];
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            if (inputStream.read(header) != header.length) {
+                return false;
+            }
+        }
+        return (header[0] & 0xFF) == 31 && (header[1] & 0xFF) == 139 && header[2] == 8 && (header[3] & 4) != 0
+                && header[12] == 'B' && header[13] == 'C';
+    }
+
+    private void readBlockIndex() throws IOException {
+        Path gziFile = fastaFile.resolveSibling(fastaFile.getFileName() + ".gzi");
+        if (Files.exists(gziFile)) {
+            ByteBuffer gzi = ByteBuffer.wrap(Files.readAllBytes(gziFile)).order(ByteOrder.LITTLE_ENDIAN);
+            int numBlocks = (int) gzi.getLong();
+            // the first block, at offset 0, is not stored
+            blockOffsets = new long[numBlocks + 1];
+            blockUncompressedOffsets = new long[numBlocks + 1];
+            for (int i = 1; i <= numBlocks; i++) {
+                blockOffsets[i] = gzi.getLong();
+                blockUncompressedOffsets[i] = gzi.getLong();
+            }
+        } else {
+            logger.info("Scanning bgzip blocks of '{}' ...", fastaFile);
+            long[] offsets = new long[1024];
+            long[] uncompressedOffsets = new long[1024];
+            int numBlocks = 0;
+            long offset = 0;
+            long uncompressedOffset = 0;
+            long fileSize = fileChannel.size();
+            ByteBuffer header = ByteBuffer.allocate(18).order(ByteOrder.LITTLE_ENDIAN);
+            ByteBuffer isize = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            while (offset < fileSize) {
+                read(header, offset);
+                int blockSize = (header.getShort(16) & 0xFFFF) + 1;
+                read(isize, offset + blockSize - 4);
+                if (numBlocks == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, numBlocks * 2);
+                    uncompressedOffsets = Arrays.copyOf(uncompressedOffsets, numBlocks * 2);
+                }
+                offsets[numBlocks] = offset;
+                uncompressedOffsets[numBlocks] = uncompressedOffset;
+                numBlocks++;
+                offset += blockSize;
+                uncompressedOffset += isize.getInt(0) & 0xFFFFFFFFL;
+            }
+            blockOffsets = Arrays.copyOf(offsets, numBlocks);
+            blockUncompressedOffsets = Arrays.copyOf(uncompressedOffsets, numBlocks);
+        }
+    }
+
+    private byte[] readBgzip(long from, long to) throws IOException {
+        byte[] bytes = new byte[(int) (to - from)];
+        int block = Arrays.binarySearch(blockUncompressedOffsets, from);
+        if (block < 0) {
+            block = -block - 2;
+        }
+        int length = 0;
+        while (length < bytes.length && block < blockOffsets.length) {
+            byte[] data = getBlock(block);
+            int blockFrom = (int) Math.max(from - blockUncompressedOffsets[block], 0);
+            int n = Math.min(data.length - blockFrom, bytes.length - length);
+            if (n > 0) {
+                System.arraycopy(data, blockFrom, bytes, length, n);
+                length += n;
+            }
+            block++;
+        }
+        return length == bytes.length ? bytes : Arrays.copyOf(bytes, length);
+    }
+
+    private byte[] getBlock(int block) throws IOException {
+        long offset = blockOffsets[block];
+        synchronized (blockCache) {
+            byte[] data = blockCache.get(offset);
+            if (data != null) {
+                return data;
+            }
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(18).order(ByteOrder.LITTLE_ENDIAN);
+        read(header, offset);
+        int extraLength = header.getShort(10) & 0xFFFF;
+        int blockSize = (header.getShort(16) & 0xFFFF) + 1;
+        ByteBuffer compressed = ByteBuffer.allocate(blockSize);
+        read(compressed, offset);
+        int uncompressedSize = compressed.order(ByteOrder.LITTLE_ENDIAN).getInt(blockSize - 4);
+
+        byte[] data = new byte[uncompressedSize];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed.array(), 12 + extraLength, blockSize - 12 - extraLength - 8);
+            inflater.inflate(data);
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted bgzip block at offset " + offset + " of '" + fastaFile + "'", e);
+        } finally {
+            inflater.end();
+        }
+
+        synchronized (blockCache) {
+            blockCache.put(offset, data);
+        }
+        return data;
+    }
+
+    private void read(ByteBuffer buffer, long position) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            if (fileChannel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of file '" + fastaFile + "' at offset " + position);
+            }
+        }
+    }
+
+    /**
+     * Decompresses a plain gzip FASTA next to it, unless it was already decompressed.
+     */
+    private Path decompress(Path gzipFile) throws IOException {
+        String fileName = gzipFile.getFileName().toString();
+        Path fastaFile = gzipFile.resolveSibling(fileName.substring(0, fileName.length() - 3));
+        if (!Files.exists(fastaFile) || Files.getLastModifiedTime(fastaFile).compareTo(Files.getLastModifiedTime(gzipFile)) < 0) {
+            logger.warn("'{}' is not bgzip-compressed, decompressing it into '{}' for random access ...", gzipFile,
+                    fastaFile);
+            Path tmpFile = fastaFile.resolveSibling(fastaFile.getFileName() + ".tmp");
+            try (InputStream inputStream = new GZIPInputStream(Files.newInputStream(gzipFile), 1 << 16)) {
+                Files.copy(inputStream, tmpFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.move(tmpFile, fastaFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return fastaFile;
+    }
+
+}
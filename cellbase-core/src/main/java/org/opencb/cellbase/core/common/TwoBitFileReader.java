@@ -0,0 +1,234 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opencb.cellbase.core.common;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Random access reader for UCSC .2bit files. The packed nucleotides of each sequence are memory-mapped the
+ * first time the sequence is requested, so sub-sequences are decoded straight from the page cache.
+ * Instances are thread-safe and are meant to be shared.
+ */
+public class TwoBitFileReader implements Closeable {
+
+    private static final char[] NUCLEOTIDES = {'T', 'C', 'A', 'G'};
+
+    private Path twoBitFile;
+    private FileChannel fileChannel;
+    private ByteOrder byteOrder;
+
+    private Map<String, Long> sequenceOffsets;
+    private Map<String, TwoBitSequence> sequences;
+
+    public TwoBitFileReader(Path twoBitFile) throws IOException {
+        this.twoBitFile = twoBitFile;
+        this.fileChannel = FileChannel.open(twoBitFile, StandardOpenOption.READ);
+        this.sequences = new ConcurrentHashMap<>();
+
+        readIndex();
+    }
+
+    private void readIndex() throws IOException {
+        ByteBuffer header = read(0, TwoBitFileWriter.HEADER_SIZE);
+        int signature = header.order(ByteOrder.LITTLE_ENDIAN).getInt(0);
+        if (signature == TwoBitFileWriter.SIGNATURE) {
+            byteOrder = ByteOrder.LITTLE_ENDIAN;
+        } else if (Integer.reverseBytes(signature) == TwoBitFileWriter.SIGNATURE) {
+            byteOrder = ByteOrder.BIG_ENDIAN;
+        } else {
+            throw new IOException("File '" + twoBitFile + "' is not a .2bit file");
+        }
+        header.order(byteOrder);
+        int version = header.getInt(4);
+        if (version != 0 && version != 1) {
+            throw new IOException("Unsupported .2bit version " + version + " in file '" + twoBitFile + "'");
+        }
+        int sequenceCount = header.getInt(8);
+
+        // version 1 uses 64-bit offsets, each index entry is at most 1 + 255 + 8 bytes long
+        long indexSize = Math.min((long) sequenceCount * (1 + 255 + 8), fileChannel.size() - TwoBitFileWriter.HEADER_SIZE);
+        MappedByteBuffer index = fileChannel.map(FileChannel.MapMode.READ_ONLY, TwoBitFileWriter.HEADER_SIZE, indexSize);
+        index.order(byteOrder);
+
+        sequenceOffsets = new LinkedHashMap<>(sequenceCount * 2);
+        for (int i = 0; i < sequenceCount; i++) {
+            byte[] name = new byte[index.get() & 0xFF];
+            index.get(name);
+            long offset = (version == 0) ? index.getInt() & 0xFFFFFFFFL : index.getLong();
+            sequenceOffsets.put(new String(name, StandardCharsets.US_ASCII), offset);
+        }
+    }
+
+    public Set<String> getSequenceNames() {
+        return sequenceOffsets.keySet();
+    }
+
+    public boolean contains(String sequenceName) {
+        return sequenceOffsets.containsKey(sequenceName);
+    }
+
+    /**
+     * @param sequenceName  Sequence name as it appears in the FASTA file, ie. '1' or 'X'
+     * @return Sequence length or -1 if the sequence does not exist
+     */
+    public int getLength(String sequenceName) {
+        TwoBitSequence twoBitSequence = getTwoBitSequence(sequenceName);
+        return (twoBitSequence != null) ? twoBitSequence.length : -1;
+    }
+
+    /**
+     * Coordinates are 1-based and inclusive, as in the rest of CellBase. Coordinates out of the sequence are
+     * trimmed, so an empty string is returned when the region does not overlap the sequence.
+     * @param sequenceName  Sequence name as it appears in the FASTA file, ie. '1' or 'X'
+     * @param start Region start
+     * @param end   Region end
+     * @return The sub-sequence or null if the sequence does not exist
+     */
+    public String getSequence(String sequenceName, int start, int end) {
+        TwoBitSequence twoBitSequence = getTwoBitSequence(sequenceName);
+        if (twoBitSequence == null) {
+            return null;
+        }
+
+        int from = Math.max(start, 1) - 1;
+        int to = Math.min(end, twoBitSequence.length);
+        if (from >= to) {
+            return "";
+        }
+
+        char[] nucleotides = new char[to - from];
+        for (int i = 0; i < nucleotides.length; i++) {
+            int position = from + i;
+            int packedByte = twoBitSequence.packedDna.get(position >>> 2);
+            nucleotides[i] = NUCLEOTIDES[(packedByte >>> (6 - ((position & 3) << 1))) & 3];
+        }
+
+        int[] blockStarts = twoBitSequence.nBlockStarts;
+        int[] blockSizes = twoBitSequence.nBlockSizes;
+        for (int i = getFirstBlock(blockStarts, blockSizes, from); i < blockStarts.length && blockStarts[i] < to; i++) {
+            int blockEnd = Math.min(blockStarts[i] + blockSizes[i], to);
+            for (int j = Math.max(blockStarts[i], from); j < blockEnd; j++) {
+                nucleotides[j - from] = 'N';
+            }
+        }
+
+        blockStarts = twoBitSequence.maskBlockStarts;
+        blockSizes = twoBitSequence.maskBlockSizes;
+        for (int i = getFirstBlock(blockStarts, blockSizes, from); i < blockStarts.length && blockStarts[i] < to; i++) {
+            int blockEnd = Math.min(blockStarts[i] + blockSizes[i], to);
+            for (int j = Math.max(blockStarts[i], from); j < blockEnd; j++) {
+                nucleotides[j - from] = Character.toLowerCase(nucleotides[j - from]);
+            }
+        }
+
+        return new String(nucleotides);
+    }
+
+    private int getFirstBlock(int[] blockStarts, int[] blockSizes, int position) {
+        int index = Arrays.binarySearch(blockStarts, position);
+        if (index < 0) {
+            // the block starting right before the position may still overlap it
+            index = Math.max(-index - 2, 0);
+            if (index < blockStarts.length && blockStarts[index] + blockSizes[index] <= position) {
+                index++;
+            }
+        }
+        return index;
+    }
+
+    private TwoBitSequence getTwoBitSequence(String sequenceName) {
+        Long offset = sequenceOffsets.get(sequenceName);
+        if (offset == null) {
+            return null;
+        }
+        return sequences.computeIfAbsent(sequenceName, name -> {
+            try {
+                return readTwoBitSequence(offset);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Error reading sequence '" + name + "' from '" + twoBitFile + "'", e);
+            }
+        });
+    }
+
+    private TwoBitSequence readTwoBitSequence(long offset) throws IOException {
+        TwoBitSequence twoBitSequence = new TwoBitSequence();
+
+        ByteBuffer byteBuffer = read(offset, 8);
+        twoBitSequence.length = byteBuffer.getInt();
+        int nBlockCount = byteBuffer.getInt();
+        offset += 8;
+
+        byteBuffer = read(offset, 8L * nBlockCount + 4);
+        twoBitSequence.nBlockStarts = new int[nBlockCount];
+        twoBitSequence.nBlockSizes = new int[nBlockCount];
+        byteBuffer.asIntBuffer().get(twoBitSequence.nBlockStarts).get(twoBitSequence.nBlockSizes);
+        int maskBlockCount = byteBuffer.getInt(8 * nBlockCount);
+        offset += 8L * nBlockCount + 4;
+
+        // mask blocks are followed by a reserved int
+        byteBuffer = read(offset, 8L * maskBlockCount + 4);
+        twoBitSequence.maskBlockStarts = new int[maskBlockCount];
+        twoBitSequence.maskBlockSizes = new int[maskBlockCount];
+        byteBuffer.asIntBuffer().get(twoBitSequence.maskBlockStarts).get(twoBitSequence.maskBlockSizes);
+        offset += 8L * maskBlockCount + 4;
+
+        twoBitSequence.packedDna = fileChannel.map(FileChannel.MapMode.READ_ONLY, offset, (twoBitSequence.length + 3L) / 4);
+        return twoBitSequence;
+    }
+
+    private ByteBuffer read(long position, long size) throws IOException {
+        ByteBuffer byteBuffer = ByteBuffer.allocate((int) size);
+        while (byteBuffer.hasRemaining()) {
+            if (fileChannel.read(byteBuffer, position + byteBuffer.position()) < 0) {
+                throw new IOException("Unexpected end of file '" + twoBitFile + "'");
+            }
+        }
+        byteBuffer.flip();
+        byteBuffer.order(byteOrder != null ? byteOrder : ByteOrder.LITTLE_ENDIAN);
+        return byteBuffer;
+    }
+
+    @Override
+    public void close() throws IOException {
+        fileChannel.close();
+    }
+
+    private static class TwoBitSequence {
+        private int length;
+        private int[] nBlockStarts;
+        private int[] nBlockSizes;
+        private int[] maskBlockStarts;
+        private int[] maskBlockSizes;
+        private MappedByteBuffer packedDna;
+    }
+
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opencb.cellbase.core.common;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes genome sequences in UCSC .2bit format: four nucleotides per byte plus the blocks of 'N' and
+ * lower case (soft-masked) nucleotides, so the original sequence can be restored by {@link TwoBitFileReader}.
+ * As in UCSC tools, IUPAC codes other than A, C, G and T (ie. 'R' or 'Y') are stored as 'N' and read back as such.
+ * Sequences are packed into a temporary file as they are added and the header and index are written
+ * when the writer is closed, so only one sequence needs to be kept in memory at a time.
+ */
+public class TwoBitFileWriter implements Closeable {
+
+    static final int SIGNATURE = 0x1A412743;
+    static final int HEADER_SIZE = 16;
+
+    private Path twoBitFile;
+    private Path recordsFile;
+    private OutputStream recordsOutputStream;
+
+    private long recordsSize;
+    private Map<String, Long> recordOffsets;
+
+    public TwoBitFileWriter(Path twoBitFile) throws IOException {
+        this.twoBitFile = twoBitFile;
+        this.recordsFile = Files.createTempFile(twoBitFile.toAbsolutePath().getParent(), twoBitFile.getFileName().toString(), ".tmp");
+        this.recordsOutputStream = new BufferedOutputStream(Files.newOutputStream(recordsFile), 1 << 20);
+
+        this.recordsSize = 0;
+        this.recordOffsets = new LinkedHashMap<>();
+    }
+
+    public void add(String sequenceName, CharSequence sequence) throws IOException {
+        if (recordOffsets.containsKey(sequenceName)) {
+            throw new IllegalArgumentException("Sequence '" + sequenceName + "' has already been added");
+        }
+        if (sequenceName.getBytes(StandardCharsets.US_ASCII).length > 255) {
+            throw new IllegalArgumentException("Sequence name '" + sequenceName + "' is longer than 255 characters");
+        }
+
+        List<Integer> nBlocks = new ArrayList<>();
+        List<Integer> maskBlocks = new ArrayList<>();
+        int nBlockStart = -1;
+        int maskBlockStart = -1;
+        int length = sequence.length();
+        for (int i = 0; i < length; i++) {
+            char c = sequence.charAt(i);
+            if (getNucleotideCode(c) < 0) {
+                if (nBlockStart < 0) {
+                    nBlockStart = i;
+                }
+            } else if (nBlockStart >= 0) {
+                nBlocks.add(nBlockStart);
+                nBlocks.add(i - nBlockStart);
+                nBlockStart = -1;
+            }
+            if (Character.isLowerCase(c)) {
+                if (maskBlockStart < 0) {
+                    maskBlockStart = i;
+                }
+            } else if (maskBlockStart >= 0) {
+                maskBlocks.add(maskBlockStart);
+                maskBlocks.add(i - maskBlockStart);
+                maskBlockStart = -1;
+            }
+        }
+        if (nBlockStart >= 0) {
+            nBlocks.add(nBlockStart);
+            nBlocks.add(length - nBlockStart);
+        }
+        if (maskBlockStart >= 0) {
+            maskBlocks.add(maskBlockStart);
+            maskBlocks.add(length - maskBlockStart);
+        }
+
+        recordOffsets.put(sequenceName, recordsSize);
+
+        writeInt(recordsOutputStream, length);
+        writeBlocks(recordsOutputStream, nBlocks);
+        writeBlocks(recordsOutputStream, maskBlocks);
+        // reserved
+        writeInt(recordsOutputStream, 0);
+
+        // 'N' are stored as 'T' (code 0), the N blocks restore them when reading
+        int packedByte = 0;
+        for (int i = 0; i < length; i++) {
+            packedByte = (packedByte << 2) | Math.max(getNucleotideCode(sequence.charAt(i)), 0);
+            if ((i & 3) == 3) {
+                recordsOutputStream.write(packedByte);
+                packedByte = 0;
+            }
+        }
+        if ((length & 3) != 0) {
+            recordsOutputStream.write(packedByte << ((4 - (length & 3)) << 1));
+        }
+
+        recordsSize += 4 + 4 + 4 * nBlocks.size() + 4 + 4 * maskBlocks.size() + 4 + (length + 3) / 4;
+    }
+
+    @Override
+    public void close() throws IOException {
+        recordsOutputStream.close();
+
+        try {
+            long indexSize = 0;
+            for (String sequenceName : recordOffsets.keySet()) {
+                indexSize += 1 + sequenceName.length() + 4;
+            }
+
+            try (OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(twoBitFile), 1 << 20)) {
+                writeInt(outputStream, SIGNATURE);
+                // version
+                writeInt(outputStream, 0);
+                writeInt(outputStream, recordOffsets.size());
+                // reserved
+                writeInt(outputStream, 0);
+
+                for (Map.Entry<String, Long> entry : recordOffsets.entrySet()) {
+                    long offset = HEADER_SIZE + indexSize + entry.getValue();
+                    if (offset > 0xFFFFFFFFL) {
+                        throw new IOException("Sequence '" + entry.getKey() + "' starts beyond the 4GB limit of the .2bit format");
+                    }
+                    byte[] name = entry.getKey().getBytes(StandardCharsets.US_ASCII);
+                    outputStream.write(name.length);
+                    outputStream.write(name);
+                    writeInt(outputStream, (int) offset);
+                }
+
+                Files.copy(recordsFile, outputStream);
+            }
+        } finally {
+            Files.deleteIfExists(recordsFile);
+        }
+    }
+
+    /**
+     * 2bit nucleotide codes are T=0, C=1, A=2 and G=3, any other character is stored as an 'N' block.
+     */
+    static int getNucleotideCode(char c) {
+        switch (c) {
+            case 'T': case 't':
+                return 0;
+            case 'C': case 'c':
+                return 1;
+            case 'A': case 'a':
+                return 2;
+            case 'G': case 'g':
+                return 3;
+            default:
+                return -1;
+        }
+    }
+
+    private void writeBlocks(OutputStream outputStream, List<Integer> blocks) throws IOException {
+        // blocks are stored as [start, size] pairs, 2bit format expects all starts followed by all sizes
+        writeInt(outputStream, blocks.size() / 2);
+        for (int i = 0; i < blocks.size(); i += 2) {
+            writeInt(outputStream, blocks.get(i));
+        }
+        for (int i = 1; i < blocks.size(); i += 2) {
+            writeInt(outputStream, blocks.get(i));
+        }
+    }
+
+    private void writeInt(OutputStream outputStream, int value) throws IOException {
+        // little-endian, as written by UCSC faToTwoBit on x86
+        outputStream.write(value);
+        outputStream.write(value >>> 8);
+        outputStream.write(value >>> 16);
+        outputStream.write(value >>> 24);
+    }
+
+}
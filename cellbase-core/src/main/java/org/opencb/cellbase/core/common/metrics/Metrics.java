@@ -0,0 +1,148 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opencb.cellbase.core.common.metrics;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Process wide registry of latency histograms, counters and gauges, exported in the Prometheus text format.
+ * Metrics are identified by name and labels, given as name/value pairs, and created the first time they are used.
+ * Label values must have a bounded number of values, ie. resource methods or adaptor names, never ids.
+ */
+public final class Metrics {
+
+    // Buckets exported for the histograms, in seconds
+    private static final double[] BUCKETS = {0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1,
+            0.25, 0.5, 1, 2.5, 5, 10, 30, 60};
+
+    private static final Map<String, Family> families = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    public static LatencyHistogram histogram(String name, String help, String... labels) {
+        return (LatencyHistogram) getFamily(name, help, "histogram").series
+                .computeIfAbsent(formatLabels(labels), key -> new LatencyHistogram());
+    }
+
+    public static LongAdder counter(String name, String help, String... labels) {
+        return (LongAdder) getFamily(name, help, "counter").series
+                .computeIfAbsent(formatLabels(labels), key -> new LongAdder());
+    }
+
+    /**
+     * Registers a counter whose value is read at export time, for monotonic counts already kept by the caller.
+     * A counter registered again with the same labels replaces the previous one.
+     */
+    public static void counter(String name, String help, Supplier<Number> supplier, String... labels) {
+        getFamily(name, help, "counter").series.put(formatLabels(labels), supplier);
+    }
+
+    /**
+     * Registers a value read at export time, a gauge registered again with the same labels replaces the previous one.
+     */
+    public static void gauge(String name, String help, Supplier<Number> supplier, String... labels) {
+        getFamily(name, help, "gauge").series.put(formatLabels(labels), supplier);
+    }
+
+    @SuppressWarnings("unchecked")
+    public static void writePrometheus(Appendable out) throws IOException {
+        for (Family family : new TreeMap<>(families).values()) {
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Object> series : new TreeMap<>(family.series).entrySet()) {
+                String labels = series.getKey();
+                Object metric = series.getValue();
+                if (metric instanceof LatencyHistogram) {
+                    writeHistogram(out, family.name, labels, (LatencyHistogram) metric);
+                } else if (metric instanceof LongAdder) {
+                    writeSample(out, family.name, labels, ((LongAdder) metric).sum());
+                } else {
+                    Number value = ((Supplier<Number>) metric).get();
+                    writeSample(out, family.name, labels, (value != null) ? value : Double.NaN);
+                }
+            }
+        }
+    }
+
+    private static void writeHistogram(Appendable out, String name, String labels, LatencyHistogram histogram)
+            throws IOException {
+        String prefix = labels.isEmpty() ? "{" : labels.substring(0, labels.length() - 1) + ",";
+        for (double bucket : BUCKETS) {
+            writeSample(out, name + "_bucket", prefix + "le=\"" + bucket + "\"}", histogram.getCountBelow(bucket));
+        }
+        long count = histogram.getCount();
+        writeSample(out, name + "_bucket", prefix + "le=\"+Inf\"}", count);
+        writeSample(out, name + "_sum", labels, histogram.getSumSeconds());
+        writeSample(out, name + "_count", labels, count);
+    }
+
+    private static void writeSample(Appendable out, String name, String labels, Number value) throws IOException {
+        out.append(name).append(labels).append(' ').append(String.valueOf(value)).append('\n');
+    }
+
+    private static Family getFamily(String name, String help, String type) {
+        Family family = families.get(name);
+        if (family == null) {
+            family = families.computeIfAbsent(name, key -> new Family(name, help, type));
+        }
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric '" + name + "' is a " + family.type + ", not a " + type);
+        }
+        return family;
+    }
+
+    static String formatLabels(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be given as name/value pairs");
+        }
+        if (labels.length == 0) {
+            return "";
+        }
+        StringBuilder formatted = new StringBuilder("{");
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                formatted.append(',');
+            }
+            formatted.append(labels[i]).append("=\"");
+            String value = (labels[i + 1] != null) ? labels[i + 1] : "";
+            formatted.append(value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n")).append('"');
+        }
+        return formatted.append('}').toString();
+    }
+
+    private static class Family {
+
+        private final String name;
+        private final String help;
+        private final String type;
+        private final Map<String, Object> series = new ConcurrentHashMap<>();
+
+        Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+}
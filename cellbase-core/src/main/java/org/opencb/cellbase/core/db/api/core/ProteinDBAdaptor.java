@@ -56,6 +56,17 @@ public interface ProteinDBAdaptor extends DBAdaptor {
 
     QueryResult getFunctionPredictionByAaChange(String transcriptId, Integer aaPosition, String newAa, QueryOptions options);
 
+    /**
+     * Bulk version of getFunctionPredictionByAaChange, the three lists are read in parallel so that the i-th
+     * (transcriptId, aaPosition, newAa) tuple is solved in the i-th QueryResult
+     * @param transcriptIdList Ensembl transcript ids
+     * @param aaPositionList amino acid positions within each transcript
+     * @param newAaList alternative amino acids, three letters code
+     * @return one QueryResult per tuple containing the substitution scores, if any
+     */
+    List<QueryResult> getFunctionPredictionByAaChangeList(List<String> transcriptIdList, List<Integer> aaPositionList,
+                                                          List<String> newAaList);
+
 
 //	public List<String> getAllUniprotAccessions();
 //
@@ -24,6 +24,7 @@ import java.io.IOException;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by parce on 18/02/15.
@@ -36,6 +37,9 @@ public abstract class CellBaseLoader implements Callable<Integer> {
 
     protected CellBaseConfiguration cellBaseConfiguration;
 
+    // updated by loaders as batches are written so LoadRunner can report progress
+    protected final AtomicLong loadedRecords;
+
     protected final Logger logger;
 
 
@@ -44,6 +48,7 @@ public abstract class CellBaseLoader implements Callable<Integer> {
         this.blockingQueue = blockingQueue;
         this.data = data;
         this.database = database;
+        this.loadedRecords = new AtomicLong();
 
         if(cellBaseConfiguration != null) {
             this.cellBaseConfiguration = cellBaseConfiguration;
@@ -68,4 +73,8 @@ public abstract class CellBaseLoader implements Callable<Integer> {
 
     public abstract void close();
 
+    public long getLoadedRecords() {
+        return loadedRecords.get();
+    }
+
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opencb.cellbase.core.loader;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+/**
+ * Batch of JSON lines read by the LoadRunner. Besides the lines it knows its position in the input file, loaders
+ * must call loaded() once all its records are in the database so the load can be resumed from there.
+ */
+public class LoadBatch extends ArrayList<String> {
+
+    private final LoadCheckpoint loadCheckpoint;
+    private final long sequence;
+    private long endOffset;
+
+    public LoadBatch(int capacity, LoadCheckpoint loadCheckpoint, long sequence) {
+        super(capacity);
+        this.loadCheckpoint = loadCheckpoint;
+        this.sequence = sequence;
+    }
+
+    public boolean isLoaded() {
+        return loadCheckpoint != null && loadCheckpoint.isLoaded(sequence);
+    }
+
+    public void loaded() {
+        if (loadCheckpoint != null) {
+            loadCheckpoint.loaded(sequence, endOffset);
+        }
+    }
+
+    /**
+     * @return The file the batch was read from, null if it is not checkpointed
+     */
+    public Path getInputFile() {
+        return loadCheckpoint != null ? loadCheckpoint.getInputFile() : null;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getEndOffset() {
+        return endOffset;
+    }
+
+    public void setEndOffset(long endOffset) {
+        this.endOffset = endOffset;
+    }
+
+}
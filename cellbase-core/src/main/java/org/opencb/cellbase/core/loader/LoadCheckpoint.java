@@ -0,0 +1,204 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opencb.cellbase.core.loader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Keeps track of the batches of an input file that have been loaded into the database. Batches are numbered in
+ * reading order and can be loaded in any order, the checkpoint stores the last batch of the contiguous loaded prefix
+ * together with the uncompressed byte offset where it ends, and the batches already loaded beyond it.
+ * A restarted load starts reading from that offset and skips the batches already loaded.
+ *
+ * Checkpoints are stored in '<input file>.checkpoint' files and are only valid for the same size and modification
+ * time of the input file.
+ */
+public class LoadCheckpoint {
+
+    private final Path inputFile;
+    private final Path checkpointFile;
+    private final long fileSize;
+    private final long fileLastModified;
+
+    // last batch of the contiguous prefix of loaded batches and the offset where it ends
+    private long sequence;
+    private long offset;
+    // batches loaded beyond 'sequence', with the offset where each one ends
+    private final TreeMap<Long, Long> loadedBatches;
+
+    private long lastSaveTime;
+    private final Logger logger;
+
+    public static final String CHECKPOINT_FILE_SUFFIX = ".checkpoint";
+    private static final long SAVE_PERIOD_MILLIS = 1000;
+
+    private LoadCheckpoint(Path inputFile) throws IOException {
+        this.inputFile = inputFile;
+        this.checkpointFile = inputFile.resolveSibling(inputFile.getFileName() + CHECKPOINT_FILE_SUFFIX);
+        this.fileSize = Files.size(inputFile);
+        this.fileLastModified = Files.getLastModifiedTime(inputFile).toMillis();
+
+        this.sequence = -1;
+        this.offset = 0;
+        this.loadedBatches = new TreeMap<>();
+
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    /**
+     * Creates the checkpoint of an input file.
+     * @param inputFile File to be loaded
+     * @param resume Whether a previous checkpoint of the file must be resumed, otherwise it is discarded
+     * @return The checkpoint, empty if there was not a valid previous one
+     * @throws IOException If the checkpoint file cannot be read
+     */
+    public static LoadCheckpoint open(Path inputFile, boolean resume) throws IOException {
+        LoadCheckpoint loadCheckpoint = new LoadCheckpoint(inputFile);
+        if (resume && Files.exists(loadCheckpoint.checkpointFile)) {
+            loadCheckpoint.read();
+        } else {
+            Files.deleteIfExists(loadCheckpoint.checkpointFile);
+        }
+        return loadCheckpoint;
+    }
+
+    private void read() throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(checkpointFile, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+
+        if (Long.parseLong(properties.getProperty("fileSize", "-1")) != fileSize
+                || Long.parseLong(properties.getProperty("fileLastModified", "-1")) != fileLastModified) {
+            logger.warn("File '{}' has changed since checkpoint '{}' was saved, it will be loaded from the beginning",
+                    inputFile, checkpointFile);
+            return;
+        }
+
+        sequence = Long.parseLong(properties.getProperty("sequence"));
+        offset = Long.parseLong(properties.getProperty("offset"));
+        String loaded = properties.getProperty("loaded", "");
+        if (!loaded.isEmpty()) {
+            for (String batch : loaded.split(",")) {
+                String[] fields = batch.split(":");
+                loadedBatches.put(Long.parseLong(fields[0]), Long.parseLong(fields[1]));
+            }
+        }
+        logger.info("Resuming '{}' from batch {} at byte {}, {} batches already loaded after it",
+                inputFile, sequence + 1, offset, loadedBatches.size());
+    }
+
+    /**
+     * @return Uncompressed byte offset where reading must start
+     */
+    public synchronized long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return Sequence number of the first batch to be read from the offset
+     */
+    public synchronized long getNextSequence() {
+        return sequence + 1;
+    }
+
+    public synchronized boolean isLoaded(long batchSequence) {
+        return batchSequence <= sequence || loadedBatches.containsKey(batchSequence);
+    }
+
+    /**
+     * Records a batch as loaded, the checkpoint file is saved at most once per second.
+     * @param batchSequence Sequence number of the batch
+     * @param batchEndOffset Uncompressed byte offset where the batch ends
+     */
+    public synchronized void loaded(long batchSequence, long batchEndOffset) {
+        if (isLoaded(batchSequence)) {
+            return;
+        }
+        loadedBatches.put(batchSequence, batchEndOffset);
+        while (!loadedBatches.isEmpty() && loadedBatches.firstKey() == sequence + 1) {
+            Map.Entry<Long, Long> entry = loadedBatches.pollFirstEntry();
+            sequence = entry.getKey();
+            offset = entry.getValue();
+        }
+
+        if (System.currentTimeMillis() - lastSaveTime >= SAVE_PERIOD_MILLIS) {
+            save();
+        }
+    }
+
+    /**
+     * Saves the checkpoint file, it is first written into a temporary file so a crash never leaves it truncated.
+     */
+    public synchronized void save() {
+        Properties properties = new Properties();
+        properties.setProperty("fileSize", String.valueOf(fileSize));
+        properties.setProperty("fileLastModified", String.valueOf(fileLastModified));
+        properties.setProperty("sequence", String.valueOf(sequence));
+        properties.setProperty("offset", String.valueOf(offset));
+        StringBuilder loaded = new StringBuilder();
+        for (Map.Entry<Long, Long> entry : loadedBatches.entrySet()) {
+            if (loaded.length() > 0) {
+                loaded.append(",");
+            }
+            loaded.append(entry.getKey()).append(":").append(entry.getValue());
+        }
+        properties.setProperty("loaded", loaded.toString());
+
+        Path tmpFile = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(tmpFile, StandardCharsets.UTF_8)) {
+                properties.store(writer, "Load checkpoint of " + inputFile.getFileName());
+            }
+            Files.move(tmpFile, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            lastSaveTime = System.currentTimeMillis();
+        } catch (IOException e) {
+            logger.warn("Checkpoint '{}' could not be saved: {}", checkpointFile, e.getMessage());
+        }
+    }
+
+    /**
+     * Removes the checkpoint file once the whole input file has been loaded.
+     */
+    public synchronized void delete() {
+        try {
+            Files.deleteIfExists(checkpointFile);
+        } catch (IOException e) {
+            logger.warn("Checkpoint '{}' could not be deleted: {}", checkpointFile, e.getMessage());
+        }
+    }
+
+    public Path getInputFile() {
+        return inputFile;
+    }
+
+    public Path getCheckpointFile() {
+        return checkpointFile;
+    }
+
+}
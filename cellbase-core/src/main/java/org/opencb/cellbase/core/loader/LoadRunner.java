@@ -20,16 +20,16 @@ import org.opencb.cellbase.core.CellBaseConfiguration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.*;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.GZIPInputStream;
 
 /**
@@ -41,24 +41,47 @@ public class LoadRunner {
     private String loader;
 
     private final int numThreads;
+    private final boolean resume;
     private CellBaseConfiguration cellBaseConfiguration;
 
     protected BlockingQueue<List<String>> blockingQueue;
 
     private final Logger logger;
 
+    // read and loaded records
+    private AtomicLong readRecords;
+    private AtomicLong readBytes;
+    private AtomicLong skippedRecords;
+
+    private List<LoadCheckpoint> loadCheckpoints;
+
     private static final int QUEUE_CAPACITY = 10;
     private static final int BATCH_SIZE = 1000;
+    private static final int METRICS_PERIOD_SECONDS = 30;
     public static final List<String> POISON_PILL = new ArrayList<>();
 
 
     public LoadRunner(String loader, String database, int numThreads, CellBaseConfiguration cellBaseConfiguration) {
+        this(loader, database, numThreads, false, cellBaseConfiguration);
+    }
+
+    /**
+     * @param resume Whether the checkpoints left by a previous interrupted load must be resumed, otherwise
+     *               files are loaded from the beginning and previous checkpoints are discarded
+     */
+    public LoadRunner(String loader, String database, int numThreads, boolean resume,
+                      CellBaseConfiguration cellBaseConfiguration) {
         this.loader = loader;
         this.database = database;
         this.numThreads = numThreads;
+        this.resume = resume;
         this.cellBaseConfiguration = cellBaseConfiguration;
 
         this.blockingQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        this.readRecords = new AtomicLong();
+        this.readBytes = new AtomicLong();
+        this.skippedRecords = new AtomicLong();
+        this.loadCheckpoints = Collections.synchronizedList(new ArrayList<>());
 
         logger = LoggerFactory.getLogger(this.getClass());
     }
@@ -78,10 +101,24 @@ public class LoadRunner {
      */
     public void load(Path filePath, String data) throws ClassNotFoundException, NoSuchMethodException, InstantiationException,
             IllegalAccessException, InvocationTargetException, ExecutionException, InterruptedException, IOException {
+        load(Collections.singletonList(filePath), data);
+    }
+
+    /**
+     * Loads several files of the same data, ie. the per-chromosome variation files. Files are read and decompressed
+     * in parallel, one reader thread per file up to 'numThreads', all of them feeding the same loaders.
+     * @param filePaths Files to be loaded
+     * @param data  Data type to be loaded, ie. 'variation'
+     */
+    public void load(List<Path> filePaths, String data) throws ClassNotFoundException, NoSuchMethodException, InstantiationException,
+            IllegalAccessException, InvocationTargetException, ExecutionException, InterruptedException, IOException {
+        ScheduledExecutorService metricsExecutorService = null;
         try {
 
-            if (filePath == null || !Files.exists(filePath) || Files.isDirectory(filePath)) {
-                throw new IOException("File '" + filePath.toString() + "' does not exist or is a directory");
+            for (Path filePath : filePaths) {
+                if (filePath == null || !Files.exists(filePath) || Files.isDirectory(filePath)) {
+                    throw new IOException("File '" + filePath + "' does not exist or is a directory");
+                }
             }
 
             // One CellBaseLoader is created for each thread in 'numThreads' variable
@@ -106,20 +143,42 @@ public class LoadRunner {
                 logger.debug("CellBaseLoader '{}' initialized and submitted to the ExecutorService", i);
             }
 
+            // Throughput of reading and loading stages is logged periodically
+            readRecords.set(0);
+            readBytes.set(0);
+            skippedRecords.set(0);
+            loadCheckpoints.clear();
+            long startTime = System.currentTimeMillis();
+            metricsExecutorService = Executors.newSingleThreadScheduledExecutor();
+            metricsExecutorService.scheduleAtFixedRate(() -> logMetrics(data, cellBaseLoaders, startTime),
+                    METRICS_PERIOD_SECONDS, METRICS_PERIOD_SECONDS, TimeUnit.SECONDS);
+
             /*
-             * Execution starts by reading the file and loading batches to the blockingQueue. This makes the loaders
+             * Execution starts by reading the files and loading batches to the blockingQueue. This makes the loaders
              * to start fetching and loading batches into the database. The number of records processed is returned.
              */
-            int processedRecords = readInputJsonFile(filePath);
+            int processedRecords = readInputJsonFiles(filePaths);
             // Check if all the records have been loaded
             int loadedRecords = 0;
             for (Future<Integer> future : futures) {
                 loadedRecords += future.get();
             }
+            logMetrics(data, cellBaseLoaders, startTime);
+            if (skippedRecords.get() > 0) {
+                logger.info("'{}' records were already loaded by a previous run and have been skipped", skippedRecords.get());
+            }
             if (processedRecords == loadedRecords) {
                 logger.info("All the '{}' records have been loaded into the database", processedRecords);
+                for (LoadCheckpoint loadCheckpoint : loadCheckpoints) {
+                    loadCheckpoint.delete();
+                }
             } else {
                 logger.warn("Only '{}' out of '{}' have been loaded into the database", loadedRecords, processedRecords);
+                for (LoadCheckpoint loadCheckpoint : loadCheckpoints) {
+                    loadCheckpoint.save();
+                    logger.warn("Checkpoint saved in '{}', run the load again with --resume to load the remaining records",
+                            loadCheckpoint.getCheckpointFile());
+                }
             }
 
             /*
@@ -134,47 +193,170 @@ public class LoadRunner {
             executorService.shutdown();
         } catch (LoaderException e) {
             logger.error("Error executing CellBase Load: " + e.getMessage());
+        } finally {
+            if (metricsExecutorService != null) {
+                metricsExecutorService.shutdownNow();
+            }
         }
 
     }
 
+    private int readInputJsonFiles(List<Path> inputFiles) throws InterruptedException, ExecutionException {
+        int inputFileRecords = 0;
+        ExecutorService readerExecutorService = Executors.newFixedThreadPool(Math.min(inputFiles.size(), numThreads));
+        try {
+            List<Future<Integer>> futures = new ArrayList<>(inputFiles.size());
+            for (Path inputFile : inputFiles) {
+                futures.add(readerExecutorService.submit(() -> readInputJsonFile(inputFile)));
+            }
+            for (Future<Integer> future : futures) {
+                inputFileRecords += future.get();
+            }
+        } finally {
+            readerExecutorService.shutdown();
+
+            // Poison Pill to consumers so they know that there are no more batches to consume
+            for (int i=0; i < numThreads; i++) {
+                blockingQueue.put(POISON_PILL);
+            }
+        }
+        return inputFileRecords;
+    }
+
+    /**
+     * Reads the JSON lines of a file in batches. Offsets are counted in uncompressed bytes assuming UTF-8 and '\n'
+     * line endings, as CellBase serializers write them, so that an interrupted load can be resumed from its
+     * checkpoint without parsing the lines already loaded.
+     */
     private int readInputJsonFile(Path inputFile) {
         int inputFileRecords = 0;
         try {
-            BufferedReader br;
+            LoadCheckpoint loadCheckpoint = LoadCheckpoint.open(inputFile, resume);
+            loadCheckpoints.add(loadCheckpoint);
+
+            InputStream inputStream = new CountingInputStream(new FileInputStream(inputFile.toFile()), readBytes);
             if(inputFile.toString().endsWith(".gz")) {
-                br = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(inputFile.toFile()))));
-            }else {
-                br = new BufferedReader(new InputStreamReader(new FileInputStream(inputFile.toFile())));
+                inputStream = new GZIPInputStream(inputStream, 1 << 16);
             }
+            long offset = loadCheckpoint.getOffset();
+            skipFully(inputStream, offset);
+            BufferedReader br = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8), 1 << 16);
 
-            List<String> batch = new ArrayList<>(BATCH_SIZE);
+            long sequence = loadCheckpoint.getNextSequence();
+            LoadBatch batch = new LoadBatch(BATCH_SIZE, loadCheckpoint, sequence);
             String jsonLine;
             while ((jsonLine = br.readLine()) != null) {
                 batch.add(jsonLine);
-                inputFileRecords++;
-                if (inputFileRecords % BATCH_SIZE == 0) {
-                    blockingQueue.put(batch);
-                    batch = new ArrayList<>(BATCH_SIZE);
+                offset += utf8Length(jsonLine) + 1;
+                if (batch.size() == BATCH_SIZE) {
+                    batch.setEndOffset(offset);
+                    inputFileRecords += putBatch(batch);
+                    batch = new LoadBatch(BATCH_SIZE, loadCheckpoint, ++sequence);
                 }
             }
             // Last batch
             if (!batch.isEmpty()) {
-                blockingQueue.put(batch);
+                batch.setEndOffset(offset);
+                inputFileRecords += putBatch(batch);
             }
+            br.close();
 
             logger.info("{} records read from '{}'", inputFileRecords, inputFile.toString());
-
-            // Poison Pill to consumers so they know that there are no more batches to consume
-            for (int i=0; i < numThreads; i++) {
-                blockingQueue.put(POISON_PILL);
-            }
         } catch (Exception e) {
             logger.error(e.getMessage());
         }
         return inputFileRecords;
     }
 
+    /**
+     * Batches loaded by a previous run are not queued again.
+     * @return Number of records queued
+     */
+    private int putBatch(LoadBatch batch) throws InterruptedException {
+        if (batch.isLoaded()) {
+            skippedRecords.addAndGet(batch.size());
+            return 0;
+        }
+        blockingQueue.put(batch);
+        readRecords.addAndGet(batch.size());
+        return batch.size();
+    }
+
+    private void skipFully(InputStream inputStream, long bytes) throws IOException {
+        long remaining = bytes;
+        while (remaining > 0) {
+            long skipped = inputStream.skip(remaining);
+            if (skipped <= 0) {
+                if (inputStream.read() < 0) {
+                    throw new EOFException("Checkpoint offset " + bytes + " is beyond the end of the file");
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+
+    static int utf8Length(String line) {
+        int length = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private void logMetrics(String data, List<CellBaseLoader> cellBaseLoaders, long startTime) {
+        double seconds = Math.max(System.currentTimeMillis() - startTime, 1) / 1000.0;
+        long loadedRecords = 0;
+        for (CellBaseLoader cellBaseLoader : cellBaseLoaders) {
+            loadedRecords += cellBaseLoader.getLoadedRecords();
+        }
+        logger.info("Loading '{}': read {} records ({} records/s, {} MB/s), queue {}/{} batches, loaded {} records ({} records/s)",
+                data, readRecords.get(), Math.round(readRecords.get() / seconds),
+                String.format("%.2f", readBytes.get() / seconds / (1024 * 1024)), blockingQueue.size(), QUEUE_CAPACITY,
+                loadedRecords, Math.round(loadedRecords / seconds));
+    }
+
+    /**
+     * Counts the bytes read from the file, before decompression.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        private AtomicLong count;
+
+        CountingInputStream(InputStream inputStream, AtomicLong count) {
+            super(inputStream);
+            this.count = count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count.addAndGet(n);
+            }
+            return n;
+        }
+    }
+
     public void index(String data) throws ClassNotFoundException, NoSuchMethodException,
             IllegalAccessException, InvocationTargetException, InstantiationException, LoaderException {
         CellBaseLoader cellBaseLoader = (CellBaseLoader) Class.forName(loader)
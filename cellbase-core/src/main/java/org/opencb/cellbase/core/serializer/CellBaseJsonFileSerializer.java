@@ -23,19 +23,23 @@ import com.fasterxml.jackson.databind.ObjectWriter;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.GZIPOutputStream;
 
 /**
  * Created by parce on 2/6/15.
+ *
+ * Objects can be serialized from several threads, lines written to the same file are never interleaved.
  */
 public class CellBaseJsonFileSerializer implements CellBaseFileSerializer {
 
     private final Path outdir;
     private final String fileName;
-    private final HashMap<String, BufferedWriter> bufferedWriters;
+    private final Map<String, BufferedWriter> bufferedWriters;
 
     private boolean serializeEmptyValues;
     private ObjectWriter jsonObjectWriter;
@@ -52,7 +56,7 @@ public class CellBaseJsonFileSerializer implements CellBaseFileSerializer {
         this.outdir = outdir;
         this.fileName = baseFileName;
         this.serializeEmptyValues = serializeEmptyValues;
-        this.bufferedWriters = new HashMap<>();
+        this.bufferedWriters = new ConcurrentHashMap<>();
         init();
     }
 
@@ -78,15 +82,23 @@ public class CellBaseJsonFileSerializer implements CellBaseFileSerializer {
 
     public void serialize(Object elem, String filename) {
         try {
-            if(bufferedWriters.get(filename) == null) {
-                Path outputFilePath = outdir.resolve(filename + ".json.gz");
-                BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(outputFilePath))));
-                bufferedWriters.put(filename, bw);
+            BufferedWriter bw = bufferedWriters.computeIfAbsent(filename, name -> {
+                Path outputFilePath = outdir.resolve(name + ".json.gz");
+                try {
+                    return new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(outputFilePath))));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            String json = jsonObjectWriter.writeValueAsString(elem);
+            synchronized (bw) {
+                bw.write(json);
+                bw.newLine();
             }
-            bufferedWriters.get(filename).write(jsonObjectWriter.writeValueAsString(elem));
-            bufferedWriters.get(filename).newLine();
         } catch (IOException e) {
             e.printStackTrace();
+        } catch (UncheckedIOException e) {
+            e.getCause().printStackTrace();
         }
     }
 
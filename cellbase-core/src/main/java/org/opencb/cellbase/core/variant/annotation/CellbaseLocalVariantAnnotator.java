@@ -0,0 +1,78 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opencb.cellbase.core.variant.annotation;
+
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.annotation.VariantAnnotation;
+import org.opencb.biodata.models.variation.GenomicVariant;
+import org.opencb.cellbase.core.db.api.variation.VariantAnnotationDBAdaptor;
+import org.opencb.datastore.core.QueryOptions;
+import org.opencb.datastore.core.QueryResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Annotates variants querying the database in-process through a VariantAnnotationDBAdaptor, the same call the
+ * full_annotation web service makes, so there is no JSON serialization nor HTTP involved. Each annotator thread
+ * must get its own adaptor.
+ */
+public class CellbaseLocalVariantAnnotator implements VariantAnnotator {
+
+    private Logger logger;
+    private VariantAnnotationDBAdaptor variantAnnotationDBAdaptor;
+    private List<VariantAnnotation> variantAnnotationList;
+
+    public CellbaseLocalVariantAnnotator(VariantAnnotationDBAdaptor variantAnnotationDBAdaptor) {
+        this.variantAnnotationDBAdaptor = variantAnnotationDBAdaptor;
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    public boolean open() {
+        return true;
+    }
+
+    public boolean close() {
+        return false;
+    }
+
+    public List<VariantAnnotation> run(List<Variant> variantList) {
+        List<GenomicVariant> batch = CellbaseWSVariantAnnotator.convertVariantsToGenomicVariants(variantList);
+        if (batch.isEmpty()) {
+            return variantAnnotationList;
+        }
+        logger.debug("Annotator queries the database for {} new variants", batch.size());
+
+        // Same options the web services set when no query parameters are given
+        QueryOptions queryOptions = new QueryOptions();
+        queryOptions.put("limit", -1);
+        queryOptions.put("skip", -1);
+        queryOptions.put("count", false);
+        List<QueryResult> queryResults = variantAnnotationDBAdaptor.getAnnotationByVariantList(batch, queryOptions);
+
+        // CellBase annotators are the first ones run, so variantAnnotationList is empty and is filled here
+        CellbaseWSVariantAnnotator.addAnnotations(variantAnnotationList, batch, queryResults, logger);
+        return variantAnnotationList;
+    }
+
+    public void setVariantAnnotationList(List<VariantAnnotation> variantAnnotationList) {
+        this.variantAnnotationList = variantAnnotationList;
+    }
+
+}
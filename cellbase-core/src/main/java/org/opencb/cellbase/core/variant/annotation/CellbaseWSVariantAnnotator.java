@@ -27,11 +27,12 @@ import org.opencb.datastore.core.QueryResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.ws.rs.ProcessingException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * Created by fjlopez on 02/03/15.
@@ -41,10 +42,23 @@ public class CellbaseWSVariantAnnotator implements VariantAnnotator {
     private Logger logger;
     private CellBaseClient cellBaseClient;
     private List<VariantAnnotation> variantAnnotationList;
+    private int numInFlight;
+
+    private static final int MAX_RETRIES = 4;
+    private static final long RETRY_BACKOFF_MILLIS = 1000;
 
 
     public CellbaseWSVariantAnnotator(CellBaseClient cellBaseClient) {
+        this(cellBaseClient, 1);
+    }
+
+    /**
+     * @param numInFlight Number of requests sent concurrently for each batch, the batch is split into this number
+     *                    of sub-batches so one worker keeps several requests outstanding against the server
+     */
+    public CellbaseWSVariantAnnotator(CellBaseClient cellBaseClient, int numInFlight) {
         this.cellBaseClient = cellBaseClient;
+        this.numInFlight = Math.max(numInFlight, 1);
         logger = LoggerFactory.getLogger(this.getClass());
     }
 
@@ -59,24 +73,84 @@ public class CellbaseWSVariantAnnotator implements VariantAnnotator {
     public List<VariantAnnotation> run(List<Variant> variantList) {
 
         List<GenomicVariant> batch = convertVariantsToGenomicVariants(variantList);
-        logger.debug("Annotator sends {} new variants for annotation. Waiting for the result", batch.size());
-        QueryResponse<QueryResult<VariantAnnotation>> response;
-        try {
-            response = cellBaseClient.getFullAnnotation(CellBaseClient.Category.genomic,
-                            CellBaseClient.SubCategory.variant, batch, new QueryOptions("post", true));
-        } catch (IOException e) {
-            return null;
+        logger.debug("Annotator sends {} new variants for annotation in {} requests. Waiting for the result",
+                batch.size(), Math.min(numInFlight, batch.size()));
+
+        // All the sub-batches are sent at once, responses are collected in the same order to keep the input order
+        int subBatchSize = Math.max((batch.size() + numInFlight - 1) / numInFlight, 1);
+        List<List<GenomicVariant>> subBatches = new ArrayList<>(numInFlight);
+        List<CompletableFuture<QueryResponse<QueryResult<VariantAnnotation>>>> futures = new ArrayList<>(numInFlight);
+        for (int i = 0; i < batch.size(); i += subBatchSize) {
+            List<GenomicVariant> subBatch = batch.subList(i, Math.min(i + subBatchSize, batch.size()));
+            subBatches.add(subBatch);
+            futures.add(cellBaseClient.getFullAnnotationAsync(CellBaseClient.Category.genomic,
+                    CellBaseClient.SubCategory.variant, subBatch, new QueryOptions("post", true)));
         }
 
-        //TODO: assuming CellBase annotation will always be the first and therefore variantAnnotationList will be empty
-        for (QueryResult<VariantAnnotation> queryResult : response.getResponse()) {
-            variantAnnotationList.add(queryResult.getResult().get(0));
+        // CellBase annotators are the first ones run, so variantAnnotationList is empty and is filled here
+        for (int i = 0; i < futures.size(); i++) {
+            QueryResponse<QueryResult<VariantAnnotation>> response;
+            try {
+                response = futures.get(i).join();
+            } catch (CompletionException e) {
+                response = retry(subBatches.get(i), e.getCause());
+            }
+            addAnnotations(variantAnnotationList, subBatches.get(i), response.getResponse(), logger);
         }
         return variantAnnotationList;
     }
 
+    /**
+     * Adds the annotation of each variant in order, the local and web service annotators share it so both produce
+     * the same annotations. A variant with no annotation gets one with just its coordinates, the following
+     * annotators expect one annotation per variant.
+     */
+    static void addAnnotations(List<VariantAnnotation> variantAnnotationList, List<GenomicVariant> variants,
+                               List<? extends QueryResult> queryResults, Logger logger) {
+        for (int i = 0; i < queryResults.size(); i++) {
+            List result = queryResults.get(i).getResult();
+            if (result != null && !result.isEmpty()) {
+                variantAnnotationList.add((VariantAnnotation) result.get(0));
+            } else {
+                GenomicVariant variant = variants.get(i);
+                logger.warn("No annotation returned for variant {}:{}:{}:{}", variant.getChromosome(),
+                        variant.getPosition(), variant.getReference(), variant.getAlternative());
+                variantAnnotationList.add(new VariantAnnotation(variant.getChromosome(), variant.getPosition(),
+                        variant.getPosition(), variant.getReference(), variant.getAlternative()));
+            }
+        }
+    }
+
+    /**
+     * Failed sub-batches are sent again waiting 1, 2, 4... seconds between attempts. If all of them fail the batch
+     * cannot be annotated and an exception is thrown, annotations are never silently dropped.
+     */
+    private QueryResponse<QueryResult<VariantAnnotation>> retry(List<GenomicVariant> subBatch, Throwable cause) {
+        long backoff = RETRY_BACKOFF_MILLIS;
+        for (int attempt = 1; attempt <= MAX_RETRIES; attempt++) {
+            logger.warn("Annotation request of {} variants starting at {}:{} failed ({}), retry {}/{} in {} ms",
+                    subBatch.size(), subBatch.get(0).getChromosome(), subBatch.get(0).getPosition(),
+                    cause.getMessage(), attempt, MAX_RETRIES, backoff);
+            try {
+                Thread.sleep(backoff);
+                return cellBaseClient.getFullAnnotation(CellBaseClient.Category.genomic,
+                        CellBaseClient.SubCategory.variant, subBatch, new QueryOptions("post", true));
+            } catch (IOException | ProcessingException e) {
+                // Jersey reports refused connections and timeouts as ProcessingException
+                cause = e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cause = e;
+                break;
+            }
+            backoff *= 2;
+        }
+        throw new RuntimeException("Variants starting at " + subBatch.get(0).getChromosome() + ":"
+                + subBatch.get(0).getPosition() + " could not be annotated", cause);
+    }
+
 
-    private List<GenomicVariant> convertVariantsToGenomicVariants(List<Variant> vcfBatch) {
+    static List<GenomicVariant> convertVariantsToGenomicVariants(List<Variant> vcfBatch) {
         List<GenomicVariant> genomicVariants = new ArrayList<>(vcfBatch.size());
         for (Variant variant : vcfBatch) {
             GenomicVariant genomicVariant;
@@ -88,7 +162,7 @@ public class CellbaseWSVariantAnnotator implements VariantAnnotator {
     }
 
     // TODO: use a external class for this (this method could be added to GenomicVariant class)
-    private GenomicVariant getGenomicVariant(Variant variant) {
+    static GenomicVariant getGenomicVariant(Variant variant) {
         if(variant.getAlternate().equals(".")) {  // reference positions are not variants
             return null;
         } else {
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opencb.cellbase.core.common;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ConservationScoreFileReaderTest {
+
+    private Path conservationDir;
+    private ConservationScoreFileReader conservationScoreFileReader;
+
+    @Before
+    public void setUp() throws Exception {
+        conservationDir = Files.createTempDirectory("conservation");
+        try (ConservationScoreFileWriter conservationScoreFileWriter = new ConservationScoreFileWriter(conservationDir)) {
+            for (int position = 10; position < 100000; position++) {
+                conservationScoreFileWriter.add("phylop", "1", position, (position % 200 - 100) / 10.0f);
+            }
+            conservationScoreFileWriter.add("phylop", "1", 200000, 0.5f);
+            conservationScoreFileWriter.add("phastCons", "1", 5, 0.123f);
+            // positions out of order are also written
+            conservationScoreFileWriter.add("phastCons", "1", 3, 0.9f);
+        }
+        conservationScoreFileReader = new ConservationScoreFileReader(conservationDir);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        conservationScoreFileReader.close();
+        for (String fileName : Arrays.asList("phylop_1.bin", "phastCons_1.bin")) {
+            Files.deleteIfExists(conservationDir.resolve(fileName));
+        }
+        Files.deleteIfExists(conservationDir);
+    }
+
+    @Test
+    public void getScore() {
+        for (int position = 10; position < 100000; position++) {
+            assertEquals((position % 200 - 100) / 10.0f, conservationScoreFileReader.getScore("phylop", "1", position), 0.01);
+        }
+        assertEquals(0.5f, conservationScoreFileReader.getScore("phylop", "1", 200000), 0.001);
+        assertEquals(0.123f, conservationScoreFileReader.getScore("phastCons", "1", 5), 0.001);
+        assertEquals(0.9f, conservationScoreFileReader.getScore("phastCons", "1", 3), 0.001);
+    }
+
+    @Test
+    public void getMissingScore() {
+        assertTrue(Float.isNaN(conservationScoreFileReader.getScore("phylop", "1", 9)));
+        assertTrue(Float.isNaN(conservationScoreFileReader.getScore("phylop", "1", 150000)));
+        assertTrue(Float.isNaN(conservationScoreFileReader.getScore("phylop", "1", 300000)));
+        assertTrue(Float.isNaN(conservationScoreFileReader.getScore("phastCons", "1", 4)));
+        assertTrue(Float.isNaN(conservationScoreFileReader.getScore("phylop", "2", 100)));
+    }
+
+    @Test
+    public void getTypes() {
+        assertEquals(Arrays.asList("phastCons", "phylop"), conservationScoreFileReader.getTypes());
+        assertTrue(conservationScoreFileReader.contains("1"));
+        assertFalse(conservationScoreFileReader.contains("2"));
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opencb.cellbase.core.common;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class IndexedFastaReaderTest {
+
+    private static final String SEQUENCE_1 = "NNNNACGTacgtGGGCCCAAATTTnnnnACGTNACGTAcgtaGATTACA";
+    private static final String SEQUENCE_2 = "ACG";
+
+    private Path folder;
+
+    @Before
+    public void setUp() throws Exception {
+        folder = Files.createTempDirectory("fasta");
+        // 10 bases per line
+        StringBuilder fasta = new StringBuilder(">1 dna:chromosome chromosome:GRCh38:1\n");
+        for (int i = 0; i < SEQUENCE_1.length(); i += 10) {
+            fasta.append(SEQUENCE_1, i, Math.min(i + 10, SEQUENCE_1.length())).append("\n");
+        }
+        fasta.append(">MT dna:chromosome\n").append(SEQUENCE_2).append("\n");
+
+        Files.write(folder.resolve("genome.fa"), fasta.toString().getBytes(StandardCharsets.UTF_8));
+        try (OutputStream outputStream = new GZIPOutputStream(Files.newOutputStream(folder.resolve("genome2.fa.gz")))) {
+            outputStream.write(fasta.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.list(folder).forEach(path -> path.toFile().delete());
+        Files.deleteIfExists(folder);
+    }
+
+    @Test
+    public void getSequence() throws Exception {
+        for (String fileName : new String[]{"genome.fa", "genome2.fa.gz"}) {
+            try (IndexedFastaReader indexedFastaReader = new IndexedFastaReader(folder.resolve(fileName))) {
+                assertEquals(SEQUENCE_2, indexedFastaReader.getSequence("MT", 1, SEQUENCE_2.length()));
+                for (int start = 1; start <= SEQUENCE_1.length(); start++) {
+                    for (int end = start; end <= SEQUENCE_1.length(); end++) {
+                        assertEquals(SEQUENCE_1.substring(start - 1, end), indexedFastaReader.getSequence("1", start, end));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void getSequenceOutOfBounds() throws Exception {
+        try (IndexedFastaReader indexedFastaReader = new IndexedFastaReader(folder.resolve("genome.fa"))) {
+            assertEquals(SEQUENCE_2, indexedFastaReader.getSequence("MT", -5, 100));
+            assertEquals("", indexedFastaReader.getSequence("MT", 10, 20));
+            assertNull(indexedFastaReader.getSequence("Y", 1, 10));
+        }
+    }
+
+    @Test
+    public void getHaplotypeAndPatchSequences() throws Exception {
+        String fasta = ">HSCHR6_MHC_COX dna:chromosome chromosome:GRCh37:HSCHR6_MHC_COX:1:4795371:1 HAP\nACGTACGT\n"
+                + ">HG1_PATCH dna:chromosome chromosome:GRCh37:HG1_PATCH:1:10000:1\nGATTACA\n";
+        Files.write(folder.resolve("haplotypes.fa"), fasta.getBytes(StandardCharsets.UTF_8));
+        try (IndexedFastaReader indexedFastaReader = new IndexedFastaReader(folder.resolve("haplotypes.fa"))) {
+            assertEquals("GTAC", indexedFastaReader.getSequence("HSCHR6_MHC_COX", 3, 6));
+            assertEquals("GATTACA", indexedFastaReader.getSequence("HG1_PATCH", 1, 7));
+        }
+    }
+
+    @Test
+    public void index() throws Exception {
+        try (IndexedFastaReader indexedFastaReader = new IndexedFastaReader(folder.resolve("genome.fa"))) {
+            assertEquals(SEQUENCE_1.length(), indexedFastaReader.getLength("1"));
+            assertEquals(-1, indexedFastaReader.getLength("Y"));
+        }
+        // the index is written next to the FASTA and is compatible with 'samtools faidx'
+        FastaIndex fastaIndex = FastaIndex.read(folder.resolve("genome.fa.fai"));
+        assertEquals(2, fastaIndex.getEntries().size());
+        assertEquals(38, fastaIndex.get("1").getOffset());
+        assertEquals(10, fastaIndex.get("1").getLineBases());
+        assertEquals(11, fastaIndex.get("1").getLineWidth());
+    }
+
+}
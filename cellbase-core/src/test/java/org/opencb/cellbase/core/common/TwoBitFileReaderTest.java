@@ -0,0 +1,94 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opencb.cellbase.core.common;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class TwoBitFileReaderTest {
+
+    private static final String SEQUENCE_1 = "NNNNACGTacgtGGGCCCAAATTTnnnnACGTNACGTAcgtaGATTACA";
+    private static final String SEQUENCE_2 = "ACG";
+
+    private Path twoBitFile;
+    private TwoBitFileReader twoBitFileReader;
+
+    @Before
+    public void setUp() throws Exception {
+        twoBitFile = Files.createTempFile("genome_sequence", ".2bit");
+        try (TwoBitFileWriter twoBitFileWriter = new TwoBitFileWriter(twoBitFile)) {
+            twoBitFileWriter.add("1", SEQUENCE_1);
+            twoBitFileWriter.add("MT", SEQUENCE_2);
+        }
+        twoBitFileReader = new TwoBitFileReader(twoBitFile);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        twoBitFileReader.close();
+        Files.deleteIfExists(twoBitFile);
+    }
+
+    @Test
+    public void getSequence() {
+        assertEquals(SEQUENCE_1, twoBitFileReader.getSequence("1", 1, SEQUENCE_1.length()));
+        assertEquals(SEQUENCE_2, twoBitFileReader.getSequence("MT", 1, SEQUENCE_2.length()));
+        for (int start = 1; start <= SEQUENCE_1.length(); start++) {
+            for (int end = start; end <= SEQUENCE_1.length(); end++) {
+                assertEquals(SEQUENCE_1.substring(start - 1, end), twoBitFileReader.getSequence("1", start, end));
+            }
+        }
+    }
+
+    @Test
+    public void getSequenceOutOfBounds() {
+        assertEquals(SEQUENCE_2, twoBitFileReader.getSequence("MT", -5, 100));
+        assertEquals("", twoBitFileReader.getSequence("MT", 10, 20));
+        assertNull(twoBitFileReader.getSequence("Y", 1, 10));
+    }
+
+    @Test
+    public void getIupacSequence() throws Exception {
+        Path iupacTwoBitFile = Files.createTempFile("genome_sequence", ".2bit");
+        try {
+            try (TwoBitFileWriter twoBitFileWriter = new TwoBitFileWriter(iupacTwoBitFile)) {
+                twoBitFileWriter.add("1", "ACRTYgkN");
+            }
+            // IUPAC codes other than ACGT are read as 'N', keeping the case
+            try (TwoBitFileReader iupacTwoBitFileReader = new TwoBitFileReader(iupacTwoBitFile)) {
+                assertEquals("ACNTNgnN", iupacTwoBitFileReader.getSequence("1", 1, 8));
+            }
+        } finally {
+            Files.deleteIfExists(iupacTwoBitFile);
+        }
+    }
+
+    @Test
+    public void getLength() {
+        assertEquals(SEQUENCE_1.length(), twoBitFileReader.getLength("1"));
+        assertEquals(-1, twoBitFileReader.getLength("Y"));
+        assertEquals(2, twoBitFileReader.getSequenceNames().size());
+    }
+
+}
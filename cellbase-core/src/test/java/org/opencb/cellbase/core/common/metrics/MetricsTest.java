@@ -0,0 +1,69 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opencb.cellbase.core.common.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MetricsTest {
+
+    @Test
+    public void testHistogramBuckets() {
+        for (long micros = 0; micros < 1 << 20; micros += 7) {
+            int index = LatencyHistogram.getIndex(micros);
+            assertTrue(micros < LatencyHistogram.getUpperBound(index));
+            assertTrue(index == 0 || micros >= LatencyHistogram.getUpperBound(index - 1));
+        }
+        assertTrue(LatencyHistogram.getIndex(LatencyHistogram.MAX_VALUE) >= 0);
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000000L);  // 1 to 1000 ms
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500.5, histogram.getSumSeconds(), 1e-6);
+        assertEquals(0.5, histogram.getValueAtPercentile(50), 0.5 * 0.0625);
+        assertEquals(0.99, histogram.getValueAtPercentile(99), 0.99 * 0.0625);
+        assertEquals(100, histogram.getCountBelow(0.1), 100 * 0.0625);
+    }
+
+    @Test
+    public void testPrometheusFormat() throws Exception {
+        Metrics.histogram("test_duration_seconds", "Test latency", "resource", "a\"b").record(2000000L);
+        Metrics.counter("test_bytes_total", "Test bytes").add(10);
+        Metrics.gauge("test_in_flight", "Test gauge", () -> 3);
+        Metrics.counter("test_hits_total", "Test counter", () -> 5L, "cache", "test");
+
+        StringBuilder out = new StringBuilder();
+        Metrics.writePrometheus(out);
+        String text = out.toString();
+        assertTrue(text.contains("# TYPE test_duration_seconds histogram\n"));
+        assertTrue(text.contains("test_duration_seconds_bucket{resource=\"a\\\"b\",le=\"0.001\"} 0\n"));
+        assertTrue(text.contains("test_duration_seconds_bucket{resource=\"a\\\"b\",le=\"0.0025\"} 1\n"));
+        assertTrue(text.contains("test_duration_seconds_count{resource=\"a\\\"b\"} 1\n"));
+        assertTrue(text.contains("test_bytes_total 10\n"));
+        assertTrue(text.contains("test_in_flight 3\n"));
+        assertTrue(text.contains("# TYPE test_hits_total counter\n"));
+        assertTrue(text.contains("test_hits_total{cache=\"test\"} 5\n"));
+    }
+
+}
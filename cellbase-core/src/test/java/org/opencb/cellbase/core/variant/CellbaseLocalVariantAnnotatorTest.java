@@ -0,0 +1,162 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.cellbase.core.variant;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.opencb.biodata.formats.annotation.io.JsonAnnotationWriter;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.annotation.ConsequenceType;
+import org.opencb.biodata.models.variant.annotation.PopulationFrequency;
+import org.opencb.biodata.models.variant.annotation.Score;
+import org.opencb.biodata.models.variant.annotation.VariantAnnotation;
+import org.opencb.biodata.models.variation.GenomicVariant;
+import org.opencb.cellbase.core.client.CellBaseClient;
+import org.opencb.cellbase.core.db.api.variation.VariantAnnotationDBAdaptor;
+import org.opencb.cellbase.core.variant.annotation.CellbaseLocalVariantAnnotator;
+import org.opencb.cellbase.core.variant.annotation.CellbaseWSVariantAnnotator;
+import org.opencb.datastore.core.QueryOptions;
+import org.opencb.datastore.core.QueryResponse;
+import org.opencb.datastore.core.QueryResult;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+/**
+ * The --local annotation must write the same bytes as the web service annotation of the same variants.
+ */
+public class CellbaseLocalVariantAnnotatorTest {
+
+    @Test
+    public void testSameOutputAsWebServices() throws Exception {
+        List<Variant> variants = Arrays.asList(
+                new Variant("1", 10000, 10000, "A", "G"),
+                new Variant("2", 20000, 20002, "ACT", "A"),
+                new Variant("X", 30000, 30000, "", "T"),
+                new Variant("13", 40000, 40000, "C", "T"));
+        VariantAnnotationDBAdaptor dbAdaptor = createDBAdaptor();
+
+        CellbaseLocalVariantAnnotator localAnnotator = new CellbaseLocalVariantAnnotator(dbAdaptor);
+        localAnnotator.setVariantAnnotationList(new ArrayList<>());
+        List<VariantAnnotation> localAnnotations = localAnnotator.run(variants);
+
+        CellbaseWSVariantAnnotator wsAnnotator = new CellbaseWSVariantAnnotator(new WebServicesClient(dbAdaptor), 2);
+        wsAnnotator.setVariantAnnotationList(new ArrayList<>());
+        List<VariantAnnotation> wsAnnotations = wsAnnotator.run(variants);
+
+        // the variant with no annotation in the database still gets one, as in the web service path
+        assertEquals(variants.size(), localAnnotations.size());
+        assertEquals(variants.size(), wsAnnotations.size());
+        assertArrayEquals(write(wsAnnotations), write(localAnnotations));
+    }
+
+    /**
+     * Returns annotations with the fields filled by VariantAnnotationMongoDBAdaptor, chromosome 13 has none.
+     */
+    private VariantAnnotationDBAdaptor createDBAdaptor() {
+        return (VariantAnnotationDBAdaptor) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[]{VariantAnnotationDBAdaptor.class}, (proxy, method, args) -> {
+                    if (!method.getName().equals("getAnnotationByVariantList")) {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                    List<QueryResult> queryResults = new ArrayList<>();
+                    for (GenomicVariant variant : (List<GenomicVariant>) args[0]) {
+                        List<VariantAnnotation> result = new ArrayList<>();
+                        if (!variant.getChromosome().equals("13")) {
+                            VariantAnnotation variantAnnotation = new VariantAnnotation(variant.getChromosome(),
+                                    variant.getPosition(), variant.getPosition(), variant.getReference(),
+                                    variant.getAlternative());
+                            variantAnnotation.setId("rs" + variant.getPosition());
+                            variantAnnotation.setConsequenceTypes(Collections.singletonList(
+                                    new ConsequenceType("SO:0001583", "missense_variant", "ENST00000000001", "")));
+                            variantAnnotation.setConservedRegionScores(Collections.singletonList(
+                                    new Score(0.5, "phastCons", null)));
+                            variantAnnotation.addPopulationFrequency(new PopulationFrequency("1kG_phase3", "ALL",
+                                    "ALL", variant.getReference(), variant.getAlternative(), 0.75f, 0.25f));
+                            result.add(variantAnnotation);
+                        }
+                        queryResults.add(new QueryResult<>(variant.toString(), 0, result.size(), result.size(), "",
+                                "", result));
+                    }
+                    return queryResults;
+                });
+    }
+
+    private byte[] write(List<VariantAnnotation> variantAnnotations) throws IOException {
+        Path file = Files.createTempFile("annotation", ".json");
+        try {
+            JsonAnnotationWriter writer = new JsonAnnotationWriter(file.toString());
+            writer.open();
+            writer.pre();
+            writer.write(variantAnnotations);
+            writer.post();
+            writer.close();
+            return Files.readAllBytes(file);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Serializes the adaptor results as the web services do and parses them with the client mapper, with no HTTP.
+     */
+    private static class WebServicesClient extends CellBaseClient {
+
+        private final VariantAnnotationDBAdaptor dbAdaptor;
+        private final ObjectMapper serverMapper;
+
+        WebServicesClient(VariantAnnotationDBAdaptor dbAdaptor) throws Exception {
+            super("localhost", 8080, "/cellbase/webservices/rest/", "latest", "hsapiens");
+            this.dbAdaptor = dbAdaptor;
+            // same configuration as GenericRestWSServer
+            serverMapper = new ObjectMapper();
+            serverMapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        }
+
+        @Override
+        public QueryResponse<QueryResult<VariantAnnotation>> getFullAnnotation(Category category,
+                SubCategory subCategory, List<GenomicVariant> ids, QueryOptions queryOptions) throws IOException {
+            QueryResponse<QueryResult> queryResponse = new QueryResponse<>();
+            queryResponse.setResponse(dbAdaptor.getAnnotationByVariantList(ids, queryOptions));
+            ObjectMapper clientMapper = getObjectMapper();
+            return clientMapper.readValue(serverMapper.writeValueAsBytes(queryResponse),
+                    clientMapper.getTypeFactory().constructParametricType(QueryResponse.class,
+                            clientMapper.getTypeFactory().constructParametricType(QueryResult.class,
+                                    VariantAnnotation.class)));
+        }
+
+        @Override
+        public CompletableFuture<QueryResponse<QueryResult<VariantAnnotation>>> getFullAnnotationAsync(
+                Category category, SubCategory subCategory, List<GenomicVariant> ids, QueryOptions queryOptions) {
+            CompletableFuture<QueryResponse<QueryResult<VariantAnnotation>>> future = new CompletableFuture<>();
+            try {
+                future.complete(getFullAnnotation(category, subCategory, ids, queryOptions));
+            } catch (IOException e) {
+                future.completeExceptionally(e);
+            }
+            return future;
+        }
+    }
+
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opencb.cellbase.mongodb.db;
+
+import com.mongodb.*;
+import org.opencb.biodata.models.feature.Region;
+import org.opencb.datastore.mongodb.MongoDataStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pre-aggregated feature counts used to answer histogram queries without scanning the feature collections.
+ * For each collection and chromosome the number of features starting in every bin is stored at several
+ * resolutions, bins are grouped in documents of BLOCK_SIZE counts and blocks with no features are not stored.
+ * A histogram for any interval that is a multiple of a stored resolution is computed by adding up the bins of
+ * the coarsest such resolution. Tiles are created by the post-load command.
+ * There is one instance per database, summaries are cached for SUMMARY_TTL ms so histogram queries only read
+ * tiles, and the tiles rebuilt by a post-load are used after at most SUMMARY_TTL ms.
+ */
+public class IntervalFrequencyTiles {
+
+    public static final String COLLECTION = "interval_frequency_tile";
+    public static final int[] RESOLUTIONS = {1000, 10000, 100000, 1000000, 10000000};
+    public static final int BLOCK_SIZE = 1000;
+    private static final long SUMMARY_TTL = 60000;
+
+    private static final Map<String, IntervalFrequencyTiles> tiles = new ConcurrentHashMap<>();
+
+    private final DBCollection tilesCollection;
+    private final long summaryTtl;
+
+    // Summaries by collection name, collections with no tiles are cached too so they are not looked up every time
+    private final Map<String, Summary> summaries = new ConcurrentHashMap<>();
+
+    private Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    public IntervalFrequencyTiles(MongoDataStore mongoDataStore) {
+        this(mongoDataStore.getDb().getCollection(COLLECTION), SUMMARY_TTL);
+    }
+
+    IntervalFrequencyTiles(DBCollection tilesCollection, long summaryTtl) {
+        this.tilesCollection = tilesCollection;
+        this.summaryTtl = summaryTtl;
+    }
+
+    /**
+     * Returns the tiles of the database, created on first use.
+     */
+    public static IntervalFrequencyTiles get(MongoDataStore mongoDataStore) {
+        return tiles.computeIfAbsent(mongoDataStore.getDb().getName(),
+                name -> new IntervalFrequencyTiles(mongoDataStore));
+    }
+
+    private static class Summary {
+        private final DBObject document;
+        private final long time;
+
+        Summary(DBObject document, long time) {
+            this.document = document;
+            this.time = time;
+        }
+    }
+
+    /**
+     * Counts the features of a collection by 'chromosome' and 'start' and replaces its tiles.
+     * @param collection Name of the collection, ie. 'gene' or 'variation'
+     * @return Number of tile documents written
+     */
+    public int build(String collection) {
+        logger.info("Counting features in collection '{}'...", collection);
+        long numFeatures = 0;
+        Map<String, int[]> binsByChromosome = new HashMap<>();
+        DBObject projection = new BasicDBObject("chromosome", 1).append("start", 1).append("_id", 0);
+        try (DBCursor cursor = tilesCollection.getDB().getCollection(collection).find(new BasicDBObject(), projection)) {
+            while (cursor.hasNext()) {
+                DBObject feature = cursor.next();
+                Object chromosome = feature.get("chromosome");
+                Object start = feature.get("start");
+                if (chromosome == null || !(start instanceof Number)) {
+                    continue;
+                }
+                int bin = ((Number) start).intValue() / RESOLUTIONS[0];
+                int[] bins = binsByChromosome.get(chromosome.toString());
+                if (bins == null || bin >= bins.length) {
+                    bins = (bins == null) ? new int[Math.max(bin + 1, BLOCK_SIZE)]
+                            : Arrays.copyOf(bins, Math.max(bin + 1, bins.length * 2));
+                    binsByChromosome.put(chromosome.toString(), bins);
+                }
+                bins[bin]++;
+                numFeatures++;
+            }
+        }
+        logger.info("{} features counted in {} chromosomes", numFeatures, binsByChromosome.size());
+
+        // The summary document marks the collection as tiled, it is removed before touching the tiles so they are
+        // not used while they are rebuilt, nor after a failed rebuild
+        tilesCollection.remove(new BasicDBObject("_id", collection), WriteConcern.ACKNOWLEDGED);
+        summaries.remove(collection);
+        tilesCollection.remove(new BasicDBObject("collection", collection), WriteConcern.ACKNOWLEDGED);
+        int numTiles = 0;
+        for (Map.Entry<String, int[]> entry : binsByChromosome.entrySet()) {
+            for (int resolution : RESOLUTIONS) {
+                int[] bins = rollUp(entry.getValue(), resolution / RESOLUTIONS[0]);
+                BulkWriteOperation bulkWriteOperation = tilesCollection.initializeUnorderedBulkOperation();
+                int numBlocks = 0;
+                for (int block = 0; block * BLOCK_SIZE < bins.length; block++) {
+                    int from = block * BLOCK_SIZE;
+                    int to = Math.min(from + BLOCK_SIZE, bins.length);
+                    BasicDBList counts = new BasicDBList();
+                    boolean empty = true;
+                    for (int i = from; i < to; i++) {
+                        counts.add(bins[i]);
+                        empty &= bins[i] == 0;
+                    }
+                    if (!empty) {
+                        bulkWriteOperation.insert(new BasicDBObject("_id", collection + ":" + entry.getKey() + ":" + resolution + ":" + block)
+                                .append("collection", collection).append("chromosome", entry.getKey())
+                                .append("resolution", resolution).append("block", block).append("counts", counts));
+                        numBlocks++;
+                    }
+                }
+                if (numBlocks > 0) {
+                    bulkWriteOperation.execute(WriteConcern.ACKNOWLEDGED);
+                    numTiles += numBlocks;
+                }
+            }
+        }
+        tilesCollection.createIndex(new BasicDBObject("collection", 1).append("chromosome", 1)
+                .append("resolution", 1).append("block", 1));
+        // Written only once all the resolutions are in the database, any failure above throws before this point
+        tilesCollection.save(new BasicDBObject("_id", collection).append("resolutions", toList(RESOLUTIONS))
+                .append("blockSize", BLOCK_SIZE).append("features", numFeatures).append("date", new Date()),
+                WriteConcern.ACKNOWLEDGED);
+        summaries.remove(collection);
+        logger.info("{} tiles written for collection '{}'", numTiles, collection);
+        return numTiles;
+    }
+
+    /**
+     * Returns the number of features per chunk of size 'interval' in the region, chunks with no features are not
+     * returned. Chunk ids follow MongoDBAdaptor.getChunkId, ie. position / interval.
+     * @return null if the collection has no tiles or 'interval' is not a multiple of any stored resolution
+     */
+    public Map<Long, Integer> getCounts(String collection, Region region, int interval) {
+        DBObject summary = getSummary(collection);
+        if (summary == null || interval <= 0) {
+            return null;
+        }
+        int resolution = 0;
+        for (Object value : (List) summary.get("resolutions")) {
+            int r = ((Number) value).intValue();
+            if (interval % r == 0 && r > resolution) {
+                resolution = r;
+            }
+        }
+        if (resolution == 0) {
+            return null;
+        }
+        int blockSize = ((Number) summary.get("blockSize")).intValue();
+
+        int factor = interval / resolution;
+        long firstBin = (long) (region.getStart() / interval) * factor;
+        long lastBin = (long) (region.getEnd() / interval) * factor + factor - 1;
+        DBObject query = new BasicDBObject("collection", collection).append("chromosome", region.getChromosome())
+                .append("resolution", resolution)
+                .append("block", new BasicDBObject("$gte", firstBin / blockSize).append("$lte", lastBin / blockSize));
+
+        Map<Long, Integer> counts = new HashMap<>();
+        for (DBObject tile : findTiles(query)) {
+            long offset = ((Number) tile.get("block")).longValue() * blockSize;
+            List binCounts = (List) tile.get("counts");
+            for (int i = 0; i < binCounts.size(); i++) {
+                long bin = offset + i;
+                int count = ((Number) binCounts.get(i)).intValue();
+                if (count > 0 && bin >= firstBin && bin <= lastBin) {
+                    counts.merge(bin / factor, count, Integer::sum);
+                }
+            }
+        }
+        return counts;
+    }
+
+    private DBObject getSummary(String collection) {
+        long now = System.currentTimeMillis();
+        Summary summary = summaries.get(collection);
+        if (summary == null || now - summary.time > summaryTtl) {
+            summary = new Summary(findSummary(collection), now);
+            summaries.put(collection, summary);
+        }
+        return summary.document;
+    }
+
+    // Package-private so tests can answer without a database
+    DBObject findSummary(String collection) {
+        return tilesCollection.findOne(new BasicDBObject("_id", collection));
+    }
+
+    List<DBObject> findTiles(DBObject query) {
+        List<DBObject> tileList = new ArrayList<>();
+        try (DBCursor cursor = tilesCollection.find(query, new BasicDBObject("block", 1).append("counts", 1))) {
+            while (cursor.hasNext()) {
+                tileList.add(cursor.next());
+            }
+        }
+        return tileList;
+    }
+
+    static int[] rollUp(int[] bins, int factor) {
+        if (factor == 1) {
+            return bins;
+        }
+        int[] rolledUp = new int[(bins.length + factor - 1) / factor];
+        for (int i = 0; i < bins.length; i++) {
+            rolledUp[i / factor] += bins[i];
+        }
+        return rolledUp;
+    }
+
+    private static List<Integer> toList(int[] values) {
+        List<Integer> list = new ArrayList<>(values.length);
+        for (int value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+
+}
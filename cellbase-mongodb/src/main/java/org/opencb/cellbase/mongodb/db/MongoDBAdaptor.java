@@ -18,7 +18,9 @@ package org.opencb.cellbase.mongodb.db;
 
 import com.mongodb.*;
 import org.opencb.biodata.models.feature.Region;
+import org.opencb.biodata.models.variation.GenomicVariant;
 import org.opencb.cellbase.core.common.IntervalFeatureFrequency;
+import org.opencb.cellbase.core.common.metrics.Metrics;
 import org.opencb.datastore.core.QueryOptions;
 import org.opencb.datastore.core.QueryResult;
 import org.opencb.datastore.mongodb.MongoDBCollection;
@@ -28,6 +30,7 @@ import org.slf4j.LoggerFactory;
 
 import java.math.BigInteger;
 import java.util.*;
+import java.util.concurrent.*;
 
 public class MongoDBAdaptor {
 
@@ -37,6 +40,18 @@ public class MongoDBAdaptor {
     protected MongoDataStore mongoDataStore;
     protected MongoDBCollection mongoDBCollection;
 
+    protected static final int QUERY_THREADS = 16;
+    private static final String QUERY_THREAD_NAME_PREFIX = "cellbase-query-";
+    private static Map<MongoDataStore, ExecutorService> queryExecutors = new ConcurrentHashMap<>();
+
+    private static final String DB_QUERY_DURATION = "cellbase_db_query_duration_seconds";
+    private static final String DB_QUERY_DURATION_HELP = "Time spent in MongoDB per query, including reading the cursor";
+    private static final String DB_QUERY_RESULTS = "cellbase_db_query_results_total";
+    private static final String DB_QUERY_RESULTS_HELP = "Number of documents returned by MongoDB";
+
+    // Names of the collections, MongoDBCollection does not expose them and they are needed by the slow query log
+    private static final Map<MongoDBCollection, String> collectionNames = Collections.synchronizedMap(new WeakHashMap<>());
+
     //	Old classes
 //    @Deprecated
 //    protected DB db;
@@ -80,6 +95,15 @@ public class MongoDBAdaptor {
 //        jsonObjectMapper = new ObjectMapper();
     }
 
+    /**
+     * Adaptors must get their collections with this method so their names are known when logging slow queries.
+     */
+    protected MongoDBCollection getCollection(String name) {
+        MongoDBCollection collection = mongoDataStore.getCollection(name);
+        collectionNames.put(collection, name);
+        return collection;
+    }
+
     @Deprecated
     private void initSpeciesVersion(String species, String version) {
         if (species != null && !species.equals("")) {
@@ -132,38 +156,171 @@ public class MongoDBAdaptor {
     protected List<QueryResult> executeQueryList2(List<? extends Object> ids, List<DBObject> queries, QueryOptions options,
                                                   MongoDBCollection mongoDBCollection2) {
         List<QueryResult> queryResults = new ArrayList<>(ids.size());
-//        logger.info("executeQueryList2");
-//        System.out.println("executeQueryList2");
-        long dbTimeStart, dbTimeEnd;
 
+        // A single query, or a query issued from a query thread, is executed in the calling thread
+        ExecutorService queryExecutor = getQueryExecutor();
+        if (queries.size() < 2 || queryExecutor == null || Thread.currentThread().getName().startsWith(QUERY_THREAD_NAME_PREFIX)) {
+            for (int i = 0; i < queries.size(); i++) {
+                queryResults.add(executeNativeQuery(ids.get(i), queries.get(i), options, mongoDBCollection2));
+            }
+            return queryResults;
+        }
+
+        List<Future<QueryResult>> futures = new ArrayList<>(queries.size());
         for (int i = 0; i < queries.size(); i++) {
-            DBObject query = queries.get(i);
-            QueryResult queryResult = new org.opencb.datastore.core.QueryResult();
+            final Object id = ids.get(i);
+            final DBObject query = queries.get(i);
+            futures.add(queryExecutor.submit(() -> executeNativeQuery(id, query, options, mongoDBCollection2)));
+        }
+        try {
+            for (Future<QueryResult> future : futures) {
+                queryResults.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MongoException("Interrupted while waiting for query results", e);
+        } catch (ExecutionException e) {
+            for (Future<QueryResult> future : futures) {
+                future.cancel(true);
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new MongoException("Error executing query", e.getCause());
+        }
 
-            // Execute query and calculate time
-            dbTimeStart = System.currentTimeMillis();
-            DBCursor cursor = mongoDBCollection2.nativeQuery().find(query, options);
-            List<DBObject> dbObjectList = new LinkedList<>();
+        return queryResults;
+    }
+
+    private QueryResult executeNativeQuery(Object id, DBObject query, QueryOptions options, MongoDBCollection mongoDBCollection2) {
+        QueryResult queryResult = new org.opencb.datastore.core.QueryResult();
+        int limit = (options != null) ? options.getInt("limit", 0) : 0;
+
+        // Execute query and calculate time
+        long dbTimeStart = System.currentTimeMillis();
+        long start = System.nanoTime();
+        DBCursor cursor = mongoDBCollection2.nativeQuery().find(query, options);
+        List<DBObject> dbObjectList = (limit > 0) ? new ArrayList<>(limit) : new ArrayList<>();
+        try {
             while (cursor.hasNext()) {
                 dbObjectList.add(cursor.next());
             }
-            dbTimeEnd = System.currentTimeMillis();
-            // setting queryResult fields
-            queryResult.setId(ids.get(i).toString());
-            queryResult.setDbTime(Long.valueOf(dbTimeEnd - dbTimeStart).intValue());
-            queryResult.setNumResults(dbObjectList.size());
-            // Limit is set in queryOptions, count number of total results
-            if(options != null && options.getInt("limit", 0) > 0) {
-                queryResult.setNumTotalResults(mongoDBCollection2.count(query).first());
+        } finally {
+            cursor.close();
+        }
+        long dbTimeEnd = System.currentTimeMillis();
+        long nanos = System.nanoTime() - start;
+        String shape = getQueryShape(query);
+        recordQueryMetrics(shape, nanos, dbObjectList.size());
+        if (SlowQueryLog.isSlow(nanos)) {
+            SlowQueryLog.logQuery(mongoDataStore != null ? mongoDataStore.getDb() : null,
+                    collectionNames.get(mongoDBCollection2), shape, query, options, dbObjectList, nanos);
+        }
+
+        // setting queryResult fields
+        queryResult.setId(id.toString());
+        queryResult.setDbTime(Long.valueOf(dbTimeEnd - dbTimeStart).intValue());
+        queryResult.setNumResults(dbObjectList.size());
+        // Total number of results is only counted when 'count' is requested and a limit has been set
+        if (limit > 0 && options.getBoolean("count", false)) {
+            queryResult.setNumTotalResults(mongoDBCollection2.count(query).first());
+        } else {
+            queryResult.setNumTotalResults(dbObjectList.size());
+        }
+        queryResult.setResult(dbObjectList);
+
+        return queryResult;
+    }
+
+    private void recordQueryMetrics(String shape, long nanos, int numResults) {
+        String adaptor = getClass().getSimpleName();
+        Metrics.histogram(DB_QUERY_DURATION, DB_QUERY_DURATION_HELP, "adaptor", adaptor, "shape", shape).record(nanos);
+        Metrics.counter(DB_QUERY_RESULTS, DB_QUERY_RESULTS_HELP, "adaptor", adaptor).add(numResults);
+    }
+
+    /**
+     * Shape of a query used to group its metrics: the sorted paths of the query, down to the operators, without
+     * the values, ie. {chromosome: "1", start: {$lte: 100}} becomes "chromosome,start.$lte".
+     */
+    protected static String getQueryShape(DBObject query) {
+        if (query == null) {
+            return "";
+        }
+        SortedSet<String> paths = new TreeSet<>();
+        addQueryPaths("", query, paths);
+        return String.join(",", paths);
+    }
+
+    private static void addQueryPaths(String prefix, DBObject query, Set<String> paths) {
+        for (String key : query.keySet()) {
+            Object value = query.get(key);
+            if (value instanceof DBObject && !(value instanceof List)) {
+                addQueryPaths(prefix + key + ".", (DBObject) value, paths);
+            } else if (value instanceof List && (key.equals("$and") || key.equals("$or"))) {
+                for (Object element : (List) value) {
+                    if (element instanceof DBObject) {
+                        addQueryPaths(prefix, (DBObject) element, paths);
+                    }
+                }
             } else {
-                queryResult.setNumTotalResults(dbObjectList.size());
+                paths.add(prefix + key);
             }
-            queryResult.setResult(dbObjectList);
+        }
+    }
 
-            queryResults.add(queryResult);
+    /**
+     * Shape of an aggregation pipeline: the names of its stages, ie. "$match,$group,$sort".
+     */
+    protected static String getPipelineShape(List<DBObject> pipeline) {
+        StringJoiner shape = new StringJoiner(",");
+        for (DBObject stage : pipeline) {
+            shape.add(String.join("+", stage.keySet()));
         }
+        return shape.toString();
+    }
 
-        return queryResults;
+    /**
+     * Queries of a list request are executed concurrently, one bounded thread pool is shared by all the adaptors
+     * of the same MongoDataStore, this keeps the number of concurrent queries per database under control.
+     */
+    private ExecutorService getQueryExecutor() {
+        if (mongoDataStore == null) {
+            return null;
+        }
+        return queryExecutors.computeIfAbsent(mongoDataStore, dataStore -> {
+            ThreadFactory threadFactory = new ThreadFactory() {
+                private int threadNumber = 0;
+
+                @Override
+                public synchronized Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, QUERY_THREAD_NAME_PREFIX + queryExecutors.size() + "-" + threadNumber++);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            };
+            return Executors.newFixedThreadPool(QUERY_THREADS, threadFactory);
+        });
+    }
+
+    /**
+     * Executes the updates as a single unordered bulk write on the collection, the metrics and the slow query log
+     * are recorded as for queries. Returns the number of documents matched, a BulkWriteException is thrown by the
+     * driver if any update fails.
+     */
+    protected int executeBulkUpdate(List<DBObject> queries, List<DBObject> updates, QueryOptions options,
+                                    MongoDBCollection mongoDBCollection2) {
+        long start = System.nanoTime();
+        QueryResult<BulkWriteResult> queryResult = mongoDBCollection2.update(queries, updates, options);
+        long nanos = System.nanoTime() - start;
+        int matched = queryResult.first().getMatchedCount();
+
+        String shape = "update:" + getQueryShape(queries.get(0));
+        Metrics.histogram(DB_QUERY_DURATION, DB_QUERY_DURATION_HELP, "adaptor", getClass().getSimpleName(),
+                "shape", shape).record(nanos);
+        if (SlowQueryLog.isSlow(nanos)) {
+            SlowQueryLog.logUpdate(collectionNames.get(mongoDBCollection2), shape, queries.size(), matched, nanos);
+        }
+        return matched;
     }
 
     protected QueryResult executeAggregation2(Object id, List<DBObject> pipeline, QueryOptions options) {
@@ -188,7 +345,15 @@ public class MongoDBAdaptor {
 
             // Execute query and calculate time
             dbTimeStart = System.currentTimeMillis();
+            long start = System.nanoTime();
             QueryResult queryResult = mongoDBCollection2.aggregate(pipeline, options);
+            long nanos = System.nanoTime() - start;
+            String shape = getPipelineShape(pipeline);
+            recordQueryMetrics(shape, nanos, queryResult.getResult().size());
+            if (SlowQueryLog.isSlow(nanos)) {
+                SlowQueryLog.logAggregation(collectionNames.get(mongoDBCollection2), shape, pipeline,
+                        queryResult.getResult().size(), nanos);
+            }
 //            List<DBObject> dbObjectList = new LinkedList<>();
 //            while (cursor.hasNext()) {
 //                dbObjectList.add(cursor.next());
@@ -212,6 +377,117 @@ public class MongoDBAdaptor {
         return queryResults;
     }
 
+    /**
+     * Fetches the documents of a list of variants with one query per chromosome instead of one query per variant.
+     * Each query matches all the positions of the chromosome, using the chunk ids when chunkSize is greater than 0,
+     * and the documents are assigned back to the variants in memory by chromosome, position, reference and alternate.
+     * @param variants  Variants to be queried, a null reference matches any reference
+     * @param chunkSize Chunk size of the '_chunkIds' field of the collection, 0 if the collection has no chunk ids
+     * @param options   Query options, 'limit' and 'skip' are not applied as they would cut the grouped queries
+     * @param mongoDBCollection2    Collection to be queried
+     * @return One QueryResult per variant in the same order
+     */
+    protected List<QueryResult> executeVariantListQuery(List<GenomicVariant> variants, int chunkSize, QueryOptions options,
+                                                        MongoDBCollection mongoDBCollection2) {
+        Map<String, Set<String>> chunkIdsByChromosome = new LinkedHashMap<>();
+        Map<String, Set<Integer>> positionsByChromosome = new LinkedHashMap<>();
+        for (GenomicVariant variant : variants) {
+            if (!positionsByChromosome.containsKey(variant.getChromosome())) {
+                chunkIdsByChromosome.put(variant.getChromosome(), new LinkedHashSet<>());
+                positionsByChromosome.put(variant.getChromosome(), new LinkedHashSet<>());
+            }
+            if (chunkSize > 0) {
+                chunkIdsByChromosome.get(variant.getChromosome()).add(getChunkIdPrefix(variant.getChromosome(), variant.getPosition(), chunkSize));
+            }
+            positionsByChromosome.get(variant.getChromosome()).add(variant.getPosition());
+        }
+
+        List<String> chromosomes = new ArrayList<>(positionsByChromosome.keySet());
+        List<DBObject> queries = new ArrayList<>(chromosomes.size());
+        for (String chromosome : chromosomes) {
+            QueryBuilder builder = QueryBuilder.start("chromosome").is(chromosome)
+                    .and("start").in(new ArrayList<>(positionsByChromosome.get(chromosome)));
+            if (chunkSize > 0) {
+                builder = builder.and("_chunkIds").in(new ArrayList<>(chunkIdsByChromosome.get(chromosome)));
+            }
+            queries.add(builder.get());
+        }
+
+        QueryOptions variantListOptions = new QueryOptions();
+        if (options != null) {
+            variantListOptions.putAll(options);
+        }
+        variantListOptions.remove("limit");
+        variantListOptions.remove("skip");
+        variantListOptions.remove("count");
+        // fields needed to assign documents back to the variants must always be returned, the ones not requested are
+        // removed before returning the documents
+        List<String> includeList = variantListOptions.getAsStringList("include");
+        List<String> addedFields = new ArrayList<>();
+        if (!includeList.isEmpty()) {
+            for (String field : Arrays.asList("chromosome", "start", "reference", "alternate")) {
+                if (!includeList.contains(field)) {
+                    addedFields.add(field);
+                }
+            }
+            List<String> variantListInclude = new ArrayList<>(includeList);
+            variantListInclude.addAll(addedFields);
+            variantListOptions.put("include", variantListInclude);
+        }
+
+        List<QueryResult> chromosomeQueryResults = executeQueryList2(chromosomes, queries, variantListOptions, mongoDBCollection2);
+
+        Map<String, List<DBObject>> dbObjectsByVariantKey = new HashMap<>();
+        Map<String, Integer> dbTimeByChromosome = new HashMap<>(chromosomes.size() * 2);
+        for (int i = 0; i < chromosomes.size(); i++) {
+            dbTimeByChromosome.put(chromosomes.get(i), chromosomeQueryResults.get(i).getDbTime());
+            for (Object result : chromosomeQueryResults.get(i).getResult()) {
+                DBObject dbObject = (DBObject) result;
+                String variantKey = dbObject.get("chromosome") + ":" + dbObject.get("start") + ":" + dbObject.get("alternate");
+                List<DBObject> dbObjects = dbObjectsByVariantKey.get(variantKey);
+                if (dbObjects == null) {
+                    dbObjects = new ArrayList<>(1);
+                    dbObjectsByVariantKey.put(variantKey, dbObjects);
+                }
+                dbObjects.add(dbObject);
+            }
+        }
+
+        List<QueryResult> queryResults = new ArrayList<>(variants.size());
+        for (GenomicVariant variant : variants) {
+            List<DBObject> dbObjects = dbObjectsByVariantKey.get(variant.getChromosome() + ":" + variant.getPosition() + ":" + variant.getAlternative());
+            List<DBObject> dbObjectList = new ArrayList<>((dbObjects != null) ? dbObjects.size() : 0);
+            if (dbObjects != null) {
+                for (DBObject dbObject : dbObjects) {
+                    if (variant.getReference() == null || variant.getReference().equals(dbObject.get("reference"))) {
+                        dbObjectList.add(dbObject);
+                    }
+                }
+            }
+
+            QueryResult queryResult = new QueryResult();
+            queryResult.setId(variant.toString());
+            queryResult.setDbTime(dbTimeByChromosome.get(variant.getChromosome()));
+            queryResult.setNumResults(dbObjectList.size());
+            queryResult.setNumTotalResults(dbObjectList.size());
+            queryResult.setResult(dbObjectList);
+            queryResults.add(queryResult);
+        }
+
+        // once all the variants are matched, a document may be returned for several of them
+        if (!addedFields.isEmpty()) {
+            for (QueryResult chromosomeQueryResult : chromosomeQueryResults) {
+                for (Object result : chromosomeQueryResult.getResult()) {
+                    for (String field : addedFields) {
+                        ((DBObject) result).removeField(field);
+                    }
+                }
+            }
+        }
+
+        return queryResults;
+    }
+
     protected String getChunkIdPrefix(String chromosome, int position, int chunkSize) {
         return chromosome + "_" +  position/chunkSize + "_" + chunkSize/1000 + "k";
     }
@@ -498,6 +774,47 @@ public class MongoDBAdaptor {
     }
 
     public QueryResult getIntervalFrequencies(Region region, QueryOptions options) {
+        return getIntervalFrequencies(region, options, null);
+    }
+
+    /**
+     * Counts are read from the tiles built by the post-load for 'collection' when these exist, otherwise they are
+     * aggregated from the collection. Chunks with features report the log of the number of features.
+     */
+    protected QueryResult getIntervalFrequencies(Region region, QueryOptions options, String collection) {
+        int interval = options.getInt("interval");
+
+        Map<Long, Integer> counts = null;
+        if (collection != null) {
+            counts = IntervalFrequencyTiles.get(mongoDataStore).getCounts(collection, region, interval);
+        }
+        if (counts == null) {
+            counts = aggregateIntervalFrequencies(region, interval, options);
+        }
+
+        BasicDBList resultList = new BasicDBList();
+        int firstChunkId = getChunkId(region.getStart(), interval);
+        int lastChunkId = getChunkId(region.getEnd(), interval);
+        for (int chunkId = firstChunkId; chunkId <= lastChunkId; chunkId++) {
+            Integer count = counts.get((long) chunkId);
+            DBObject intervalObj = new BasicDBObject();
+            intervalObj.put("_id", chunkId);
+            intervalObj.put("start", getChunkStart(chunkId, interval));
+            intervalObj.put("end", getChunkEnd(chunkId, interval));
+            intervalObj.put("chromosome", region.getChromosome());
+            intervalObj.put("features_count", (count != null) ? Math.log(count) : 0);
+            resultList.add(intervalObj);
+        }
+
+        QueryResult queryResult = new QueryResult();
+        queryResult.setResult(resultList);
+        queryResult.setId(region.toString());
+        queryResult.setResultType("frequencies");
+
+        return queryResult;
+    }
+
+    private Map<Long, Integer> aggregateIntervalFrequencies(Region region, int interval, QueryOptions options) {
         //  MONGO QUERY TO IMPLEMENT
         //    db.variation.aggregate({$match: {$and: [{chromosome: "1"}, {start: {$gt: 251391, $lt: 2701391}}]}}, {$group: {_id: {$subtract: [{$divide: ["$start", 40000]}, {$divide: [{$mod: ["$start", 40000]}, 40000]}]}, totalCount: {$sum: 1}}})
         //        {
@@ -532,8 +849,6 @@ public class MongoDBAdaptor {
         //            }
         //        }
 
-        int interval = options.getInt("interval");
-
         BasicDBObject start = new BasicDBObject("$gt", region.getStart());
         start.append("$lt", region.getEnd());
 
@@ -567,57 +882,13 @@ public class MongoDBAdaptor {
 
         BasicDBObject sort = new BasicDBObject("$sort", new BasicDBObject("_id", 1));
 
-        logger.info("getIntervalFrequencies - (>·_·)>");
-        System.out.println(options.toString());
-
-        System.out.println(match.toString());
-        System.out.println(group.toString());
-        System.out.println(sort.toString());
-
         QueryResult<DBObject> aggregationOutput = mongoDBCollection.aggregate(Arrays.asList(match, group, sort), options);
-        Map<Long, DBObject> ids = new HashMap<>();
+        Map<Long, Integer> counts = new HashMap<>();
         for (DBObject intervalObj : aggregationOutput.getResult()) {
             Long _id = Math.round((Double) intervalObj.get("_id"));//is double
-
-            DBObject intervalVisited = ids.get(_id);
-            if (intervalVisited == null) {
-                intervalObj.put("_id", _id);
-                intervalObj.put("start", getChunkStart(_id.intValue(), interval));
-                intervalObj.put("end", getChunkEnd(_id.intValue(), interval));
-                intervalObj.put("chromosome", region.getChromosome());
-                intervalObj.put("features_count", Math.log((int) intervalObj.get("features_count")));
-                ids.put(_id, intervalObj);
-            } else {
-                Double sum = (Double) intervalVisited.get("features_count") + Math.log((int) intervalObj.get("features_count"));
-                intervalVisited.put("features_count", sum.intValue());
-            }
-        }
-
-        /****/
-        BasicDBList resultList = new BasicDBList();
-        int firstChunkId = getChunkId(region.getStart(), interval);
-        int lastChunkId = getChunkId(region.getEnd(), interval);
-        DBObject intervalObj;
-        for (int chunkId = firstChunkId; chunkId <= lastChunkId; chunkId++) {
-            intervalObj = ids.get((long) chunkId);
-            if (intervalObj == null) {
-                intervalObj = new BasicDBObject();
-                intervalObj.put("_id", chunkId);
-                intervalObj.put("start", getChunkStart(chunkId, interval));
-                intervalObj.put("end", getChunkEnd(chunkId, interval));
-                intervalObj.put("chromosome", region.getChromosome());
-                intervalObj.put("features_count", 0);
-            }
-            resultList.add(intervalObj);
+            counts.merge(_id, ((Number) intervalObj.get("features_count")).intValue(), Integer::sum);
         }
-        /****/
-
-        QueryResult queryResult = new QueryResult();
-        queryResult.setResult(resultList);
-        queryResult.setId(region.toString());
-        queryResult.setResultType("frequencies");
-
-        return queryResult;
+        return counts;
 
 
         /***************************/
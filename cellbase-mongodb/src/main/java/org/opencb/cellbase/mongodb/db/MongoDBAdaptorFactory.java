@@ -17,6 +17,8 @@
 package org.opencb.cellbase.mongodb.db;
 
 import org.opencb.cellbase.core.CellBaseConfiguration;
+import org.opencb.cellbase.core.common.ConservationScoreFileReader;
+import org.opencb.cellbase.core.common.TwoBitFileReader;
 import org.opencb.cellbase.core.db.DBAdaptorFactory;
 import org.opencb.cellbase.core.db.api.CpGIslandDBAdaptor;
 import org.opencb.cellbase.core.db.api.CytobandDBAdaptor;
@@ -30,6 +32,7 @@ import org.opencb.cellbase.core.db.api.variation.*;
 import org.opencb.cellbase.mongodb.db.core.*;
 import org.opencb.cellbase.mongodb.db.systems.PathwayMongoDBAdaptor;
 import org.opencb.cellbase.mongodb.db.systems.ProteinProteinInteractionMongoDBAdaptor;
+import org.opencb.cellbase.mongodb.db.regulatory.RegulatoryRegionIndex;
 import org.opencb.cellbase.mongodb.db.regulatory.RegulatoryRegionMongoDBAdaptor;
 import org.opencb.cellbase.mongodb.db.regulatory.TfbsMongoDBAdaptor;
 import org.opencb.cellbase.mongodb.db.variation.*;
@@ -38,8 +41,14 @@ import org.opencb.datastore.mongodb.MongoDBConfiguration;
 import org.opencb.datastore.mongodb.MongoDataStore;
 import org.opencb.datastore.mongodb.MongoDataStoreManager;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class MongoDBAdaptorFactory extends DBAdaptorFactory {
 
@@ -49,10 +58,18 @@ public class MongoDBAdaptorFactory extends DBAdaptorFactory {
     private MongoDataStoreManager mongoDataStoreManager;
 //    private static Map<String, MongoDataStore> mongoDatastoreFactory;
 
+    /**
+     * .2bit genome and conservation readers are memory-mapped and thread-safe, one reader per file is shared
+     * by all adaptors.
+     */
+    private static Map<Path, TwoBitFileReader> twoBitFileReaders = new ConcurrentHashMap<>();
+    private static Map<Path, ConservationScoreFileReader> conservationScoreFileReaders = new ConcurrentHashMap<>();
+
     public MongoDBAdaptorFactory(CellBaseConfiguration cellBaseConfiguration){
         super(cellBaseConfiguration);
 
         init();
+        configureSlowQueryLog();
     }
 
     private void init() {
@@ -157,9 +174,77 @@ public class MongoDBAdaptorFactory extends DBAdaptorFactory {
     @Override
     public GenomeDBAdaptor getGenomeDBAdaptor(String species, String assembly) {
         MongoDataStore mongoDatastore = createMongoDBDatastore(species, assembly);
+        TwoBitFileReader twoBitFileReader = getTwoBitFileReader(species, assembly);
+        if (twoBitFileReader != null) {
+            return new GenomeTwoBitMongoDBAdaptor(species, assembly, mongoDatastore, twoBitFileReader);
+        }
         return new GenomeMongoDBAdaptor(species, assembly, mongoDatastore);
     }
 
+    /**
+     * A local .2bit copy of the reference genome is used when database option 'genomeSequenceDir' is set and
+     * contains a file named 'speciesId_assembly.2bit', ie. 'hsapiens_grch37.2bit'.
+     */
+    private TwoBitFileReader getTwoBitFileReader(String species, String assembly) {
+        Path twoBitFile = getLocalDataPath("genomeSequenceDir", species, assembly, ".2bit");
+        if (twoBitFile == null) {
+            return null;
+        }
+
+        return twoBitFileReaders.computeIfAbsent(twoBitFile, path -> {
+            try {
+                logger.info("Reading genome sequence from '{}'", path);
+                return new TwoBitFileReader(path);
+            } catch (IOException e) {
+                logger.error("Genome sequence file '{}' could not be read: {}", path, e.getMessage());
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Local conservation score files are used when database option 'conservationDir' is set and contains a folder
+     * named 'speciesId_assembly', ie. 'hsapiens_grch37', with the files created by the conservation binary build.
+     */
+    private ConservationScoreFileReader getConservationScoreFileReader(String species, String assembly) {
+        Path conservationDir = getLocalDataPath("conservationDir", species, assembly, "");
+        if (conservationDir == null) {
+            return null;
+        }
+
+        return conservationScoreFileReaders.computeIfAbsent(conservationDir, path -> {
+            try {
+                logger.info("Reading conservation scores from '{}'", path);
+                return new ConservationScoreFileReader(path);
+            } catch (IOException e) {
+                logger.error("Conservation folder '{}' could not be read: {}", path, e.getMessage());
+                return null;
+            }
+        });
+    }
+
+    private Path getLocalDataPath(String option, String species, String assembly, String suffix) {
+        String dir = cellBaseConfiguration.getDatabase().getOptions() != null
+                ? cellBaseConfiguration.getDatabase().getOptions().get(option)
+                : null;
+        CellBaseConfiguration.SpeciesProperties.Species speciesObject = getSpecies(species);
+        if (dir == null || dir.isEmpty() || speciesObject == null) {
+            return null;
+        }
+
+        String assemblyName = getAssembly(speciesObject, assembly);
+        if (assemblyName == null) {
+            return null;
+        }
+        Path path = Paths.get(dir, speciesObject.getId() + "_"
+                + assemblyName.toLowerCase().replaceAll("\\.", "").replaceAll("-", "").replaceAll("_", "") + suffix);
+        if (!Files.exists(path)) {
+            logger.debug("Local data '{}' not found, MongoDB will be used", path);
+            return null;
+        }
+        return path;
+    }
+
 
     @Override
     public ConservedRegionDBAdaptor getConservedRegionDBAdaptor(String species) {
@@ -169,6 +254,10 @@ public class MongoDBAdaptorFactory extends DBAdaptorFactory {
     @Override
     public ConservedRegionDBAdaptor getConservedRegionDBAdaptor(String species, String assembly) {
         MongoDataStore mongoDatastore = createMongoDBDatastore(species, assembly);
+        ConservationScoreFileReader conservationScoreFileReader = getConservationScoreFileReader(species, assembly);
+        if (conservationScoreFileReader != null) {
+            return new ConservationBinaryMongoDBAdaptor(species, assembly, mongoDatastore, conservationScoreFileReader);
+        }
         return new ConservationMongoDBAdaptor(species, assembly, mongoDatastore);
     }
 
@@ -181,9 +270,57 @@ public class MongoDBAdaptorFactory extends DBAdaptorFactory {
     @Override
     public GeneDBAdaptor getGeneDBAdaptor(String species, String assembly) {
         MongoDataStore mongoDatastore = createMongoDBDatastore(species, assembly);
+        long geneCacheSize = getGeneCacheSize();
+        if (geneCacheSize > 0) {
+            return new GeneMongoDBAdaptor(species, assembly, mongoDatastore,
+                    GeneModelCache.get(mongoDatastore, geneCacheSize));
+        }
         return new GeneMongoDBAdaptor(species, assembly, mongoDatastore);
     }
 
+    /**
+     * Queries slower than database option 'slowQueryThreshold', in ms, are logged. 'slowQueryExplainRate' sets
+     * the fraction of them explained.
+     */
+    private void configureSlowQueryLog() {
+        Map<String, String> options = cellBaseConfiguration.getDatabase().getOptions();
+        String threshold = (options != null) ? options.get("slowQueryThreshold") : null;
+        String explainRate = (options != null) ? options.get("slowQueryExplainRate") : null;
+        long thresholdMillis = -1;
+        double explainFraction = 0;
+        try {
+            if (threshold != null && !threshold.isEmpty()) {
+                thresholdMillis = Long.parseLong(threshold.trim());
+            }
+            if (explainRate != null && !explainRate.isEmpty()) {
+                explainFraction = Double.parseDouble(explainRate.trim());
+            }
+        } catch (NumberFormatException e) {
+            logger.debug("Not valid slow query database options '{}' and '{}', slow queries will not be logged",
+                    threshold, explainRate);
+            thresholdMillis = -1;
+        }
+        SlowQueryLog.configure(thresholdMillis, explainFraction);
+    }
+
+    /**
+     * Genes are cached in memory when database option 'geneCacheSize' is set to the maximum size in MB.
+     */
+    private long getGeneCacheSize() {
+        String geneCacheSize = cellBaseConfiguration.getDatabase().getOptions() != null
+                ? cellBaseConfiguration.getDatabase().getOptions().get("geneCacheSize")
+                : null;
+        if (geneCacheSize == null || geneCacheSize.isEmpty()) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(geneCacheSize.trim()) * 1024 * 1024;
+        } catch (NumberFormatException e) {
+            logger.debug("Not valid 'geneCacheSize' database option '{}', genes will not be cached", geneCacheSize);
+            return 0;
+        }
+    }
+
 
     @Override
     public TranscriptDBAdaptor getTranscriptDBAdaptor(String species) {
@@ -299,9 +436,21 @@ public class MongoDBAdaptorFactory extends DBAdaptorFactory {
     @Override
     public RegulatoryRegionDBAdaptor getRegulatoryRegionDBAdaptor(String species, String assembly) {
         MongoDataStore mongoDatastore = createMongoDBDatastore(species, assembly);
+        if (isRegulatoryRegionIndexEnabled()) {
+            return new RegulatoryRegionMongoDBAdaptor(species, assembly, mongoDatastore,
+                    RegulatoryRegionIndex.get(mongoDatastore));
+        }
         return new RegulatoryRegionMongoDBAdaptor(species, assembly, mongoDatastore);
     }
 
+    /**
+     * Regulatory regions are indexed in memory when database option 'regulatoryRegionIndex' is 'true'.
+     */
+    private boolean isRegulatoryRegionIndexEnabled() {
+        return cellBaseConfiguration.getDatabase().getOptions() != null
+                && Boolean.parseBoolean(cellBaseConfiguration.getDatabase().getOptions().get("regulatoryRegionIndex"));
+    }
+
 
     @Override
     public TfbsDBAdaptor getTfbsDBAdaptor(String species) {
@@ -311,6 +460,9 @@ public class MongoDBAdaptorFactory extends DBAdaptorFactory {
     @Override
     public TfbsDBAdaptor getTfbsDBAdaptor(String species, String assembly) {
         MongoDataStore mongoDatastore = createMongoDBDatastore(species, assembly);
+        if (isRegulatoryRegionIndexEnabled()) {
+            return new TfbsMongoDBAdaptor(species, assembly, mongoDatastore, RegulatoryRegionIndex.get(mongoDatastore));
+        }
         return new TfbsMongoDBAdaptor(species, assembly, mongoDatastore);
     }
 
@@ -410,4 +562,9 @@ public class MongoDBAdaptorFactory extends DBAdaptorFactory {
         // TODO Auto-generated method stub
         return null;
     }
+
+    public IntervalFrequencyTiles getIntervalFrequencyTiles(String species, String assembly) {
+        MongoDataStore mongoDatastore = createMongoDBDatastore(species, assembly);
+        return new IntervalFrequencyTiles(mongoDatastore);
+    }
 }
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opencb.cellbase.mongodb.db;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.opencb.datastore.core.QueryOptions;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * MongoDB 'include' and 'exclude' projections applied in memory, used by the adaptors answering queries from
+ * in-memory caches and indexes.
+ */
+public final class MongoDBProjection {
+
+    private MongoDBProjection() {
+    }
+
+    /**
+     * Fields of a QueryOptions key, values can be lists and comma separated strings.
+     */
+    public static List<String> getFields(QueryOptions options, String key) {
+        List<String> fields = new ArrayList<>();
+        List<Object> values = options.getList(key, null);
+        if (values != null) {
+            for (Object value : values) {
+                for (String field : value.toString().split(",")) {
+                    if (!field.trim().isEmpty()) {
+                        fields.add(field.trim());
+                    }
+                }
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Copies a document keeping only the fields a MongoDB projection with 'include' or, if empty, 'exclude' would
+     * return. Dotted fields are applied to every document of the arrays found on the way.
+     */
+    public static DBObject project(DBObject document, List<String> include, List<String> exclude) {
+        if (!include.isEmpty()) {
+            Map<String, Object> fields = new HashMap<>();
+            fields.put("_id", Boolean.TRUE);
+            for (String field : include) {
+                addField(fields, field.split("\\."), 0);
+            }
+            return (DBObject) projectValue(document, fields);
+        }
+
+        DBObject copy = (DBObject) copyValue(document);
+        for (String field : exclude) {
+            removeField(copy, field.split("\\."), 0);
+        }
+        return copy;
+    }
+
+    // A field tree has Boolean.TRUE leaves for whole fields and nested maps for fields with selected sub-fields
+    @SuppressWarnings("unchecked")
+    private static void addField(Map<String, Object> fields, String[] path, int index) {
+        if (index == path.length - 1) {
+            fields.put(path[index], Boolean.TRUE);
+        } else if (fields.get(path[index]) != Boolean.TRUE) {
+            Map<String, Object> subfields = (Map<String, Object>) fields.computeIfAbsent(path[index],
+                    key -> new HashMap<String, Object>());
+            addField(subfields, path, index + 1);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object projectValue(Object value, Object fields) {
+        if (fields == Boolean.TRUE) {
+            return copyValue(value);
+        }
+        if (value instanceof List) {
+            BasicDBList list = new BasicDBList();
+            for (Object element : (List) value) {
+                if (element instanceof DBObject) {
+                    list.add(projectValue(element, fields));
+                }
+            }
+            return list;
+        }
+        if (value instanceof DBObject) {
+            BasicDBObject projection = new BasicDBObject();
+            for (Map.Entry<String, Object> field : ((Map<String, Object>) fields).entrySet()) {
+                if (((DBObject) value).containsField(field.getKey())) {
+                    Object projectedValue = projectValue(((DBObject) value).get(field.getKey()), field.getValue());
+                    if (projectedValue != null) {
+                        projection.put(field.getKey(), projectedValue);
+                    }
+                }
+            }
+            return projection;
+        }
+        // Sub-fields of a scalar do not exist
+        return null;
+    }
+
+    private static void removeField(Object value, String[] path, int index) {
+        if (value instanceof List) {
+            for (Object element : (List) value) {
+                removeField(element, path, index);
+            }
+        } else if (value instanceof DBObject) {
+            if (index == path.length - 1) {
+                ((DBObject) value).removeField(path[index]);
+            } else {
+                removeField(((DBObject) value).get(path[index]), path, index + 1);
+            }
+        }
+    }
+
+    private static Object copyValue(Object value) {
+        if (value instanceof BasicDBObject) {
+            return ((BasicDBObject) value).copy();
+        }
+        if (value instanceof BasicDBList) {
+            return ((BasicDBList) value).copy();
+        }
+        return value;
+    }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opencb.cellbase.mongodb.db;
+
+import com.mongodb.*;
+import org.bson.BasicBSONEncoder;
+import org.opencb.datastore.core.QueryOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Logs the queries taking longer than a threshold with their collection, shape, projection, number and size of
+ * the documents returned and elapsed time. A fraction of the slow queries are explained in a background thread
+ * to report the ones not using any index. Disabled unless database option 'slowQueryThreshold' is set in ms,
+ * 'slowQueryExplainRate' sets the fraction explained, from 0 (default) to 1. Messages are written to the
+ * 'org.opencb.cellbase.mongodb.db.SlowQueryLog' logger so they can be sent to their own file.
+ */
+public final class SlowQueryLog {
+
+    private static volatile long thresholdNanos = -1;
+    private static volatile double explainRate;
+
+    // Explains are best effort, they are dropped when the queue is full to not add load to a slow database
+    private static final ExecutorService explainExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(16), runnable -> {
+                Thread thread = new Thread(runnable, "cellbase-slow-query-explain");
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.DiscardPolicy());
+
+    private static Logger logger = LoggerFactory.getLogger(SlowQueryLog.class);
+
+    private SlowQueryLog() {
+    }
+
+    /**
+     * @param thresholdMillis Minimum time of the queries logged, negative to disable the log
+     * @param explainFraction Fraction of the slow queries explained, between 0 and 1
+     */
+    public static void configure(long thresholdMillis, double explainFraction) {
+        thresholdNanos = (thresholdMillis >= 0) ? TimeUnit.MILLISECONDS.toNanos(thresholdMillis) : -1;
+        explainRate = Math.max(0, Math.min(1, explainFraction));
+    }
+
+    public static boolean isSlow(long nanos) {
+        long threshold = thresholdNanos;
+        return threshold >= 0 && nanos >= threshold;
+    }
+
+    /**
+     * Logs a find query, the caller must check isSlow() first.
+     */
+    public static void logQuery(DB db, String collection, String shape, DBObject query, QueryOptions options,
+                                List<DBObject> result, long nanos) {
+        List<String> include = MongoDBProjection.getFields(options, "include");
+        List<String> exclude = MongoDBProjection.getFields(options, "exclude");
+        logger.warn("Slow query: {} ms, collection '{}', shape '{}', include {}, exclude {}, {} documents, {} bytes",
+                TimeUnit.NANOSECONDS.toMillis(nanos), collection, shape, include, exclude, result.size(),
+                getSize(result));
+        logger.debug("Slow query on collection '{}': {}", collection, query);
+
+        if (db != null && collection != null && explainRate > 0 && ThreadLocalRandom.current().nextDouble() < explainRate) {
+            explainExecutor.execute(() -> explain(db, collection, query));
+        }
+    }
+
+    /**
+     * Logs an aggregation, the caller must check isSlow() first.
+     */
+    public static void logAggregation(String collection, String shape, List<DBObject> pipeline, int numResults,
+                                      long nanos) {
+        logger.warn("Slow aggregation: {} ms, collection '{}', stages '{}', {} documents",
+                TimeUnit.NANOSECONDS.toMillis(nanos), collection, shape, numResults);
+        logger.debug("Slow aggregation on collection '{}': {}", collection, pipeline);
+    }
+
+    /**
+     * Logs a bulk update, the caller must check isSlow() first.
+     */
+    public static void logUpdate(String collection, String shape, int numUpdates, int numMatched, long nanos) {
+        logger.warn("Slow bulk update: {} ms, collection '{}', shape '{}', {} updates, {} documents matched",
+                TimeUnit.NANOSECONDS.toMillis(nanos), collection, shape, numUpdates, numMatched);
+    }
+
+    private static void explain(DB db, String collection, DBObject query) {
+        try {
+            DBObject plan = db.getCollection(collection).find(query).explain();
+            String planString = String.valueOf(plan);
+            // 'COLLSCAN' stage since MongoDB 3.0, 'BasicCursor' in 2.x
+            if (planString.contains("COLLSCAN") || planString.contains("BasicCursor")) {
+                logger.warn("Slow query on collection '{}' does not use any index: {}, plan: {}", collection, query,
+                        planString);
+            } else {
+                logger.info("Slow query on collection '{}' plan: {}", collection, planString);
+            }
+        } catch (MongoException e) {
+            logger.debug("Slow query on collection '{}' could not be explained: {}", collection, e.getMessage());
+        }
+    }
+
+    private static long getSize(List<DBObject> documents) {
+        BasicBSONEncoder encoder = new BasicBSONEncoder();
+        long bytes = 0;
+        for (DBObject document : documents) {
+            bytes += encoder.encode(document).length;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opencb.cellbase.mongodb.db.core;
+
+import com.mongodb.BasicDBList;
+import org.opencb.biodata.models.feature.Region;
+import org.opencb.biodata.models.variant.annotation.Score;
+import org.opencb.cellbase.core.common.ConservationScoreFileReader;
+import org.opencb.cellbase.core.common.ConservedRegionFeature;
+import org.opencb.datastore.core.QueryOptions;
+import org.opencb.datastore.core.QueryResult;
+import org.opencb.datastore.mongodb.MongoDataStore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Conservation adaptor that reads phastCons and phyloP scores from the memory-mapped binary files written by
+ * ConservedRegionParser binary output mode. Chromosomes with no binary file are queried to 'conservation'
+ * collection as usual.
+ */
+public class ConservationBinaryMongoDBAdaptor extends ConservationMongoDBAdaptor {
+
+    private ConservationScoreFileReader conservationScoreFileReader;
+
+    public ConservationBinaryMongoDBAdaptor(String species, String assembly, MongoDataStore mongoDataStore,
+                                            ConservationScoreFileReader conservationScoreFileReader) {
+        super(species, assembly, mongoDataStore);
+        this.conservationScoreFileReader = conservationScoreFileReader;
+    }
+
+    @Override
+    public List<QueryResult> getAllByRegionList(List<Region> regions, QueryOptions options) {
+        List<QueryResult> queryResults = new ArrayList<>(regions.size());
+        List<Region> mongoRegions = new ArrayList<>();
+        List<Integer> mongoRegionIndexes = new ArrayList<>();
+        for (Region region : regions) {
+            if (!conservationScoreFileReader.contains(region.getChromosome())) {
+                mongoRegionIndexes.add(queryResults.size());
+                mongoRegions.add(region);
+                queryResults.add(null);
+                continue;
+            }
+
+            long dbTimeStart = System.nanoTime();
+            checkRegion(region);
+            // Max region size is 10000bp
+            if (region.getEnd() - region.getStart() > 10000) {
+                region.setEnd(region.getStart() + 10000);
+            }
+
+            BasicDBList resultList = new BasicDBList();
+            for (String type : conservationScoreFileReader.getTypes()) {
+                List<Float> values = new ArrayList<>(region.getEnd() - region.getStart() + 1);
+                boolean found = false;
+                for (int position = region.getStart(); position <= region.getEnd(); position++) {
+                    float score = conservationScoreFileReader.getScore(type, region.getChromosome(), position);
+                    if (Float.isNaN(score)) {
+                        values.add(null);
+                    } else {
+                        values.add(score);
+                        found = true;
+                    }
+                }
+                if (found) {
+                    resultList.add(new ConservedRegionFeature(region.getChromosome(), region.getStart(), region.getEnd(), type, values));
+                }
+            }
+            queryResults.add(createQueryResult(region, resultList, dbTimeStart));
+        }
+
+        return mergeMongoQueryResults(queryResults, mongoRegionIndexes, mongoRegions.isEmpty()
+                ? null : super.getAllByRegionList(mongoRegions, options));
+    }
+
+    @Override
+    public List<QueryResult> getAllScoresByRegionList(List<Region> regions, QueryOptions options) {
+        List<QueryResult> queryResults = new ArrayList<>(regions.size());
+        List<Region> mongoRegions = new ArrayList<>();
+        List<Integer> mongoRegionIndexes = new ArrayList<>();
+        for (Region region : regions) {
+            if (!conservationScoreFileReader.contains(region.getChromosome())) {
+                mongoRegionIndexes.add(queryResults.size());
+                mongoRegions.add(region);
+                queryResults.add(null);
+                continue;
+            }
+
+            long dbTimeStart = System.nanoTime();
+            checkRegion(region);
+
+            BasicDBList resultList = new BasicDBList();
+            for (String type : conservationScoreFileReader.getTypes()) {
+                for (int position = region.getStart(); position <= region.getEnd(); position++) {
+                    float score = conservationScoreFileReader.getScore(type, region.getChromosome(), position);
+                    if (!Float.isNaN(score)) {
+                        resultList.add(new Score((double) score, type));
+                    }
+                }
+            }
+            queryResults.add(createQueryResult(region, resultList.isEmpty() ? null : resultList, dbTimeStart));
+        }
+
+        return mergeMongoQueryResults(queryResults, mongoRegionIndexes, mongoRegions.isEmpty()
+                ? null : super.getAllScoresByRegionList(mongoRegions, options));
+    }
+
+    private void checkRegion(Region region) {
+        // positions below 1 are not allowed
+        if (region.getStart() < 1) {
+            region.setStart(1);
+        }
+        if (region.getEnd() < 1) {
+            region.setEnd(1);
+        }
+    }
+
+    private QueryResult createQueryResult(Region region, List result, long dbTimeStart) {
+        QueryResult queryResult = new QueryResult();
+        queryResult.setId(region.toString());
+        queryResult.setDbTime(Long.valueOf((System.nanoTime() - dbTimeStart) / 1000000).intValue());
+        queryResult.setNumResults((result != null) ? result.size() : 0);
+        queryResult.setNumTotalResults((result != null) ? result.size() : 0);
+        queryResult.setResult(result);
+        return queryResult;
+    }
+
+    private List<QueryResult> mergeMongoQueryResults(List<QueryResult> queryResults, List<Integer> mongoRegionIndexes,
+                                                     List<QueryResult> mongoQueryResults) {
+        if (mongoQueryResults != null) {
+            logger.debug("{} regions not found in conservation files, querying 'conservation' collection", mongoQueryResults.size());
+            for (int i = 0; i < mongoRegionIndexes.size(); i++) {
+                queryResults.set(mongoRegionIndexes.get(i), mongoQueryResults.get(i));
+            }
+        }
+        return queryResults;
+    }
+
+}
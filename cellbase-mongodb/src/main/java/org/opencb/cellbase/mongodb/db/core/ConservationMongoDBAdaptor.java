@@ -37,9 +37,9 @@ public class ConservationMongoDBAdaptor extends MongoDBAdaptor implements Conser
     public ConservationMongoDBAdaptor(String species, String assembly, MongoDataStore mongoDataStore) {
         super(species, assembly, mongoDataStore);
 //        mongoDBCollection = db.getCollection("conservation");
-        mongoDBCollection = mongoDataStore.getCollection("conservation");
+        mongoDBCollection = getCollection("conservation");
 
-        logger.info("ConservedRegionMongoDBAdaptor: in 'constructor'");
+        logger.debug("ConservedRegionMongoDBAdaptor: in 'constructor'");
     }
 
 //    private int getChunk(int position) {
@@ -106,9 +106,6 @@ public class ConservationMongoDBAdaptor extends MongoDBAdaptor implements Conser
 
             queries.add(builder.get());
             ids.add(region.toString());
-
-
-            logger.info(builder.get().toString());
         }
 
         List<QueryResult> queryResults = executeQueryList2(ids, queries, options);
@@ -207,9 +204,6 @@ public class ConservationMongoDBAdaptor extends MongoDBAdaptor implements Conser
 
             queries.add(builder.get());
             ids.add(region.toString());
-
-            logger.info(builder.get().toString());
-
         }
         List<QueryResult> queryResults = executeQueryList2(ids, queries, options);
 //        List<QueryResult> queryResults = executeQueryList(ids, queries, options);
@@ -33,9 +33,9 @@ public class ExonMongoDBAdaptor extends MongoDBAdaptor implements ExonDBAdaptor
 
     public ExonMongoDBAdaptor(String species, String assembly, MongoDataStore mongoDataStore) {
         super(species, assembly, mongoDataStore);
-        mongoDBCollection = mongoDataStore.getCollection("gene");
+        mongoDBCollection = getCollection("gene");
 
-        logger.info("ExonMongoDBAdaptor: in 'constructor'");
+        logger.debug("ExonMongoDBAdaptor: in 'constructor'");
     }
 
 
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opencb.cellbase.mongodb.db.core;
+
+import org.opencb.cellbase.core.common.metrics.Metrics;
+import org.opencb.datastore.mongodb.MongoDataStore;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Substitution scores already fetched from 'protein_functional_prediction', per transcript and 'position.aa' key.
+ * One cache is shared by all the protein adaptors of a database, adaptors are created for each request. Transcripts
+ * are evicted in LRU order once MAX_TRANSCRIPTS transcripts are cached.
+ */
+public class FunctionPredictionCache {
+
+    private static final int MAX_TRANSCRIPTS = 5000;
+
+    private static final Map<String, FunctionPredictionCache> caches = new ConcurrentHashMap<>();
+
+    // Guarded by 'this', iteration order is the access order
+    private final LinkedHashMap<String, Map<String, Object>> transcripts =
+            new LinkedHashMap<String, Map<String, Object>>(1024, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Map<String, Object>> eldest) {
+                    return size() > MAX_TRANSCRIPTS;
+                }
+            };
+
+    private FunctionPredictionCache() {
+    }
+
+    /**
+     * Returns the cache of the database, database names include the CellBase version so a new version gets a new
+     * cache.
+     */
+    public static FunctionPredictionCache get(MongoDataStore mongoDataStore) {
+        return caches.computeIfAbsent(mongoDataStore.getDb().getName(), name -> {
+            FunctionPredictionCache cache = new FunctionPredictionCache();
+            Metrics.gauge("cellbase_function_prediction_cache_transcripts",
+                    "Transcripts with cached substitution scores", () -> {
+                        synchronized (cache) {
+                            return cache.transcripts.size();
+                        }
+                    }, "database", name);
+            return cache;
+        });
+    }
+
+    /**
+     * @return The cached scores, null if the change has not been fetched yet
+     */
+    public synchronized Object get(String transcriptId, String aaChangeKey) {
+        Map<String, Object> transcriptFunctionPredictions = transcripts.get(transcriptId);
+        return (transcriptFunctionPredictions != null) ? transcriptFunctionPredictions.get(aaChangeKey) : null;
+    }
+
+    public synchronized void put(String transcriptId, String aaChangeKey, Object scores) {
+        Map<String, Object> transcriptFunctionPredictions = transcripts.get(transcriptId);
+        if (transcriptFunctionPredictions == null) {
+            transcriptFunctionPredictions = new HashMap<>();
+            transcripts.put(transcriptId, transcriptFunctionPredictions);
+        }
+        transcriptFunctionPredictions.put(aaChangeKey, scores);
+    }
+}
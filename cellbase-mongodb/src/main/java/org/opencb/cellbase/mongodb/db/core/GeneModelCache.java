@@ -0,0 +1,282 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opencb.cellbase.mongodb.db.core;
+
+import com.mongodb.*;
+import org.bson.BasicBSONEncoder;
+import org.opencb.cellbase.core.common.metrics.Metrics;
+import org.opencb.datastore.mongodb.MongoDataStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory cache of the complete gene documents of a database, shared by all the gene adaptors of that database.
+ * Genes are loaded by chromosome chunks of CHUNK_SIZE bp, a chunk keeps the genes overlapping it sorted by start so
+ * overlapping genes are found with a binary search. Chunks are evicted in LRU order when the BSON size of the cached
+ * genes exceeds the configured limit. The cache is emptied when the number or size of the gene documents changes,
+ * this is checked at most once every VALIDATION_INTERVAL ms and with no lock held, readers never wait for MongoDB
+ * unless they miss a chunk.
+ */
+public class GeneModelCache {
+
+    public static final int CHUNK_SIZE = 10000000;
+    private static final long VALIDATION_INTERVAL = 60000;
+
+    private static final Map<String, GeneModelCache> caches = new ConcurrentHashMap<>();
+
+    private final String database;
+    private final DBCollection geneCollection;
+    private final long maxBytes;
+    private final long validationInterval;
+
+    // Guarded by 'this', iteration order is the access order
+    private final LinkedHashMap<String, Chunk> chunks = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+    // Incremented every time the cache is emptied, chunks loaded before are not cached as they may be stale
+    private long generation;
+
+    private String fingerprint;
+    private long lastValidation;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private static Logger logger = LoggerFactory.getLogger(GeneModelCache.class);
+
+    private GeneModelCache(DB db, long maxBytes) {
+        this(db.getName(), db.getCollection("gene"), maxBytes, VALIDATION_INTERVAL);
+    }
+
+    GeneModelCache(String database, DBCollection geneCollection, long maxBytes, long validationInterval) {
+        this.database = database;
+        this.geneCollection = geneCollection;
+        this.maxBytes = maxBytes;
+        this.validationInterval = validationInterval;
+    }
+
+    /**
+     * Returns the cache of the database, database names include the CellBase version so a new version gets a new
+     * cache. The size of an existing cache is not changed.
+     */
+    public static GeneModelCache get(MongoDataStore mongoDataStore, long maxBytes) {
+        DB db = mongoDataStore.getDb();
+        return caches.computeIfAbsent(db.getName(), name -> {
+            logger.info("Caching up to {} MB of genes from database '{}'", maxBytes / (1024 * 1024), name);
+            GeneModelCache cache = new GeneModelCache(db, maxBytes);
+            Metrics.counter("cellbase_gene_cache_hits_total", "Gene chunks found in the cache", cache.hits::get,
+                    "database", name);
+            Metrics.counter("cellbase_gene_cache_misses_total", "Gene chunks loaded from the database",
+                    cache.misses::get, "database", name);
+            Metrics.gauge("cellbase_gene_cache_bytes", "BSON size of the cached genes", () -> {
+                synchronized (cache) {
+                    return cache.bytes;
+                }
+            }, "database", name);
+            return cache;
+        });
+    }
+
+    /**
+     * Metrics of all the caches created, indexed by database name.
+     */
+    public static Map<String, Map<String, Object>> getAllStats() {
+        Map<String, Map<String, Object>> stats = new TreeMap<>();
+        for (GeneModelCache cache : caches.values()) {
+            stats.put(cache.database, cache.getStats());
+        }
+        return stats;
+    }
+
+    /**
+     * Returns the cached genes with end >= start and start <= end, the same genes the region query returns. The
+     * documents are shared, they must be copied with MongoDBProjection.project() before being modified or returned.
+     */
+    public List<DBObject> getGenes(String chromosome, int start, int end) {
+        validate();
+        List<DBObject> genes = new ArrayList<>();
+        int firstChunkId = Math.max(start, 0) / CHUNK_SIZE;
+        int lastChunkId = Math.max(end, 0) / CHUNK_SIZE;
+        Set<Object> ids = (firstChunkId < lastChunkId) ? new HashSet<>() : null;
+        for (int chunkId = firstChunkId; chunkId <= lastChunkId; chunkId++) {
+            getChunk(chromosome, chunkId).addOverlapping(start, end, genes, ids);
+        }
+        return genes;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long numHits = hits.get();
+        long numMisses = misses.get();
+        stats.put("hits", numHits);
+        stats.put("misses", numMisses);
+        stats.put("hitRatio", (numHits + numMisses > 0) ? (double) numHits / (numHits + numMisses) : 0);
+        stats.put("evictions", evictions.get());
+        synchronized (this) {
+            stats.put("chunks", chunks.size());
+            stats.put("bytes", bytes);
+        }
+        stats.put("maxBytes", maxBytes);
+        return stats;
+    }
+
+    private Chunk getChunk(String chromosome, int chunkId) {
+        String key = chromosome + "_" + chunkId;
+        long chunkGeneration;
+        synchronized (this) {
+            Chunk chunk = chunks.get(key);
+            if (chunk != null) {
+                hits.incrementAndGet();
+                return chunk;
+            }
+            chunkGeneration = generation;
+        }
+
+        // Chunks are loaded with no lock held, concurrent misses of the same chunk may load it twice
+        misses.incrementAndGet();
+        Chunk chunk = loadChunk(chromosome, chunkId);
+        synchronized (this) {
+            if (chunkGeneration != generation) {
+                // the cache was emptied while loading, genes may have been read before they changed
+                return chunk;
+            }
+            Chunk previous = chunks.put(key, chunk);
+            bytes += chunk.bytes - ((previous != null) ? previous.bytes : 0);
+            Iterator<Chunk> iterator = chunks.values().iterator();
+            while (bytes > maxBytes && chunks.size() > 1) {
+                Chunk eldest = iterator.next();
+                if (eldest != chunk) {
+                    bytes -= eldest.bytes;
+                    iterator.remove();
+                    evictions.incrementAndGet();
+                }
+            }
+        }
+        return chunk;
+    }
+
+    private Chunk loadChunk(String chromosome, int chunkId) {
+        int chunkStart = chunkId * CHUNK_SIZE;
+        int chunkEnd = chunkStart + CHUNK_SIZE - 1;
+        List<DBObject> genes = findGenes(chromosome, chunkStart, chunkEnd);
+        long chunkBytes = 0;
+        BasicBSONEncoder encoder = new BasicBSONEncoder();
+        for (DBObject gene : genes) {
+            chunkBytes += encoder.encode(gene).length;
+        }
+        logger.debug("{} genes ({} bytes) cached for {}:{}-{}", genes.size(), chunkBytes, chromosome, chunkStart,
+                chunkEnd);
+        return new Chunk(genes, chunkBytes);
+    }
+
+    List<DBObject> findGenes(String chromosome, int start, int end) {
+        DBObject query = QueryBuilder.start("chromosome").is(chromosome).and("end").greaterThanEquals(start)
+                .and("start").lessThanEquals(end).get();
+        List<DBObject> genes = new ArrayList<>();
+        try (DBCursor cursor = geneCollection.find(query)) {
+            while (cursor.hasNext()) {
+                genes.add(cursor.next());
+            }
+        }
+        return genes;
+    }
+
+    String readFingerprint() {
+        return geneCollection.count() + ":" + geneCollection.getStats().get("size");
+    }
+
+    private void validate() {
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (now - lastValidation < validationInterval) {
+                return;
+            }
+            lastValidation = now;
+        }
+
+        // Only the thread that updated lastValidation queries MongoDB, the others go on reading the cache
+        String currentFingerprint;
+        try {
+            currentFingerprint = readFingerprint();
+        } catch (MongoException e) {
+            logger.warn("Gene collection of database '{}' could not be checked: {}", database, e.getMessage());
+            return;
+        }
+        synchronized (this) {
+            if (!currentFingerprint.equals(fingerprint)) {
+                if (fingerprint != null) {
+                    logger.info("Gene collection of database '{}' has changed, cache emptied", database);
+                }
+                chunks.clear();
+                bytes = 0;
+                generation++;
+                fingerprint = currentFingerprint;
+            }
+        }
+        logger.debug("Gene cache of database '{}': {}", database, getStats());
+    }
+
+    private static class Chunk {
+
+        private final DBObject[] genes;
+        private final int[] starts;
+        private final int[] ends;
+        // Maximum end of the genes up to each position, it stops the backward scan of overlapping genes
+        private final int[] maxEnds;
+        private final long bytes;
+
+        Chunk(List<DBObject> geneList, long bytes) {
+            geneList.sort(Comparator.comparingInt(gene -> ((Number) gene.get("start")).intValue()));
+            this.genes = geneList.toArray(new DBObject[geneList.size()]);
+            this.starts = new int[genes.length];
+            this.ends = new int[genes.length];
+            this.maxEnds = new int[genes.length];
+            for (int i = 0; i < genes.length; i++) {
+                starts[i] = ((Number) genes[i].get("start")).intValue();
+                ends[i] = ((Number) genes[i].get("end")).intValue();
+                maxEnds[i] = (i > 0) ? Math.max(maxEnds[i - 1], ends[i]) : ends[i];
+            }
+            this.bytes = bytes;
+        }
+
+        void addOverlapping(int start, int end, List<DBObject> result, Set<Object> ids) {
+            // Last gene with start <= end
+            int index = Arrays.binarySearch(starts, end);
+            if (index >= 0) {
+                while (index + 1 < starts.length && starts[index + 1] == end) {
+                    index++;
+                }
+            } else {
+                index = -index - 2;
+            }
+            int first = result.size();
+            for (int i = index; i >= 0 && maxEnds[i] >= start; i--) {
+                if (ends[i] >= start && (ids == null || ids.add(genes[i].get("_id")))) {
+                    result.add(genes[i]);
+                }
+            }
+            // Genes were collected backwards
+            Collections.reverse(result.subList(first, result.size()));
+        }
+    }
+
+}
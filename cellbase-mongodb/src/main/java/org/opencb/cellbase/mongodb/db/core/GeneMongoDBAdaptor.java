@@ -24,17 +24,17 @@ import org.opencb.biodata.models.feature.Region;
 import org.opencb.cellbase.core.db.api.core.GeneDBAdaptor;
 import org.opencb.cellbase.mongodb.MongoDBCollectionConfiguration;
 import org.opencb.cellbase.mongodb.db.MongoDBAdaptor;
+import org.opencb.cellbase.mongodb.db.MongoDBProjection;
 import org.opencb.datastore.core.QueryOptions;
 import org.opencb.datastore.core.QueryResult;
 import org.opencb.datastore.mongodb.MongoDataStore;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.util.*;
 
 public class GeneMongoDBAdaptor extends MongoDBAdaptor implements GeneDBAdaptor {
 
     private int geneChunkSize = MongoDBCollectionConfiguration.GENE_CHUNK_SIZE;
+    private GeneModelCache geneModelCache;
 
 //    public GeneMongoDBAdaptor(DB db) {
 //        super(db);
@@ -50,9 +50,15 @@ public class GeneMongoDBAdaptor extends MongoDBAdaptor implements GeneDBAdaptor
 
     public GeneMongoDBAdaptor(String species, String assembly, MongoDataStore mongoDataStore) {
         super(species, assembly, mongoDataStore);
-        mongoDBCollection = mongoDataStore.getCollection("gene");
+        mongoDBCollection = getCollection("gene");
 
-        logger.info("GeneMongoDBAdaptor: in 'constructor'");
+        logger.debug("GeneMongoDBAdaptor: in 'constructor'");
+    }
+
+    public GeneMongoDBAdaptor(String species, String assembly, MongoDataStore mongoDataStore,
+                              GeneModelCache geneModelCache) {
+        this(species, assembly, mongoDataStore);
+        this.geneModelCache = geneModelCache;
     }
 
 
@@ -168,6 +174,10 @@ public class GeneMongoDBAdaptor extends MongoDBAdaptor implements GeneDBAdaptor
             biotypeIds.addAll(biotypes);
         }
 
+        if (geneModelCache != null && isCacheable(options)) {
+            return getAllByRegionListFromCache(regions, options, biotypeIds);
+        }
+
         List<String> ids = new ArrayList<>(regions.size());
         for (Region region : regions) {
 
@@ -192,9 +202,42 @@ public class GeneMongoDBAdaptor extends MongoDBAdaptor implements GeneDBAdaptor
     }
 
 
+    /**
+     * Queries paginating or sorting the results are always sent to MongoDB.
+     */
+    private boolean isCacheable(QueryOptions options) {
+        return options.getInt("limit", 0) <= 0 && options.getInt("skip", 0) <= 0 && !options.containsKey("sort");
+    }
+
+    private List<QueryResult> getAllByRegionListFromCache(List<Region> regions, QueryOptions options,
+                                                          BasicDBList biotypeIds) {
+        List<String> include = MongoDBProjection.getFields(options, "include");
+        List<String> exclude = include.isEmpty() ? MongoDBProjection.getFields(options, "exclude") : Collections.emptyList();
+
+        List<QueryResult> queryResults = new ArrayList<>(regions.size());
+        for (Region region : regions) {
+            long start = System.currentTimeMillis();
+            List<DBObject> genes = new ArrayList<>();
+            for (DBObject gene : geneModelCache.getGenes(region.getChromosome(), region.getStart(), region.getEnd())) {
+                if (biotypeIds.isEmpty() || biotypeIds.contains(gene.get("biotype"))) {
+                    genes.add(MongoDBProjection.project(gene, include, exclude));
+                }
+            }
+
+            QueryResult queryResult = new QueryResult();
+            queryResult.setId(region.toString());
+            queryResult.setDbTime((int) (System.currentTimeMillis() - start));
+            queryResult.setNumResults(genes.size());
+            queryResult.setNumTotalResults(genes.size());
+            queryResult.setResult(genes);
+            queryResults.add(queryResult);
+        }
+        return queryResults;
+    }
+
     @Override
     public QueryResult getIntervalFrequencies(Region region, QueryOptions queryOptions) {
-        return super.getIntervalFrequencies(region, queryOptions);
+        return super.getIntervalFrequencies(region, queryOptions, "gene");
     }
 
     @Override
@@ -41,10 +41,10 @@ public class GenomeMongoDBAdaptor extends MongoDBAdaptor implements GenomeDBAdap
 
     public GenomeMongoDBAdaptor(String species, String assembly, MongoDataStore mongoDataStore) {
         super(species, assembly, mongoDataStore);
-        mongoDBCollection = mongoDataStore.getCollection("genome_info");
-        genomeSequenceCollection = mongoDataStore.getCollection("genome_sequence");
+        mongoDBCollection = getCollection("genome_info");
+        genomeSequenceCollection = getCollection("genome_sequence");
 
-        logger.info("GeneMongoDBAdaptor: in 'constructor'");
+        logger.debug("GeneMongoDBAdaptor: in 'constructor'");
     }
 
     @Deprecated
@@ -143,8 +143,6 @@ public class GenomeMongoDBAdaptor extends MongoDBAdaptor implements GenomeDBAdap
             /****/
             queries.add(builder.get());
             ids.add(region.toString());
-
-            logger.info(builder.get().toString());
         }
 
         List<QueryResult> queryResults = executeQueryList2(ids, queries, options, genomeSequenceCollection);
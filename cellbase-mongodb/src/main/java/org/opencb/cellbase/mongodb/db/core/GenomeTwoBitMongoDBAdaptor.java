@@ -0,0 +1,88 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opencb.cellbase.mongodb.db.core;
+
+import org.opencb.biodata.models.feature.Region;
+import org.opencb.cellbase.core.common.GenomeSequenceFeature;
+import org.opencb.cellbase.core.common.TwoBitFileReader;
+import org.opencb.datastore.core.QueryOptions;
+import org.opencb.datastore.core.QueryResult;
+import org.opencb.datastore.mongodb.MongoDataStore;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Genome adaptor that reads sequences from a local .2bit copy of the reference genome, built from the same FASTA
+ * file as 'genome_sequence' collection. Genome info and chromosome queries are still resolved by MongoDB.
+ * Sequences not present in the .2bit file are queried to 'genome_sequence' collection as usual.
+ * The .2bit format only stores A, C, G, T and N, so the few other IUPAC codes of a reference genome (ie. 'R' or
+ * 'Y') are returned as 'N', while 'genome_sequence' collection returns them as they are in the FASTA file.
+ */
+public class GenomeTwoBitMongoDBAdaptor extends GenomeMongoDBAdaptor {
+
+    private TwoBitFileReader twoBitFileReader;
+
+    public GenomeTwoBitMongoDBAdaptor(String species, String assembly, MongoDataStore mongoDataStore,
+                                      TwoBitFileReader twoBitFileReader) {
+        super(species, assembly, mongoDataStore);
+        this.twoBitFileReader = twoBitFileReader;
+    }
+
+    @Override
+    public List<QueryResult> getAllSequencesByRegionList(List<Region> regions, QueryOptions options) {
+        List<QueryResult> queryResults = new ArrayList<>(regions.size());
+        List<Region> mongoRegions = new ArrayList<>();
+        List<Integer> mongoRegionIndexes = new ArrayList<>();
+        for (Region region : regions) {
+            if (!twoBitFileReader.contains(region.getChromosome())) {
+                mongoRegionIndexes.add(queryResults.size());
+                mongoRegions.add(region);
+                queryResults.add(null);
+                continue;
+            }
+
+            long dbTimeStart = System.nanoTime();
+            // positions below 1 are not allowed, the caller's region is not modified
+            region = new Region(region.getChromosome(), Math.max(region.getStart(), 1), Math.max(region.getEnd(), 1));
+            String sequence = twoBitFileReader.getSequence(region.getChromosome(), region.getStart(), region.getEnd());
+            GenomeSequenceFeature genomeSequenceFeature = new GenomeSequenceFeature(region.getChromosome(),
+                    region.getStart(), region.getEnd(), 1, null, assembly, sequence);
+
+            QueryResult queryResult = new QueryResult();
+            queryResult.setId(region.toString());
+            queryResult.setDbTime(Long.valueOf((System.nanoTime() - dbTimeStart) / 1000000).intValue());
+            queryResult.setNumResults(1);
+            queryResult.setNumTotalResults(1);
+            queryResult.setResult(Collections.singletonList(genomeSequenceFeature));
+            queryResults.add(queryResult);
+        }
+
+        if (!mongoRegions.isEmpty()) {
+            logger.debug("{} regions not found in .2bit file, querying 'genome_sequence' collection", mongoRegions.size());
+            List<QueryResult> mongoQueryResults = super.getAllSequencesByRegionList(mongoRegions, options);
+            for (int i = 0; i < mongoRegionIndexes.size(); i++) {
+                queryResults.set(mongoRegionIndexes.get(i), mongoQueryResults.get(i));
+            }
+        }
+
+        return queryResults;
+    }
+
+}
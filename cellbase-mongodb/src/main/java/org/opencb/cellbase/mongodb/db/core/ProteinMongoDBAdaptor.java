@@ -16,6 +16,7 @@
 
 package org.opencb.cellbase.mongodb.db.core;
 
+import com.mongodb.BasicDBList;
 import com.mongodb.BasicDBObject;
 import com.mongodb.DBObject;
 import com.mongodb.QueryBuilder;
@@ -34,6 +35,9 @@ import java.util.*;
 public class ProteinMongoDBAdaptor extends MongoDBAdaptor implements ProteinDBAdaptor {
 
     private MongoDBCollection proteinFunctionalPredictionCollection;
+    private FunctionPredictionCache functionPredictionCache;
+
+    private static final Object NO_FUNCTION_PREDICTION = new Object();
 
     private static Map<String,String> aaShortName = new HashMap<>();
 
@@ -64,10 +68,11 @@ public class ProteinMongoDBAdaptor extends MongoDBAdaptor implements ProteinDBAd
     public ProteinMongoDBAdaptor(String species, String assembly, MongoDataStore mongoDataStore) {
         super(species, assembly, mongoDataStore);
 
-        mongoDBCollection = mongoDataStore.getCollection("protein");
-        proteinFunctionalPredictionCollection = mongoDataStore.getCollection("protein_functional_prediction");
+        mongoDBCollection = getCollection("protein");
+        proteinFunctionalPredictionCollection = getCollection("protein_functional_prediction");
+        functionPredictionCache = FunctionPredictionCache.get(mongoDataStore);
 
-        logger.info("ProteinMongoDBAdaptor: in 'constructor'");
+        logger.debug("ProteinMongoDBAdaptor: in 'constructor'");
     }
 
 
@@ -158,25 +163,112 @@ public class ProteinMongoDBAdaptor extends MongoDBAdaptor implements ProteinDBAd
         return executeQueryList2(transcriptIdList, queries, options, proteinFunctionalPredictionCollection);
     }
 
+    @Override
     public QueryResult getFunctionPredictionByAaChange(String transcriptId, Integer aaPosition, String newAa, QueryOptions queryOptions) {
+        return getFunctionPredictionByAaChangeList(Arrays.asList(transcriptId), Arrays.asList(aaPosition),
+                Arrays.asList(newAa)).get(0);
+    }
+
+    @Override
+    public List<QueryResult> getFunctionPredictionByAaChangeList(List<String> transcriptIdList, List<Integer> aaPositionList,
+                                                                 List<String> newAaList) {
+
+        // Scores of this call are kept apart from the shared cache, other requests may evict them from it before
+        // the results are built. Changes not found in the cache are collapsed per transcript, all of them are
+        // fetched with a single $in query projecting only the requested 'aaPositions.<position>.<aa>' fields
+        Map<String, Object> functionPredictions = new HashMap<>();
+        Map<String, Set<String>> missingChanges = new LinkedHashMap<>();
+        for (int i = 0; i < transcriptIdList.size(); i++) {
+            String aaChangeKey = getAaChangeKey(aaPositionList.get(i), newAaList.get(i));
+            if (aaChangeKey == null || functionPredictions.containsKey(transcriptIdList.get(i) + ":" + aaChangeKey)) {
+                continue;
+            }
+            Object scores = getCachedFunctionPrediction(transcriptIdList.get(i), aaChangeKey);
+            if (scores != null) {
+                functionPredictions.put(transcriptIdList.get(i) + ":" + aaChangeKey, scores);
+            } else {
+                if (!missingChanges.containsKey(transcriptIdList.get(i))) {
+                    missingChanges.put(transcriptIdList.get(i), new HashSet<>());
+                }
+                missingChanges.get(transcriptIdList.get(i)).add(aaChangeKey);
+            }
+        }
+
+        int dbTime = 0;
+        if (!missingChanges.isEmpty()) {
+            List<String> includeFields = new ArrayList<>();
+            includeFields.add("transcriptId");
+            Set<String> aaChangeKeys = new HashSet<>();
+            for (Set<String> transcriptAaChangeKeys : missingChanges.values()) {
+                aaChangeKeys.addAll(transcriptAaChangeKeys);
+            }
+            for (String aaChangeKey : aaChangeKeys) {
+                includeFields.add("aaPositions." + aaChangeKey);
+            }
 
-        QueryBuilder builder = QueryBuilder.start("transcriptId").is(transcriptId);
-        QueryResult allChangesQueryResult = executeQuery(transcriptId, builder.get(), queryOptions, proteinFunctionalPredictionCollection);
+            BasicDBList transcriptIds = new BasicDBList();
+            transcriptIds.addAll(missingChanges.keySet());
+            QueryBuilder builder = QueryBuilder.start("transcriptId").in(transcriptIds);
+            QueryResult allChangesQueryResult = executeQuery("functionPrediction", builder.get(),
+                    new QueryOptions("include", includeFields), proteinFunctionalPredictionCollection);
+            dbTime = allChangesQueryResult.getDbTime();
+
+            Map<String, Map> aaPositionsByTranscript = new HashMap<>();
+            for (Object document : allChangesQueryResult.getResult()) {
+                String transcriptId = (String) ((BasicDBObject) document).get("transcriptId");
+                if (!aaPositionsByTranscript.containsKey(transcriptId)) {
+                    aaPositionsByTranscript.put(transcriptId, (Map) ((BasicDBObject) document).get("aaPositions"));
+                }
+            }
+
+            // Changes with no scores are cached too, they are queried as often as the ones having scores
+            for (Map.Entry<String, Set<String>> entry : missingChanges.entrySet()) {
+                Map aaPositions = aaPositionsByTranscript.get(entry.getKey());
+                for (String aaChangeKey : entry.getValue()) {
+                    Object scores = null;
+                    String[] aaChangeFields = aaChangeKey.split("\\.");
+                    if (aaPositions != null && aaPositions.get(aaChangeFields[0]) != null) {
+                        scores = ((Map) aaPositions.get(aaChangeFields[0])).get(aaChangeFields[1]);
+                    }
+                    functionPredictions.put(entry.getKey() + ":" + aaChangeKey, scores != null ? scores : NO_FUNCTION_PREDICTION);
+                    putCachedFunctionPrediction(entry.getKey(), aaChangeKey, scores != null ? scores : NO_FUNCTION_PREDICTION);
+                }
+            }
+        }
 
-        QueryResult proteinSubstitionScoresQueryResult = new QueryResult();
-        proteinSubstitionScoresQueryResult.setDbTime(allChangesQueryResult.getDbTime());
-        proteinSubstitionScoresQueryResult.setId(transcriptId+"-"+aaPosition+"-"+newAa);
+        List<QueryResult> queryResults = new ArrayList<>(transcriptIdList.size());
+        for (int i = 0; i < transcriptIdList.size(); i++) {
+            QueryResult proteinSubstitionScoresQueryResult = new QueryResult();
+            proteinSubstitionScoresQueryResult.setDbTime(dbTime);
+            proteinSubstitionScoresQueryResult.setId(transcriptIdList.get(i) + "-" + aaPositionList.get(i) + "-" + newAaList.get(i));
+
+            String aaChangeKey = getAaChangeKey(aaPositionList.get(i), newAaList.get(i));
+            Object scores = (aaChangeKey != null) ? functionPredictions.get(transcriptIdList.get(i) + ":" + aaChangeKey) : null;
+            if (scores != null && scores != NO_FUNCTION_PREDICTION) {
+                proteinSubstitionScoresQueryResult.setNumResults(1);
+                proteinSubstitionScoresQueryResult.setResult(Arrays.asList(scores));
+            } else {
+                proteinSubstitionScoresQueryResult.setNumResults(0);
+            }
+            queryResults.add(proteinSubstitionScoresQueryResult);
+        }
 
+        return queryResults;
+    }
+
+    private String getAaChangeKey(Integer aaPosition, String newAa) {
         String currentAaShortName;
-        Map aaPositions;
-        if(allChangesQueryResult.getNumResults()>0 && (currentAaShortName = aaShortName.get(newAa))!=null &&
-                (aaPositions = ((HashMap) ((BasicDBObject) allChangesQueryResult.getResult().get(0)).get("aaPositions")))!=null) {
-            proteinSubstitionScoresQueryResult.setNumResults(1);
-            proteinSubstitionScoresQueryResult.setResult(Arrays.asList(((BasicDBObject) aaPositions.get(Integer.toString(aaPosition))).get(currentAaShortName)));
-        } else {
-            proteinSubstitionScoresQueryResult.setNumResults(0);
+        if (aaPosition == null || newAa == null || (currentAaShortName = aaShortName.get(newAa)) == null) {
+            return null;
         }
+        return aaPosition + "." + currentAaShortName;
+    }
+
+    private Object getCachedFunctionPrediction(String transcriptId, String aaChangeKey) {
+        return functionPredictionCache.get(transcriptId, aaChangeKey);
+    }
 
-        return proteinSubstitionScoresQueryResult;
+    private void putCachedFunctionPrediction(String transcriptId, String aaChangeKey, Object scores) {
+        functionPredictionCache.put(transcriptId, aaChangeKey, scores);
     }
 }
@@ -37,9 +37,9 @@ public class TranscriptMongoDBAdaptor extends MongoDBAdaptor implements Transcri
 
     public TranscriptMongoDBAdaptor(String species, String assembly, MongoDataStore mongoDataStore) {
         super(species, assembly, mongoDataStore);
-        mongoDBCollection = mongoDataStore.getCollection("gene");
+        mongoDBCollection = getCollection("gene");
 
-        logger.info("TranscriptMongoDBAdaptor: in 'constructor'");
+        logger.debug("TranscriptMongoDBAdaptor: in 'constructor'");
     }
 
 
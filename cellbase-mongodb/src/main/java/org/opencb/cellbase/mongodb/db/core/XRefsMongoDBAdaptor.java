@@ -39,9 +39,9 @@ public class XRefsMongoDBAdaptor extends MongoDBAdaptor implements XRefsDBAdapto
     public XRefsMongoDBAdaptor(String species, String assembly, MongoDataStore mongoDataStore) {
         super(species, assembly, mongoDataStore);
 //        mongoDBCollection = db.getCollection("gene");
-        mongoDBCollection = mongoDataStore.getCollection("gene");
+        mongoDBCollection = getCollection("gene");
 
-        logger.info("XrefsMongoDBAdaptor: in 'constructor'");
+        logger.debug("XrefsMongoDBAdaptor: in 'constructor'");
     }
 
 
@@ -80,7 +80,6 @@ public class XRefsMongoDBAdaptor extends MongoDBAdaptor implements XRefsDBAdapto
         if (limit > 50) {
             options.put("limit", 50);
         }
-        System.out.println(options.getInt("limit"));
         options.put("include", Arrays.asList("chromosome", "start", "end", "id", "name"));
 
         return executeQueryList2(ids, queries, options);
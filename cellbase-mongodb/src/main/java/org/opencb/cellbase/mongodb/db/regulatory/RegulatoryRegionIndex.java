@@ -0,0 +1,309 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opencb.cellbase.mongodb.db.regulatory;
+
+import com.mongodb.*;
+import org.opencb.datastore.mongodb.MongoDataStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory overlap index of the 'regulatory_region' collection, shared by all the regulatory and TFBS adaptors of a
+ * database. For each chromosome features are kept in primitive arrays sorted by start together with the running
+ * maximum end, an overlap query is a binary search plus a backward scan that stops as soon as no earlier feature can
+ * reach the query start, so queries with no overlapping features do not touch any document.
+ * Only the fields in INDEXED_FIELDS are kept in memory, other fields are read from MongoDB by '_id'.
+ * The index is built in a background thread the first time it is used and rebuilt when the number or size of the
+ * documents changes, checked at most once every VALIDATION_INTERVAL ms. Callers must query MongoDB meanwhile.
+ */
+public class RegulatoryRegionIndex {
+
+    public static final Set<String> INDEXED_FIELDS = Collections.unmodifiableSet(new HashSet<>(
+            Arrays.asList("_id", "chromosome", "start", "end", "featureType", "featureClass")));
+    private static final long VALIDATION_INTERVAL = 60000;
+
+    private static final Map<String, RegulatoryRegionIndex> indexes = new ConcurrentHashMap<>();
+
+    private final String database;
+    private final DBCollection regulatoryRegionCollection;
+
+    private volatile Snapshot snapshot;
+    private String fingerprint;
+    private long lastValidation;
+    private boolean building;
+
+    private static Logger logger = LoggerFactory.getLogger(RegulatoryRegionIndex.class);
+
+    private RegulatoryRegionIndex(DB db) {
+        this.database = db.getName();
+        this.regulatoryRegionCollection = db.getCollection("regulatory_region");
+    }
+
+    /**
+     * Index of the given features, it is never validated against any collection.
+     */
+    RegulatoryRegionIndex(String database, Iterator<DBObject> features) {
+        this.database = database;
+        this.regulatoryRegionCollection = null;
+        this.snapshot = build(features);
+    }
+
+    public static RegulatoryRegionIndex get(MongoDataStore mongoDataStore) {
+        DB db = mongoDataStore.getDb();
+        return indexes.computeIfAbsent(db.getName(), name -> new RegulatoryRegionIndex(db));
+    }
+
+    /**
+     * Returns the features overlapping the region with the indexed fields only, 'featureTypes' and 'featureClasses'
+     * are ignored when null or empty.
+     * @return null if the index is not ready
+     */
+    public List<DBObject> find(String chromosome, int start, int end, List<Object> featureTypes,
+                               List<Object> featureClasses) {
+        validate();
+        Snapshot current = snapshot;
+        if (current == null) {
+            return null;
+        }
+        ChromosomeIndex chromosomeIndex = current.chromosomes.get(chromosome);
+        if (chromosomeIndex == null) {
+            return Collections.emptyList();
+        }
+        return chromosomeIndex.find(chromosome, start, end, current.getCodes(featureTypes),
+                current.getCodes(featureClasses), current.values);
+    }
+
+    private void validate() {
+        if (regulatoryRegionCollection == null) {
+            return;
+        }
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (building || now - lastValidation < VALIDATION_INTERVAL) {
+                return;
+            }
+            lastValidation = now;
+            building = true;
+        }
+
+        Thread thread = new Thread(() -> {
+            try {
+                String currentFingerprint = regulatoryRegionCollection.count() + ":"
+                        + regulatoryRegionCollection.getStats().get("size");
+                if (!currentFingerprint.equals(fingerprint)) {
+                    if (fingerprint != null) {
+                        logger.info("Collection 'regulatory_region' of database '{}' has changed", database);
+                    }
+                    // Stale features must not be returned while the index is rebuilt
+                    snapshot = null;
+                    DBObject projection = new BasicDBObject("chromosome", 1).append("start", 1).append("end", 1)
+                            .append("featureType", 1).append("featureClass", 1);
+                    try (DBCursor cursor = regulatoryRegionCollection.find(new BasicDBObject(), projection)) {
+                        snapshot = build(cursor);
+                    }
+                    fingerprint = currentFingerprint;
+                }
+            } catch (MongoException e) {
+                logger.warn("Regulatory region index of database '{}' could not be built: {}", database, e.getMessage());
+                snapshot = null;
+                fingerprint = null;
+            } finally {
+                synchronized (this) {
+                    building = false;
+                }
+            }
+        }, "regulatory-region-index-" + database);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private Snapshot build(Iterator<DBObject> features) {
+        long start = System.currentTimeMillis();
+        logger.info("Building regulatory region index of database '{}'...", database);
+        Snapshot newSnapshot = new Snapshot();
+        Map<String, ChromosomeIndex.Builder> builders = new HashMap<>();
+        int numFeatures = 0;
+        while (features.hasNext()) {
+            DBObject feature = features.next();
+            Object chromosome = feature.get("chromosome");
+            if (chromosome == null || !(feature.get("start") instanceof Number)
+                    || !(feature.get("end") instanceof Number)) {
+                continue;
+            }
+            builders.computeIfAbsent(chromosome.toString(), key -> new ChromosomeIndex.Builder())
+                    .add(((Number) feature.get("start")).intValue(), ((Number) feature.get("end")).intValue(),
+                            newSnapshot.getCode(feature.get("featureType")),
+                            newSnapshot.getCode(feature.get("featureClass")), feature.get("_id"));
+            numFeatures++;
+        }
+        for (Map.Entry<String, ChromosomeIndex.Builder> entry : builders.entrySet()) {
+            newSnapshot.chromosomes.put(entry.getKey(), entry.getValue().build());
+        }
+        logger.info("Regulatory region index of database '{}' built with {} features in {} s", database, numFeatures,
+                (System.currentTimeMillis() - start) / 1000);
+        return newSnapshot;
+    }
+
+    /**
+     * Feature types and classes are stored as codes of a dictionary shared by all the chromosomes.
+     */
+    private static class Snapshot {
+
+        private final Map<String, ChromosomeIndex> chromosomes = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+        private final Map<String, Short> codes = new HashMap<>();
+
+        short getCode(Object value) {
+            if (value == null) {
+                return -1;
+            }
+            return codes.computeIfAbsent(value.toString(), key -> {
+                values.add(key);
+                return (short) (values.size() - 1);
+            });
+        }
+
+        boolean[] getCodes(List<Object> filter) {
+            if (filter == null || filter.isEmpty()) {
+                return null;
+            }
+            boolean[] accepted = new boolean[values.size()];
+            for (Object value : filter) {
+                Short code = (value != null) ? codes.get(value.toString()) : null;
+                if (code != null) {
+                    accepted[code] = true;
+                }
+            }
+            return accepted;
+        }
+    }
+
+    private static class ChromosomeIndex {
+
+        private final int[] starts;
+        private final int[] ends;
+        // Maximum end of the features up to each position, it stops the backward scan of overlapping features
+        private final int[] maxEnds;
+        private final short[] featureTypes;
+        private final short[] featureClasses;
+        private final Object[] ids;
+
+        ChromosomeIndex(int size) {
+            starts = new int[size];
+            ends = new int[size];
+            maxEnds = new int[size];
+            featureTypes = new short[size];
+            featureClasses = new short[size];
+            ids = new Object[size];
+        }
+
+        List<DBObject> find(String chromosome, int start, int end, boolean[] acceptedTypes, boolean[] acceptedClasses,
+                            List<String> values) {
+            // Last feature with start <= end
+            int index = Arrays.binarySearch(starts, end);
+            if (index >= 0) {
+                while (index + 1 < starts.length && starts[index + 1] == end) {
+                    index++;
+                }
+            } else {
+                index = -index - 2;
+            }
+
+            List<DBObject> features = null;
+            for (int i = index; i >= 0 && maxEnds[i] >= start; i--) {
+                if (ends[i] >= start && isAccepted(featureTypes[i], acceptedTypes)
+                        && isAccepted(featureClasses[i], acceptedClasses)) {
+                    if (features == null) {
+                        features = new ArrayList<>();
+                    }
+                    BasicDBObject feature = new BasicDBObject("_id", ids[i]).append("chromosome", chromosome)
+                            .append("start", starts[i]).append("end", ends[i]);
+                    if (featureTypes[i] >= 0) {
+                        feature.append("featureType", values.get(featureTypes[i]));
+                    }
+                    if (featureClasses[i] >= 0) {
+                        feature.append("featureClass", values.get(featureClasses[i]));
+                    }
+                    features.add(feature);
+                }
+            }
+            if (features == null) {
+                return Collections.emptyList();
+            }
+            // Features were collected backwards
+            Collections.reverse(features);
+            return features;
+        }
+
+        private static boolean isAccepted(short code, boolean[] accepted) {
+            return accepted == null || (code >= 0 && code < accepted.length && accepted[code]);
+        }
+
+        static class Builder {
+
+            private int size;
+            private int[] starts = new int[1024];
+            private int[] ends = new int[1024];
+            private short[] featureTypes = new short[1024];
+            private short[] featureClasses = new short[1024];
+            private Object[] ids = new Object[1024];
+
+            void add(int start, int end, short featureType, short featureClass, Object id) {
+                if (size == starts.length) {
+                    int capacity = size * 2;
+                    starts = Arrays.copyOf(starts, capacity);
+                    ends = Arrays.copyOf(ends, capacity);
+                    featureTypes = Arrays.copyOf(featureTypes, capacity);
+                    featureClasses = Arrays.copyOf(featureClasses, capacity);
+                    ids = Arrays.copyOf(ids, capacity);
+                }
+                starts[size] = start;
+                ends[size] = end;
+                featureTypes[size] = featureType;
+                featureClasses[size] = featureClass;
+                ids[size] = id;
+                size++;
+            }
+
+            ChromosomeIndex build() {
+                // Positions sorted by start packing start and position in a long, starts are never negative
+                long[] order = new long[size];
+                for (int i = 0; i < size; i++) {
+                    order[i] = ((long) starts[i] << 32) | i;
+                }
+                Arrays.sort(order);
+
+                ChromosomeIndex index = new ChromosomeIndex(size);
+                for (int i = 0; i < size; i++) {
+                    int position = (int) order[i];
+                    index.starts[i] = starts[position];
+                    index.ends[i] = ends[position];
+                    index.maxEnds[i] = (i > 0) ? Math.max(index.maxEnds[i - 1], ends[position]) : ends[position];
+                    index.featureTypes[i] = featureTypes[position];
+                    index.featureClasses[i] = featureClasses[position];
+                    index.ids[i] = ids[position];
+                }
+                return index;
+            }
+        }
+    }
+
+}
@@ -22,13 +22,16 @@ import org.opencb.cellbase.core.common.Position;
 import org.opencb.cellbase.core.db.api.regulatory.RegulatoryRegionDBAdaptor;
 import org.opencb.cellbase.mongodb.MongoDBCollectionConfiguration;
 import org.opencb.cellbase.mongodb.db.MongoDBAdaptor;
+import org.opencb.cellbase.mongodb.db.MongoDBProjection;
 import org.opencb.datastore.core.QueryOptions;
 import org.opencb.datastore.core.QueryResult;
 import org.opencb.datastore.mongodb.MongoDataStore;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.function.BiFunction;
 
 /**
  * Created with IntelliJ IDEA.
@@ -40,13 +43,20 @@ import java.util.List;
 public class RegulatoryRegionMongoDBAdaptor extends MongoDBAdaptor implements RegulatoryRegionDBAdaptor {
 
     private static int regulatoryRegionChunkSize = MongoDBCollectionConfiguration.REGULATORY_REGION_CHUNK_SIZE;
+    private RegulatoryRegionIndex regulatoryRegionIndex;
 
 
     public RegulatoryRegionMongoDBAdaptor(String species, String assembly, MongoDataStore mongoDataStore) {
         super(species, assembly, mongoDataStore);
-        mongoDBCollection = mongoDataStore.getCollection("regulatory_region");
+        mongoDBCollection = getCollection("regulatory_region");
 
-        logger.info("RegulatoryRegionMongoDBAdaptor: in 'constructor'");
+        logger.debug("RegulatoryRegionMongoDBAdaptor: in 'constructor'");
+    }
+
+    public RegulatoryRegionMongoDBAdaptor(String species, String assembly, MongoDataStore mongoDataStore,
+                                          RegulatoryRegionIndex regulatoryRegionIndex) {
+        this(species, assembly, mongoDataStore);
+        this.regulatoryRegionIndex = regulatoryRegionIndex;
     }
 
 
@@ -111,7 +121,6 @@ public class RegulatoryRegionMongoDBAdaptor extends MongoDBAdaptor implements Re
             queries.add(builder.get());
         }
 
-        System.out.println("Query: " + queries);
 
 //        options = addExcludeReturnFields("chunkIds", options);
         return executeQueryList2(positionList, queries, options);
@@ -136,6 +145,14 @@ public class RegulatoryRegionMongoDBAdaptor extends MongoDBAdaptor implements Re
         List<Object> featureType = options.getAsList("featureType");
         List<Object> featureClass = options.getAsList("featureClass");
 
+        if (regulatoryRegionIndex != null && options.getInt("limit", 0) <= 0 && options.getInt("skip", 0) <= 0
+                && !options.containsKey("sort")) {
+            List<QueryResult> queryResults = getAllByRegionListFromIndex(regulatoryRegionIndex, regionList, options,
+                    featureType, featureClass, (ids, queries) -> executeQueryList2(ids, queries, options));
+            if (queryResults != null) {
+                return queryResults;
+            }
+        }
 //        options = addExcludeReturnFields("chunkIds", options);
 
         List<DBObject> queries = new ArrayList<>();
@@ -173,6 +190,68 @@ public class RegulatoryRegionMongoDBAdaptor extends MongoDBAdaptor implements Re
         return executeQueryList2(regionList, queries, options);
     }
 
+    /**
+     * Overlaps are resolved by the in-memory index, MongoDB is only queried by '_id' for regions with features when
+     * no 'include' is given or it has fields not kept by the index.
+     * @param idQueryExecutor   runs the '_id' queries, one QueryResult per query id
+     * @return null if the index is not ready yet
+     */
+    static List<QueryResult> getAllByRegionListFromIndex(RegulatoryRegionIndex regulatoryRegionIndex,
+                                                         List<Region> regionList, QueryOptions options,
+                                                         List<Object> featureType, List<Object> featureClass,
+                                                         BiFunction<List<String>, List<DBObject>, List<QueryResult>> idQueryExecutor) {
+        List<String> include = MongoDBProjection.getFields(options, "include");
+        boolean indexedFields = !include.isEmpty();
+        for (String field : include) {
+            indexedFields &= RegulatoryRegionIndex.INDEXED_FIELDS.contains(field);
+        }
+
+        List<QueryResult> queryResults = new ArrayList<>(regionList.size());
+        List<Integer> indexes = new ArrayList<>();
+        List<DBObject> queries = new ArrayList<>();
+        for (Region region : regionList) {
+            long start = System.currentTimeMillis();
+            List<DBObject> features = regulatoryRegionIndex.find(region.getChromosome(), region.getStart(),
+                    region.getEnd(), featureType, featureClass);
+            if (features == null) {
+                return null;
+            }
+
+            QueryResult queryResult = new QueryResult();
+            queryResult.setId(region.toString());
+            if (indexedFields || features.isEmpty()) {
+                List<DBObject> result = new ArrayList<>(features.size());
+                for (DBObject feature : features) {
+                    result.add(MongoDBProjection.project(feature, include, Collections.emptyList()));
+                }
+                queryResult.setResult(result);
+                queryResult.setNumResults(result.size());
+                queryResult.setNumTotalResults(result.size());
+            } else {
+                BasicDBList ids = new BasicDBList();
+                for (DBObject feature : features) {
+                    ids.add(feature.get("_id"));
+                }
+                indexes.add(queryResults.size());
+                queries.add(new BasicDBObject("_id", new BasicDBObject("$in", ids)));
+            }
+            queryResult.setDbTime((int) (System.currentTimeMillis() - start));
+            queryResults.add(queryResult);
+        }
+
+        if (!queries.isEmpty()) {
+            List<String> ids = new ArrayList<>(indexes.size());
+            for (Integer index : indexes) {
+                ids.add(queryResults.get(index).getId());
+            }
+            List<QueryResult> featureQueryResults = idQueryExecutor.apply(ids, queries);
+            for (int i = 0; i < indexes.size(); i++) {
+                queryResults.set(indexes.get(i), featureQueryResults.get(i));
+            }
+        }
+        return queryResults;
+    }
+
     public QueryResult next(String id, QueryOptions options) {
         QueryOptions _options = new QueryOptions();
         _options.put("include", Arrays.asList("chromosome", "start"));
@@ -217,7 +296,6 @@ public class RegulatoryRegionMongoDBAdaptor extends MongoDBAdaptor implements Re
         if (featureClass != null) {
             builder.and("featureClass").is(featureClass);
         }
-        System.out.println(builder.get());
         return executeQuery("result", builder.get(), options);
     }
 
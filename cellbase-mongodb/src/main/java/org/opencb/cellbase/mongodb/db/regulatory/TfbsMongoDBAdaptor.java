@@ -44,9 +44,14 @@ public class TfbsMongoDBAdaptor extends RegulatoryRegionMongoDBAdaptor implement
 
     public TfbsMongoDBAdaptor(String species, String assembly, MongoDataStore mongoDataStore) {
         super(species, assembly, mongoDataStore);
-        mongoDBCollection = mongoDataStore.getCollection("regulatory_region");
+        mongoDBCollection = getCollection("regulatory_region");
 
-        logger.info("RegulatoryRegionMongoDBAdaptor: in 'constructor'");
+        logger.debug("RegulatoryRegionMongoDBAdaptor: in 'constructor'");
+    }
+
+    public TfbsMongoDBAdaptor(String species, String assembly, MongoDataStore mongoDataStore,
+                              RegulatoryRegionIndex regulatoryRegionIndex) {
+        super(species, assembly, mongoDataStore, regulatoryRegionIndex);
     }
 
     @Override
@@ -50,9 +50,9 @@ public class PathwayMongoDBAdaptor extends MongoDBAdaptor implements PathwayDBAd
 
 	public PathwayMongoDBAdaptor(String species, String assembly, MongoDataStore mongoDataStore) {
 		super(species, assembly, mongoDataStore);
-		mongoDBCollection = mongoDataStore.getCollection("pathway");
+		mongoDBCollection = getCollection("pathway");
 
-		logger.info("PathwayMongoDBAdaptor: in 'constructor'");
+		logger.debug("PathwayMongoDBAdaptor: in 'constructor'");
 	}
 
 	private int getChunk(int position){
@@ -140,7 +140,6 @@ public class PathwayMongoDBAdaptor extends MongoDBAdaptor implements PathwayDBAd
 			query.put("$or", queryList);
 		}
 
-		System.out.println("Query: "+query);
 
 		BasicDBObject returnFields = new BasicDBObject();
 		returnFields.put("_id", 0);
@@ -39,9 +39,9 @@ public class ProteinProteinInteractionMongoDBAdaptor  extends MongoDBAdaptor imp
 
     public ProteinProteinInteractionMongoDBAdaptor(String species, String assembly, MongoDataStore mongoDataStore) {
         super(species, assembly, mongoDataStore);
-        mongoDBCollection = mongoDataStore.getCollection("protein_protein_interaction");
+        mongoDBCollection = getCollection("protein_protein_interaction");
 
-        logger.info("ProteinProteinInteractionMongoDBAdaptor: in 'constructor'");
+        logger.debug("ProteinProteinInteractionMongoDBAdaptor: in 'constructor'");
     }
 
 
@@ -139,7 +139,6 @@ public class ProteinProteinInteractionMongoDBAdaptor  extends MongoDBAdaptor imp
 
 
 
-        System.out.println(builder.get().toString());
         //		options = addExcludeReturnFields("transcripts", options);
         return executeQuery("result", builder.get(), options);
     }
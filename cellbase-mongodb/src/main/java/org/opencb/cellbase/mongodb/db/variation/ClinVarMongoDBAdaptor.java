@@ -39,9 +39,9 @@ public class ClinVarMongoDBAdaptor extends MongoDBAdaptor implements ClinVarDBAd
     public ClinVarMongoDBAdaptor(String species, String assembly, MongoDataStore mongoDataStore) {
         super(species, assembly, mongoDataStore);
 //        mongoDBCollection = db.getCollection("clinvar");
-        mongoDBCollection = mongoDataStore.getCollection("clinvar");
+        mongoDBCollection = getCollection("clinvar");
 
-        logger.info("ClinVarMongoDBAdaptor: in 'constructor'");
+        logger.debug("ClinVarMongoDBAdaptor: in 'constructor'");
     }
 
     @Override
@@ -100,7 +100,6 @@ public class ClinVarMongoDBAdaptor extends MongoDBAdaptor implements ClinVarDBAd
             // If regions is 1 position then query can be optimize using chunks
             QueryBuilder builder = QueryBuilder.start("referenceClinVarAssertion.measureSet.measure.measureRelationship.sequenceLocation.chr").is(region.getChromosome()).and("referenceClinVarAssertion.measureSet.measure.measureRelationship.sequenceLocation.stop")
                     .greaterThanEquals(region.getStart()).and("referenceClinVarAssertion.measureSet.measure.measureRelationship.sequenceLocation.start").lessThanEquals(region.getEnd());
-            System.out.println(builder.get().toString());
             queries.add(builder.get());
             ids.add(region.toString());
         }
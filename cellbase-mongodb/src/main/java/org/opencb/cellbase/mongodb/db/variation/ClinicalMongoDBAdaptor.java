@@ -17,16 +17,15 @@
 package org.opencb.cellbase.mongodb.db.variation;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.mongodb.*;
-import com.mongodb.util.JSON;
 import org.opencb.biodata.models.feature.Region;
 import org.opencb.biodata.models.variant.annotation.Clinvar;
+import org.opencb.biodata.models.variant.annotation.ConsequenceType;
 import org.opencb.biodata.models.variant.annotation.Cosmic;
 import org.opencb.biodata.models.variant.annotation.Gwas;
+import org.opencb.biodata.models.variant.annotation.Score;
 import org.opencb.biodata.models.variant.annotation.VariantAnnotation;
 import org.opencb.biodata.models.variation.GenomicVariant;
 
@@ -46,11 +45,19 @@ import java.util.regex.Pattern;
 public class ClinicalMongoDBAdaptor extends MongoDBAdaptor implements ClinicalDBAdaptor {
 
 
+    private static final ObjectMapper annotationObjectMapper;
+
+    static {
+        annotationObjectMapper = new ObjectMapper();
+        annotationObjectMapper.configure(SerializationFeature.WRITE_NULL_MAP_VALUES, false);
+        annotationObjectMapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+    }
+
     public ClinicalMongoDBAdaptor(String species, String assembly, MongoDataStore mongoDataStore) {
         super(species, assembly, mongoDataStore);
-        mongoDBCollection = mongoDataStore.getCollection("clinical");
+        mongoDBCollection = getCollection("clinical");
 
-        logger.info("ClinicalMongoDBAdaptor: in 'constructor'");
+        logger.debug("ClinicalMongoDBAdaptor: in 'constructor'");
     }
 
     @Override
@@ -70,7 +77,6 @@ public class ClinicalMongoDBAdaptor extends MongoDBAdaptor implements ClinicalDB
 
     @Override
     public QueryResult getAll(QueryOptions options) {
-        System.out.println("options = " + options.get("exclude"));
         if(includeContains(options.getAsStringList("source"), "clinvar")) {
             return getAllClinvar(options);
         } else {
@@ -499,20 +505,8 @@ public class ClinicalMongoDBAdaptor extends MongoDBAdaptor implements ClinicalDB
 
     @Override
     public List<QueryResult> getAllByGenomicVariantList(List<GenomicVariant> variantList, QueryOptions options) {
-        List<DBObject> queries = new ArrayList<>();
-        List<String> ids = new ArrayList<>(variantList.size());
-        List<QueryResult> queryResultList;
-        for (GenomicVariant genomicVariant : variantList){
-            QueryBuilder builder = QueryBuilder.start("chromosome").is(genomicVariant.getChromosome()).
-                    and("start").is(genomicVariant.getPosition()).and("alternate").is(genomicVariant.getAlternative());
-            if (genomicVariant.getReference() != null){
-                builder = builder.and("reference").is(genomicVariant.getReference());
-            }
-            queries.add(builder.get());
-            ids.add(genomicVariant.toString());
-        }
-
-        queryResultList = executeQueryList2(ids, queries, options);
+        // 'clinical' collection has no chunk ids, 'chromosome' and 'start' are matched with the location index
+        List<QueryResult> queryResultList = executeVariantListQuery(variantList, 0, options, mongoDBCollection);
 
         for (QueryResult queryResult : queryResultList){
             List<BasicDBObject> clinicalList = (List<BasicDBObject>) queryResult.getResult();
@@ -685,47 +679,125 @@ public class ClinicalMongoDBAdaptor extends MongoDBAdaptor implements ClinicalDB
         return listAccessionsToReturn;
     }
 
+    /**
+     * Annotations are set with a single unordered bulk write, each update matches all the documents of the variant.
+     * Annotation documents are built directly from the VariantAnnotation, see convertVariantAnnotation().
+     * The QueryResult contains the number of documents matched, a BulkWriteException is thrown if any update fails.
+     */
     public QueryResult updateAnnotations(List<VariantAnnotation> variantAnnotations, QueryOptions queryOptions) {
+        long start = System.currentTimeMillis();
+        if (variantAnnotations.isEmpty()) {
+            return new QueryResult<>("", 0, 0, 0, "", "", new ArrayList());
+        }
 
-        /**
-         * Multiple documents may contain the same annotation
-         */
-        queryOptions.put("multi", true);
-
-        /**
-         * Prepare jackson to generate json strings
-         */
-        ObjectMapper jsonObjectMapper = new ObjectMapper();
-        jsonObjectMapper.configure(SerializationFeature.WRITE_NULL_MAP_VALUES, false);
-        jsonObjectMapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
-        ObjectWriter writer = jsonObjectMapper.writer();
-
-        long start = System.nanoTime();
+        List<DBObject> queries = new ArrayList<>(variantAnnotations.size());
+        List<DBObject> updates = new ArrayList<>(variantAnnotations.size());
         for (VariantAnnotation variantAnnotation : variantAnnotations) {
-            QueryBuilder builder = QueryBuilder.start("chromosome").is(variantAnnotation.getChromosome())
+            queries.add(QueryBuilder.start("chromosome").is(variantAnnotation.getChromosome())
                     .and("start").is(variantAnnotation.getStart()).and("reference")
                     .is(variantAnnotation.getReferenceAllele())
-                    .and("alternate").is(variantAnnotation.getAlternativeAllele());
-            DBObject update = null;
-            try {
-                update = new BasicDBObject("$set", new BasicDBObject("annot",
-                        JSON.parse(writer.writeValueAsString(variantAnnotation))));
-            } catch (JsonProcessingException e) {
-                e.printStackTrace();
+                    .and("alternate").is(variantAnnotation.getAlternativeAllele()).get());
+            updates.add(new BasicDBObject("$set",
+                    new BasicDBObject("annot", convertVariantAnnotation(variantAnnotation))));
+        }
+
+        int matched;
+        try {
+            // Multiple documents may contain the same annotation
+            matched = executeBulkUpdate(queries, updates, new QueryOptions("multi", true), mongoDBCollection);
+        } catch (BulkWriteException e) {
+            logger.error("{} errors updating clinical annotations: {}", e.getWriteErrors().size(), e.getMessage());
+            throw e;
+        }
+
+        return new QueryResult<>("", ((int) (System.currentTimeMillis() - start)), matched, matched, "", "", new ArrayList());
+    }
+
+    /**
+     * Null fields are not stored. Consequence types and scores, which make most of the document, are converted
+     * field by field, the few remaining nested objects (xrefs, population frequencies and expression values) are
+     * converted by Jackson only when present.
+     */
+    private static DBObject convertVariantAnnotation(VariantAnnotation variantAnnotation) {
+        BasicDBObject annotation = new BasicDBObject();
+        putNotNull(annotation, "chromosome", variantAnnotation.getChromosome());
+        annotation.put("start", variantAnnotation.getStart());
+        annotation.put("end", variantAnnotation.getEnd());
+        putNotNull(annotation, "referenceAllele", variantAnnotation.getReferenceAllele());
+        putNotNull(annotation, "alternativeAllele", variantAnnotation.getAlternativeAllele());
+        putNotNull(annotation, "id", variantAnnotation.getId());
+        putNotNull(annotation, "xrefs", convertList(variantAnnotation.getXrefs()));
+        putNotNull(annotation, "hgvs", variantAnnotation.getHgvs());
+
+        if (variantAnnotation.getConsequenceTypes() != null) {
+            BasicDBList consequenceTypes = new BasicDBList();
+            for (ConsequenceType consequenceType : variantAnnotation.getConsequenceTypes()) {
+                consequenceTypes.add(convertConsequenceType(consequenceType));
             }
-//            DBObject update = new BasicDBObject("$set", new BasicDBObject("annotation",
-//                    convertVariantAnnotation(variantAnnotation)));
-            mongoDBCollection.update(builder.get(), update, queryOptions);
+            annotation.put("consequenceTypes", consequenceTypes);
+        }
+        putNotNull(annotation, "conservedRegionScores", convertScores(variantAnnotation.getConservedRegionScores()));
+        putNotNull(annotation, "populationFrequencies", convertList(variantAnnotation.getPopulationFrequencies()));
+        putNotNull(annotation, "clinicalData", variantAnnotation.getClinicalData());
+        putNotNull(annotation, "additionalAttributes", variantAnnotation.getAdditionalAttributes());
+        return annotation;
+    }
+
+    private static DBObject convertConsequenceType(ConsequenceType consequenceType) {
+        BasicDBObject dbObject = new BasicDBObject();
+        putNotNull(dbObject, "geneName", consequenceType.getGeneName());
+        putNotNull(dbObject, "ensemblGeneId", consequenceType.getEnsemblGeneId());
+        putNotNull(dbObject, "ensemblTranscriptId", consequenceType.getEnsemblTranscriptId());
+        putNotNull(dbObject, "strand", consequenceType.getStrand());
+        putNotNull(dbObject, "biotype", consequenceType.getBiotype());
+        putNotNull(dbObject, "cDnaPosition", consequenceType.getcDnaPosition());
+        putNotNull(dbObject, "cdsPosition", consequenceType.getCdsPosition());
+        putNotNull(dbObject, "aaPosition", consequenceType.getAaPosition());
+        putNotNull(dbObject, "aaChange", consequenceType.getAaChange());
+        putNotNull(dbObject, "codon", consequenceType.getCodon());
+        putNotNull(dbObject, "proteinSubstitutionScores",
+                convertScores(consequenceType.getProteinSubstitutionScores()));
+        if (consequenceType.getSoTerms() != null) {
+            BasicDBList soTerms = new BasicDBList();
+            for (ConsequenceType.ConsequenceTypeEntry soTerm : consequenceType.getSoTerms()) {
+                BasicDBObject soTermDBObject = new BasicDBObject();
+                putNotNull(soTermDBObject, "soName", soTerm.getSoName());
+                putNotNull(soTermDBObject, "soAccession", soTerm.getSoAccession());
+                soTerms.add(soTermDBObject);
+            }
+            dbObject.put("soTerms", soTerms);
         }
+        putNotNull(dbObject, "expressionValues", convertList(consequenceType.getExpressionValues()));
+        return dbObject;
+    }
 
-        return new QueryResult<>("", ((int) (System.nanoTime() - start)), 1, 1, "", "", new ArrayList());
+    private static BasicDBList convertScores(List<Score> scores) {
+        if (scores == null) {
+            return null;
+        }
+        BasicDBList dbList = new BasicDBList();
+        for (Score score : scores) {
+            BasicDBObject dbObject = new BasicDBObject();
+            putNotNull(dbObject, "score", score.getScore());
+            putNotNull(dbObject, "source", score.getSource());
+            putNotNull(dbObject, "description", score.getDescription());
+            dbList.add(dbObject);
+        }
+        return dbList;
     }
 
-//    private DBObject convertVariantAnnotation(VariantAnnotation variantAnnotation) {
-//        BasicDBObject basicDBObject = new BasicDBObject();
-//
-//        basicDBObject.put("")
-//    }
+    private static List convertList(List<?> list) {
+        if (list == null || list.isEmpty()) {
+            return list;
+        }
+        return annotationObjectMapper.convertValue(list, List.class);
+    }
+
+    private static void putNotNull(BasicDBObject dbObject, String key, Object value) {
+        if (value != null) {
+            dbObject.put(key, value);
+        }
+    }
 
     public List<QueryResult> getPhenotypeGeneRelations(QueryOptions queryOptions) {
 
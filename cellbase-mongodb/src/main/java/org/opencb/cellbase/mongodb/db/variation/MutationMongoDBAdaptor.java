@@ -43,9 +43,9 @@ public class MutationMongoDBAdaptor extends MongoDBAdaptor implements MutationDB
     public MutationMongoDBAdaptor(String species, String assembly, MongoDataStore mongoDataStore) {
         super(species, assembly, mongoDataStore);
 //        mongoDBCollection = db.getCollection("mutation");
-        mongoDBCollection = mongoDataStore.getCollection("mutation");
+        mongoDBCollection = getCollection("mutation");
 
-        logger.info("MutationMongoDBAdaptor: in 'constructor'");
+        logger.debug("MutationMongoDBAdaptor: in 'constructor'");
     }
 
 
@@ -217,4 +217,9 @@ public class MutationMongoDBAdaptor extends MongoDBAdaptor implements MutationDB
         return null;
     }
 
+    @Override
+    public QueryResult getIntervalFrequencies(Region region, QueryOptions options) {
+        return super.getIntervalFrequencies(region, options, "mutation");
+    }
+
 }
@@ -58,6 +58,8 @@ public class  VariantAnnotationMongoDBAdaptor extends MongoDBAdaptor implements
     private int bigVariantSizeThreshold = 50;
     private int geneChunkSize = MongoDBCollectionConfiguration.GENE_CHUNK_SIZE;
     private int regulatoryRegionChunkSize = MongoDBCollectionConfiguration.REGULATORY_REGION_CHUNK_SIZE;
+    private int batchRegionMaxGap = 100000;
+    private int batchRegionMaxSize = 1000000;
     private static Map<String, Map<String,Boolean>> isSynonymousCodon = new HashMap<>();
     private static Map<String, List<String>> aToCodon = new HashMap<>(20);
     private static Map<String, String> codonToA = new HashMap<>();
@@ -219,7 +221,7 @@ public class  VariantAnnotationMongoDBAdaptor extends MongoDBAdaptor implements
     public VariantAnnotationMongoDBAdaptor(String species, String assembly, MongoDataStore mongoDataStore) {
         super(species, assembly, mongoDataStore);
 
-        logger.info("VariantAnnotationMongoDBAdaptor: in 'constructor'");
+        logger.debug("VariantAnnotationMongoDBAdaptor: in 'constructor'");
     }
 
     public VariationDBAdaptor getVariationDBAdaptor() {
@@ -407,19 +409,9 @@ public class  VariantAnnotationMongoDBAdaptor extends MongoDBAdaptor implements
                                     SoNames.add(isStopCodon(String.valueOf(modifiedCodonArray)) ? "stop_gained" : "missense_variant");
                                 }
                                 if (cdnaVariantEnd < (cdnaCodingEnd - 2)) {  // Variant does not affect the last codon (probably stop codon). If the 3prime end is incompletely annotated and execution reaches this line, finalNtPhase can only be 2
-                                    QueryResult proteinSubstitutionScoresQueryResult = proteinDBAdaptor.getFunctionPredictionByAaChange(consequenceTypeTemplate.getEnsemblTranscriptId(),
-                                            consequenceTypeTemplate.getAaPosition(), alternativeA, new QueryOptions());
-                                    if (proteinSubstitutionScoresQueryResult.getNumResults() == 1) {
-                                        BasicDBObject proteinSubstitutionScores = (BasicDBObject) proteinSubstitutionScoresQueryResult.getResult().get(0);
-                                        if (proteinSubstitutionScores.get("ss") != null) {
-                                            consequenceTypeTemplate.addProteinSubstitutionScore(new Score(Double.parseDouble("" + proteinSubstitutionScores.get("ss")),
-                                                    "Sift", siftDescriptions.get(proteinSubstitutionScores.get("se"))));
-                                        }
-                                        if (proteinSubstitutionScores.get("ps") != null) {
-                                            consequenceTypeTemplate.addProteinSubstitutionScore(new Score(Double.parseDouble("" + proteinSubstitutionScores.get("ps")),
-                                                    "Polyphen", polyphenDescriptions.get(proteinSubstitutionScores.get("pe"))));
-                                        }
-                                    }
+                                    // Scores are fetched for all the variants at once in setProteinSubstitutionScores, an empty list
+                                    // flags this consequence type as pending
+                                    consequenceTypeTemplate.setProteinSubstitutionScores(new ArrayList<Score>());
                                 }
                             }
                             // Set consequenceTypeTemplate.aChange
@@ -623,19 +615,9 @@ public class  VariantAnnotationMongoDBAdaptor extends MongoDBAdaptor implements
                                     SoNames.add(isStopCodon(String.valueOf(modifiedCodonArray)) ? "stop_gained" : "missense_variant");
                                 }
                                 if (cdnaVariantEnd < (cdnaCodingEnd - 2)) {  // Variant does not affect the last codon (probably stop codon). If the 3prime end is incompletely annotated and execution reaches this line, finalNtPhase can only be 2
-                                    QueryResult proteinSubstitutionScoresQueryResult = proteinDBAdaptor.getFunctionPredictionByAaChange(consequenceTypeTemplate.getEnsemblTranscriptId(),
-                                            consequenceTypeTemplate.getAaPosition(), alternativeA, new QueryOptions());
-                                    if (proteinSubstitutionScoresQueryResult.getNumResults() == 1) {
-                                        BasicDBObject proteinSubstitutionScores = (BasicDBObject) proteinSubstitutionScoresQueryResult.getResult().get(0);
-                                        if (proteinSubstitutionScores.get("ss") != null) {
-                                            consequenceTypeTemplate.addProteinSubstitutionScore(new Score(Double.parseDouble("" + proteinSubstitutionScores.get("ss")),
-                                                    "Sift", siftDescriptions.get(proteinSubstitutionScores.get("se"))));
-                                        }
-                                        if (proteinSubstitutionScores.get("ps") != null) {
-                                            consequenceTypeTemplate.addProteinSubstitutionScore(new Score(Double.parseDouble("" + proteinSubstitutionScores.get("ps")),
-                                                    "Polyphen", polyphenDescriptions.get(proteinSubstitutionScores.get("pe"))));
-                                        }
-                                    }
+                                    // Scores are fetched for all the variants at once in setProteinSubstitutionScores, an empty list
+                                    // flags this consequence type as pending
+                                    consequenceTypeTemplate.setProteinSubstitutionScores(new ArrayList<Score>());
                                 }
                             }
                             // Set consequenceTypeTemplate.aChange
@@ -998,49 +980,13 @@ public class  VariantAnnotationMongoDBAdaptor extends MongoDBAdaptor implements
     @Override
     public QueryResult getAllConsequenceTypesByVariant(GenomicVariant variant, QueryOptions options) {
 
-        Logger logger = LoggerFactory.getLogger(this.getClass());
-
-        HashSet<String> SoNames = new HashSet<>();
-        List<ConsequenceType> consequenceTypeList = new ArrayList<>();
-        QueryResult queryResult = new QueryResult();
-        QueryBuilder builderGene = null;
-        QueryBuilder builderRegulatory = null;
-        BasicDBList transcriptInfoList = null;
-        BasicDBList exonInfoList;
-        BasicDBObject miRnaInfo;
-        BasicDBObject transcriptInfo, exonInfo;
-        BasicDBObject geneInfo;
-        BasicDBObject regulatoryInfo;
-        Integer geneStart, geneEnd, transcriptStart, transcriptEnd, exonStart, exonEnd, genomicCodingStart, genomicCodingEnd;
-        Integer cdnaCodingStart, cdnaCodingEnd, cdnaExonStart, cdnaExonEnd, cdnaVariantStart, cdnaVariantEnd, prevSpliceSite;
-        Integer regulatoryStart, regulatoryEnd, cdsLength;
-        Integer variantStart;
-        Integer variantEnd;
-        String geneStrand, transcriptStrand, exonSequence, transcriptSequence;
-        String regulatoryChromosome, regulatoryType;
-        String nextCodonNucleotides = "";
-        String ensemblTranscriptId;
-        String geneName;
-        String ensemblGeneId;
-        int transcriptBiotype;
         long dbTimeStart, dbTimeEnd;
-        Boolean splicing, coding, exonsRemain, variantAhead, exonVariant, TFBSFound;
-        int exonCounter,i;
-        ConsequenceType consequenceTypeTemplate = new ConsequenceType();
 
-        variantEnd = variant.getPosition() + variant.getReference().length() - 1;  //TODO: Check deletion input format to ensure that variantEnd is correctly calculated
-        Boolean isInsertion = variant.getReference().equals("-");
-        if(isInsertion) {
-            variantStart = variant.getPosition()-1;
-        } else {
-            variantStart = variant.getPosition();
-        }
+        Integer variantStart = getVariantStart(variant);
+        Integer variantEnd = getVariantEnd(variant);
 
-        if(variant.getAlternative().equalsIgnoreCase("<INS>") || variant.getAlternative().equalsIgnoreCase("<DEL>")) {
-            queryResult.setErrorMsg("INS and DEL are not yet implemented");
-            queryResult.setNumResults(1);
-            queryResult.setResult(consequenceTypeList);
-            return queryResult;
+        if(isSymbolicVariant(variant)) {
+            return getSymbolicVariantQueryResult();
         }
 
 
@@ -1058,20 +1004,94 @@ public class  VariantAnnotationMongoDBAdaptor extends MongoDBAdaptor implements
 //        mongoDBCollection = db.getCollection("gene");
         dbTimeStart = System.currentTimeMillis();
 //        QueryResult geneQueryResult = executeQuery(variant.toString(), builderGene.get(), options);
-        QueryOptions geneQueryOptions = new QueryOptions();
-        geneQueryOptions.add("include", "name,id,expressionValues,transcripts.id,transcripts.start,transcripts.end,transcripts.strand,transcripts.cdsLength,transcripts.annotationFlags,transcripts.biotype,transcripts.genomicCodingStart,transcripts.genomicCodingEnd,transcripts.cdnaCodingStart,transcripts.cdnaCodingEnd,transcripts.exons.start,transcripts.exons.end,transcripts.exons.sequence,transcripts.exons.phase,mirna.matures,mirna.sequence,mirna.matures.cdnaStart,mirna.matures.cdnaEnd");
         QueryResult geneQueryResult = geneDBAdaptor.getAllByRegion(new Region(variant.getChromosome(), variantStart-5000,
-                variantEnd+5000), geneQueryOptions);
+                variantEnd+5000), getGeneQueryOptions());
 //        mongoDBCollection = db.getCollection("regulatory_region");
 //        QueryResult regulatoryQueryResult = executeQuery(variant.toString(), builderRegulatory.get(), options);
         QueryResult regulatoryQueryResult = regulatoryRegionDBAdaptor.getAllByRegion(new Region(variant.getChromosome(), variantStart,
-                variantEnd), options);
+                variantEnd), getRegulatoryQueryOptions(options));
 
         dbTimeEnd = System.currentTimeMillis();
-        LinkedList geneInfoList = (LinkedList) geneQueryResult.getResult();
-//        BasicDBList geneInfoList = (BasicDBList) geneQueryResult.getResult();
 
-        for(Object geneInfoObject: geneInfoList) {
+        QueryResult queryResult = getConsequenceTypes(variant, variantStart, variantEnd, (List) geneQueryResult.getResult(),
+                (List) regulatoryQueryResult.getResult(), dbTimeEnd - dbTimeStart);
+        setProteinSubstitutionScores((List<ConsequenceType>) queryResult.getResult());
+
+        return queryResult;
+    }
+
+    private Integer getVariantStart(GenomicVariant variant) {
+        if(variant.getReference().equals("-")) {  // Insertion
+            return variant.getPosition()-1;
+        } else {
+            return variant.getPosition();
+        }
+    }
+
+    private Integer getVariantEnd(GenomicVariant variant) {
+        return variant.getPosition() + variant.getReference().length() - 1;  //TODO: Check deletion input format to ensure that variantEnd is correctly calculated
+    }
+
+    private boolean isSymbolicVariant(GenomicVariant variant) {
+        return variant.getAlternative().equalsIgnoreCase("<INS>") || variant.getAlternative().equalsIgnoreCase("<DEL>");
+    }
+
+    private QueryResult getSymbolicVariantQueryResult() {
+        QueryResult queryResult = new QueryResult();
+        queryResult.setErrorMsg("INS and DEL are not yet implemented");
+        queryResult.setNumResults(1);
+        queryResult.setResult(new ArrayList<ConsequenceType>());
+        return queryResult;
+    }
+
+    private QueryOptions getGeneQueryOptions() {
+        QueryOptions geneQueryOptions = new QueryOptions();
+        geneQueryOptions.add("include", "name,id,chromosome,start,end,expressionValues,transcripts.id,transcripts.start,transcripts.end,transcripts.strand,transcripts.cdsLength,transcripts.annotationFlags,transcripts.biotype,transcripts.genomicCodingStart,transcripts.genomicCodingEnd,transcripts.cdnaCodingStart,transcripts.cdnaCodingEnd,transcripts.exons.start,transcripts.exons.end,transcripts.exons.sequence,transcripts.exons.phase,mirna.matures,mirna.sequence,mirna.matures.cdnaStart,mirna.matures.cdnaEnd");
+        return geneQueryOptions;
+    }
+
+    /**
+     * Genes are read by chunk for a single variant and by region for a batch, MongoDB returns them in a different
+     * order in each case. They are sorted by position so consequence types are returned in the same order.
+     */
+    private static int compareGeneInfo(Object geneInfoObject1, Object geneInfoObject2) {
+        BasicDBObject geneInfo1 = (BasicDBObject) geneInfoObject1;
+        BasicDBObject geneInfo2 = (BasicDBObject) geneInfoObject2;
+        int comparison = Integer.compare(geneInfo1.getInt("start"), geneInfo2.getInt("start"));
+        if(comparison == 0) {
+            comparison = Integer.compare(geneInfo1.getInt("end"), geneInfo2.getInt("end"));
+        }
+        if(comparison == 0) {
+            comparison = String.valueOf(geneInfo1.get("id")).compareTo(String.valueOf(geneInfo2.get("id")));
+        }
+        return comparison;
+    }
+
+    private QueryResult getConsequenceTypes(GenomicVariant variant, Integer variantStart, Integer variantEnd,
+                                            List geneInfoList, List regulatoryInfoList, long dbTime) {
+
+        HashSet<String> SoNames = new HashSet<>();
+        List<ConsequenceType> consequenceTypeList = new ArrayList<>();
+        QueryResult queryResult = new QueryResult();
+        BasicDBList transcriptInfoList = null;
+        BasicDBObject miRnaInfo;
+        BasicDBObject transcriptInfo;
+        BasicDBObject geneInfo;
+        BasicDBObject regulatoryInfo;
+        Integer transcriptStart, transcriptEnd;
+        Integer cdsLength;
+        String transcriptStrand;
+        String regulatoryType;
+        String ensemblTranscriptId;
+        int transcriptBiotype;
+        Boolean TFBSFound;
+        int i;
+        ConsequenceType consequenceTypeTemplate = new ConsequenceType();
+        Boolean isInsertion = variant.getReference().equals("-");
+
+        List<Object> sortedGeneInfoList = new ArrayList<>(geneInfoList);
+        sortedGeneInfoList.sort(VariantAnnotationMongoDBAdaptor::compareGeneInfo);
+        for(Object geneInfoObject: sortedGeneInfoList) {
             geneInfo = (BasicDBObject) geneInfoObject;
             consequenceTypeTemplate.setGeneName((String) geneInfo.get("name"));
             consequenceTypeTemplate.setEnsemblGeneId((String) geneInfo.get("id"));
@@ -1380,8 +1400,6 @@ public class  VariantAnnotationMongoDBAdaptor extends MongoDBAdaptor implements
             consequenceTypeList.add(new ConsequenceType("intergenic_variant"));
         }
 
-        LinkedList regulatoryInfoList = (LinkedList) regulatoryQueryResult.getResult();
-//        BasicDBList regulatoryInfoList = (BasicDBList) regulatoryQueryResult.getResult();
         if(!regulatoryInfoList.isEmpty()) {
             consequenceTypeList.add(new ConsequenceType("regulatory_region_variant"));
             i = 0;
@@ -1406,7 +1424,7 @@ public class  VariantAnnotationMongoDBAdaptor extends MongoDBAdaptor implements
 //        consequenceTypeList = filterConsequenceTypesBySoTerms(consequenceTypeList, options.getAsStringList("so"));
         // setting queryResult fields
         queryResult.setId(variant.toString());
-        queryResult.setDbTime(Long.valueOf(dbTimeEnd - dbTimeStart).intValue());
+        queryResult.setDbTime(Long.valueOf(dbTime).intValue());
         queryResult.setNumResults(consequenceTypeList.size());
         queryResult.setResult(consequenceTypeList);
 
@@ -1921,18 +1939,183 @@ public class  VariantAnnotationMongoDBAdaptor extends MongoDBAdaptor implements
     @Override
     public List<QueryResult> getAllConsequenceTypesByVariantList(List<GenomicVariant> variants, QueryOptions options) {
 
-        List<QueryResult> queryResults = new ArrayList<>(variants.size());
-
-//        try {
+        if(variants.size() < 2) {
+            List<QueryResult> queryResults = new ArrayList<>(variants.size());
             for (GenomicVariant genomicVariant : variants) {
                 queryResults.add(getAllConsequenceTypesByVariant(genomicVariant, options));
             }
-//        } catch (IOException e) {
-//            e.printStackTrace();
-//        }
+            return queryResults;
+        }
+
+        return getAllConsequenceTypesByVariantBatch(variants, options);
+    }
+
+    /**
+     * Batch version of getAllConsequenceTypesByVariant. Variants are visited sorted by chromosome and position so that
+     * the gene (+-5kb) and regulatory windows of neighbouring variants can be merged into a few region queries. Each
+     * variant is then resolved against the genes and regulatory features fetched for its merged region, in the same
+     * way getAllConsequenceTypesByVariant does, results are returned in the input order.
+     */
+    private List<QueryResult> getAllConsequenceTypesByVariantBatch(List<GenomicVariant> variants, QueryOptions options) {
+
+        List<Integer> sortedIndexes = new ArrayList<>(variants.size());
+        for (int i = 0; i < variants.size(); i++) {
+            sortedIndexes.add(i);
+        }
+        Collections.sort(sortedIndexes, (index1, index2) -> {
+            GenomicVariant variant1 = variants.get(index1);
+            GenomicVariant variant2 = variants.get(index2);
+            int chromosomeComparison = variant1.getChromosome().compareTo(variant2.getChromosome());
+            if(chromosomeComparison != 0) {
+                return chromosomeComparison;
+            }
+            return Integer.compare(getVariantStart(variant1), getVariantStart(variant2));
+        });
+
+        // Merged gene and regulatory regions, and the merged region every variant falls in (-1 for INS/DEL variants)
+        List<Region> geneRegions = new ArrayList<>();
+        List<Region> regulatoryRegions = new ArrayList<>();
+        int[] geneRegionIndexes = new int[variants.size()];
+        int[] regulatoryRegionIndexes = new int[variants.size()];
+        for (Integer index : sortedIndexes) {
+            GenomicVariant variant = variants.get(index);
+            if(isSymbolicVariant(variant)) {
+                geneRegionIndexes[index] = -1;
+                regulatoryRegionIndexes[index] = -1;
+            } else {
+                int variantStart = getVariantStart(variant);
+                int variantEnd = getVariantEnd(variant);
+                geneRegionIndexes[index] = addToMergedRegions(geneRegions, variant.getChromosome(), variantStart - 5000,
+                        variantEnd + 5000, batchRegionMaxGap);
+                // regulatory windows are only merged when they overlap or touch, so no features are read beyond them
+                regulatoryRegionIndexes[index] = addToMergedRegions(regulatoryRegions, variant.getChromosome(),
+                        variantStart, variantEnd, 1);
+            }
+        }
+
+        long dbTimeStart = System.currentTimeMillis();
+        List<QueryResult> geneQueryResults = new ArrayList<>();
+        List<QueryResult> regulatoryQueryResults = new ArrayList<>();
+        if(!geneRegions.isEmpty()) {
+            geneQueryResults = geneDBAdaptor.getAllByRegionList(geneRegions, getGeneQueryOptions());
+            regulatoryQueryResults = regulatoryRegionDBAdaptor.getAllByRegionList(regulatoryRegions,
+                    getRegulatoryQueryOptions(options));
+        }
+        long dbTime = System.currentTimeMillis() - dbTimeStart;
+        logger.debug("{} variants resolved with {} gene and {} regulatory region queries", variants.size(),
+                geneRegions.size(), regulatoryRegions.size());
+
+        List<QueryResult> queryResults = new ArrayList<>(variants.size());
+        for (int i = 0; i < variants.size(); i++) {
+            GenomicVariant variant = variants.get(i);
+            if(geneRegionIndexes[i] < 0) {
+                queryResults.add(getSymbolicVariantQueryResult());
+                continue;
+            }
+            Integer variantStart = getVariantStart(variant);
+            Integer variantEnd = getVariantEnd(variant);
+
+            // Same overlap conditions used by the gene and regulatory region queries of getAllConsequenceTypesByVariant
+            List<Object> geneInfoList = new ArrayList<>();
+            for (Object geneInfoObject : geneQueryResults.get(geneRegionIndexes[i]).getResult()) {
+                BasicDBObject geneInfo = (BasicDBObject) geneInfoObject;
+                if((Integer) geneInfo.get("end") >= (variantStart - 5000) && (Integer) geneInfo.get("start") <= (variantEnd + 5000)) {
+                    geneInfoList.add(geneInfo);
+                }
+            }
+            List<Object> regulatoryInfoList = new ArrayList<>();
+            for (Object regulatoryInfoObject : regulatoryQueryResults.get(regulatoryRegionIndexes[i]).getResult()) {
+                BasicDBObject regulatoryInfo = (BasicDBObject) regulatoryInfoObject;
+                if((Integer) regulatoryInfo.get("start") <= variantEnd && (Integer) regulatoryInfo.get("end") >= variantStart) {
+                    regulatoryInfoList.add(regulatoryInfo);
+                }
+            }
+
+            queryResults.add(getConsequenceTypes(variant, variantStart, variantEnd, geneInfoList, regulatoryInfoList,
+                    dbTime));
+        }
+
+        List<ConsequenceType> consequenceTypeList = new ArrayList<>();
+        for (QueryResult queryResult : queryResults) {
+            consequenceTypeList.addAll((List<ConsequenceType>) queryResult.getResult());
+        }
+        setProteinSubstitutionScores(consequenceTypeList);
 
         return queryResults;
+    }
+
+    /**
+     * Fills in SIFT and PolyPhen scores of the consequence types flagged as pending (empty score list) during the
+     * coding effect prediction. All of them are solved with a single bulk query to the ProteinDBAdaptor.
+     */
+    private void setProteinSubstitutionScores(List<ConsequenceType> consequenceTypeList) {
+        List<ConsequenceType> pendingConsequenceTypes = new ArrayList<>();
+        List<String> transcriptIdList = new ArrayList<>();
+        List<Integer> aaPositionList = new ArrayList<>();
+        List<String> newAaList = new ArrayList<>();
+        for (ConsequenceType consequenceType : consequenceTypeList) {
+            if(consequenceType.getProteinSubstitutionScores() != null && consequenceType.getProteinSubstitutionScores().isEmpty()) {
+                pendingConsequenceTypes.add(consequenceType);
+                transcriptIdList.add(consequenceType.getEnsemblTranscriptId());
+                aaPositionList.add(consequenceType.getAaPosition());
+                newAaList.add(consequenceType.getAaChange().split("/")[1]);  // aaChange is 'referenceA/alternativeA'
+            }
+        }
+        if(pendingConsequenceTypes.isEmpty()) {
+            return;
+        }
+
+        List<QueryResult> proteinSubstitutionScoresQueryResults = proteinDBAdaptor.getFunctionPredictionByAaChangeList(
+                transcriptIdList, aaPositionList, newAaList);
+        for (int i = 0; i < pendingConsequenceTypes.size(); i++) {
+            ConsequenceType consequenceType = pendingConsequenceTypes.get(i);
+            consequenceType.setProteinSubstitutionScores(null);
+            QueryResult proteinSubstitutionScoresQueryResult = proteinSubstitutionScoresQueryResults.get(i);
+            if (proteinSubstitutionScoresQueryResult.getNumResults() == 1) {
+                BasicDBObject proteinSubstitutionScores = (BasicDBObject) proteinSubstitutionScoresQueryResult.getResult().get(0);
+                if (proteinSubstitutionScores.get("ss") != null) {
+                    consequenceType.addProteinSubstitutionScore(new Score(Double.parseDouble("" + proteinSubstitutionScores.get("ss")),
+                            "Sift", siftDescriptions.get(proteinSubstitutionScores.get("se"))));
+                }
+                if (proteinSubstitutionScores.get("ps") != null) {
+                    consequenceType.addProteinSubstitutionScore(new Score(Double.parseDouble("" + proteinSubstitutionScores.get("ps")),
+                            "Polyphen", polyphenDescriptions.get(proteinSubstitutionScores.get("pe"))));
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the region to the last one in the list if they are in the same chromosome, the gap between them is not
+     * bigger than maxGap and the merged region is not longer than batchRegionMaxSize. Regions are expected to be
+     * added sorted by chromosome and start.
+     * @return the index of the region in the list the given coordinates fall in
+     */
+    private int addToMergedRegions(List<Region> regions, String chromosome, int start, int end, int maxGap) {
+        if(!regions.isEmpty()) {
+            Region lastRegion = regions.get(regions.size() - 1);
+            int mergedEnd = Math.max(lastRegion.getEnd(), end);
+            if(lastRegion.getChromosome().equals(chromosome) && start <= (lastRegion.getEnd() + maxGap)
+                    && (mergedEnd - lastRegion.getStart()) <= batchRegionMaxSize) {
+                regions.set(regions.size() - 1, new Region(chromosome, lastRegion.getStart(), mergedEnd));
+                return regions.size() - 1;
+            }
+        }
+        regions.add(new Region(chromosome, start, end));
+        return regions.size() - 1;
+    }
 
+    /**
+     * Regulatory features are only used to predict the consequence types, which read no more than their coordinates
+     * and featureType. Other user options, as featureType or featureClass filters, are kept. With this projection
+     * the regulatory region index answers the queries without reading any document.
+     */
+    private QueryOptions getRegulatoryQueryOptions(QueryOptions options) {
+        QueryOptions regulatoryQueryOptions = new QueryOptions();
+        regulatoryQueryOptions.putAll(options);
+        regulatoryQueryOptions.put("include", Arrays.asList("chromosome", "start", "end", "featureType"));
+        regulatoryQueryOptions.remove("exclude");
+        return regulatoryQueryOptions;
     }
 
 
@@ -41,10 +41,10 @@ public class VariationMongoDBAdaptor extends MongoDBAdaptor implements Variation
 
     public VariationMongoDBAdaptor(String species, String assembly, MongoDataStore mongoDataStore) {
         super(species, assembly, mongoDataStore);
-        mongoDBCollection = mongoDataStore.getCollection("variation");
-        mongoVariationPhenotypeDBCollection2 = mongoDataStore.getCollection("variation_phenotype");
+        mongoDBCollection = getCollection("variation");
+        mongoVariationPhenotypeDBCollection2 = getCollection("variation_phenotype");
 
-        logger.info("VariationMongoDBAdaptor: in 'constructor'");
+        logger.debug("VariationMongoDBAdaptor: in 'constructor'");
     }
 
     @Override
@@ -182,7 +182,6 @@ public class VariationMongoDBAdaptor extends MongoDBAdaptor implements Variation
                 // If regions is 1 position then query can be optimize using chunks
                 if (region.getStart() == region.getEnd()) {
                     String chunkId = getChunkIdPrefix(region.getChromosome(), region.getStart(), variationChunkSize);
-                    System.out.println(chunkId);
                     builder = QueryBuilder.start("_chunkIds").is(chunkId).and("end")
                             .greaterThanEquals(region.getStart()).and("start").lessThanEquals(region.getEnd());
                 } else {
@@ -278,7 +277,12 @@ public class VariationMongoDBAdaptor extends MongoDBAdaptor implements Variation
 
     @Override
     public QueryResult getAllIntervalFrequencies(Region region, QueryOptions queryOptions) {
-        return super.getIntervalFrequencies(region, queryOptions);
+        return getIntervalFrequencies(region, queryOptions);
+    }
+
+    @Override
+    public QueryResult getIntervalFrequencies(Region region, QueryOptions queryOptions) {
+        return super.getIntervalFrequencies(region, queryOptions, "variation");
     }
 
     @Override
@@ -322,24 +326,7 @@ public class VariationMongoDBAdaptor extends MongoDBAdaptor implements Variation
 
     @Override
     public List<QueryResult> getAllByVariantList(List<GenomicVariant> variations, QueryOptions options){
-        List<DBObject> queries = new ArrayList<>(variations.size());
-        List<QueryResult> results;
-
-        for (GenomicVariant variation : variations) {
-            String chunkId = getChunkIdPrefix(variation.getChromosome(), variation.getPosition(), variationChunkSize);
-
-            QueryBuilder builder = QueryBuilder.start("_chunkIds").is(chunkId).and("chromosome").is(variation.getChromosome()).and("start").is(variation.getPosition()).and("alternate").is(variation.getAlternative());
-
-            if(variation.getReference() != null){
-                builder = builder.and("reference").is(variation.getReference());
-            }
-
-            queries.add(builder.get());
-        }
-
-        results = executeQueryList2(variations, queries, options, mongoDBCollection);
-//        results = executeQueryList(variations, queries, options, mongoDBCollection);
-
-        return results;
+        // One query per chromosome fetches all the candidates, documents are assigned to the variants in memory
+        return executeVariantListQuery(variations, variationChunkSize, options, mongoDBCollection);
     }
 }
@@ -40,9 +40,9 @@ public class VariationPhenotypeAnnotationMongoDBAdaptor extends MongoDBAdaptor i
     public VariationPhenotypeAnnotationMongoDBAdaptor(String species, String assembly, MongoDataStore mongoDataStore) {
         super(species, assembly, mongoDataStore);
 //        mongoDBCollection = db.getCollection("variation_phenotype_annotation");
-        mongoDBCollection = mongoDataStore.getCollection("variation_phenotype_annotation");
+        mongoDBCollection = getCollection("variation_phenotype_annotation");
 
-        logger.info("variation_phenotype_annotation: in 'constructor'");
+        logger.debug("variation_phenotype_annotation: in 'constructor'");
     }
 
     @Override
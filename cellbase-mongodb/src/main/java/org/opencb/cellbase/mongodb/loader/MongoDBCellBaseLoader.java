@@ -16,17 +16,18 @@
 
 package org.opencb.cellbase.mongodb.loader;
 
-import com.mongodb.BulkWriteResult;
-import com.mongodb.DBObject;
-import com.mongodb.util.JSON;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.mongodb.*;
 import org.apache.commons.lang3.StringUtils;
+import org.bson.types.ObjectId;
 import org.opencb.cellbase.core.CellBaseConfiguration;
 import org.opencb.cellbase.core.loader.CellBaseLoader;
+import org.opencb.cellbase.core.loader.LoadBatch;
 import org.opencb.cellbase.core.loader.LoadRunner;
 import org.opencb.cellbase.core.loader.LoaderException;
 import org.opencb.cellbase.mongodb.MongoDBCollectionConfiguration;
-import org.opencb.datastore.core.QueryOptions;
-import org.opencb.datastore.core.QueryResult;
 import org.opencb.datastore.core.config.DataStoreServerAddress;
 import org.opencb.datastore.mongodb.MongoDBCollection;
 import org.opencb.datastore.mongodb.MongoDBConfiguration;
@@ -34,11 +35,12 @@ import org.opencb.datastore.mongodb.MongoDataStore;
 import org.opencb.datastore.mongodb.MongoDataStoreManager;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
 import java.util.concurrent.BlockingQueue;
 
 /**
@@ -49,10 +51,16 @@ public class MongoDBCellBaseLoader extends CellBaseLoader {
     private MongoDataStoreManager mongoDataStoreManager;
     private MongoDataStore mongoDataStore;
     private MongoDBCollection mongoDBCollection;
+    private DBCollection dbCollection;
+    private String collectionName;
+    private WriteConcern writeConcern;
 
     private Path indexScriptFolder;
     private int[] chunkSizes;
 
+    private static final JsonFactory jsonFactory = new JsonFactory();
+    private static final int DUPLICATE_KEY_ERROR_CODE = 11000;
+
     public MongoDBCellBaseLoader(BlockingQueue<List<String>> queue, String data, String database) {
         this(queue, data, database, null);
     }
@@ -102,14 +110,31 @@ public class MongoDBCellBaseLoader extends CellBaseLoader {
 
         mongoDataStore = mongoDataStoreManager.get(database, mongoDBConfiguration);
 
-        String collectionName = getCollectionName(data);
+        collectionName = getCollectionName(data);
         mongoDBCollection = mongoDataStore.getCollection(collectionName);
+        dbCollection = mongoDataStore.getDb().getCollection(collectionName);
         logger.debug("Connection to MongoDB datastore '{}' created, collection '{}' is used",
                 mongoDataStore.getDatabaseName(), collectionName);
 
         // Some collections need to add an extra _chunkIds field to speed up some queries
         getChunkSizes(collectionName);
         logger.debug("Chunk sizes '{}' used for collection '{}'", Arrays.toString(chunkSizes), collectionName);
+
+        // Write concern can be relaxed, ie. 'unacknowledged', to speed up the load of big collections
+        writeConcern = WriteConcern.ACKNOWLEDGED;
+        String writeConcernName = cellBaseConfiguration.getDatabase().getOptions().get("writeConcern");
+        if (writeConcernName != null && !writeConcernName.isEmpty()) {
+            if (WriteConcern.valueOf(writeConcernName) != null) {
+                writeConcern = WriteConcern.valueOf(writeConcernName);
+            } else {
+                logger.warn("Unknown write concern '{}', '{}' is used", writeConcernName, writeConcern);
+            }
+        }
+        if (!writeConcern.isAcknowledged()) {
+            logger.warn("Write concern '{}' is not acknowledged, the load of '{}' cannot be checkpointed",
+                    writeConcern, collectionName);
+        }
+        logger.debug("Write concern '{}' used for collection '{}'", writeConcern, collectionName);
     }
 
 
@@ -184,6 +209,8 @@ public class MongoDBCellBaseLoader extends CellBaseLoader {
     @Override
     public Integer call() {
         Integer loadedObjects = 0;
+        long parseTime = 0;
+        long loadTime = 0;
         boolean finished = false;
         while (!finished) {
             try {
@@ -191,13 +218,30 @@ public class MongoDBCellBaseLoader extends CellBaseLoader {
                 if (batch == LoadRunner.POISON_PILL) {
                     finished = true;
                 } else {
+                    long start = System.nanoTime();
                     List<DBObject> dbObjectsBatch = new ArrayList<>(batch.size());
-                    for (String jsonLine : batch) {
-                        DBObject dbObject = (DBObject) JSON.parse(jsonLine);
+                    for (int i = 0; i < batch.size(); i++) {
+                        DBObject dbObject = parse(batch.get(i));
+                        Object id = getId(dbObject, batch, i);
+                        if (id != null) {
+                            dbObject.put("_id", id);
+                        }
                         addChunkId(dbObject);
                         dbObjectsBatch.add(dbObject);
                     }
-                    loadedObjects += load(dbObjectsBatch);
+                    parseTime += System.nanoTime() - start;
+
+                    start = System.nanoTime();
+                    int loaded = load(dbObjectsBatch);
+                    loadTime += System.nanoTime() - start;
+
+                    loadedObjects += loaded;
+                    loadedRecords.addAndGet(loaded);
+                    // The checkpoint only moves forward when the whole batch is confirmed to be in the database,
+                    // unacknowledged writes are never confirmed
+                    if (writeConcern.isAcknowledged() && loaded == batch.size() && batch instanceof LoadBatch) {
+                        ((LoadBatch) batch).loaded();
+                    }
                 }
             } catch (InterruptedException e) {
                 logger.error("Loader thread interrupted: " + e.getMessage());
@@ -206,9 +250,62 @@ public class MongoDBCellBaseLoader extends CellBaseLoader {
             }
         }
         logger.debug("'load' finished. " + loadedObjects + " records loaded");
+        logger.debug("Parsing: {} records/s, loading: {} records/s", loadedObjects * 1000000000L / Math.max(parseTime, 1),
+                loadedObjects * 1000000000L / Math.max(loadTime, 1));
         return loadedObjects;
     }
 
+    /**
+     * JSON lines are streamed by Jackson directly into DBObjects, numbers are converted to Integer, Long or Double
+     * as com.mongodb.util.JSON did.
+     */
+    private DBObject parse(String jsonLine) throws IOException {
+        try (JsonParser jsonParser = jsonFactory.createParser(jsonLine)) {
+            jsonParser.nextToken();
+            return (DBObject) parseValue(jsonParser);
+        }
+    }
+
+    private Object parseValue(JsonParser jsonParser) throws IOException {
+        switch (jsonParser.getCurrentToken()) {
+            case START_OBJECT:
+                BasicDBObject dbObject = new BasicDBObject();
+                while (jsonParser.nextToken() != JsonToken.END_OBJECT) {
+                    String fieldName = jsonParser.getCurrentName();
+                    jsonParser.nextToken();
+                    dbObject.put(fieldName, parseValue(jsonParser));
+                }
+                return dbObject;
+            case START_ARRAY:
+                BasicDBList dbList = new BasicDBList();
+                while (jsonParser.nextToken() != JsonToken.END_ARRAY) {
+                    dbList.add(parseValue(jsonParser));
+                }
+                return dbList;
+            case VALUE_STRING:
+                return jsonParser.getText();
+            case VALUE_NUMBER_INT:
+                switch (jsonParser.getNumberType()) {
+                    case INT:
+                        return jsonParser.getIntValue();
+                    case LONG:
+                        return jsonParser.getLongValue();
+                    default:
+                        return jsonParser.getDoubleValue();
+                }
+            case VALUE_NUMBER_FLOAT:
+                return jsonParser.getDoubleValue();
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case VALUE_NULL:
+                return null;
+            default:
+                throw new IOException("Unexpected JSON token '" + jsonParser.getCurrentToken() + "'");
+        }
+    }
+
     @Override
     public void createIndex(String data) throws LoaderException {
         Path indexFilePath = getIndexFilePath(data);
@@ -224,10 +321,126 @@ public class MongoDBCellBaseLoader extends CellBaseLoader {
             logger.warn("No index found for '{}'", data);        }
     }
 
+    /**
+     * Documents are inserted with their deterministic _id, so the ones already loaded by an interrupted run fail
+     * with a duplicate key error. Those are counted as loaded only if the stored document is the same one, any
+     * other duplicate means two different records with the same key and is reported as an error. This makes
+     * re-loading a batch idempotent and it is cheaper than upserting every document.
+     * @return Number of documents of the batch in the database, unacknowledged writes are assumed to succeed
+     */
     public int load(List<DBObject> batch) {
-        // TODO: queryOptions?
-        QueryResult<BulkWriteResult> result = mongoDBCollection.insert(batch, new QueryOptions());
-        return result.first().getInsertedCount();
+        // Unordered bulk writes let the server apply the inserts in parallel and do not stop at the first error
+        BulkWriteOperation bulkWriteOperation = dbCollection.initializeUnorderedBulkOperation();
+        for (DBObject dbObject : batch) {
+            bulkWriteOperation.insert(dbObject);
+        }
+        try {
+            BulkWriteResult result = bulkWriteOperation.execute(writeConcern);
+            return result.isAcknowledged() ? result.getInsertedCount() : batch.size();
+        } catch (BulkWriteException e) {
+            List<DBObject> duplicates = new ArrayList<>();
+            int errors = 0;
+            for (BulkWriteError bulkWriteError : e.getWriteErrors()) {
+                if (bulkWriteError.getCode() == DUPLICATE_KEY_ERROR_CODE) {
+                    duplicates.add(batch.get(bulkWriteError.getIndex()));
+                } else {
+                    errors++;
+                }
+            }
+            if (errors > 0) {
+                logger.error("{} errors loading batch: {}", errors, e.getMessage());
+            }
+            return e.getWriteResult().getInsertedCount() + countAlreadyLoaded(duplicates);
+        }
+    }
+
+    /**
+     * Duplicated documents are compared with the stored ones, only identical documents were already loaded.
+     */
+    private int countAlreadyLoaded(List<DBObject> duplicates) {
+        if (duplicates.isEmpty()) {
+            return 0;
+        }
+        List<Object> ids = new ArrayList<>(duplicates.size());
+        for (DBObject duplicate : duplicates) {
+            ids.add(duplicate.get("_id"));
+        }
+        Map<Object, DBObject> storedDocuments = new HashMap<>(duplicates.size() * 2);
+        try (DBCursor cursor = dbCollection.find(new BasicDBObject("_id", new BasicDBObject("$in", ids)))) {
+            for (DBObject storedDocument : cursor) {
+                storedDocuments.put(storedDocument.get("_id"), storedDocument);
+            }
+        }
+
+        int alreadyLoaded = 0;
+        for (DBObject duplicate : duplicates) {
+            if (duplicate.equals(storedDocuments.get(duplicate.get("_id")))) {
+                alreadyLoaded++;
+            } else {
+                logger.error("Record with _id '{}' is not loaded, a different record with the same key is already in"
+                        + " collection '{}'", duplicate.get("_id"), collectionName);
+            }
+        }
+        if (alreadyLoaded > 0) {
+            logger.debug("{} records of the batch were already loaded", alreadyLoaded);
+        }
+        return alreadyLoaded;
+    }
+
+    /**
+     * Builds a deterministic _id so the same record always gets the same _id. Only collections with a unique natural
+     * key use it as _id, the others get an ObjectId made from the position of the record in the input file, so
+     * different records never share an _id even if they are identical.
+     * @return The _id, or null if the batch does not come from a file and MongoDB must assign it
+     */
+    private Object getId(DBObject dbObject, List<String> batch, int index) {
+        String id = null;
+        switch (collectionName) {
+            case "genome_sequence":
+                id = getNaturalKey(dbObject, "chunkId");
+                break;
+            case "conservation":
+                id = getNaturalKey(dbObject, "type", "chromosome", "chunkId");
+                break;
+            case "gene":
+                id = getNaturalKey(dbObject, "id");
+                break;
+            default:
+                break;
+        }
+        if (id != null) {
+            return id;
+        }
+        if (batch instanceof LoadBatch && ((LoadBatch) batch).getInputFile() != null) {
+            LoadBatch loadBatch = (LoadBatch) batch;
+            return getObjectId(loadBatch.getInputFile().getFileName() + ":" + loadBatch.getSequence() + ":" + index);
+        }
+        return null;
+    }
+
+    private ObjectId getObjectId(String position) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(position.getBytes(StandardCharsets.UTF_8));
+            return new ObjectId(Arrays.copyOf(digest, 12));
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support MD5
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String getNaturalKey(DBObject dbObject, String... fields) {
+        StringBuilder key = new StringBuilder();
+        for (String field : fields) {
+            Object value = dbObject.get(field);
+            if (value == null) {
+                return null;
+            }
+            if (key.length() > 0) {
+                key.append(":");
+            }
+            key.append(value);
+        }
+        return key.toString();
     }
 
     private void addChunkId(DBObject dbObject) {
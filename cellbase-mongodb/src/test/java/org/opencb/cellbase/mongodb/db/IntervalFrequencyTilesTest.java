@@ -0,0 +1,184 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opencb.cellbase.mongodb.db;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.junit.Test;
+import org.opencb.biodata.models.feature.Region;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class IntervalFrequencyTilesTest {
+
+    private static final int BIN_SIZE = IntervalFrequencyTiles.RESOLUTIONS[0];
+    private static final int BLOCK_SIZE = IntervalFrequencyTiles.BLOCK_SIZE;
+
+    /**
+     * Tiles are read from a list instead of MongoDB, 'features' sets the number of features of each bin of the
+     * finest resolution and the tiles of every resolution are computed from them as the post-load does.
+     */
+    private static class TestIntervalFrequencyTiles extends IntervalFrequencyTiles {
+
+        private DBObject summary = new BasicDBObject("resolutions", Arrays.asList(1000, 10000, 100000, 1000000))
+                .append("blockSize", BLOCK_SIZE);
+        private int[] features = new int[0];
+        private int summaryReads;
+
+        TestIntervalFrequencyTiles(long summaryTtl) {
+            super(null, summaryTtl);
+        }
+
+        void addFeature(int start) {
+            int bin = start / BIN_SIZE;
+            if (bin >= features.length) {
+                features = Arrays.copyOf(features, bin + 1);
+            }
+            features[bin]++;
+        }
+
+        @Override
+        DBObject findSummary(String collection) {
+            summaryReads++;
+            return summary;
+        }
+
+        @Override
+        List<DBObject> findTiles(DBObject query) {
+            int resolution = (Integer) query.get("resolution");
+            DBObject blocks = (DBObject) query.get("block");
+            long firstBlock = ((Number) blocks.get("$gte")).longValue();
+            long lastBlock = ((Number) blocks.get("$lte")).longValue();
+
+            int[] bins = rollUp(features, resolution / BIN_SIZE);
+            List<DBObject> tiles = new ArrayList<>();
+            for (int block = 0; block * BLOCK_SIZE < bins.length; block++) {
+                if (block >= firstBlock && block <= lastBlock) {
+                    List<Integer> counts = new ArrayList<>();
+                    for (int i = block * BLOCK_SIZE; i < Math.min((block + 1) * BLOCK_SIZE, bins.length); i++) {
+                        counts.add(bins[i]);
+                    }
+                    tiles.add(new BasicDBObject("block", block).append("counts", counts));
+                }
+            }
+            return tiles;
+        }
+    }
+
+    private static Map<Long, Integer> counts(long... chunkIdsAndCounts) {
+        Map<Long, Integer> counts = new HashMap<>();
+        for (int i = 0; i < chunkIdsAndCounts.length; i += 2) {
+            counts.put(chunkIdsAndCounts[i], (int) chunkIdsAndCounts[i + 1]);
+        }
+        return counts;
+    }
+
+    @Test
+    public void testRollUp() {
+        int[] bins = {1, 2, 3, 4, 5, 6, 7};
+        assertSame(bins, IntervalFrequencyTiles.rollUp(bins, 1));
+        assertArrayEquals(new int[]{3, 7, 11, 7}, IntervalFrequencyTiles.rollUp(bins, 2));
+        // The last bin is partial
+        assertArrayEquals(new int[]{6, 15, 7}, IntervalFrequencyTiles.rollUp(bins, 3));
+        assertArrayEquals(new int[]{28}, IntervalFrequencyTiles.rollUp(bins, 10));
+    }
+
+    @Test
+    public void testGetCountsAtStoredResolution() {
+        TestIntervalFrequencyTiles tiles = new TestIntervalFrequencyTiles(60000);
+        tiles.addFeature(500);
+        tiles.addFeature(1500);
+        tiles.addFeature(1999);
+        tiles.addFeature(4000);
+        tiles.addFeature(9999);
+
+        // Chunks of the region boundaries are complete, chunks with no features are not returned
+        assertEquals(counts(1, 2, 4, 1), tiles.getCounts("gene", new Region("1", 1999, 4000), 1000));
+        assertEquals(counts(0, 5), tiles.getCounts("gene", new Region("1", 1, 12000), 10000));
+    }
+
+    @Test
+    public void testGetCountsAtMultipleOfResolution() {
+        TestIntervalFrequencyTiles tiles = new TestIntervalFrequencyTiles(60000);
+        for (int start = 0; start < 30000; start += 700) {
+            tiles.addFeature(start);
+        }
+
+        // 3000 is only a multiple of 1000, 30000 is read from the 10000 tiles
+        Map<Long, Integer> counts = tiles.getCounts("gene", new Region("1", 4000, 10000), 3000);
+        assertEquals(counts(1, 4, 2, 4, 3, 5), counts);
+        assertEquals(counts(0, 43), tiles.getCounts("gene", new Region("1", 1, 29999), 30000));
+    }
+
+    @Test
+    public void testGetCountsAcrossBlocks() {
+        TestIntervalFrequencyTiles tiles = new TestIntervalFrequencyTiles(60000);
+        // Last bin of the first block and first bins of the second one
+        tiles.addFeature((BLOCK_SIZE - 1) * BIN_SIZE);
+        tiles.addFeature(BLOCK_SIZE * BIN_SIZE);
+        tiles.addFeature((BLOCK_SIZE + 1) * BIN_SIZE + 1);
+
+        Region region = new Region("1", (BLOCK_SIZE - 2) * BIN_SIZE, (BLOCK_SIZE + 2) * BIN_SIZE);
+        assertEquals(counts(BLOCK_SIZE - 1, 1, BLOCK_SIZE, 1, BLOCK_SIZE + 1, 1),
+                tiles.getCounts("gene", region, 1000));
+        // Chunks made of bins of both blocks
+        assertEquals(counts((BLOCK_SIZE - 1) / 2, 1, BLOCK_SIZE / 2, 2), tiles.getCounts("gene", region, 2000));
+        // Only the second block is needed
+        assertEquals(counts(BLOCK_SIZE + 1, 1),
+                tiles.getCounts("gene", new Region("1", (BLOCK_SIZE + 1) * BIN_SIZE, (BLOCK_SIZE + 5) * BIN_SIZE),
+                        1000));
+    }
+
+    @Test
+    public void testGetCountsNotTiled() {
+        TestIntervalFrequencyTiles tiles = new TestIntervalFrequencyTiles(60000);
+        tiles.addFeature(1500);
+
+        assertNull(tiles.getCounts("gene", new Region("1", 1, 10000), 1500));
+        assertNull(tiles.getCounts("gene", new Region("1", 1, 10000), 0));
+
+        // No summary, the collection has not been tiled
+        tiles = new TestIntervalFrequencyTiles(60000);
+        tiles.summary = null;
+        tiles.addFeature(1500);
+        assertNull(tiles.getCounts("gene", new Region("1", 1, 10000), 1000));
+    }
+
+    @Test
+    public void testSummaryIsCached() throws InterruptedException {
+        TestIntervalFrequencyTiles tiles = new TestIntervalFrequencyTiles(60000);
+        tiles.summary = null;
+        tiles.addFeature(1500);
+        assertNull(tiles.getCounts("gene", new Region("1", 1, 10000), 1000));
+        tiles.summary = new BasicDBObject("resolutions", Collections.singletonList(1000))
+                .append("blockSize", BLOCK_SIZE);
+        // Collections with no tiles are cached too
+        assertNull(tiles.getCounts("gene", new Region("1", 1, 10000), 1000));
+        assertEquals(1, tiles.summaryReads);
+
+        // Summaries are read again once expired
+        tiles = new TestIntervalFrequencyTiles(1);
+        tiles.addFeature(1500);
+        tiles.getCounts("gene", new Region("1", 1, 10000), 1000);
+        Thread.sleep(5);
+        assertEquals(counts(1, 1), tiles.getCounts("gene", new Region("1", 1, 10000), 1000));
+        assertEquals(2, tiles.summaryReads);
+    }
+}
@@ -16,18 +16,24 @@
 
 package org.opencb.cellbase.mongodb.db;
 
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
 import org.apache.commons.lang3.StringUtils;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.opencb.biodata.formats.annotation.io.VepFormatWriter;
 import org.opencb.biodata.formats.variant.vcf4.VcfRecord;
 import org.opencb.biodata.formats.variant.vcf4.io.VcfRawReader;
+import org.opencb.biodata.models.feature.Region;
 import org.opencb.biodata.models.variant.annotation.ConsequenceType;
 import org.opencb.biodata.models.variant.annotation.VariantAnnotation;
 import org.opencb.biodata.models.variation.GenomicVariant;
 import org.opencb.cellbase.core.CellBaseConfiguration;
 import org.opencb.cellbase.core.db.DBAdaptorFactory;
+import org.opencb.cellbase.core.db.api.core.GeneDBAdaptor;
+import org.opencb.cellbase.core.db.api.regulatory.RegulatoryRegionDBAdaptor;
 import org.opencb.cellbase.core.db.api.variation.VariantAnnotationDBAdaptor;
+import org.opencb.cellbase.mongodb.db.variation.VariantAnnotationMongoDBAdaptor;
 import java.io.*;
 import java.net.URISyntaxException;
 import org.opencb.datastore.core.QueryOptions;
@@ -37,11 +43,14 @@ import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.FileReader;
 import java.io.IOException;
+import java.lang.reflect.Proxy;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
 
+import static org.junit.Assert.assertEquals;
+
 
 public class VariantAnnotationMongoDBAdaptorTest {
 
@@ -694,4 +703,96 @@ public class VariantAnnotationMongoDBAdaptorTest {
         bw.close();
     }
 
+    /**
+     * Genes are served from a list, in the opposite order to single region queries and to region list queries as
+     * MongoDB may do, the consequence types of a batch must be the same as the ones of each variant alone.
+     */
+    @Test
+    public void testGetAllConsequenceTypesByVariantListMatchesSingleVariants() {
+        List<BasicDBObject> genes = Arrays.asList(gene("ENSG01", "ENST01", 1000, 2000, "+"),
+                gene("ENSG02", "ENST02", 4000, 6000, "+"), gene("ENSG03", "ENST03", 4000, 6000, "-"),
+                gene("ENSG04", "ENST04", 9000, 9500, "-"));
+        GeneDBAdaptor geneDBAdaptor = (GeneDBAdaptor) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[]{GeneDBAdaptor.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("getAllByRegion")) {
+                        List<BasicDBObject> result = getOverlapping(genes, (Region) args[0]);
+                        Collections.reverse(result);
+                        return new QueryResult<>("", 0, result.size(), result.size(), "", "", result);
+                    } else if (method.getName().equals("getAllByRegionList")) {
+                        List<QueryResult> queryResults = new ArrayList<>();
+                        for (Region region : (List<Region>) args[0]) {
+                            List<BasicDBObject> result = getOverlapping(genes, region);
+                            queryResults.add(new QueryResult<>("", 0, result.size(), result.size(), "", "", result));
+                        }
+                        return queryResults;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+        RegulatoryRegionDBAdaptor regulatoryRegionDBAdaptor = (RegulatoryRegionDBAdaptor) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class[]{RegulatoryRegionDBAdaptor.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("getAllByRegion")) {
+                        return new QueryResult<>("", 0, 0, 0, "", "", new ArrayList<>());
+                    } else if (method.getName().equals("getAllByRegionList")) {
+                        List<QueryResult> queryResults = new ArrayList<>();
+                        for (Object region : (List) args[0]) {
+                            queryResults.add(new QueryResult<>("", 0, 0, 0, "", "", new ArrayList<>()));
+                        }
+                        return queryResults;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+
+        VariantAnnotationMongoDBAdaptor variantAnnotationDBAdaptor =
+                new VariantAnnotationMongoDBAdaptor("hsapiens", "GRCh37", null);
+        variantAnnotationDBAdaptor.setGeneDBAdaptor(geneDBAdaptor);
+        variantAnnotationDBAdaptor.setRegulatoryRegionDBAdaptor(regulatoryRegionDBAdaptor);
+
+        List<GenomicVariant> variants = Arrays.asList(new GenomicVariant("1", 7000, "A", "C"),
+                new GenomicVariant("1", 3000, "A", "C"), new GenomicVariant("1", 8500, "A", "C"),
+                new GenomicVariant("1", 3500, "A", "<DEL>"), new GenomicVariant("2", 3000, "A", "C"));
+        List<QueryResult> batchQueryResults = variantAnnotationDBAdaptor.getAllConsequenceTypesByVariantList(variants,
+                new QueryOptions());
+        assertEquals(variants.size(), batchQueryResults.size());
+        for (int i = 0; i < variants.size(); i++) {
+            QueryResult queryResult = variantAnnotationDBAdaptor.getAllConsequenceTypesByVariant(variants.get(i),
+                    new QueryOptions());
+            assertEquals(variants.get(i).toString(), getConsequenceTypes(queryResult),
+                    getConsequenceTypes(batchQueryResults.get(i)));
+        }
+
+        // Genes are visited by position
+        assertEquals(Arrays.asList("ENST01:2KB_downstream_gene_variant", "ENST02:2KB_upstream_gene_variant",
+                "ENST03:2KB_downstream_gene_variant"), getConsequenceTypes(batchQueryResults.get(1)));
+    }
+
+    private static BasicDBObject gene(String id, String transcriptId, int start, int end, String strand) {
+        BasicDBList transcripts = new BasicDBList();
+        transcripts.add(new BasicDBObject("id", transcriptId).append("start", start).append("end", end)
+                .append("strand", strand).append("biotype", "lincRNA").append("cdsLength", 0));
+        return new BasicDBObject("id", id).append("name", id).append("chromosome", "1").append("start", start)
+                .append("end", end).append("transcripts", transcripts);
+    }
+
+    private static List<BasicDBObject> getOverlapping(List<BasicDBObject> genes, Region region) {
+        List<BasicDBObject> result = new ArrayList<>();
+        for (BasicDBObject gene : genes) {
+            if (gene.get("chromosome").equals(region.getChromosome()) && gene.getInt("end") >= region.getStart()
+                    && gene.getInt("start") <= region.getEnd()) {
+                result.add(gene);
+            }
+        }
+        return result;
+    }
+
+    private static List<String> getConsequenceTypes(QueryResult queryResult) {
+        List<String> consequenceTypes = new ArrayList<>();
+        for (Object result : queryResult.getResult()) {
+            ConsequenceType consequenceType = (ConsequenceType) result;
+            for (ConsequenceType.ConsequenceTypeEntry soTerm : consequenceType.getSoTerms()) {
+                consequenceTypes.add(consequenceType.getEnsemblTranscriptId() + ":" + soTerm.getSoName());
+            }
+        }
+        return consequenceTypes;
+    }
+
 }
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.cellbase.mongodb.db.core;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.bson.BasicBSONEncoder;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class GeneModelCacheTest {
+
+    private static final int CHUNK_SIZE = GeneModelCache.CHUNK_SIZE;
+
+    /**
+     * Genes are read from a list instead of MongoDB, the collection is checked on every call.
+     */
+    private static class TestGeneModelCache extends GeneModelCache {
+
+        private List<DBObject> genes = new ArrayList<>();
+        private String fingerprint = "1";
+        private Map<String, Integer> loads = new HashMap<>();
+        private Runnable onLoad;
+
+        TestGeneModelCache(long maxBytes) {
+            super("test", null, maxBytes, 0);
+        }
+
+        @Override
+        List<DBObject> findGenes(String chromosome, int start, int end) {
+            loads.merge(chromosome + "_" + start / CHUNK_SIZE, 1, Integer::sum);
+            if (onLoad != null) {
+                Runnable runnable = onLoad;
+                onLoad = null;
+                runnable.run();
+            }
+            List<DBObject> result = new ArrayList<>();
+            for (DBObject gene : genes) {
+                if (gene.get("chromosome").equals(chromosome) && (Integer) gene.get("end") >= start
+                        && (Integer) gene.get("start") <= end) {
+                    result.add(gene);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        String readFingerprint() {
+            return fingerprint;
+        }
+    }
+
+    private static DBObject gene(String id, String chromosome, int start, int end) {
+        return new BasicDBObject("_id", id).append("chromosome", chromosome).append("start", start).append("end", end);
+    }
+
+    private static List<Object> getIds(List<DBObject> genes) {
+        List<Object> ids = new ArrayList<>();
+        for (DBObject gene : genes) {
+            ids.add(gene.get("_id"));
+        }
+        return ids;
+    }
+
+    /**
+     * One gene per chunk, all of them with the same BSON size.
+     */
+    private static TestGeneModelCache createCache(int numChunks, int maxChunks) {
+        DBObject firstGene = gene("g0", "1", 100, 200);
+        TestGeneModelCache cache = new TestGeneModelCache(maxChunks * new BasicBSONEncoder().encode(firstGene).length);
+        for (int i = 0; i < numChunks; i++) {
+            cache.genes.add(gene("g" + i, "1", i * CHUNK_SIZE + 100, i * CHUNK_SIZE + 200));
+        }
+        return cache;
+    }
+
+    @Test
+    public void testGetGenes() throws Exception {
+        TestGeneModelCache cache = new TestGeneModelCache(Long.MAX_VALUE);
+        cache.genes.add(gene("a", "1", 100, 200));
+        cache.genes.add(gene("b", "1", CHUNK_SIZE - 10, CHUNK_SIZE + 10));
+        cache.genes.add(gene("c", "1", CHUNK_SIZE + 100, CHUNK_SIZE + 200));
+        cache.genes.add(gene("d", "2", 100, 200));
+
+        // 'b' is in both chunks and returned once
+        assertEquals(Arrays.asList("a", "b", "c"), getIds(cache.getGenes("1", 150, CHUNK_SIZE + 150)));
+        assertEquals(Arrays.asList("a"), getIds(cache.getGenes("1", 200, 200)));
+        assertTrue(cache.getGenes("1", 201, CHUNK_SIZE - 11).isEmpty());
+        assertEquals(Arrays.asList("d"), getIds(cache.getGenes("2", 1, 100)));
+
+        assertEquals(3L, cache.getStats().get("misses"));
+        assertEquals(2L, cache.getStats().get("hits"));
+    }
+
+    @Test
+    public void testEvictionOrder() throws Exception {
+        TestGeneModelCache cache = createCache(3, 2);
+
+        cache.getGenes("1", 0, 1000);
+        cache.getGenes("1", CHUNK_SIZE, CHUNK_SIZE + 1000);
+        // chunk 0 is now the most recently used, chunk 1 is evicted by chunk 2
+        cache.getGenes("1", 0, 1000);
+        cache.getGenes("1", 2 * CHUNK_SIZE, 2 * CHUNK_SIZE + 1000);
+        cache.getGenes("1", 0, 1000);
+        assertEquals(Arrays.asList("g1"), getIds(cache.getGenes("1", CHUNK_SIZE, CHUNK_SIZE + 1000)));
+
+        assertEquals(Integer.valueOf(1), cache.loads.get("1_0"));
+        assertEquals(Integer.valueOf(2), cache.loads.get("1_1"));
+        assertEquals(Integer.valueOf(1), cache.loads.get("1_2"));
+        assertEquals(2L, cache.getStats().get("evictions"));
+    }
+
+    @Test
+    public void testSizeBound() throws Exception {
+        TestGeneModelCache cache = createCache(10, 3);
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(Arrays.asList("g" + i), getIds(cache.getGenes("1", i * CHUNK_SIZE, i * CHUNK_SIZE + 1000)));
+            Map<String, Object> stats = cache.getStats();
+            assertTrue(stats.toString(), (Long) stats.get("bytes") <= (Long) stats.get("maxBytes"));
+            assertEquals(Math.min(i + 1, 3), stats.get("chunks"));
+        }
+        assertEquals(7L, cache.getStats().get("evictions"));
+    }
+
+    @Test
+    public void testInvalidation() throws Exception {
+        TestGeneModelCache cache = createCache(1, 10);
+        assertEquals(Arrays.asList("g0"), getIds(cache.getGenes("1", 0, 1000)));
+
+        cache.genes.add(gene("new", "1", 500, 600));
+        // the collection has not changed yet for the cache
+        assertEquals(Arrays.asList("g0"), getIds(cache.getGenes("1", 0, 1000)));
+
+        cache.fingerprint = "2";
+        assertEquals(Arrays.asList("g0", "new"), getIds(cache.getGenes("1", 0, 1000)));
+        assertEquals(Integer.valueOf(2), cache.loads.get("1_0"));
+    }
+
+    @Test
+    public void testChunkLoadedBeforeInvalidationNotCached() throws Exception {
+        TestGeneModelCache cache = createCache(1, 10);
+        cache.getGenes("1", 0, 1000);
+        cache.fingerprint = "2";
+        // the collection changes while the chunk is being loaded, another reader empties the cache
+        cache.onLoad = () -> {
+            cache.fingerprint = "3";
+            cache.getGenes("2", 0, 1000);
+        };
+        cache.getGenes("1", 0, 1000);
+        assertEquals(Integer.valueOf(2), cache.loads.get("1_0"));
+
+        // the chunk read during the change was not cached
+        cache.getGenes("1", 0, 1000);
+        assertEquals(Integer.valueOf(3), cache.loads.get("1_0"));
+        cache.getGenes("1", 0, 1000);
+        assertEquals(Integer.valueOf(3), cache.loads.get("1_0"));
+    }
+}
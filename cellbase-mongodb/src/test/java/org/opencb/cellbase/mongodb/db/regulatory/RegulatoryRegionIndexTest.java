@@ -0,0 +1,169 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.cellbase.mongodb.db.regulatory;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.junit.Test;
+import org.opencb.biodata.models.feature.Region;
+import org.opencb.datastore.core.QueryOptions;
+import org.opencb.datastore.core.QueryResult;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class RegulatoryRegionIndexTest {
+
+    private static DBObject feature(String id, String chromosome, int start, int end, String featureType,
+                                    String featureClass) {
+        return new BasicDBObject("_id", id).append("chromosome", chromosome).append("start", start).append("end", end)
+                .append("featureType", featureType).append("featureClass", featureClass).append("name", "name_" + id);
+    }
+
+    private static RegulatoryRegionIndex createIndex() {
+        return new RegulatoryRegionIndex("test", Arrays.asList(
+                feature("a", "1", 100, 200, "Enhancer", "Regulatory_Build"),
+                feature("b", "1", 150, 160, "TF_binding_site", "Open Chromatin"),
+                feature("c", "1", 300, 400, "Enhancer", "Regulatory_Build"),
+                feature("d", "1", 50, 1000, "Promoter", "Regulatory_Build"),
+                feature("e", "2", 100, 200, "Enhancer", "Regulatory_Build")).iterator());
+    }
+
+    private static List<Object> getIds(List<DBObject> features) {
+        List<Object> ids = new ArrayList<>();
+        for (DBObject feature : features) {
+            ids.add(feature.get("_id"));
+        }
+        return ids;
+    }
+
+    @Test
+    public void testFind() throws Exception {
+        RegulatoryRegionIndex index = createIndex();
+
+        // features are returned sorted by start, 'b' ends before the query
+        assertEquals(Arrays.asList("d", "a", "c"), getIds(index.find("1", 170, 310, null, null)));
+        // coordinates are inclusive
+        assertEquals(Arrays.asList("d", "a"), getIds(index.find("1", 200, 200, null, null)));
+        assertEquals(Arrays.asList("d"), getIds(index.find("1", 1000, 2000, null, null)));
+        assertEquals(Arrays.asList("e"), getIds(index.find("2", 1, 100, null, null)));
+
+        assertTrue(index.find("1", 1, 49, null, null).isEmpty());
+        assertTrue(index.find("1", 1001, 2000, null, null).isEmpty());
+        assertTrue(index.find("3", 1, 1000, null, null).isEmpty());
+    }
+
+    @Test
+    public void testFindIndexedFields() throws Exception {
+        DBObject feature = createIndex().find("1", 155, 155, null, null).get(2);
+
+        assertEquals(new BasicDBObject("_id", "b").append("chromosome", "1").append("start", 150).append("end", 160)
+                .append("featureType", "TF_binding_site").append("featureClass", "Open Chromatin"), feature);
+    }
+
+    @Test
+    public void testFindFilters() throws Exception {
+        RegulatoryRegionIndex index = createIndex();
+
+        assertEquals(Arrays.asList("a", "c"), getIds(index.find("1", 1, 1000,
+                Arrays.asList("Enhancer", "Unknown"), null)));
+        assertEquals(Arrays.asList("b"), getIds(index.find("1", 1, 1000, null,
+                Arrays.asList("Open Chromatin"))));
+        assertEquals(Arrays.asList("a", "c"), getIds(index.find("1", 1, 1000,
+                Arrays.asList("Enhancer"), Arrays.asList("Regulatory_Build"))));
+        assertTrue(index.find("1", 1, 1000, Arrays.asList("Unknown"), null).isEmpty());
+    }
+
+    @Test
+    public void testFindSameAsScan() throws Exception {
+        Random random = new Random(7);
+        List<DBObject> features = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            int start = random.nextInt(100000);
+            int length = random.nextInt(10) == 0 ? random.nextInt(20000) : random.nextInt(500);
+            features.add(feature("f" + i, "1", start, start + length, "Enhancer", "Regulatory_Build"));
+        }
+        RegulatoryRegionIndex index = new RegulatoryRegionIndex("test", features.iterator());
+
+        for (int i = 0; i < 1000; i++) {
+            int start = random.nextInt(120000);
+            int end = start + random.nextInt(1000);
+            Set<Object> expected = new HashSet<>();
+            for (DBObject feature : features) {
+                if ((Integer) feature.get("start") <= end && (Integer) feature.get("end") >= start) {
+                    expected.add(feature.get("_id"));
+                }
+            }
+            List<DBObject> found = index.find("1", start, end, null, null);
+            assertEquals(expected, new HashSet<>(getIds(found)));
+            assertEquals(expected.size(), found.size());
+        }
+    }
+
+    @Test
+    public void testGetAllByRegionListIndexedFields() throws Exception {
+        List<Region> regions = Arrays.asList(new Region("1", 170, 310), new Region("1", 1, 49));
+        QueryOptions options = new QueryOptions("include", Arrays.asList("chromosome", "start", "end", "featureType"));
+
+        List<QueryResult> queryResults = RegulatoryRegionMongoDBAdaptor.getAllByRegionListFromIndex(createIndex(),
+                regions, options, null, null, (ids, queries) -> {
+                    throw new AssertionError("MongoDB must not be queried for indexed fields");
+                });
+
+        assertEquals(2, queryResults.size());
+        assertEquals(3, queryResults.get(0).getNumResults());
+        assertEquals(new BasicDBObject("_id", "d").append("chromosome", "1").append("start", 50).append("end", 1000)
+                .append("featureType", "Promoter"), queryResults.get(0).getResult().get(0));
+        assertEquals(0, queryResults.get(1).getNumResults());
+    }
+
+    @Test
+    public void testGetAllByRegionListIdFallback() throws Exception {
+        List<Region> regions = Arrays.asList(new Region("1", 170, 310), new Region("1", 1, 49), new Region("2", 1, 100));
+        for (QueryOptions options : Arrays.asList(new QueryOptions(), new QueryOptions("include", Arrays.asList("start", "name")))) {
+            List<List<String>> queryIds = new ArrayList<>();
+            List<DBObject> idQueries = new ArrayList<>();
+            List<QueryResult> queryResults = RegulatoryRegionMongoDBAdaptor.getAllByRegionListFromIndex(createIndex(),
+                    regions, options, null, null, (ids, queries) -> {
+                        queryIds.add(ids);
+                        idQueries.addAll(queries);
+                        List<QueryResult> results = new ArrayList<>();
+                        for (String id : ids) {
+                            QueryResult queryResult = new QueryResult();
+                            queryResult.setId(id);
+                            queryResult.setResult(Collections.singletonList(new BasicDBObject("name", "name_" + id)));
+                            queryResult.setNumResults(1);
+                            results.add(queryResult);
+                        }
+                        return results;
+                    });
+
+            // a single round trip, only for the regions with features
+            assertEquals(1, queryIds.size());
+            assertEquals(Arrays.asList(regions.get(0).toString(), regions.get(2).toString()), queryIds.get(0));
+            assertEquals(Arrays.asList(
+                    new BasicDBObject("_id", new BasicDBObject("$in", Arrays.asList("d", "a", "c"))),
+                    new BasicDBObject("_id", new BasicDBObject("$in", Arrays.asList("e")))), idQueries);
+
+            assertEquals(3, queryResults.size());
+            assertEquals(regions.get(0).toString(), queryResults.get(0).getId());
+            assertEquals(0, queryResults.get(1).getNumResults());
+            assertEquals(regions.get(2).toString(), queryResults.get(2).getId());
+        }
+    }
+}
@@ -17,7 +17,7 @@
 package org.opencb.cellbase.server.ws;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.module.jsonSchema.JsonSchema;
@@ -167,6 +167,8 @@ public class GenericRestWSServer implements IWSServer {
 
         jsonObjectMapper = new ObjectMapper();
         jsonObjectMapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        // Responses are streamed, the output stream belongs to the container (or to the GzipWriterInterceptor)
+        jsonObjectMapper.getFactory().configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
         jsonObjectWriter = jsonObjectMapper.writer();
     }
 
@@ -388,6 +390,10 @@ public class GenericRestWSServer implements IWSServer {
     }
 
     protected Response createErrorResponse(String method, String errorMessage) {
+        // these errors are returned with status 200, they must not be kept by the response cache
+        if (httpServletRequest != null) {
+            httpServletRequest.setAttribute(ResponseCacheFilter.NOT_CACHEABLE_PROPERTY, true);
+        }
         try {
             return buildResponse(Response.ok(jsonObjectWriter.writeValueAsString(new HashMap<>().put("[ERROR] " + method, errorMessage)), MediaType.APPLICATION_JSON_TYPE));
         } catch (Exception e) {
@@ -426,14 +432,25 @@ public class GenericRestWSServer implements IWSServer {
         return buildResponse(Response.ok(str));
     }
 
+    /**
+     * The QueryResponse is not serialized into a String, Jackson writes it straight to the response output stream
+     * so big results are not kept twice in memory and the first bytes are sent as soon as they are serialized.
+     * Compression is negotiated by the GzipWriterInterceptor.
+     */
     protected Response createJsonResponse(QueryResponse queryResponse) {
-        try {
-            return buildResponse(Response.ok(jsonObjectWriter.writeValueAsString(queryResponse), MediaType.APPLICATION_JSON_TYPE));
-        } catch (JsonProcessingException e) {
-            e.printStackTrace();
-            logger.error("Error parsing queryResponse object");
-            return createErrorResponse("", "Error parsing QueryResponse object:\n" + Arrays.toString(e.getStackTrace()));
-        }
+        StreamingOutput streamingOutput = outputStream -> {
+            try {
+                jsonObjectWriter.writeValue(outputStream, queryResponse);
+            } catch (ResponseCacheFilter.EntryTooLargeException e) {
+                // the response is too big to be cached, it is serialized again to the container
+                throw e;
+            } catch (IOException e) {
+                // headers are already sent at this point, the client will get a truncated response
+                logger.error("Error serializing QueryResponse object: {}", e.getMessage());
+                throw e;
+            }
+        };
+        return buildResponse(Response.ok(streamingOutput, MediaType.APPLICATION_JSON_TYPE));
     }
 
     private Response buildResponse(ResponseBuilder responseBuilder) {
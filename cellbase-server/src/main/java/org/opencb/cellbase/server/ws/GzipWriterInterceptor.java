@@ -0,0 +1,110 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opencb.cellbase.server.ws;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses the responses when the client accepts it through the 'Accept-Encoding' header. gzip is preferred
+ * over deflate. JSON responses usually shrink between 5 and 10 times.
+ */
+@Provider
+public class GzipWriterInterceptor implements WriterInterceptor {
+
+    @Context
+    private HttpHeaders httpHeaders;
+
+    private static final int BUFFER_SIZE = 1 << 13;
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException, WebApplicationException {
+        MultivaluedMap<String, Object> headers = context.getHeaders();
+        String encoding = headers.containsKey(HttpHeaders.CONTENT_ENCODING)
+                ? null
+                : getEncoding(httpHeaders.getHeaderString(HttpHeaders.ACCEPT_ENCODING));
+        if (encoding == null) {
+            context.proceed();
+            return;
+        }
+
+        headers.putSingle(HttpHeaders.CONTENT_ENCODING, encoding);
+        // ResponseCacheFilter already adds it to cacheable responses
+        if (headers.get(HttpHeaders.VARY) == null || !headers.get(HttpHeaders.VARY).contains(HttpHeaders.ACCEPT_ENCODING)) {
+            headers.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        headers.remove(HttpHeaders.CONTENT_LENGTH);
+
+        // the container output stream must not be closed here, only the compressor is
+        OutputStream outputStream = new FilterOutputStream(context.getOutputStream()) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+        DeflaterOutputStream deflaterOutputStream = encoding.equals("gzip")
+                ? new GZIPOutputStream(outputStream, BUFFER_SIZE)
+                : new DeflaterOutputStream(outputStream);
+        context.setOutputStream(deflaterOutputStream);
+        try {
+            context.proceed();
+        } finally {
+            deflaterOutputStream.close();
+        }
+    }
+
+    /**
+     * @return 'gzip', 'deflate' or null if the client accepts none of them
+     */
+    static String getEncoding(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+            return null;
+        }
+        boolean deflate = false;
+        for (String value : acceptEncoding.split(",")) {
+            String[] fields = value.trim().split(";");
+            String coding = fields[0].trim().toLowerCase();
+            if (fields.length > 1 && fields[1].trim().replace(" ", "").matches("q=0(\\.0*)?")) {
+                continue;
+            }
+            if (coding.equals("gzip") || coding.equals("x-gzip") || coding.equals("*")) {
+                return "gzip";
+            }
+            if (coding.equals("deflate")) {
+                deflate = true;
+            }
+        }
+        return deflate ? "deflate" : null;
+    }
+
+}
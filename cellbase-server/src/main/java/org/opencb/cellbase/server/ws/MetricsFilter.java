@@ -0,0 +1,146 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opencb.cellbase.server.ws;
+
+import org.opencb.cellbase.core.common.metrics.Metrics;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records the latency, serialization time and size of the responses of every resource method, exported in
+ * /admin/metrics. Requests are timed from the first request filter to the last byte written, so the time of
+ * streaming the entity is included. Bytes are counted as sent, after compression, because its priority places
+ * the interceptor outside GzipWriterInterceptor; it also runs before ResponseCacheFilter so cached responses
+ * are measured too.
+ */
+@Provider
+@Priority(Priorities.ENTITY_CODER)
+public class MetricsFilter implements ContainerRequestFilter, ContainerResponseFilter, WriterInterceptor {
+
+    private static final String START_PROPERTY = "cellbase.metrics.start";
+    private static final String RESOURCE_PROPERTY = "cellbase.metrics.resource";
+    private static final String STATUS_PROPERTY = "cellbase.metrics.status";
+
+    private static final String REQUEST_DURATION = "cellbase_http_request_duration_seconds";
+    private static final String REQUEST_DURATION_HELP = "Time from receiving the request to writing the last byte";
+    private static final String SERIALIZATION_DURATION = "cellbase_http_serialization_seconds";
+    private static final String SERIALIZATION_DURATION_HELP = "Time spent serializing and writing the response entity";
+    private static final String RESPONSE_BYTES = "cellbase_http_response_bytes_total";
+    private static final String RESPONSE_BYTES_HELP = "Bytes of the response entities, as sent";
+
+    private static final AtomicInteger inFlight = new AtomicInteger();
+
+    static {
+        Metrics.gauge("cellbase_http_requests_in_flight",
+                "Requests being processed, until the response is ready to be written", inFlight::get);
+    }
+
+    @Context
+    private ResourceInfo resourceInfo;
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) throws IOException {
+        inFlight.incrementAndGet();
+        requestContext.setProperty(START_PROPERTY, System.nanoTime());
+        requestContext.setProperty(RESOURCE_PROPERTY, getResource());
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext)
+            throws IOException {
+        if (requestContext.getProperty(START_PROPERTY) == null) {
+            // not matched to any resource method, request filters have not been called
+            return;
+        }
+        // responses with no body written, as HEAD ones, never get to aroundWriteTo
+        inFlight.decrementAndGet();
+        String status = (responseContext.getStatus() / 100) + "xx";
+        if (responseContext.hasEntity() && !"HEAD".equals(requestContext.getMethod())) {
+            requestContext.setProperty(STATUS_PROPERTY, status);
+        } else {
+            finish((Long) requestContext.getProperty(START_PROPERTY),
+                    (String) requestContext.getProperty(RESOURCE_PROPERTY), status);
+        }
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException, WebApplicationException {
+        Long start = (Long) context.getProperty(START_PROPERTY);
+        if (start == null) {
+            context.proceed();
+            return;
+        }
+
+        String resource = (String) context.getProperty(RESOURCE_PROPERTY);
+        CountingOutputStream outputStream = new CountingOutputStream(context.getOutputStream());
+        context.setOutputStream(outputStream);
+        long serializationStart = System.nanoTime();
+        try {
+            context.proceed();
+        } finally {
+            Metrics.histogram(SERIALIZATION_DURATION, SERIALIZATION_DURATION_HELP, "resource", resource)
+                    .record(System.nanoTime() - serializationStart);
+            Metrics.counter(RESPONSE_BYTES, RESPONSE_BYTES_HELP, "resource", resource).add(outputStream.count);
+            finish(start, resource, (String) context.getProperty(STATUS_PROPERTY));
+        }
+    }
+
+    private void finish(long start, String resource, String status) {
+        Metrics.histogram(REQUEST_DURATION, REQUEST_DURATION_HELP, "resource", resource, "status", status)
+                .record(System.nanoTime() - start);
+    }
+
+    private String getResource() {
+        if (resourceInfo == null || resourceInfo.getResourceClass() == null || resourceInfo.getResourceMethod() == null) {
+            return "unmatched";
+        }
+        return resourceInfo.getResourceClass().getSimpleName() + "." + resourceInfo.getResourceMethod().getName();
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
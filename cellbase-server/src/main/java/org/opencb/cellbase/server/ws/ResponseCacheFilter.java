@@ -0,0 +1,312 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opencb.cellbase.server.ws;
+
+import org.opencb.cellbase.core.CellBaseConfiguration;
+import org.opencb.cellbase.core.common.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.*;
+import javax.ws.rs.ext.Provider;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Databases never change once loaded, so the serialized response of a GET request only depends on its path and
+ * query parameters. Responses up to 'maxEntrySizeKB' are kept in a LRU cache bounded to 'maxSizeMB' and returned
+ * with a weak ETag computed from their uncompressed bytes and 'Cache-Control: immutable', requests with a matching
+ * 'If-None-Match' get a 304 with no body. The ETag is weak because GzipWriterInterceptor may compress the response
+ * afterwards, so the same tag is sent with different encodings, and 'Vary: Accept-Encoding' is always added.
+ * Configured in the 'server.responseCache' section of the configuration.
+ */
+@Provider
+public class ResponseCacheFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+    private static final String CACHE_KEY_PROPERTY = "cellbase.responseCache.key";
+    // Set by resources returning errors with status 200, those responses must not be cached
+    public static final String NOT_CACHEABLE_PROPERTY = "cellbase.responseCache.notCacheable";
+    // Parameters not changing the response, '_' is added by browsers' AJAX calls to skip their cache
+    private static final Set<String> IGNORED_PARAMETERS = new HashSet<>(Arrays.asList("_"));
+    // Admin responses, ie. metrics, change on every request
+    private static final String ADMIN_PATH = "admin";
+    private static final List<String> CACHED_HEADERS = Arrays.asList("Access-Control-Allow-Origin",
+            "Access-Control-Allow-Headers", "content-disposition");
+
+    private static final Map<String, Entry> cache = new LinkedHashMap<>(1024, 0.75f, true);
+    private static long cacheBytes;
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong notModified = new AtomicLong();
+
+    private static Logger logger = LoggerFactory.getLogger(ResponseCacheFilter.class);
+
+    static {
+        Metrics.counter("cellbase_response_cache_hits_total", "Requests served from the response cache", hits::get);
+        Metrics.counter("cellbase_response_cache_misses_total", "Cacheable requests not found in the response cache",
+                misses::get);
+        Metrics.gauge("cellbase_response_cache_bytes", "Bytes of the responses in the cache", () -> {
+            synchronized (cache) {
+                return cacheBytes;
+            }
+        });
+    }
+
+    private final CellBaseConfiguration.ResponseCacheProperties properties;
+    private final String cacheControl;
+
+    public ResponseCacheFilter() {
+        CellBaseConfiguration configuration = GenericRestWSServer.cellBaseConfiguration;
+        properties = (configuration != null && configuration.getServer() != null)
+                ? configuration.getServer().getResponseCache()
+                : null;
+        cacheControl = (properties != null) ? "public, max-age=" + properties.getMaxAge() + ", immutable" : null;
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) throws IOException {
+        if (properties == null || !properties.isActive() || !HttpMethod.GET.equals(requestContext.getMethod())
+                || requestContext.getUriInfo().getPath().startsWith(ADMIN_PATH)) {
+            return;
+        }
+
+        String key = getKey(requestContext.getUriInfo());
+        Entry entry;
+        synchronized (cache) {
+            entry = cache.get(key);
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            requestContext.setProperty(CACHE_KEY_PROPERTY, key);
+            return;
+        }
+
+        hits.incrementAndGet();
+        Response.ResponseBuilder responseBuilder;
+        if (matches(requestContext.getHeaderString(HttpHeaders.IF_NONE_MATCH), entry.etag)) {
+            notModified.incrementAndGet();
+            responseBuilder = Response.notModified(entry.etag);
+        } else {
+            responseBuilder = Response.ok(entry.body, entry.mediaType).tag(entry.etag);
+        }
+        for (Map.Entry<String, String> header : entry.headers.entrySet()) {
+            responseBuilder.header(header.getKey(), header.getValue());
+        }
+        requestContext.abortWith(responseBuilder.header(HttpHeaders.CACHE_CONTROL, cacheControl)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING).build());
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext)
+            throws IOException {
+        String key = (String) requestContext.getProperty(CACHE_KEY_PROPERTY);
+        if (key == null || responseContext.getStatus() != Response.Status.OK.getStatusCode()
+                || !responseContext.hasEntity() || requestContext.getProperty(NOT_CACHEABLE_PROPERTY) != null) {
+            return;
+        }
+
+        byte[] body = serialize(responseContext.getEntity(), properties.getMaxEntrySizeKB() * 1024);
+        if (body == null) {
+            // Not cacheable or too big, the response is streamed as usual
+            return;
+        }
+
+        Entry entry = new Entry(body, getETag(body), responseContext.getMediaType());
+        for (String header : CACHED_HEADERS) {
+            String value = responseContext.getHeaderString(header);
+            if (value != null) {
+                entry.headers.put(header, value);
+            }
+        }
+        put(key, entry);
+
+        responseContext.getHeaders().putSingle(HttpHeaders.ETAG, entry.etag);
+        responseContext.getHeaders().putSingle(HttpHeaders.CACHE_CONTROL, cacheControl);
+        responseContext.getHeaders().putSingle(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (matches(requestContext.getHeaderString(HttpHeaders.IF_NONE_MATCH), entry.etag)) {
+            notModified.incrementAndGet();
+            responseContext.setStatus(Response.Status.NOT_MODIFIED.getStatusCode());
+            responseContext.setEntity(null);
+        } else {
+            responseContext.setEntity(body, responseContext.getEntityAnnotations(), entry.mediaType);
+        }
+    }
+
+    public static Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("notModified", notModified.get());
+        synchronized (cache) {
+            stats.put("entries", cache.size());
+            stats.put("bytes", cacheBytes);
+        }
+        return stats;
+    }
+
+    /**
+     * Path plus the query parameters sorted by name, so parameter order does not matter.
+     */
+    static String getKey(UriInfo uriInfo) {
+        StringBuilder key = new StringBuilder(uriInfo.getPath());
+        MultivaluedMap<String, String> parameters = uriInfo.getQueryParameters();
+        char separator = '?';
+        for (String name : new TreeSet<>(parameters.keySet())) {
+            if (IGNORED_PARAMETERS.contains(name)) {
+                continue;
+            }
+            for (String value : parameters.get(name)) {
+                key.append(separator).append(name).append('=').append(value);
+                separator = '&';
+            }
+        }
+        return key.toString();
+    }
+
+    private void put(String key, Entry entry) {
+        long maxBytes = properties.getMaxSizeMB() * 1024L * 1024L;
+        synchronized (cache) {
+            Entry previous = cache.put(key, entry);
+            cacheBytes += entry.body.length - ((previous != null) ? previous.body.length : 0);
+            Iterator<Entry> iterator = cache.values().iterator();
+            while (cacheBytes > maxBytes && iterator.hasNext()) {
+                Entry eldest = iterator.next();
+                cacheBytes -= eldest.body.length;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the bytes of the entity or null if it is bigger than 'maxBytes' or of an unknown type.
+     */
+    private static byte[] serialize(Object entity, int maxBytes) throws IOException {
+        if (entity instanceof byte[]) {
+            return (((byte[]) entity).length <= maxBytes) ? (byte[]) entity : null;
+        }
+        if (entity instanceof String) {
+            byte[] bytes = ((String) entity).getBytes(StandardCharsets.UTF_8);
+            return (bytes.length <= maxBytes) ? bytes : null;
+        }
+        if (entity instanceof StreamingOutput) {
+            LimitedByteArrayOutputStream outputStream = new LimitedByteArrayOutputStream(maxBytes);
+            try {
+                ((StreamingOutput) entity).write(outputStream);
+            } catch (EntryTooLargeException e) {
+                return null;
+            }
+            return outputStream.toByteArray();
+        }
+        return null;
+    }
+
+    private static EntityTag getETag(byte[] body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(body);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return new EntityTag(hex.toString(), true);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static boolean matches(String ifNoneMatch, EntityTag etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String value : ifNoneMatch.split(",")) {
+            value = value.trim();
+            if (value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+            if (value.equals("*") || value.equals("\"" + etag.getValue() + "\"")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class Entry {
+
+        private final byte[] body;
+        private final EntityTag etag;
+        private final MediaType mediaType;
+        private final Map<String, String> headers = new LinkedHashMap<>();
+
+        Entry(byte[] body, EntityTag etag, MediaType mediaType) {
+            this.body = body;
+            this.etag = etag;
+            this.mediaType = mediaType;
+        }
+    }
+
+    /**
+     * Thrown when a response does not fit in a cache entry, StreamingOutputs must let it through.
+     */
+    static class EntryTooLargeException extends IOException {
+        EntryTooLargeException() {
+            super("Response too large to be cached");
+        }
+    }
+
+    private static class LimitedByteArrayOutputStream extends OutputStream {
+
+        private final ByteArrayOutputStream buffer;
+        private final int maxBytes;
+
+        LimitedByteArrayOutputStream(int maxBytes) {
+            this.buffer = new ByteArrayOutputStream(Math.min(maxBytes, 1 << 14));
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (buffer.size() + 1 > maxBytes) {
+                throw new EntryTooLargeException();
+            }
+            buffer.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (buffer.size() + len > maxBytes) {
+                throw new EntryTooLargeException();
+            }
+            buffer.write(b, off, len);
+        }
+
+        byte[] toByteArray() {
+            return buffer.toByteArray();
+        }
+    }
+
+}